@@ -0,0 +1,52 @@
+package memstore.benchmarks;
+
+import memstore.GraderConstants;
+import memstore.data.DataLoader;
+import memstore.data.RandomizedLoader;
+import memstore.table.AccessPath;
+import memstore.table.IndexedRowTable;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sweeps the selectivity of an indexed range predicate and runs it under every
+ * access path, plus the cost-based choice ("AUTO"). For each threshold the AUTO
+ * timing should stay close to the best forced plan.
+ *
+ * Values are uniform in [0, 1024), so `col2 < threshold2` selects roughly
+ * threshold2 / 1024 of the rows.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+public class AccessPathBench {
+    @Param({"1", "10", "50", "100", "250", "500", "1000"})
+    int threshold2;
+
+    @Param({"AUTO", "INDEX_SCAN", "BITMAP_SCAN", "FULL_SCAN"})
+    String plan;
+
+    DataLoader dl;
+    IndexedRowTable it;
+    int t1;
+
+    @Setup
+    public void prepare() throws IOException {
+        dl = new RandomizedLoader(
+                GraderConstants.getSeed(),
+                1_000_000,
+                4
+        );
+        t1 = 500;
+        it = new IndexedRowTable(2);
+        it.load(dl);
+        it.setForcedAccessPath(plan.equals("AUTO") ? null : AccessPath.valueOf(plan));
+    }
+
+    @Benchmark
+    public long testPredicatedColumnSum() {
+        return it.predicatedColumnSum(t1, threshold2);
+    }
+}
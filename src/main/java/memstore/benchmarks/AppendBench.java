@@ -0,0 +1,91 @@
+package memstore.benchmarks;
+
+import memstore.GraderConstants;
+import memstore.data.RandomizedLoader;
+import memstore.data.RowBatch;
+import memstore.data.RowBatchReader;
+import memstore.table.ColumnTable;
+import memstore.table.CustomTable;
+import memstore.table.IndexedRowTable;
+import memstore.table.RowTable;
+import memstore.table.Table;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures ingestion into a loaded table: each measured operation appends
+ * APPENDS_PER_OP batches of 1024 rows (about 1M rows) to a table that starts
+ * with 100K rows x 20 columns, running the three query benchmarks' queries
+ * after every `queryEvery` appends (never when 0).
+ *
+ * Appends should cost the same whatever the table size; with queries
+ * interleaved, the time is dominated by scans over the growing table.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, batchSize = 1)
+@Measurement(iterations = 5, batchSize = 1)
+@State(Scope.Thread)
+public class AppendBench {
+    static final int INITIAL_ROWS = 100_000;
+    static final int NUM_COLS = 20;
+    static final int BATCH_ROWS = 1024;
+    static final int APPENDS_PER_OP = 1000;
+    /** Distinct batches to cycle through; appending the same rows again is fine. */
+    static final int NUM_BATCHES = 64;
+
+    @Param({"ColumnTable", "RowTable", "IndexedRowTable", "CustomTable"})
+    String table;
+
+    @Param({"0", "50"})
+    int queryEvery;
+
+    List<RowBatch> batches;
+    Table t;
+
+    @Setup(Level.Trial)
+    public void prepareBatches() throws IOException {
+        RandomizedLoader dl = new RandomizedLoader(GraderConstants.getSeed() + 1, NUM_BATCHES * BATCH_ROWS, NUM_COLS);
+        batches = new ArrayList<>();
+        try (RowBatchReader reader = dl.openReader()) {
+            RowBatch batch = new RowBatch(NUM_COLS, BATCH_ROWS);
+            while (reader.next(batch)) {
+                batches.add(batch);
+                batch = new RowBatch(NUM_COLS, BATCH_ROWS);
+            }
+        }
+    }
+
+    /**
+     * Starts every iteration from a freshly loaded table, so they all append the same rows.
+     */
+    @Setup(Level.Iteration)
+    public void prepareTable() throws IOException {
+        switch (table) {
+            case "ColumnTable": t = new ColumnTable(); break;
+            case "RowTable": t = new RowTable(); break;
+            case "IndexedRowTable": t = new IndexedRowTable(1); break;
+            case "CustomTable": t = new CustomTable(); break;
+            default: throw new IllegalArgumentException(table);
+        }
+        t.load(new RandomizedLoader(GraderConstants.getSeed(), INITIAL_ROWS, NUM_COLS));
+    }
+
+    @Benchmark
+    public long testAppend() {
+        long result = 0;
+        for (int i = 0; i < APPENDS_PER_OP; i++) {
+            t.appendRows(batches.get(i % batches.size()));
+            if (queryEvery > 0 && (i + 1) % queryEvery == 0) {
+                result += t.columnSum();
+                result += t.predicatedColumnSum(500, 500);
+                result += t.predicatedAllColumnsSum(500);
+            }
+        }
+        return result + t.getNumRows();
+    }
+}
@@ -0,0 +1,86 @@
+package memstore.benchmarks;
+
+import memstore.GraderConstants;
+import memstore.data.RandomizedLoader;
+import memstore.query.Query;
+import memstore.table.ColumnTable;
+import memstore.table.CustomTable;
+import memstore.table.RowTable;
+import memstore.table.Table;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times a batch of `queries` reads over a 1M x 10 table, run one call at a time
+ * ("sequential") or as one executeBatch ("batch"). testReads is a batch of
+ * predicatedColumnSums and predicatedAllColumnsSums; testReadsAndUpdate puts a
+ * predicatedUpdate in the middle, which splits it into two fused runs.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+public class BatchQueryBench {
+    static final int NUM_ROWS = 1_000_000;
+    static final int NUM_COLS = 10;
+
+    @Param({"ColumnTable", "RowTable", "CustomTable"})
+    String table;
+
+    @Param({"sequential", "batch"})
+    String mode;
+
+    @Param({"8", "32"})
+    int queries;
+
+    Table t;
+    List<Query> reads;
+    List<Query> readsAndUpdate;
+
+    @Setup
+    public void prepare() throws IOException {
+        switch (table) {
+            case "ColumnTable": t = new ColumnTable(); break;
+            case "RowTable": t = new RowTable(); break;
+            case "CustomTable": t = new CustomTable(); break;
+            default: throw new IllegalArgumentException(table);
+        }
+        t.load(new RandomizedLoader(GraderConstants.getSeed(), NUM_ROWS, NUM_COLS));
+        reads = new ArrayList<>();
+        for (int i = 0; i < queries; i++) {
+            reads.add(i % 4 == 3
+                    ? Query.predicatedAllColumnsSum(i * 29 % 1024)
+                    : Query.predicatedColumnSum(i * 31 % 1024, 1023 - i * 17 % 1024));
+        }
+        readsAndUpdate = new ArrayList<>(reads);
+        // Updates nothing, so every invocation sees the same table.
+        readsAndUpdate.add(queries / 2, Query.predicatedUpdate(0));
+    }
+
+    private long run(List<Query> batch) {
+        long sum = 0;
+        if (mode.equals("sequential")) {
+            for (Query query : batch) {
+                sum += t.execute(query);
+            }
+        } else {
+            for (long result : t.executeBatch(batch)) {
+                sum += result;
+            }
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long testReads() {
+        return run(reads);
+    }
+
+    @Benchmark
+    public long testReadsAndUpdate() {
+        return run(readsAndUpdate);
+    }
+}
@@ -0,0 +1,92 @@
+package memstore.benchmarks;
+
+import memstore.GraderConstants;
+import memstore.data.RandomizedLoader;
+import memstore.table.ColumnTable;
+import memstore.table.CustomTable;
+import memstore.table.IndexedRowTable;
+import memstore.table.RowTable;
+import memstore.table.Table;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applies UpdatesBench's 100,000 random updates, between the same queries, either
+ * one putIntField at a time or as batches of 1000 through putIntFields.
+ *
+ * Each iteration starts from a freshly loaded table, so every operation applies
+ * the same writes to the same contents.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, batchSize = 1)
+@Measurement(iterations = 5, batchSize = 1)
+@State(Scope.Thread)
+public class BatchedUpdatesBench {
+    static final int NUM_ROWS = 10_000;
+    static final int NUM_COLS = 100;
+    static final int NUM_UPDATES = 100_000;
+    static final int BATCH_SIZE = 1000;
+
+    @Param({"ColumnTable", "RowTable", "IndexedRowTable", "CustomTable"})
+    String table;
+
+    @Param({"false", "true"})
+    boolean batched;
+
+    int[] rowIds;
+    int[] colIds;
+    int[] values;
+    Table t;
+
+    @Setup(Level.Trial)
+    public void prepareUpdates() {
+        rowIds = new int[NUM_UPDATES];
+        colIds = new int[NUM_UPDATES];
+        values = new int[NUM_UPDATES];
+        Random random = new Random(GraderConstants.getSeed());
+        for (int i = 0; i < NUM_UPDATES; i++) {
+            rowIds[i] = random.nextInt(NUM_ROWS);
+            colIds[i] = random.nextInt(NUM_COLS);
+            values[i] = random.nextInt(1024);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void prepareTable() throws IOException {
+        switch (table) {
+            case "ColumnTable": t = new ColumnTable(); break;
+            case "RowTable": t = new RowTable(); break;
+            case "IndexedRowTable": t = new IndexedRowTable(1); break;
+            case "CustomTable": t = new CustomTable(); break;
+            default: throw new IllegalArgumentException(table);
+        }
+        t.load(new RandomizedLoader(GraderConstants.getSeed(), NUM_ROWS, NUM_COLS));
+    }
+
+    @Benchmark
+    public long testUpdates() {
+        long result = 0L;
+        int[] batchRows = new int[BATCH_SIZE];
+        int[] batchCols = new int[BATCH_SIZE];
+        int[] batchValues = new int[BATCH_SIZE];
+        for (int start = 0; start < NUM_UPDATES; start += BATCH_SIZE) {
+            if (batched) {
+                System.arraycopy(rowIds, start, batchRows, 0, BATCH_SIZE);
+                System.arraycopy(colIds, start, batchCols, 0, BATCH_SIZE);
+                System.arraycopy(values, start, batchValues, 0, BATCH_SIZE);
+                t.putIntFields(batchRows, batchCols, batchValues);
+            } else {
+                for (int i = start; i < start + BATCH_SIZE; i++) {
+                    t.putIntField(rowIds[i], colIds[i], values[i]);
+                }
+            }
+            result += t.predicatedAllColumnsSum(50);
+            result += t.predicatedColumnSum(50, 950);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,139 @@
+package memstore.benchmarks;
+
+import memstore.GraderConstants;
+import memstore.data.CSVLoader;
+import memstore.data.DataLoader;
+import memstore.data.MappedCSVLoader;
+import memstore.data.PipelineStats;
+import memstore.data.PipelinedCSVLoader;
+import memstore.data.RandomizedLoader;
+import memstore.data.RowBatch;
+import memstore.data.RowBatchReader;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures CSV ingest throughput: each benchmark streams a generated CSV file of
+ * about `sizeMB` megabytes through a loader and sums the parsed fields.
+ *
+ * Runs in throughput mode, so the `bytes` secondary result is the ingest rate in
+ * bytes per second (divide by 1e9 for GB/s). Use e.g. `-p sizeMB=4096` for
+ * multi-GB files; the commons-csv baseline is slow enough that it is best run on
+ * the smaller sizes only.
+ *
+ * testPipelinedCSVLoader also reports, per run, the milliseconds its stages
+ * spent working and waiting (see PipelineStats), as secondary results.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+public class CSVIngestBench {
+    private static final int NUM_COLS = 16;
+
+    @Param({"256"})
+    int sizeMB;
+
+    File file;
+    long fileSize;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Counters {
+        public long bytes;
+    }
+
+    /** Stage times of the pipelined loader's runs, summed over all threads of a stage */
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class StageCounters {
+        public long readBusyMs;
+        public long readBlockedMs;
+        public long parseBusyMs;
+        public long parseStarvedMs;
+        public long storeBusyMs;
+        public long storeStarvedMs;
+
+        void add(PipelineStats stats) {
+            PipelineStats.Stage read = stats.getStages().get(0);
+            PipelineStats.Stage parse = stats.getStages().get(1);
+            PipelineStats.Stage store = stats.getStages().get(2);
+            readBusyMs += TimeUnit.NANOSECONDS.toMillis(read.getBusyNanos());
+            readBlockedMs += TimeUnit.NANOSECONDS.toMillis(read.getBlockedNanos());
+            parseBusyMs += TimeUnit.NANOSECONDS.toMillis(parse.getBusyNanos());
+            parseStarvedMs += TimeUnit.NANOSECONDS.toMillis(parse.getStarvedNanos());
+            storeBusyMs += TimeUnit.NANOSECONDS.toMillis(store.getBusyNanos());
+            storeStarvedMs += TimeUnit.NANOSECONDS.toMillis(store.getStarvedNanos());
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void prepare() throws IOException {
+        file = File.createTempFile("ingest", ".csv");
+        file.deleteOnExit();
+        long target = (long) sizeMB << 20;
+        DataLoader dl = new RandomizedLoader(GraderConstants.getSeed(), Integer.MAX_VALUE, NUM_COLS);
+        RowBatch batch = RowBatch.forColumns(NUM_COLS);
+        StringBuilder sb = new StringBuilder();
+        try (Writer out = new BufferedWriter(new FileWriter(file), 1 << 20);
+             RowBatchReader reader = dl.openReader()) {
+            while (file.length() + sb.length() < target && reader.next(batch)) {
+                sb.setLength(0);
+                for (int row = 0; row < batch.getNumRows(); row++) {
+                    for (int col = 0; col < NUM_COLS; col++) {
+                        if (col > 0) sb.append(',');
+                        sb.append(batch.get(row, col));
+                    }
+                    sb.append('\n');
+                }
+                out.write(sb.toString());
+                out.flush();
+            }
+        }
+        fileSize = file.length();
+    }
+
+    @TearDown(Level.Trial)
+    public void cleanup() {
+        file.delete();
+    }
+
+    private long drain(DataLoader dl, Counters counters) throws IOException {
+        RowBatch batch = RowBatch.forColumns(NUM_COLS);
+        long sum = 0;
+        try (RowBatchReader reader = dl.openReader()) {
+            while (reader.next(batch)) {
+                int[] data = batch.getData();
+                int n = batch.getNumRows() * NUM_COLS;
+                for (int i = 0; i < n; i++) {
+                    sum += data[i];
+                }
+            }
+        }
+        counters.bytes += fileSize;
+        return sum;
+    }
+
+    @Benchmark
+    public long testMappedCSVLoader(Counters counters) throws IOException {
+        return drain(new MappedCSVLoader(file.getPath(), NUM_COLS), counters);
+    }
+
+    @Benchmark
+    public long testPipelinedCSVLoader(Counters counters, StageCounters stages) throws IOException {
+        PipelinedCSVLoader pipelined = new PipelinedCSVLoader(file.getPath(), NUM_COLS);
+        long sum = drain(pipelined, counters);
+        stages.add(pipelined.getLastStats());
+        return sum;
+    }
+
+    @Benchmark
+    public long testCSVLoader(Counters counters) throws IOException {
+        return drain(new CSVLoader(file.getPath(), NUM_COLS), counters);
+    }
+}
@@ -0,0 +1,119 @@
+package memstore.benchmarks;
+
+import memstore.GraderConstants;
+import memstore.data.RandomizedLoader;
+import memstore.table.ColumnTable;
+import memstore.table.ConcurrentTable;
+import memstore.table.RowTable;
+import memstore.table.Table;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures read scalability of one shared 1M x 10 table: run with e.g.
+ * `-t 1`, `-t 2`, `-t 4` and compare throughput per thread count.
+ *
+ * "synchronized" serializes every call on one monitor, the way callers shared
+ * tables before ConcurrentTable; "rwlock" goes through ConcurrentTable with
+ * scans holding the read lock, and "mvcc" with scans running on pinned versions.
+ * The readWrite group runs three threads doing predicatedAllColumnsSum against
+ * one doing putIntField: with "mvcc" the writer no longer waits for the scans.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class ConcurrentReadBench {
+    static final int NUM_ROWS = 1_000_000;
+    static final int NUM_COLS = 10;
+
+    @Param({"ColumnTable", "RowTable"})
+    String table;
+
+    @Param({"synchronized", "rwlock", "mvcc"})
+    String lock;
+
+    Table t;
+    boolean serialize;
+
+    @Setup
+    public void prepare() throws IOException {
+        Table base;
+        switch (table) {
+            case "ColumnTable": base = new ColumnTable(); break;
+            case "RowTable": base = new RowTable(); break;
+            default: throw new IllegalArgumentException(table);
+        }
+        base.load(new RandomizedLoader(GraderConstants.getSeed(), NUM_ROWS, NUM_COLS));
+        serialize = lock.equals("synchronized");
+        t = serialize ? base : new ConcurrentTable(base, lock.equals("mvcc"));
+    }
+
+    @Benchmark
+    public long testColumnSum() {
+        if (serialize) {
+            synchronized (this) {
+                return t.columnSum();
+            }
+        }
+        return t.columnSum();
+    }
+
+    @Benchmark
+    public long testPredicatedColumnSum() {
+        if (serialize) {
+            synchronized (this) {
+                return t.predicatedColumnSum(500, 500);
+            }
+        }
+        return t.predicatedColumnSum(500, 500);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(1024)
+    public long testGetIntField() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long sum = 0;
+        for (int i = 0; i < 1024; i++) {
+            int rowId = random.nextInt(NUM_ROWS);
+            if (serialize) {
+                synchronized (this) {
+                    sum += t.getIntField(rowId, 1);
+                }
+            } else {
+                sum += t.getIntField(rowId, 1);
+            }
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(3)
+    public long testScanWithWriter() {
+        if (serialize) {
+            synchronized (this) {
+                return t.predicatedAllColumnsSum(500);
+            }
+        }
+        return t.predicatedAllColumnsSum(500);
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(1)
+    public void testWriter() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int rowId = random.nextInt(NUM_ROWS);
+        int field = random.nextInt(1024);
+        if (serialize) {
+            synchronized (this) {
+                t.putIntField(rowId, 1, field);
+            }
+        } else {
+            t.putIntField(rowId, 1, field);
+        }
+    }
+}
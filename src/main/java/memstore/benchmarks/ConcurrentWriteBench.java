@@ -0,0 +1,111 @@
+package memstore.benchmarks;
+
+import memstore.GraderConstants;
+import memstore.data.RandomizedLoader;
+import memstore.table.ColumnTable;
+import memstore.table.ConcurrentTable;
+import memstore.table.CustomTable;
+import memstore.table.RowTable;
+import memstore.table.Table;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures point write scalability of one shared 1M x 10 table: run with e.g.
+ * `-t 1`, `-t 2`, `-t 4` and compare throughput per thread count.
+ *
+ * "table" makes every putIntField take ConcurrentTable's write lock; "striped"
+ * locks only the written row's stripe. Rows are picked uniformly or from a
+ * Zipfian distribution whose hottest rows are the lowest row ids, so under
+ * "zipfian" most writes land in the first few stripes and contend there.
+ * CustomTable's striped writes also keep their aggregate deltas per thread.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class ConcurrentWriteBench {
+    static final int NUM_ROWS = 1_000_000;
+    static final int NUM_COLS = 10;
+    static final double ZIPF_THETA = 0.99;
+
+    @Param({"ColumnTable", "RowTable", "CustomTable"})
+    String table;
+
+    @Param({"table", "striped"})
+    String lock;
+
+    @Param({"uniform", "zipfian"})
+    String rows;
+
+    Table t;
+    Zipfian zipfian;
+
+    /**
+     * Draws row ids in [0, n) with P(i) proportional to 1 / (i + 1)^theta, using
+     * the closed-form approximation of Gray et al. ("Quickly Generating
+     * Billion-Record Synthetic Databases"), so each draw is O(1).
+     */
+    static final class Zipfian {
+        private final int n;
+        private final double theta;
+        private final double zetaN;
+        private final double alpha;
+        private final double eta;
+
+        Zipfian(int n, double theta) {
+            this.n = n;
+            this.theta = theta;
+            this.zetaN = zeta(n, theta);
+            this.alpha = 1 / (1 - theta);
+            this.eta = (1 - Math.pow(2.0 / n, 1 - theta)) / (1 - zeta(2, theta) / zetaN);
+        }
+
+        private static double zeta(int n, double theta) {
+            double sum = 0;
+            for (int i = 1; i <= n; i++) {
+                sum += 1 / Math.pow(i, theta);
+            }
+            return sum;
+        }
+
+        int next(ThreadLocalRandom random) {
+            double u = random.nextDouble();
+            double uz = u * zetaN;
+            if (uz < 1) {
+                return 0;
+            }
+            if (uz < 1 + Math.pow(0.5, theta)) {
+                return 1;
+            }
+            return Math.min(n - 1, (int) (n * Math.pow(eta * u - eta + 1, alpha)));
+        }
+    }
+
+    @Setup
+    public void prepare() throws IOException {
+        Table base;
+        switch (table) {
+            case "ColumnTable": base = new ColumnTable(); break;
+            case "RowTable": base = new RowTable(); break;
+            case "CustomTable": base = new CustomTable(); break;
+            default: throw new IllegalArgumentException(table);
+        }
+        base.load(new RandomizedLoader(GraderConstants.getSeed(), NUM_ROWS, NUM_COLS));
+        int stripes = lock.equals("striped") ? ConcurrentTable.DEFAULT_WRITE_STRIPES : 0;
+        t = new ConcurrentTable(base, true, stripes);
+        zipfian = rows.equals("zipfian") ? new Zipfian(NUM_ROWS, ZIPF_THETA) : null;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(1024)
+    public void testPutIntField() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < 1024; i++) {
+            int rowId = zipfian == null ? random.nextInt(NUM_ROWS) : zipfian.next(random);
+            t.putIntField(rowId, random.nextInt(NUM_COLS), random.nextInt(1024));
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package memstore.benchmarks;
+
+import memstore.GraderConstants;
+import memstore.data.RandomizedLoader;
+import memstore.query.CompareOp;
+import memstore.query.Predicate;
+import memstore.table.ColumnTable;
+import memstore.table.IndexedRowTable;
+import memstore.table.RowTable;
+import memstore.table.Table;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures scans over a 1M x 10 table with `deletedPercent` of its rows
+ * tombstoned, either left in place (compaction disabled) or compacted away.
+ *
+ * Rows are deleted with deleteWhere on col5, so tombstones are scattered
+ * rather than in runs: the worst case for skipping them a word at a time.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+public class DeleteBench {
+    static final int NUM_ROWS = 1_000_000;
+    static final int NUM_COLS = 10;
+
+    @Param({"ColumnTable", "RowTable", "IndexedRowTable"})
+    String table;
+
+    @Param({"0", "10", "50"})
+    int deletedPercent;
+
+    @Param({"false", "true"})
+    boolean compacted;
+
+    Table t;
+
+    @Setup
+    public void prepare() throws IOException {
+        switch (table) {
+            case "ColumnTable": t = new ColumnTable(); break;
+            case "RowTable": t = new RowTable(); break;
+            case "IndexedRowTable": t = new IndexedRowTable(1); break;
+            default: throw new IllegalArgumentException(table);
+        }
+        t.load(new RandomizedLoader(GraderConstants.getSeed(), NUM_ROWS, NUM_COLS));
+        t.setCompactionThreshold(1.0);
+        // Fields are uniform over [0, 1024).
+        t.deleteWhere(new Predicate(5, CompareOp.LT, 1024 * deletedPercent / 100));
+        if (compacted) {
+            t.compact();
+        }
+    }
+
+    @Benchmark
+    public long testColumnSum() {
+        return t.columnSum();
+    }
+
+    @Benchmark
+    public long testPredicatedAllColumnsSum() {
+        return t.predicatedAllColumnsSum(500);
+    }
+}
@@ -0,0 +1,37 @@
+package memstore.benchmarks;
+
+import memstore.GraderConstants;
+import memstore.data.RandomizedLoader;
+import memstore.table.IndexedRowTable;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures building IndexedRowTable's index alone over the wide bench's data
+ * (1M rows x 20 columns), separately from the data copy that LoadBench includes.
+ *
+ * Keys are the loader's 0-1023 fields, which take the counting-sort path.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+public class IndexBuildBench {
+    @Param({"0", "1"})
+    int indexColumn;
+
+    IndexedRowTable t;
+
+    @Setup
+    public void prepare() throws IOException {
+        t = new IndexedRowTable(indexColumn);
+        t.load(new RandomizedLoader(GraderConstants.getSeed(), 1_000_000, 20));
+    }
+
+    @Benchmark
+    public IndexedRowTable testRebuildIndex() {
+        t.rebuildIndex();
+        return t;
+    }
+}
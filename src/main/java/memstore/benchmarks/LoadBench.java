@@ -0,0 +1,77 @@
+package memstore.benchmarks;
+
+import memstore.GraderConstants;
+import memstore.data.DataLoader;
+import memstore.data.RandomizedLoader;
+import memstore.data.RowBatchReader;
+import memstore.table.ColumnTable;
+import memstore.table.CustomTable;
+import memstore.table.IndexedRowTable;
+import memstore.table.RowTable;
+import memstore.table.Table;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures table load time on the wide bench's data (1M rows x 20 columns).
+ *
+ * "direct" lets the loader push blocks straight into table storage, in parallel;
+ * "reader" hides that path so rows are streamed batch by batch on one thread.
+ * Run with `-prof gc` to compare allocation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+public class LoadBench {
+    @Param({"ColumnTable", "RowTable", "IndexedRowTable", "CustomTable"})
+    String table;
+
+    @Param({"direct", "reader"})
+    String path;
+
+    DataLoader dl;
+
+    @Setup
+    public void prepare() {
+        RandomizedLoader random = new RandomizedLoader(GraderConstants.getSeed(), 1_000_000, 20);
+        if (path.equals("direct")) {
+            dl = random;
+        } else {
+            dl = new DataLoader() {
+                @Override
+                public int getNumCols() {
+                    return random.getNumCols();
+                }
+
+                @Override
+                public int getNumRows() {
+                    return random.getNumRows();
+                }
+
+                @Override
+                public RowBatchReader openReader() {
+                    return random.openReader();
+                }
+            };
+        }
+    }
+
+    private Table newTable() {
+        switch (table) {
+            case "ColumnTable": return new ColumnTable();
+            case "RowTable": return new RowTable();
+            case "IndexedRowTable": return new IndexedRowTable(0);
+            case "CustomTable": return new CustomTable();
+            default: throw new IllegalArgumentException(table);
+        }
+    }
+
+    @Benchmark
+    public Table testLoad() throws IOException {
+        Table t = newTable();
+        t.load(dl);
+        return t;
+    }
+}
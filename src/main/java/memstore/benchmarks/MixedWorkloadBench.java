@@ -0,0 +1,121 @@
+package memstore.benchmarks;
+
+import memstore.GraderConstants;
+import memstore.data.RandomizedLoader;
+import memstore.table.CachingTable;
+import memstore.table.ColumnTable;
+import memstore.table.ConcurrentTable;
+import memstore.table.CustomTable;
+import memstore.table.IndexedRowTable;
+import memstore.table.RowTable;
+import memstore.table.Table;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs scans and writes side by side against one shared 1M x 10 table, for
+ * every table ConcurrentTable can wrap and every way it can lock.
+ *
+ * testMixed runs on `-t N` threads that each pick a scan with probability
+ * readPercent and a write otherwise; one write in UPDATE_EVERY is a
+ * predicatedUpdate, the rest are putIntField. The readWrite group instead gives
+ * each kind of operation threads of its own, two scanners, one point writer
+ * and one predicatedUpdate caller by default; change the split with e.g.
+ * `-tg 4,2,1`; readPercent does not apply to it. Scores are operations per
+ * second per method.
+ *
+ * "rwlock" holds the read lock for whole scans and the write lock for every
+ * write, "mvcc" runs scans on pinned versions, and "striped" also locks point
+ * writes by row stripe; the last two only differ from "rwlock" for tables that
+ * support them.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class MixedWorkloadBench {
+    static final int NUM_ROWS = 1_000_000;
+    static final int NUM_COLS = 10;
+    static final int UPDATE_EVERY = 100;
+    /** Low enough that predicatedUpdate touches about a tenth of the rows */
+    static final int UPDATE_THRESHOLD = 100;
+
+    @Param({"ColumnTable", "RowTable", "IndexedRowTable", "CustomTable", "CachingTable"})
+    String table;
+
+    @Param({"rwlock", "mvcc", "striped"})
+    String lock;
+
+    @Param({"50", "90", "99"})
+    int readPercent;
+
+    Table t;
+
+    @Setup
+    public void prepare() throws IOException {
+        Table base;
+        switch (table) {
+            case "ColumnTable": base = new ColumnTable(); break;
+            case "RowTable": base = new RowTable(); break;
+            case "IndexedRowTable": base = new IndexedRowTable(0); break;
+            case "CustomTable": base = new CustomTable(); break;
+            case "CachingTable": base = new CachingTable(new ColumnTable(), 1024); break;
+            default: throw new IllegalArgumentException(table);
+        }
+        base.load(new RandomizedLoader(GraderConstants.getSeed(), NUM_ROWS, NUM_COLS));
+        switch (lock) {
+            case "rwlock": t = new ConcurrentTable(base, false, 0); break;
+            case "mvcc": t = new ConcurrentTable(base, true, 0); break;
+            case "striped": t = new ConcurrentTable(base, true, ConcurrentTable.DEFAULT_WRITE_STRIPES); break;
+            default: throw new IllegalArgumentException(lock);
+        }
+    }
+
+    private long scan(ThreadLocalRandom random) {
+        switch (random.nextInt(3)) {
+            case 0: return t.columnSum();
+            case 1: return t.predicatedColumnSum(random.nextInt(1024), random.nextInt(1024));
+            default: return t.predicatedAllColumnsSum(random.nextInt(1024));
+        }
+    }
+
+    private void putIntField(ThreadLocalRandom random) {
+        t.putIntField(random.nextInt(NUM_ROWS), random.nextInt(NUM_COLS), random.nextInt(1024));
+    }
+
+    @Benchmark
+    public long testMixed() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (random.nextInt(100) < readPercent) {
+            return scan(random);
+        }
+        if (random.nextInt(UPDATE_EVERY) == 0) {
+            return t.predicatedUpdate(UPDATE_THRESHOLD);
+        }
+        putIntField(random);
+        return 0;
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(2)
+    public long testScanner() {
+        return scan(ThreadLocalRandom.current());
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(1)
+    public void testPointWriter() {
+        putIntField(ThreadLocalRandom.current());
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(1)
+    public int testUpdater() {
+        return t.predicatedUpdate(UPDATE_THRESHOLD);
+    }
+}
@@ -0,0 +1,78 @@
+package memstore.benchmarks;
+
+import memstore.GraderConstants;
+import memstore.data.RandomizedLoader;
+import memstore.table.ColumnTable;
+import memstore.table.PartitionedTable;
+import memstore.table.RowTable;
+import memstore.table.Table;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Runs MixedWorkloadBench's mixed workload against one shared 1M x 10
+ * PartitionedTable, to see how throughput grows with the partition count; run
+ * it with `-t N` client threads. One partition is the unpartitioned baseline:
+ * a single worker serializing every call.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class PartitionedTableBench {
+    static final int NUM_ROWS = 1_000_000;
+    static final int NUM_COLS = 10;
+    static final int UPDATE_EVERY = 100;
+    static final int UPDATE_THRESHOLD = 100;
+
+    @Param({"ColumnTable", "RowTable"})
+    String table;
+
+    @Param({"1", "2", "4", "8"})
+    int partitions;
+
+    @Param({"HASH", "RANGE"})
+    PartitionedTable.Partitioning partitioning;
+
+    @Param({"50", "90", "99"})
+    int readPercent;
+
+    PartitionedTable t;
+
+    @Setup
+    public void prepare() throws IOException {
+        Supplier<Table> factory;
+        switch (table) {
+            case "ColumnTable": factory = ColumnTable::new; break;
+            case "RowTable": factory = RowTable::new; break;
+            default: throw new IllegalArgumentException(table);
+        }
+        t = new PartitionedTable(factory, partitions, partitioning);
+        t.load(new RandomizedLoader(GraderConstants.getSeed(), NUM_ROWS, NUM_COLS));
+    }
+
+    @TearDown
+    public void close() {
+        t.close();
+    }
+
+    @Benchmark
+    public long testMixed() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (random.nextInt(100) < readPercent) {
+            switch (random.nextInt(3)) {
+                case 0: return t.columnSum();
+                case 1: return t.predicatedColumnSum(random.nextInt(1024), random.nextInt(1024));
+                default: return t.predicatedAllColumnsSum(random.nextInt(1024));
+            }
+        }
+        if (random.nextInt(UPDATE_EVERY) == 0) {
+            return t.predicatedUpdate(UPDATE_THRESHOLD);
+        }
+        t.putIntField(random.nextInt(NUM_ROWS), random.nextInt(NUM_COLS), random.nextInt(1024));
+        return 0;
+    }
+}
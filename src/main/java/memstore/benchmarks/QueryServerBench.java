@@ -0,0 +1,94 @@
+package memstore.benchmarks;
+
+import memstore.GraderConstants;
+import memstore.data.RandomizedLoader;
+import memstore.server.QueryClient;
+import memstore.server.QueryServer;
+import memstore.table.ConcurrentTable;
+import memstore.table.CustomTable;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load generator for QueryServer: every benchmark thread is a client with its
+ * own loopback connection to one server over a shared 1M x 10
+ * ConcurrentTable(CustomTable), sending `request` back to back; run it with
+ * `-t N` clients. testThroughput reports requests per second, testLatency the
+ * distribution of round trips (see its p0.99 and p0.999).
+ *
+ * "virtual" serves connections on virtual threads where the JDK has them and
+ * falls back to the pool otherwise; "pool" always uses the pool, whose
+ * DEFAULT_POOL_THREADS threads must outnumber the clients.
+ */
+@State(Scope.Benchmark)
+public class QueryServerBench {
+    static final int NUM_ROWS = 1_000_000;
+    static final int NUM_COLS = 10;
+
+    @Param({"virtual", "pool"})
+    String executor;
+
+    @Param({"getIntField", "putIntField", "columnSum", "predicatedAllColumnsSum"})
+    String request;
+
+    QueryServer server;
+
+    @Setup
+    public void prepare() throws IOException {
+        ConcurrentTable t = new ConcurrentTable(new CustomTable());
+        t.load(new RandomizedLoader(GraderConstants.getSeed(), NUM_ROWS, NUM_COLS));
+        server = new QueryServer(t, 0, QueryServer.DEFAULT_POOL_THREADS, executor.equals("virtual"));
+    }
+
+    @TearDown
+    public void close() throws IOException {
+        server.close();
+    }
+
+    @State(Scope.Thread)
+    public static class Client {
+        QueryClient client;
+
+        @Setup
+        public void connect(QueryServerBench bench) throws IOException {
+            client = new QueryClient(bench.server.getPort());
+        }
+
+        @TearDown
+        public void disconnect() throws IOException {
+            client.close();
+        }
+    }
+
+    private long send(QueryClient client) throws IOException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        switch (request) {
+            case "getIntField":
+                return client.getIntField(random.nextInt(NUM_ROWS), random.nextInt(NUM_COLS));
+            case "putIntField":
+                client.putIntField(random.nextInt(NUM_ROWS), random.nextInt(NUM_COLS), random.nextInt(1024));
+                return 0;
+            case "columnSum":
+                return client.columnSum();
+            default:
+                return client.predicatedAllColumnsSum(random.nextInt(1024));
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public long testThroughput(Client c) throws IOException {
+        return send(c.client);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public long testLatency(Client c) throws IOException {
+        return send(c.client);
+    }
+}
@@ -0,0 +1,64 @@
+package memstore.benchmarks;
+
+import memstore.GraderConstants;
+import memstore.data.RandomizedLoader;
+import memstore.table.ColumnTable;
+import memstore.table.SharedScanner;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times a burst of `queries` predicatedColumnSums over a 1M x 10 ColumnTable,
+ * answered one after another by the table ("independent") or all at once by
+ * one shared scan ("shared").
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+public class SharedScanBench {
+    static final int NUM_ROWS = 1_000_000;
+    static final int NUM_COLS = 10;
+
+    @Param({"1", "8", "32"})
+    int queries;
+
+    @Param({"independent", "shared"})
+    String mode;
+
+    ColumnTable t;
+    SharedScanner scanner;
+
+    @Setup
+    public void prepare() throws IOException {
+        t = new ColumnTable();
+        t.load(new RandomizedLoader(GraderConstants.getSeed(), NUM_ROWS, NUM_COLS));
+        scanner = new SharedScanner(t);
+    }
+
+    @TearDown
+    public void close() {
+        scanner.close();
+    }
+
+    @Benchmark
+    public long testPredicatedColumnSums() {
+        long sum = 0;
+        if (mode.equals("independent")) {
+            for (int i = 0; i < queries; i++) {
+                sum += t.predicatedColumnSum(i * 31 % 1024, 1023 - i * 17 % 1024);
+            }
+            return sum;
+        }
+        CompletableFuture<?>[] results = new CompletableFuture<?>[queries];
+        for (int i = 0; i < queries; i++) {
+            results[i] = scanner.submitPredicatedColumnSum(i * 31 % 1024, 1023 - i * 17 % 1024);
+        }
+        for (CompletableFuture<?> result : results) {
+            sum += (Long) result.join();
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,109 @@
+package memstore.benchmarks;
+
+import memstore.GraderConstants;
+import memstore.data.CSVLoader;
+import memstore.data.DataLoader;
+import memstore.data.RandomizedLoader;
+import memstore.data.RowBatch;
+import memstore.data.RowBatchReader;
+import memstore.table.ColumnTable;
+import memstore.table.CustomTable;
+import memstore.table.IndexedRowTable;
+import memstore.table.RowTable;
+import memstore.table.Table;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the ways of bringing a table up: generating random data, parsing the
+ * same data from CSV, and restoring a binary snapshot of the loaded table.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+public class SnapshotLoadBench {
+    @Param({"RowTable", "ColumnTable", "IndexedRowTable", "CustomTable"})
+    String table;
+
+    @Param({"1000000"})
+    int numRows;
+
+    int numCols;
+    DataLoader randomLoader;
+    File csvFile;
+    File snapshotFile;
+
+    private Table newTable() {
+        switch (table) {
+            case "RowTable": return new RowTable();
+            case "ColumnTable": return new ColumnTable();
+            case "IndexedRowTable": return new IndexedRowTable(1);
+            case "CustomTable": return new CustomTable();
+            default: throw new IllegalArgumentException(table);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void prepare() throws IOException {
+        numCols = 16;
+        randomLoader = new RandomizedLoader(GraderConstants.getSeed(), numRows, numCols);
+
+        csvFile = File.createTempFile("snapshot-bench", ".csv");
+        csvFile.deleteOnExit();
+        RowBatch batch = RowBatch.forColumns(numCols);
+        StringBuilder sb = new StringBuilder();
+        try (Writer out = new BufferedWriter(new FileWriter(csvFile), 1 << 20);
+             RowBatchReader reader = randomLoader.openReader()) {
+            while (reader.next(batch)) {
+                sb.setLength(0);
+                for (int row = 0; row < batch.getNumRows(); row++) {
+                    for (int col = 0; col < numCols; col++) {
+                        if (col > 0) sb.append(',');
+                        sb.append(batch.get(row, col));
+                    }
+                    sb.append('\n');
+                }
+                out.write(sb.toString());
+            }
+        }
+
+        snapshotFile = File.createTempFile("snapshot-bench", ".snap");
+        snapshotFile.deleteOnExit();
+        Table t = newTable();
+        t.load(randomLoader);
+        t.saveSnapshot(snapshotFile.getPath());
+    }
+
+    @TearDown(Level.Trial)
+    public void cleanup() {
+        csvFile.delete();
+        snapshotFile.delete();
+    }
+
+    @Benchmark
+    public Table testRandomizedLoader() throws IOException {
+        Table t = newTable();
+        t.load(randomLoader);
+        return t;
+    }
+
+    @Benchmark
+    public Table testCSVLoader() throws IOException {
+        Table t = newTable();
+        t.load(new CSVLoader(csvFile.getPath(), numCols));
+        return t;
+    }
+
+    @Benchmark
+    public Table testRestoreSnapshot() throws IOException {
+        Table t = newTable();
+        t.restoreSnapshot(snapshotFile.getPath());
+        return t;
+    }
+}
@@ -0,0 +1,77 @@
+package memstore.benchmarks;
+
+import memstore.GraderConstants;
+import memstore.data.RandomizedLoader;
+import memstore.table.BackgroundReconciler;
+import memstore.table.ConcurrentTable;
+import memstore.table.CustomTable;
+import memstore.table.Table;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Samples the latency of single predicatedUpdate calls on a 1M x 10
+ * CustomTable, whose deferred col3 updates are folded into the rows in sweeps;
+ * look at the p0.99, p0.999 and p1.00 percentiles rather than the mean.
+ *
+ * "foreground" calls the table directly, so predicatedUpdate does all the
+ * sweeping; "background" shares it through ConcurrentTable with a
+ * BackgroundReconciler doing most of it.
+ *
+ * `idleMicros` leaves the thread idle for that long before each call, outside
+ * the measurement, as a client between requests would. With no idle time on a
+ * single core, the reconciler only gets the CPU the updates leave it, so it
+ * cannot keep up and predicatedUpdate ends up sweeping anyway.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class UpdateLatencyBench {
+    static final int NUM_ROWS = 1_000_000;
+    static final int NUM_COLS = 10;
+
+    @Param({"foreground", "background"})
+    String reconciler;
+
+    @Param({"0", "50"})
+    long idleMicros;
+
+    Table t;
+    BackgroundReconciler background;
+
+    @Setup
+    public void prepare() throws IOException {
+        CustomTable custom = new CustomTable();
+        custom.load(new RandomizedLoader(GraderConstants.getSeed(), NUM_ROWS, NUM_COLS));
+        if (reconciler.equals("foreground")) {
+            t = custom;
+        } else {
+            ConcurrentTable shared = new ConcurrentTable(custom);
+            background = new BackgroundReconciler(shared);
+            t = shared;
+        }
+    }
+
+    @TearDown
+    public void close() {
+        if (background != null) {
+            background.close();
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void idle() {
+        if (idleMicros > 0) {
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(idleMicros));
+        }
+    }
+
+    @Benchmark
+    public int testPredicatedUpdate() {
+        return t.predicatedUpdate(ThreadLocalRandom.current().nextInt(1024));
+    }
+}
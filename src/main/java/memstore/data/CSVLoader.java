@@ -1,18 +1,20 @@
 package memstore.data;
 
 import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVRecord;
 
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.IOException;
-import java.io.Reader;
-import java.nio.ByteBuffer;
-import java.util.ArrayList;
-import java.util.List;
+import java.io.InputStream;
+import java.util.Iterator;
 
 public class CSVLoader implements DataLoader {
     public String pathToCSV;
     private int numCols;
+    private int numRows = -1;
 
     public CSVLoader(String pathToCSV, int numCols) {
         this.pathToCSV = pathToCSV;
@@ -24,21 +26,56 @@ public class CSVLoader implements DataLoader {
         return numCols;
     }
 
-    public List<ByteBuffer> getRows() throws IOException {
-        Reader in = new FileReader(pathToCSV);
-        Iterable<CSVRecord> records = CSVFormat.DEFAULT.parse(in);
-
-        ArrayList<ByteBuffer> rowBytes = new ArrayList<>();
-        for (CSVRecord record : records) {
-            ByteBuffer curRowBuffer = ByteBuffer.allocate(ByteFormat.FIELD_LEN*numCols);
-            for (int i = 0; i < numCols; i++) {
-                String curField = record.get(i);
-                    int val = Integer.parseInt(curField);
-                    curRowBuffer.putInt(val);
+    /**
+     * Counts the non-empty lines of the file on first call.
+     */
+    @Override
+    public int getNumRows() throws IOException {
+        if (numRows < 0) {
+            int count = 0;
+            boolean lineHasData = false;
+            try (InputStream in = new BufferedInputStream(new FileInputStream(pathToCSV), 1 << 16)) {
+                int b;
+                while ((b = in.read()) != -1) {
+                    if (b == '\n') {
+                        if (lineHasData) count++;
+                        lineHasData = false;
+                    } else if (b != '\r') {
+                        lineHasData = true;
+                    }
+                }
             }
-            curRowBuffer.rewind();
-            rowBytes.add(curRowBuffer);
+            if (lineHasData) count++;
+            numRows = count;
         }
-        return rowBytes;
+        return numRows;
+    }
+
+    @Override
+    public RowBatchReader openReader() throws IOException {
+        CSVParser parser = CSVFormat.DEFAULT.parse(new FileReader(pathToCSV));
+        Iterator<CSVRecord> records = parser.iterator();
+        return new RowBatchReader() {
+            @Override
+            public boolean next(RowBatch batch) {
+                int[] data = batch.getData();
+                int n = 0;
+                while (n < batch.getCapacity() && records.hasNext()) {
+                    CSVRecord record = records.next();
+                    int base = n * numCols;
+                    for (int i = 0; i < numCols; i++) {
+                        data[base + i] = Integer.parseInt(record.get(i));
+                    }
+                    n++;
+                }
+                batch.setNumRows(n);
+                return n > 0;
+            }
+
+            @Override
+            public void close() throws IOException {
+                parser.close();
+            }
+        };
     }
 }
@@ -2,9 +2,69 @@ package memstore.data;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.List;
 
 public interface DataLoader {
     int getNumCols();
-    List<ByteBuffer> getRows() throws IOException;
+
+    /**
+     * Returns the number of rows the loader will produce, so tables can size
+     * their storage before streaming.
+     */
+    int getNumRows() throws IOException;
+
+    /**
+     * Opens a new reader over all rows, starting from the first one.
+     */
+    RowBatchReader openReader() throws IOException;
+
+    /**
+     * Pushes every row into `sink`, possibly from several threads at once.
+     *
+     * The default implementation streams batches from openReader() on the calling
+     * thread; loaders that can produce row ranges independently override it to
+     * fill the sink in parallel.
+     *
+     * @return the number of rows delivered.
+     * @throws IOException if the loader produces more rows than getNumRows().
+     */
+    default int loadInto(LoadSink sink) throws IOException {
+        int numRows = getNumRows();
+        RowBatch batch = RowBatch.forColumns(getNumCols());
+        int firstRow = 0;
+        try (RowBatchReader reader = openReader()) {
+            while (reader.next(batch)) {
+                if (firstRow + batch.getNumRows() > numRows) {
+                    throw new IOException("loader produced more than " + numRows + " rows");
+                }
+                sink.putRows(firstRow, batch.getData(), 0, batch.getNumRows());
+                firstRow += batch.getNumRows();
+            }
+        }
+        return firstRow;
+    }
+
+    /**
+     * Materializes every row as its own ByteBuffer. Kept for callers that want
+     * random access to rows; tables load through openReader() instead.
+     */
+    default List<ByteBuffer> getRows() throws IOException {
+        int numCols = getNumCols();
+        ArrayList<ByteBuffer> rowBytes = new ArrayList<>(getNumRows());
+        RowBatch batch = RowBatch.forColumns(numCols);
+        try (RowBatchReader reader = openReader()) {
+            while (reader.next(batch)) {
+                for (int rowId = 0; rowId < batch.getNumRows(); rowId++) {
+                    ByteBuffer curRowBuffer = ByteBuffer.allocate(ByteFormat.FIELD_LEN*numCols);
+                    for (int colId = 0; colId < numCols; colId++) {
+                        curRowBuffer.putInt(batch.get(rowId, colId));
+                    }
+                    curRowBuffer.rewind();
+                    rowBytes.add(curRowBuffer);
+                }
+            }
+        }
+        return rowBytes;
+    }
 }
@@ -0,0 +1,17 @@
+package memstore.data;
+
+/**
+ * Destination of a direct load: a table exposes its final storage as a sink and
+ * the loader pushes rows straight into it, with no per-row objects and no
+ * intermediate copy of the table.
+ *
+ * Loaders may call putRows concurrently from several threads, always for
+ * disjoint row ranges, so sinks must only touch storage belonging to those rows.
+ */
+public interface LoadSink {
+    /**
+     * Stores `numRows` rows, given row-major in data[offset, offset + numRows * numCols),
+     * as rows [firstRow, firstRow + numRows) of the table.
+     */
+    void putRows(int firstRow, int[] data, int offset, int numRows);
+}
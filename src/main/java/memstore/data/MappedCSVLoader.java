@@ -0,0 +1,350 @@
+package memstore.data;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * High-throughput loader for integer CSV files.
+ *
+ * The file is split at newline boundaries into chunks of about `chunkBytes`, each
+ * chunk is memory-mapped on its own (so files larger than 2GB work), and chunks are
+ * parsed in parallel straight from the mapped bytes into int arrays, without
+ * creating a String or other object per field. Readers hand rows out in file order;
+ * at most a small window of chunks is parsed ahead of the consumer.
+ *
+ * Accepts the subset of CSV produced by our tools: optionally signed decimal
+ * integers separated by commas, optionally double-quoted, with \n or \r\n line
+ * endings. Empty lines are skipped and fields beyond `numCols` are ignored,
+ * matching CSVLoader.
+ */
+public class MappedCSVLoader implements DataLoader {
+    public static final int DEFAULT_CHUNK_BYTES = 8 << 20;
+
+    private final String pathToCSV;
+    private final int numCols;
+    private final ForkJoinPool pool;
+    private final int chunkBytes;
+
+    /** Chunk boundaries: chunk i covers bytes [chunkStart[i], chunkStart[i + 1]). */
+    private long[] chunkStart;
+    /** First row of each chunk, plus the total row count at the end. */
+    private int[] chunkFirstRow;
+
+    public MappedCSVLoader(String pathToCSV, int numCols) {
+        this(pathToCSV, numCols, ForkJoinPool.commonPool(), DEFAULT_CHUNK_BYTES);
+    }
+
+    /**
+     * @param pool       Pool that counts and parses chunks.
+     * @param chunkBytes Approximate chunk size; chunks are extended to the next newline.
+     */
+    public MappedCSVLoader(String pathToCSV, int numCols, ForkJoinPool pool, int chunkBytes) {
+        if (chunkBytes <= 0) {
+            throw new IllegalArgumentException("chunkBytes must be positive");
+        }
+        this.pathToCSV = pathToCSV;
+        this.numCols = numCols;
+        this.pool = pool;
+        this.chunkBytes = chunkBytes;
+    }
+
+    @Override
+    public int getNumCols() {
+        return numCols;
+    }
+
+    /**
+     * Splits the file into chunks and counts their rows in parallel on first call.
+     */
+    @Override
+    public int getNumRows() throws IOException {
+        ensureChunks();
+        return chunkFirstRow[chunkFirstRow.length - 1];
+    }
+
+    /**
+     * Returns the size of the file in bytes.
+     */
+    public long getFileSize() throws IOException {
+        ensureChunks();
+        return chunkStart[chunkStart.length - 1];
+    }
+
+    private void ensureChunks() throws IOException {
+        if (chunkStart != null) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(Paths.get(pathToCSV), StandardOpenOption.READ)) {
+            long size = channel.size();
+            List<Long> starts = new ArrayList<>();
+            starts.add(0L);
+            long pos = 0;
+            while (pos < size) {
+                long next = nextLineStart(channel, Math.min(size, pos + chunkBytes), size);
+                starts.add(next);
+                pos = next;
+            }
+            long[] bounds = new long[starts.size()];
+            for (int i = 0; i < bounds.length; i++) {
+                bounds[i] = starts.get(i);
+            }
+            int numChunks = bounds.length - 1;
+
+            List<CompletableFuture<Integer>> counts = new ArrayList<>();
+            for (int i = 0; i < numChunks; i++) {
+                long start = bounds[i];
+                long end = bounds[i + 1];
+                counts.add(CompletableFuture.supplyAsync(() -> countRows(map(channel, start, end)), pool));
+            }
+            int[] firstRow = new int[numChunks + 1];
+            for (int i = 0; i < numChunks; i++) {
+                long total = (long) firstRow[i] + join(counts.get(i));
+                if (total > Integer.MAX_VALUE) {
+                    throw new IOException(pathToCSV + " has too many rows");
+                }
+                firstRow[i + 1] = (int) total;
+            }
+            this.chunkStart = bounds;
+            this.chunkFirstRow = firstRow;
+        }
+    }
+
+    /**
+     * Returns the offset just past the first newline at or after `pos`, or `size`.
+     */
+    private static long nextLineStart(FileChannel channel, long pos, long size) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(1 << 16);
+        while (pos < size) {
+            buf.clear();
+            int n = channel.read(buf, pos);
+            if (n <= 0) {
+                break;
+            }
+            for (int i = 0; i < n; i++) {
+                if (buf.get(i) == '\n') {
+                    return pos + i + 1;
+                }
+            }
+            pos += n;
+        }
+        return size;
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, long start, long end) {
+        try {
+            return channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Counts non-empty lines, using the same rule as CSVLoader.getNumRows.
+     */
+    static int countRows(ByteBuffer chunk) {
+        int count = 0;
+        boolean lineHasData = false;
+        int limit = chunk.limit();
+        for (int i = 0; i < limit; i++) {
+            byte b = chunk.get(i);
+            if (b == '\n') {
+                if (lineHasData) count++;
+                lineHasData = false;
+            } else if (b != '\r') {
+                lineHasData = true;
+            }
+        }
+        if (lineHasData) count++;
+        return count;
+    }
+
+    /**
+     * Parses `numRows` rows of `numCols` ints from `chunk`, starting at byte `pos`,
+     * into `out`, row-major, starting at out[offset].
+     *
+     * @return the byte position just past the last row parsed.
+     */
+    static int parseRows(ByteBuffer chunk, int pos, int numRows, int numCols, int[] out, int offset) throws IOException {
+        int limit = chunk.limit();
+        for (int row = 0; row < numRows; row++) {
+            // Skip empty lines.
+            while (pos < limit && (chunk.get(pos) == '\n' || chunk.get(pos) == '\r')) {
+                pos++;
+            }
+            for (int col = 0; col < numCols; col++) {
+                boolean quoted = pos < limit && chunk.get(pos) == '"';
+                if (quoted) pos++;
+                boolean negative = pos < limit && chunk.get(pos) == '-';
+                if (negative) pos++;
+                int start = pos;
+                long value = 0;
+                while (pos < limit) {
+                    int digit = chunk.get(pos) - '0';
+                    if (digit < 0 || digit > 9) break;
+                    value = value * 10 + digit;
+                    if (value > (long) Integer.MAX_VALUE + 1) {
+                        throw new IOException("integer overflow in row " + row + " of chunk");
+                    }
+                    pos++;
+                }
+                if (pos == start) {
+                    throw new IOException("expected an integer in row " + row + ", column " + col);
+                }
+                if (quoted) {
+                    if (pos >= limit || chunk.get(pos) != '"') {
+                        throw new IOException("unterminated quote in row " + row + ", column " + col);
+                    }
+                    pos++;
+                }
+                long signed = negative ? -value : value;
+                if (signed > Integer.MAX_VALUE) {
+                    throw new IOException("integer overflow in row " + row + ", column " + col);
+                }
+                out[offset++] = (int) signed;
+                if (col < numCols - 1) {
+                    if (pos >= limit || chunk.get(pos) != ',') {
+                        throw new IOException("expected " + numCols + " fields in row " + row);
+                    }
+                    pos++;
+                }
+            }
+            // Ignore any extra fields up to the end of the line.
+            while (pos < limit && chunk.get(pos) != '\n') {
+                pos++;
+            }
+        }
+        return pos;
+    }
+
+    private static <T> T join(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while loading", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() instanceof CompletionException ? e.getCause().getCause() : e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Parses all chunks in parallel, each in cache-sized blocks of rows that are
+     * handed straight to `sink` at the chunk's row offset.
+     */
+    @Override
+    public int loadInto(LoadSink sink) throws IOException {
+        ensureChunks();
+        int numChunks = chunkStart.length - 1;
+        int blockRows = Math.max(1, RowBatch.TARGET_FIELDS / Math.max(1, numCols));
+        ThreadLocal<int[]> blocks = ThreadLocal.withInitial(() -> new int[blockRows * numCols]);
+        try (FileChannel channel = FileChannel.open(Paths.get(pathToCSV), StandardOpenOption.READ)) {
+            List<CompletableFuture<Void>> tasks = new ArrayList<>();
+            for (int i = 0; i < numChunks; i++) {
+                long start = chunkStart[i];
+                long end = chunkStart[i + 1];
+                int firstRow = chunkFirstRow[i];
+                int lastRow = chunkFirstRow[i + 1];
+                tasks.add(CompletableFuture.runAsync(() -> {
+                    ByteBuffer chunk = map(channel, start, end);
+                    int[] block = blocks.get();
+                    int pos = 0;
+                    try {
+                        for (int row = firstRow; row < lastRow; row += blockRows) {
+                            int n = Math.min(blockRows, lastRow - row);
+                            pos = parseRows(chunk, pos, n, numCols, block, 0);
+                            sink.putRows(row, block, 0, n);
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }, pool));
+            }
+            for (CompletableFuture<Void> task : tasks) {
+                join(task);
+            }
+        }
+        return chunkFirstRow[numChunks];
+    }
+
+    @Override
+    public RowBatchReader openReader() throws IOException {
+        ensureChunks();
+        FileChannel channel = FileChannel.open(Paths.get(pathToCSV), StandardOpenOption.READ);
+        int window = Math.max(2, 2 * pool.getParallelism());
+        int numChunks = chunkStart.length - 1;
+        return new RowBatchReader() {
+            final ArrayDeque<CompletableFuture<int[]>> inFlight = new ArrayDeque<>();
+            int nextToSubmit = 0;
+            int[] current;
+            int currentRows;
+            int currentRow;
+
+            private void submit() {
+                while (nextToSubmit < numChunks && inFlight.size() < window) {
+                    int chunk = nextToSubmit++;
+                    long start = chunkStart[chunk];
+                    long end = chunkStart[chunk + 1];
+                    int rows = chunkFirstRow[chunk + 1] - chunkFirstRow[chunk];
+                    inFlight.add(CompletableFuture.supplyAsync(() -> {
+                        int[] out = new int[rows * numCols];
+                        try {
+                            parseRows(map(channel, start, end), 0, rows, numCols, out, 0);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                        return out;
+                    }, pool));
+                }
+            }
+
+            @Override
+            public boolean next(RowBatch batch) throws IOException {
+                int n = 0;
+                int[] data = batch.getData();
+                while (n < batch.getCapacity()) {
+                    if (current == null || currentRow == currentRows) {
+                        submit();
+                        CompletableFuture<int[]> next = inFlight.poll();
+                        if (next == null) {
+                            break;
+                        }
+                        current = join(next);
+                        currentRows = current.length / Math.max(1, numCols);
+                        currentRow = 0;
+                        continue;
+                    }
+                    int take = Math.min(batch.getCapacity() - n, currentRows - currentRow);
+                    System.arraycopy(current, currentRow * numCols, data, n * numCols, take * numCols);
+                    n += take;
+                    currentRow += take;
+                }
+                batch.setNumRows(n);
+                return n > 0;
+            }
+
+            @Override
+            public void close() throws IOException {
+                for (CompletableFuture<int[]> f : inFlight) {
+                    f.cancel(false);
+                }
+                channel.close();
+            }
+        };
+    }
+}
@@ -0,0 +1,173 @@
+package memstore.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-stage timings and queue depths of one run of a load pipeline.
+ *
+ * Each stage splits its threads' time into busy (doing its own work), starved
+ * (waiting for input) and blocked (waiting for room downstream). The stage with
+ * the highest utilization, busy time over its threads' share of the wall clock,
+ * is the bottleneck: the stages in front of it block, the ones behind it starve.
+ *
+ * Queues are sampled by their producers on every put, so mean depth near the
+ * capacity means the consumer is the slower side.
+ */
+public class PipelineStats {
+    public static final class Stage {
+        private final String name;
+        private final int threads;
+        final LongAdder busyNanos = new LongAdder();
+        final LongAdder starvedNanos = new LongAdder();
+        final LongAdder blockedNanos = new LongAdder();
+        final LongAdder items = new LongAdder();
+
+        Stage(String name, int threads) {
+            this.name = name;
+            this.threads = threads;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getThreads() {
+            return threads;
+        }
+
+        public long getBusyNanos() {
+            return busyNanos.sum();
+        }
+
+        public long getStarvedNanos() {
+            return starvedNanos.sum();
+        }
+
+        public long getBlockedNanos() {
+            return blockedNanos.sum();
+        }
+
+        /**
+         * Returns the number of blocks the stage handled.
+         */
+        public long getItems() {
+            return items.sum();
+        }
+    }
+
+    public static final class Queue {
+        private final String name;
+        private final int capacity;
+        final LongAdder samples = new LongAdder();
+        final LongAdder depthSum = new LongAdder();
+        final LongAccumulator maxDepth = new LongAccumulator(Math::max, 0);
+
+        Queue(String name, int capacity) {
+            this.name = name;
+            this.capacity = capacity;
+        }
+
+        void sample(int depth) {
+            samples.increment();
+            depthSum.add(depth);
+            maxDepth.accumulate(depth);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getCapacity() {
+            return capacity;
+        }
+
+        public double getMeanDepth() {
+            long n = samples.sum();
+            return n == 0 ? 0 : (double) depthSum.sum() / n;
+        }
+
+        public long getMaxDepth() {
+            return maxDepth.get();
+        }
+    }
+
+    private final List<Stage> stages = new ArrayList<>();
+    private final List<Queue> queues = new ArrayList<>();
+    private final long startNanos = System.nanoTime();
+    private volatile long wallNanos = -1;
+
+    Stage addStage(String name, int threads) {
+        Stage stage = new Stage(name, threads);
+        stages.add(stage);
+        return stage;
+    }
+
+    Queue addQueue(String name, int capacity) {
+        Queue queue = new Queue(name, capacity);
+        queues.add(queue);
+        return queue;
+    }
+
+    void finish() {
+        wallNanos = System.nanoTime() - startNanos;
+    }
+
+    public List<Stage> getStages() {
+        return Collections.unmodifiableList(stages);
+    }
+
+    public List<Queue> getQueues() {
+        return Collections.unmodifiableList(queues);
+    }
+
+    /**
+     * Returns the time from the start of the run to its end, or to now if it is
+     * still running.
+     */
+    public long getWallNanos() {
+        long wall = wallNanos;
+        return wall >= 0 ? wall : System.nanoTime() - startNanos;
+    }
+
+    /**
+     * Returns the fraction of its threads' time `stage` spent busy.
+     */
+    public double getUtilization(Stage stage) {
+        long wall = getWallNanos();
+        return wall == 0 ? 0 : (double) stage.getBusyNanos() / ((double) wall * stage.getThreads());
+    }
+
+    /**
+     * Returns the stage with the highest utilization.
+     */
+    public Stage getBottleneck() {
+        Stage bottleneck = null;
+        for (Stage stage : stages) {
+            if (bottleneck == null || getUtilization(stage) > getUtilization(bottleneck)) {
+                bottleneck = stage;
+            }
+        }
+        return bottleneck;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("wall %.1f ms%n", getWallNanos() / 1e6));
+        for (Stage stage : stages) {
+            sb.append(String.format("%-6s x%d: %5.1f%% busy, starved %.1f ms, blocked %.1f ms, %d blocks%n",
+                    stage.getName(), stage.getThreads(), 100 * getUtilization(stage),
+                    stage.getStarvedNanos() / 1e6, stage.getBlockedNanos() / 1e6, stage.getItems()));
+        }
+        for (Queue queue : queues) {
+            sb.append(String.format("%-6s queue: mean depth %.1f, max %d of %d%n",
+                    queue.getName(), queue.getMeanDepth(), queue.getMaxDepth(), queue.getCapacity()));
+        }
+        sb.append("bottleneck: ").append(getBottleneck() == null ? "none" : getBottleneck().getName());
+        return sb.toString();
+    }
+}
@@ -0,0 +1,442 @@
+package memstore.data;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Loader for integer CSV files that overlaps disk reads, parsing and stores.
+ *
+ * Each load runs a bounded pipeline:
+ * <pre>
+ *   read (1 thread) -> raw queue -> parse (N threads) -> parsed queue -> store (caller)
+ * </pre>
+ * The read stage reads the file sequentially in blocks of about `blockBytes`, cut
+ * at the last newline; parse threads turn whole blocks into row-major int arrays;
+ * the store stage puts blocks back in file order and hands them to the sink (or to
+ * the RowBatchReader's caller). Both queues are bounded, so a slow stage stalls
+ * the ones in front of it rather than letting blocks pile up. The read stage
+ * also takes a permit per block, which the store stage returns once the block
+ * leaves the pipeline in order, so that blocks parsed ahead of a slow one wait
+ * within a bounded window: at most 2 * queueDepth + N + 2 blocks are in memory
+ * at once, however unevenly the parsers run. Blocks are recycled.
+ *
+ * Unlike MappedCSVLoader, which maps the whole file and parses chunks at random,
+ * the file is only ever read front to back, which suits cold files on disks with
+ * readahead. getNumRows() still needs its own sequential pass over the file.
+ *
+ * Every run records a PipelineStats, see getLastStats(). Accepts the same CSV
+ * subset as MappedCSVLoader.
+ */
+public class PipelinedCSVLoader implements DataLoader {
+    public static final int DEFAULT_BLOCK_BYTES = 4 << 20;
+    public static final int DEFAULT_QUEUE_DEPTH = 4;
+
+    private final String pathToCSV;
+    private final int numCols;
+    private final int numParsers;
+    private final int blockBytes;
+    private final int queueDepth;
+    private int numRows = -1;
+    private volatile PipelineStats lastStats;
+
+    public PipelinedCSVLoader(String pathToCSV, int numCols) {
+        this(pathToCSV, numCols, Math.max(1, Runtime.getRuntime().availableProcessors() - 1),
+                DEFAULT_BLOCK_BYTES, DEFAULT_QUEUE_DEPTH);
+    }
+
+    /**
+     * @param numParsers Number of parse threads.
+     * @param blockBytes Read size; a block holds whole lines, so it may grow to fit a line.
+     * @param queueDepth Capacity of each queue, in blocks.
+     */
+    public PipelinedCSVLoader(String pathToCSV, int numCols, int numParsers, int blockBytes, int queueDepth) {
+        if (numParsers <= 0 || blockBytes <= 0 || queueDepth <= 0) {
+            throw new IllegalArgumentException("numParsers, blockBytes and queueDepth must be positive");
+        }
+        this.pathToCSV = pathToCSV;
+        this.numCols = numCols;
+        this.numParsers = numParsers;
+        this.blockBytes = blockBytes;
+        this.queueDepth = queueDepth;
+    }
+
+    @Override
+    public int getNumCols() {
+        return numCols;
+    }
+
+    /**
+     * Counts the non-empty lines of the file on first call.
+     */
+    @Override
+    public int getNumRows() throws IOException {
+        if (numRows < 0) {
+            long count = 0;
+            boolean lineHasData = false;
+            ByteBuffer buf = ByteBuffer.allocate(blockBytes);
+            try (FileChannel channel = FileChannel.open(Paths.get(pathToCSV), StandardOpenOption.READ)) {
+                while (channel.read(buf) >= 0) {
+                    byte[] bytes = buf.array();
+                    for (int i = 0, n = buf.position(); i < n; i++) {
+                        byte b = bytes[i];
+                        if (b == '\n') {
+                            if (lineHasData) count++;
+                            lineHasData = false;
+                        } else if (b != '\r') {
+                            lineHasData = true;
+                        }
+                    }
+                    buf.clear();
+                }
+            }
+            if (lineHasData) count++;
+            if (count > Integer.MAX_VALUE) {
+                throw new IOException(pathToCSV + " has too many rows");
+            }
+            numRows = (int) count;
+        }
+        return numRows;
+    }
+
+    /**
+     * Returns the stats of the most recent load or reader, or null if there was none.
+     * A reader's stats keep updating until it is closed.
+     */
+    public PipelineStats getLastStats() {
+        return lastStats;
+    }
+
+    /**
+     * Runs the pipeline with the sink as its store stage.
+     */
+    @Override
+    public int loadInto(LoadSink sink) throws IOException {
+        int expected = getNumRows();
+        int firstRow = 0;
+        try (Pipeline pipeline = new Pipeline()) {
+            Parsed block;
+            while ((block = pipeline.take()) != null) {
+                if (firstRow + block.numRows > expected) {
+                    throw new IOException("loader produced more than " + expected + " rows");
+                }
+                long start = System.nanoTime();
+                sink.putRows(firstRow, block.data, 0, block.numRows);
+                pipeline.store.busyNanos.add(System.nanoTime() - start);
+                firstRow += block.numRows;
+                pipeline.recycle(block);
+            }
+        }
+        return firstRow;
+    }
+
+    @Override
+    public RowBatchReader openReader() throws IOException {
+        Pipeline pipeline = new Pipeline();
+        return new RowBatchReader() {
+            Parsed current;
+            int currentRow;
+
+            @Override
+            public boolean next(RowBatch batch) throws IOException {
+                int n = 0;
+                int[] data = batch.getData();
+                while (n < batch.getCapacity()) {
+                    if (current == null || currentRow == current.numRows) {
+                        if (current != null) {
+                            pipeline.recycle(current);
+                        }
+                        current = pipeline.take();
+                        currentRow = 0;
+                        if (current == null) {
+                            break;
+                        }
+                        continue;
+                    }
+                    long start = System.nanoTime();
+                    int take = Math.min(batch.getCapacity() - n, current.numRows - currentRow);
+                    System.arraycopy(current.data, currentRow * numCols, data, n * numCols, take * numCols);
+                    n += take;
+                    currentRow += take;
+                    pipeline.store.busyNanos.add(System.nanoTime() - start);
+                }
+                batch.setNumRows(n);
+                return n > 0;
+            }
+
+            @Override
+            public void close() {
+                pipeline.close();
+            }
+        };
+    }
+
+    /** A block of whole lines, in file order `seq`. */
+    private static final class Raw {
+        long seq;
+        byte[] bytes;
+        int length;
+    }
+
+    /** The rows of one block; the last one carries the end of the file or a failure. */
+    private static final class Parsed {
+        long seq;
+        int[] data;
+        int numRows;
+        boolean end;
+        Throwable failure;
+    }
+
+    /**
+     * The threads and queues of one run. take() is called by the store stage
+     * only, on the thread that created the pipeline.
+     */
+    private final class Pipeline implements AutoCloseable {
+        final PipelineStats stats = new PipelineStats();
+        final PipelineStats.Stage read = stats.addStage("read", 1);
+        final PipelineStats.Stage parse = stats.addStage("parse", numParsers);
+        final PipelineStats.Stage store = stats.addStage("store", 1);
+        final PipelineStats.Queue rawDepth = stats.addQueue("raw", queueDepth);
+        final PipelineStats.Queue parsedDepth = stats.addQueue("parsed", queueDepth);
+
+        final ArrayBlockingQueue<Raw> raw = new ArrayBlockingQueue<>(queueDepth);
+        final ArrayBlockingQueue<Parsed> parsed = new ArrayBlockingQueue<>(queueDepth);
+        /** Recycled buffers; never waited on, so a stage runs short only of memory, not of blocks. */
+        final ArrayBlockingQueue<byte[]> freeBytes = new ArrayBlockingQueue<>(2 * queueDepth + numParsers + 2);
+        final ArrayBlockingQueue<int[]> freeInts = new ArrayBlockingQueue<>(2 * queueDepth + numParsers + 2);
+        /**
+         * One per block between the read stage and take(); with the block the
+         * store stage holds, that makes 2 * queueDepth + numParsers + 2. Taken in
+         * file order, so the block take() waits for always has one.
+         */
+        final Semaphore inFlight = new Semaphore(2 * queueDepth + numParsers + 1);
+        /** Blocks parsed ahead of the next one in file order; bounded by inFlight. */
+        final Map<Long, Parsed> pending = new HashMap<>();
+        final List<Thread> threads = new ArrayList<>();
+        long nextSeq;
+        int parsersDone;
+        boolean done;
+
+        Pipeline() {
+            lastStats = stats;
+            threads.add(new Thread(this::readStage, "csv-pipeline-read"));
+            for (int i = 0; i < numParsers; i++) {
+                threads.add(new Thread(this::parseStage, "csv-pipeline-parse-" + i));
+            }
+            for (Thread thread : threads) {
+                thread.setDaemon(true);
+                thread.start();
+            }
+        }
+
+        private void readStage() {
+            long seq = 0;
+            try (FileChannel channel = FileChannel.open(Paths.get(pathToCSV), StandardOpenOption.READ)) {
+                byte[] carry = new byte[0];
+                int carryLength = 0;
+                boolean eof = false;
+                boolean permit = false;
+                while (!eof) {
+                    if (!permit) {
+                        long waitStart = System.nanoTime();
+                        inFlight.acquire();
+                        read.blockedNanos.add(System.nanoTime() - waitStart);
+                        permit = true;
+                    }
+                    long start = System.nanoTime();
+                    byte[] bytes = freeBytes.poll();
+                    if (bytes == null || bytes.length < Math.max(blockBytes, 2 * carryLength)) {
+                        bytes = new byte[Math.max(blockBytes, 2 * carryLength)];
+                    }
+                    System.arraycopy(carry, 0, bytes, 0, carryLength);
+                    ByteBuffer buf = ByteBuffer.wrap(bytes, carryLength, bytes.length - carryLength);
+                    while (buf.hasRemaining()) {
+                        if (channel.read(buf) < 0) {
+                            eof = true;
+                            break;
+                        }
+                    }
+                    int length = buf.position();
+                    int cut = length;
+                    if (!eof) {
+                        while (cut > 0 && bytes[cut - 1] != '\n') {
+                            cut--;
+                        }
+                    }
+                    if (cut == 0 && !eof) {
+                        // A line longer than the block; read on into a bigger one.
+                        carry = bytes;
+                        carryLength = length;
+                        read.busyNanos.add(System.nanoTime() - start);
+                        continue;
+                    }
+                    if (carry.length < length - cut) {
+                        carry = new byte[Math.max(blockBytes, length - cut)];
+                    }
+                    carryLength = length - cut;
+                    System.arraycopy(bytes, cut, carry, 0, carryLength);
+                    read.busyNanos.add(System.nanoTime() - start);
+
+                    if (cut > 0) {
+                        Raw block = new Raw();
+                        block.seq = seq++;
+                        block.bytes = bytes;
+                        block.length = cut;
+                        put(raw, block, rawDepth, read);
+                        read.items.increment();
+                        permit = false;
+                    }
+                }
+                for (int i = 0; i < numParsers; i++) {
+                    put(raw, new Raw(), rawDepth, read);
+                }
+            } catch (InterruptedException e) {
+                // Closed early.
+            } catch (Throwable e) {
+                fail(e);
+            }
+        }
+
+        private void parseStage() {
+            try {
+                while (true) {
+                    long start = System.nanoTime();
+                    Raw block = raw.take();
+                    parse.starvedNanos.add(System.nanoTime() - start);
+                    if (block.bytes == null) {
+                        Parsed end = new Parsed();
+                        end.end = true;
+                        put(parsed, end, parsedDepth, parse);
+                        return;
+                    }
+
+                    start = System.nanoTime();
+                    ByteBuffer chunk = ByteBuffer.wrap(block.bytes, 0, block.length);
+                    Parsed rows = new Parsed();
+                    rows.seq = block.seq;
+                    rows.numRows = MappedCSVLoader.countRows(chunk);
+                    int[] data = freeInts.poll();
+                    if (data == null || data.length < rows.numRows * numCols) {
+                        data = new int[rows.numRows * numCols];
+                    }
+                    MappedCSVLoader.parseRows(chunk, 0, rows.numRows, numCols, data, 0);
+                    rows.data = data;
+                    freeBytes.offer(block.bytes);
+                    parse.busyNanos.add(System.nanoTime() - start);
+
+                    put(parsed, rows, parsedDepth, parse);
+                    parse.items.increment();
+                }
+            } catch (InterruptedException e) {
+                // Closed early.
+            } catch (Throwable e) {
+                fail(e);
+            }
+        }
+
+        private <T> void put(ArrayBlockingQueue<T> queue, T item, PipelineStats.Queue depth,
+                             PipelineStats.Stage stage) throws InterruptedException {
+            depth.sample(queue.size());
+            long start = System.nanoTime();
+            queue.put(item);
+            stage.blockedNanos.add(System.nanoTime() - start);
+        }
+
+        /**
+         * Hands a failure to the store stage, which is always draining `parsed`
+         * until it has seen the failure, so this cannot block for good.
+         */
+        private void fail(Throwable e) {
+            Parsed failure = new Parsed();
+            failure.failure = e;
+            try {
+                parsed.put(failure);
+            } catch (InterruptedException ignored) {
+                // Closed early; nobody is left to tell.
+            }
+        }
+
+        /**
+         * Returns the next block in file order, or null once all have been returned.
+         */
+        Parsed take() throws IOException {
+            if (done) {
+                return null;
+            }
+            long start = System.nanoTime();
+            try {
+                Parsed block;
+                while ((block = pending.remove(nextSeq)) == null) {
+                    Parsed next = parsed.take();
+                    if (next.failure != null) {
+                        close();
+                        if (next.failure instanceof IOException) {
+                            throw new IOException(next.failure.getMessage(), next.failure);
+                        }
+                        throw new IOException(next.failure);
+                    }
+                    if (next.end) {
+                        if (++parsersDone == numParsers) {
+                            // Every block has been parsed, so none can still be missing.
+                            close();
+                            return null;
+                        }
+                    } else {
+                        pending.put(next.seq, next);
+                    }
+                }
+                nextSeq++;
+                store.items.increment();
+                inFlight.release();
+                return block;
+            } catch (InterruptedException e) {
+                close();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while loading");
+            } finally {
+                store.starvedNanos.add(System.nanoTime() - start);
+            }
+        }
+
+        void recycle(Parsed block) {
+            freeInts.offer(block.data);
+        }
+
+        /**
+         * Stops the stage threads, if they are still running, and waits for them.
+         */
+        @Override
+        public void close() {
+            if (done) {
+                return;
+            }
+            done = true;
+            for (Thread thread : threads) {
+                thread.interrupt();
+            }
+            boolean interrupted = false;
+            for (Thread thread : threads) {
+                while (thread.isAlive()) {
+                    try {
+                        thread.join();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            stats.finish();
+        }
+    }
+}
@@ -1,13 +1,28 @@
 package memstore.data;
 
 
-import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Random;
+import java.util.stream.IntStream;
 
+/**
+ * Generates rows of uniform random fields in [0, 1024), exactly as if drawn in
+ * row-major order from `new java.util.Random(seed).nextInt(1024)`.
+ *
+ * Random is a 48-bit linear congruential generator and nextInt with a power-of-two
+ * bound consumes exactly one step, so field i is a function of the state after
+ * i + 1 steps. That state can be computed in O(log i) by composing the LCG's
+ * affine map with itself, which lets workers start anywhere in the stream and
+ * generate disjoint ranges in parallel with bit-identical output.
+ */
 public class RandomizedLoader implements DataLoader {
+    static final long MULTIPLIER = 0x5DEECE66DL;
+    static final long ADDEND = 0xBL;
+    static final long MASK = (1L << 48) - 1;
+    /** Fields generated per parallel task. */
+    static final int FIELDS_PER_TASK = 16 * 1024;
+
     private int seed;
     private int numRows;
     private int numCols;
@@ -23,19 +38,128 @@ public class RandomizedLoader implements DataLoader {
         return numCols;
     }
 
-    public List<ByteBuffer> getRows() throws IOException {
-        Random random = new Random(seed);
+    @Override
+    public int getNumRows() {
+        return numRows;
+    }
+
+    /**
+     * Returns the generator state of `new Random(seed)`.
+     */
+    static long initialState(long seed) {
+        return (seed ^ MULTIPLIER) & MASK;
+    }
 
-        ArrayList<ByteBuffer> rowBytes = new ArrayList<>();
-        for (int rowId = 0; rowId < numRows; rowId++) {
-            ByteBuffer curRowBuffer = ByteBuffer.allocate(ByteFormat.FIELD_LEN*numCols);
-            for (int i = 0; i < numCols; i++) {
-                int val = random.nextInt(1024);
-                curRowBuffer.putInt(val);
+    /**
+     * Returns the state reached from `state` after `steps` LCG steps.
+     */
+    static long skip(long state, long steps) {
+        // (mul, add) is the affine map x -> mul * x + add for the steps taken so far;
+        // (curMul, curAdd) is the map for 2^k steps.
+        long mul = 1;
+        long add = 0;
+        long curMul = MULTIPLIER;
+        long curAdd = ADDEND;
+        while (steps > 0) {
+            if ((steps & 1) != 0) {
+                mul = mul * curMul;
+                add = add * curMul + curAdd;
             }
-            curRowBuffer.rewind();
-            rowBytes.add(curRowBuffer);
+            curAdd = (curMul + 1) * curAdd;
+            curMul = curMul * curMul;
+            steps >>>= 1;
+        }
+        return (mul * state + add) & MASK;
+    }
+
+    /**
+     * Fills out[from, to) with consecutive values starting from `state`, and
+     * returns the state after the last one.
+     */
+    static long fill(long state, int[] out, int from, int to) {
+        for (int i = from; i < to; i++) {
+            state = (state * MULTIPLIER + ADDEND) & MASK;
+            // Random.nextInt(1024) == next(31) >> 21 == top 10 bits of the state.
+            out[i] = (int) (state >>> 38);
+        }
+        return state;
+    }
+
+    /**
+     * Fills out[0, numFields) with the values following `state`, in parallel for
+     * large ranges, and returns the state after the last one.
+     */
+    static long fillParallel(long state, int[] out, int numFields) {
+        int numTasks = (numFields + FIELDS_PER_TASK - 1) / FIELDS_PER_TASK;
+        if (numTasks <= 1) {
+            return fill(state, out, 0, numFields);
         }
-        return rowBytes;
+        IntStream.range(0, numTasks).parallel().forEach(task -> {
+            int from = task * FIELDS_PER_TASK;
+            int to = Math.min(numFields, from + FIELDS_PER_TASK);
+            fill(skip(state, from), out, from, to);
+        });
+        return skip(state, numFields);
+    }
+
+    @Override
+    public RowBatchReader openReader() {
+        return new RowBatchReader() {
+            long state = initialState(seed);
+            int rowsLeft = numRows;
+
+            @Override
+            public boolean next(RowBatch batch) {
+                int n = Math.min(rowsLeft, batch.getCapacity());
+                state = fillParallel(state, batch.getData(), n * numCols);
+                batch.setNumRows(n);
+                rowsLeft -= n;
+                return n > 0;
+            }
+        };
+    }
+
+    /**
+     * Generates row ranges in parallel, each into a small per-thread block that
+     * stays in cache, and hands every block straight to `sink`.
+     */
+    @Override
+    public int loadInto(LoadSink sink) {
+        int rowsPerTask = Math.max(1, FIELDS_PER_TASK / Math.max(1, numCols));
+        int numTasks = (numRows + rowsPerTask - 1) / rowsPerTask;
+        long start = initialState(seed);
+        ThreadLocal<int[]> blocks = ThreadLocal.withInitial(() -> new int[rowsPerTask * numCols]);
+        IntStream.range(0, numTasks).parallel().forEach(task -> {
+            int firstRow = task * rowsPerTask;
+            int n = Math.min(numRows - firstRow, rowsPerTask);
+            int[] block = blocks.get();
+            fill(skip(start, (long) firstRow * numCols), block, 0, n * numCols);
+            sink.putRows(firstRow, block, 0, n);
+        });
+        return numRows;
+    }
+
+    /**
+     * Materializes every row, generating row ranges in parallel.
+     */
+    @Override
+    public List<ByteBuffer> getRows() {
+        ByteBuffer[] rows = new ByteBuffer[numRows];
+        int rowsPerTask = Math.max(1, FIELDS_PER_TASK / Math.max(1, numCols));
+        int numTasks = (numRows + rowsPerTask - 1) / rowsPerTask;
+        long start = initialState(seed);
+        IntStream.range(0, numTasks).parallel().forEach(task -> {
+            int firstRow = task * rowsPerTask;
+            int lastRow = Math.min(numRows, firstRow + rowsPerTask);
+            int[] fields = new int[numCols];
+            long state = skip(start, (long) firstRow * numCols);
+            for (int rowId = firstRow; rowId < lastRow; rowId++) {
+                state = fill(state, fields, 0, numCols);
+                ByteBuffer row = ByteBuffer.allocate(ByteFormat.FIELD_LEN * numCols);
+                row.asIntBuffer().put(fields);
+                rows[rowId] = row;
+            }
+        });
+        return Arrays.asList(rows);
     }
 }
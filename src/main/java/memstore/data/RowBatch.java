@@ -0,0 +1,64 @@
+package memstore.data;
+
+/**
+ * A fixed-capacity batch of rows, stored row-major in a plain int array:
+ * field (row, col) of the batch lives at data[row * numCols + col].
+ *
+ * Batches are meant to be reused: a RowBatchReader refills the same batch
+ * on every call, so loading allocates nothing per row.
+ */
+public class RowBatch {
+    /** Target batch size in fields; about 256KB, small enough to stay in cache. */
+    public static final int TARGET_FIELDS = 64 * 1024;
+
+    final int numCols;
+    final int capacity;
+    final int[] data;
+    int numRows;
+
+    public RowBatch(int numCols, int capacity) {
+        this.numCols = numCols;
+        this.capacity = capacity;
+        this.data = new int[numCols * capacity];
+    }
+
+    /**
+     * Returns a batch sized to about TARGET_FIELDS fields for `numCols` columns.
+     */
+    public static RowBatch forColumns(int numCols) {
+        return new RowBatch(numCols, Math.max(1, TARGET_FIELDS / Math.max(1, numCols)));
+    }
+
+    public int getNumCols() {
+        return numCols;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the number of valid rows currently in the batch.
+     */
+    public int getNumRows() {
+        return numRows;
+    }
+
+    public void setNumRows(int numRows) {
+        if (numRows < 0 || numRows > capacity) {
+            throw new IllegalArgumentException("batch holds at most " + capacity + " rows");
+        }
+        this.numRows = numRows;
+    }
+
+    /**
+     * Returns the backing array; only the first getNumRows() * getNumCols() entries are valid.
+     */
+    public int[] getData() {
+        return data;
+    }
+
+    public int get(int rowId, int colId) {
+        return data[rowId * numCols + colId];
+    }
+}
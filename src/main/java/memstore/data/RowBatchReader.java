@@ -0,0 +1,19 @@
+package memstore.data;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Streams the rows of a DataLoader in file / generation order, one batch at a time.
+ */
+public interface RowBatchReader extends Closeable {
+    /**
+     * Refills `batch` with the next rows, replacing its previous contents.
+     *
+     * @return false once every row has been read, in which case `batch` is empty.
+     */
+    boolean next(RowBatch batch) throws IOException;
+
+    @Override
+    default void close() throws IOException { }
+}
@@ -0,0 +1,457 @@
+package memstore.data;
+
+import memstore.stats.TableStatistics;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Binary snapshot of a table's in-memory state.
+ *
+ * The file starts with a header holding the table kind, the layout of the data
+ * section, the schema (row and column counts) and a section table; every section
+ * is stored as raw big-endian bytes with its own CRC32, and the header carries a
+ * CRC32 of itself. Sections are written and read with bulk FileChannel transfers
+ * straight from and into the tables' buffers, so restoring runs at disk speed.
+ * Column statistics are stored as well, since rebuilding them takes a full pass
+ * over the data.
+ *
+ *   magic | version | kind | layout | numRows | numCols | kindParam | numSections
+ *   numSections x (id | offset | length | crc32)
+ *   headerCrc32
+ *   section 0 | section 1 | ...
+ */
+public final class SnapshotFile {
+    public static final int MAGIC = 0x4D534E50; // "MSNP"
+    public static final int VERSION = 1;
+
+    /** Table kinds; a table restores its own kind directly and loads other kinds through SnapshotLoader. */
+    public static final int KIND_GENERIC = 0;
+    public static final int KIND_ROW_TABLE = 1;
+    public static final int KIND_COLUMN_TABLE = 2;
+    public static final int KIND_INDEXED_ROW_TABLE = 3;
+    public static final int KIND_CUSTOM_TABLE = 4;
+
+    /** Layouts of the DATA section. */
+    public static final int LAYOUT_ROW_MAJOR = 0;
+    public static final int LAYOUT_COLUMN_MAJOR = 1;
+
+    /** Section ids. */
+    public static final int SECTION_DATA = 1;
+    public static final int SECTION_INDEX_KEYS = 2;
+    public static final int SECTION_INDEX_OFFSETS = 3;
+    public static final int SECTION_INDEX_ROWS = 4;
+    public static final int SECTION_AGGREGATE_SCALARS = 5;
+    public static final int SECTION_AGGREGATE_ALL_COL2 = 6;
+    public static final int SECTION_AGGREGATE_COUNT_COL0 = 7;
+    public static final int SECTION_AGGREGATE_COL0_BY_COL1_COL2 = 8;
+    public static final int SECTION_STATISTICS = 9;
+
+    private static final int FIXED_HEADER_LEN = 8 * 4;
+    private static final int SECTION_ENTRY_LEN = 4 + 8 + 8 + 8;
+    /** Size of the staging buffer that int and long arrays and heap buffers are copied through. */
+    private static final int TRANSFER_LEN = 1 << 20;
+
+    private SnapshotFile() { }
+
+    private static int headerLength(int numSections) {
+        return FIXED_HEADER_LEN + numSections * SECTION_ENTRY_LEN + 8;
+    }
+
+    private static long crc(ByteBuffer buf) {
+        CRC32 crc = new CRC32();
+        crc.update(buf.duplicate());
+        return crc.getValue();
+    }
+
+    /**
+     * Writes a snapshot section by section. The header is written on close, once
+     * every section's offset and checksum is known.
+     */
+    public static final class Writer implements Closeable {
+        private final FileChannel channel;
+        private final ByteBuffer header;
+        private final int numSections;
+        private final ByteBuffer staging = ByteBuffer.allocateDirect(TRANSFER_LEN);
+        private int sectionsWritten;
+        private long position;
+
+        public Writer(String path, int kind, int layout, int numRows, int numCols, int kindParam,
+                      int numSections) throws IOException {
+            this.channel = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            this.numSections = numSections;
+            this.header = ByteBuffer.allocate(headerLength(numSections));
+            header.putInt(MAGIC).putInt(VERSION).putInt(kind).putInt(layout)
+                    .putInt(numRows).putInt(numCols).putInt(kindParam).putInt(numSections);
+            this.position = header.capacity();
+        }
+
+        /**
+         * Appends the bytes between `data`'s position and limit as section `id`.
+         * Does not modify `data`'s position.
+         */
+        public void writeSection(int id, ByteBuffer data) throws IOException {
+            writeSection(id, Collections.singletonList(data));
+        }
+
+        /**
+         * Appends the concatenation of `parts`, each between its position and
+         * limit, as section `id`. Does not modify the parts' positions.
+         */
+        public void writeSection(int id, List<ByteBuffer> parts) throws IOException {
+            CRC32 crc = new CRC32();
+            long offset = position;
+            for (ByteBuffer part : parts) {
+                ByteBuffer src = part.duplicate();
+                crc.update(src.duplicate());
+                if (src.isDirect()) {
+                    while (src.hasRemaining()) {
+                        position += channel.write(src, position);
+                    }
+                    continue;
+                }
+                // The channel would copy a heap buffer whole into a temporary
+                // direct buffer of its size, so copy it through staging instead.
+                while (src.hasRemaining()) {
+                    int n = Math.min(src.remaining(), TRANSFER_LEN);
+                    ByteBuffer slice = src.duplicate();
+                    slice.limit(slice.position() + n);
+                    staging.clear();
+                    staging.put(slice).flip();
+                    while (staging.hasRemaining()) {
+                        position += channel.write(staging, position);
+                    }
+                    src.position(src.position() + n);
+                }
+            }
+            addEntry(id, offset, position - offset, crc.getValue());
+        }
+
+        public void writeSection(int id, int[] data) throws IOException {
+            CRC32 crc = new CRC32();
+            long offset = position;
+            int done = 0;
+            while (done < data.length) {
+                int n = Math.min(data.length - done, TRANSFER_LEN / 4);
+                staging.clear();
+                staging.asIntBuffer().put(data, done, n);
+                staging.limit(4 * n);
+                crc.update(staging.duplicate());
+                while (staging.hasRemaining()) {
+                    position += channel.write(staging, position);
+                }
+                done += n;
+            }
+            addEntry(id, offset, 4L * data.length, crc.getValue());
+        }
+
+        public void writeSection(int id, long[] data) throws IOException {
+            CRC32 crc = new CRC32();
+            long offset = position;
+            int done = 0;
+            while (done < data.length) {
+                int n = Math.min(data.length - done, TRANSFER_LEN / 8);
+                staging.clear();
+                staging.asLongBuffer().put(data, done, n);
+                staging.limit(8 * n);
+                crc.update(staging.duplicate());
+                while (staging.hasRemaining()) {
+                    position += channel.write(staging, position);
+                }
+                done += n;
+            }
+            addEntry(id, offset, 8L * data.length, crc.getValue());
+        }
+
+        private void addEntry(int id, long offset, long length, long checksum) {
+            if (sectionsWritten == numSections) {
+                throw new IllegalStateException("snapshot declared " + numSections + " sections");
+            }
+            header.putInt(id).putLong(offset).putLong(length).putLong(checksum);
+            sectionsWritten++;
+        }
+
+        /**
+         * Writes the header and closes the file.
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                if (sectionsWritten != numSections) {
+                    throw new IOException("snapshot declared " + numSections + " sections but "
+                            + sectionsWritten + " were written");
+                }
+                ByteBuffer body = header.duplicate();
+                body.flip();
+                header.putLong(crc(body));
+                header.flip();
+                long pos = 0;
+                while (header.hasRemaining()) {
+                    pos += channel.write(header, pos);
+                }
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Reads a snapshot. The header checksum is verified on open and each section's
+     * checksum when it is read.
+     */
+    public static final class Reader implements Closeable {
+        private final String path;
+        private final FileChannel channel;
+        private final int kind;
+        private final int layout;
+        private final int numRows;
+        private final int numCols;
+        private final int kindParam;
+        private final int[] sectionIds;
+        private final long[] sectionOffsets;
+        private final long[] sectionLengths;
+        private final long[] sectionCrcs;
+
+        public Reader(String path) throws IOException {
+            this.path = path;
+            this.channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+            try {
+                ByteBuffer fixed = ByteBuffer.allocate(FIXED_HEADER_LEN);
+                readFully(fixed, 0);
+                fixed.flip();
+                if (fixed.getInt() != MAGIC) {
+                    throw new IOException(path + " is not a table snapshot");
+                }
+                int version = fixed.getInt();
+                if (version != VERSION) {
+                    throw new IOException(path + " has unsupported snapshot version " + version);
+                }
+                this.kind = fixed.getInt();
+                this.layout = fixed.getInt();
+                this.numRows = fixed.getInt();
+                this.numCols = fixed.getInt();
+                this.kindParam = fixed.getInt();
+                int numSections = fixed.getInt();
+                if (numRows < 0 || numCols < 0 || numSections < 0 || numSections > 1024) {
+                    throw new IOException(path + " has a corrupt snapshot header");
+                }
+
+                ByteBuffer header = ByteBuffer.allocate(headerLength(numSections));
+                readFully(header, 0);
+                header.flip();
+                ByteBuffer body = header.duplicate();
+                body.limit(header.capacity() - 8);
+                if (crc(body) != header.getLong(header.capacity() - 8)) {
+                    throw new IOException(path + " has a corrupt snapshot header (checksum mismatch)");
+                }
+                header.position(FIXED_HEADER_LEN);
+                this.sectionIds = new int[numSections];
+                this.sectionOffsets = new long[numSections];
+                this.sectionLengths = new long[numSections];
+                this.sectionCrcs = new long[numSections];
+                for (int i = 0; i < numSections; i++) {
+                    sectionIds[i] = header.getInt();
+                    sectionOffsets[i] = header.getLong();
+                    sectionLengths[i] = header.getLong();
+                    sectionCrcs[i] = header.getLong();
+                }
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        public int getKind() {
+            return kind;
+        }
+
+        public int getLayout() {
+            return layout;
+        }
+
+        public int getNumRows() {
+            return numRows;
+        }
+
+        public int getNumCols() {
+            return numCols;
+        }
+
+        public int getKindParam() {
+            return kindParam;
+        }
+
+        public boolean hasSection(int id) {
+            return find(id) >= 0;
+        }
+
+        /**
+         * Returns the length in bytes of section `id`.
+         */
+        public long getSectionLength(int id) throws IOException {
+            return sectionLengths[require(id)];
+        }
+
+        private int find(int id) {
+            for (int i = 0; i < sectionIds.length; i++) {
+                if (sectionIds[i] == id) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private int require(int id) throws IOException {
+            int i = find(id);
+            if (i < 0) {
+                throw new IOException(path + " has no section " + id);
+            }
+            return i;
+        }
+
+        private void readFully(ByteBuffer dst, long pos) throws IOException {
+            while (dst.hasRemaining()) {
+                int n = channel.read(dst, pos);
+                if (n < 0) {
+                    throw new IOException(path + " is truncated");
+                }
+                pos += n;
+            }
+        }
+
+        private void check(int i, long checksum) throws IOException {
+            if (checksum != sectionCrcs[i]) {
+                throw new IOException(path + " section " + sectionIds[i] + " is corrupt (checksum mismatch)");
+            }
+        }
+
+        /**
+         * Reads section `id` into `dst`, starting at its position, which must have
+         * exactly the section's length remaining. Leaves `dst`'s position unchanged.
+         */
+        public void readSection(int id, ByteBuffer dst) throws IOException {
+            readSection(id, Collections.singletonList(dst));
+        }
+
+        /**
+         * Reads section `id` into `parts` in order, filling each from its position
+         * to its limit; together they must have exactly the section's length
+         * remaining. Leaves the parts' positions unchanged.
+         */
+        public void readSection(int id, List<ByteBuffer> parts) throws IOException {
+            int i = require(id);
+            long expected = 0;
+            for (ByteBuffer part : parts) {
+                expected += part.remaining();
+            }
+            if (expected != sectionLengths[i]) {
+                throw new IOException(path + " section " + id + " has " + sectionLengths[i]
+                        + " bytes, expected " + expected);
+            }
+            CRC32 crc = new CRC32();
+            ByteBuffer staging = null;
+            long pos = sectionOffsets[i];
+            for (ByteBuffer part : parts) {
+                ByteBuffer target = part.duplicate();
+                if (target.isDirect()) {
+                    readFully(target, pos);
+                    pos += part.remaining();
+                } else {
+                    // Heap buffers are filled through staging, as in Writer.writeSection.
+                    if (staging == null) {
+                        staging = ByteBuffer.allocateDirect(TRANSFER_LEN);
+                    }
+                    while (target.hasRemaining()) {
+                        int n = Math.min(target.remaining(), TRANSFER_LEN);
+                        staging.clear().limit(n);
+                        readFully(staging, pos);
+                        staging.flip();
+                        target.put(staging);
+                        pos += n;
+                    }
+                }
+                crc.update(part.duplicate());
+            }
+            check(i, crc.getValue());
+        }
+
+        public int[] readIntSection(int id) throws IOException {
+            int i = require(id);
+            int[] out = new int[(int) (sectionLengths[i] / 4)];
+            ByteBuffer staging = ByteBuffer.allocateDirect(TRANSFER_LEN);
+            CRC32 crc = new CRC32();
+            long pos = sectionOffsets[i];
+            int done = 0;
+            while (done < out.length) {
+                int n = Math.min(out.length - done, TRANSFER_LEN / 4);
+                staging.clear().limit(4 * n);
+                readFully(staging, pos);
+                staging.flip();
+                crc.update(staging.duplicate());
+                staging.asIntBuffer().get(out, done, n);
+                pos += 4L * n;
+                done += n;
+            }
+            check(i, crc.getValue());
+            return out;
+        }
+
+        public long[] readLongSection(int id) throws IOException {
+            int i = require(id);
+            long[] out = new long[(int) (sectionLengths[i] / 8)];
+            ByteBuffer staging = ByteBuffer.allocateDirect(TRANSFER_LEN);
+            CRC32 crc = new CRC32();
+            long pos = sectionOffsets[i];
+            int done = 0;
+            while (done < out.length) {
+                int n = Math.min(out.length - done, TRANSFER_LEN / 8);
+                staging.clear().limit(8 * n);
+                readFully(staging, pos);
+                staging.flip();
+                crc.update(staging.duplicate());
+                staging.asLongBuffer().get(out, done, n);
+                pos += 8L * n;
+                done += n;
+            }
+            check(i, crc.getValue());
+            return out;
+        }
+
+        /**
+         * Returns the statistics stored in the snapshot, or builds them through
+         * `fieldReader` if it has none. Rebuilds skip the rows `deleted` reports.
+         */
+        public TableStatistics readStatistics(boolean columnMajor, TableStatistics.FieldReader fieldReader,
+                                              TableStatistics.DeletedRows deleted) throws IOException {
+            if (hasSection(SECTION_STATISTICS)) {
+                return TableStatistics.decode(readLongSection(SECTION_STATISTICS), numRows, numCols, fieldReader,
+                        deleted);
+            }
+            return TableStatistics.build(numRows, numCols, columnMajor, fieldReader, deleted);
+        }
+
+        /**
+         * Memory-maps section `id` read-only after verifying its checksum.
+         */
+        public MappedByteBuffer mapSection(int id) throws IOException {
+            int i = require(id);
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, sectionOffsets[i], sectionLengths[i]);
+            check(i, crc(mapped));
+            return mapped;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package memstore.data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * Loads the data section of a table snapshot, whatever table wrote it, so a
+ * snapshot can be restored into a table of another kind.
+ *
+ * The section is memory-mapped; row-major data is copied into batches in bulk and
+ * column-major data is gathered one column at a time.
+ */
+public class SnapshotLoader implements DataLoader {
+    private final String path;
+    private final int numRows;
+    private final int numCols;
+
+    public SnapshotLoader(String path) throws IOException {
+        this.path = path;
+        try (SnapshotFile.Reader reader = new SnapshotFile.Reader(path)) {
+            this.numRows = reader.getNumRows();
+            this.numCols = reader.getNumCols();
+        }
+    }
+
+    @Override
+    public int getNumCols() {
+        return numCols;
+    }
+
+    @Override
+    public int getNumRows() {
+        return numRows;
+    }
+
+    @Override
+    public RowBatchReader openReader() throws IOException {
+        IntBuffer fields;
+        boolean columnMajor;
+        try (SnapshotFile.Reader reader = new SnapshotFile.Reader(path)) {
+            if (reader.getSectionLength(SnapshotFile.SECTION_DATA) != (long) ByteFormat.FIELD_LEN * numRows * numCols) {
+                throw new IOException(path + " data section does not match its schema");
+            }
+            // The mapping stays valid after the channel is closed.
+            ByteBuffer data = reader.mapSection(SnapshotFile.SECTION_DATA);
+            fields = data.asIntBuffer();
+            columnMajor = reader.getLayout() == SnapshotFile.LAYOUT_COLUMN_MAJOR;
+        }
+        return new RowBatchReader() {
+            int nextRow = 0;
+
+            @Override
+            public boolean next(RowBatch batch) {
+                int n = Math.min(numRows - nextRow, batch.getCapacity());
+                int[] data = batch.getData();
+                if (columnMajor) {
+                    for (int colId = 0; colId < numCols; colId++) {
+                        int base = colId * numRows + nextRow;
+                        for (int i = 0; i < n; i++) {
+                            data[i * numCols + colId] = fields.get(base + i);
+                        }
+                    }
+                } else {
+                    IntBuffer src = fields.duplicate();
+                    src.position(nextRow * numCols);
+                    src.get(data, 0, n * numCols);
+                }
+                nextRow += n;
+                batch.setNumRows(n);
+                return n > 0;
+            }
+        };
+    }
+}
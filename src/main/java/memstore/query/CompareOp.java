@@ -0,0 +1,42 @@
+package memstore.query;
+
+/**
+ * Comparison operators that can appear in a scan predicate.
+ * Each operator knows how to evaluate itself and how to render itself
+ * as Java source for the query compiler.
+ */
+public enum CompareOp {
+    LT("<"),
+    LE("<="),
+    GT(">"),
+    GE(">="),
+    EQ("=="),
+    NE("!=");
+
+    private final String symbol;
+
+    CompareOp(String symbol) {
+        this.symbol = symbol;
+    }
+
+    /**
+     * Returns the Java operator for this comparison.
+     */
+    public String symbol() {
+        return symbol;
+    }
+
+    /**
+     * Evaluates `field OP value`.
+     */
+    public boolean test(int field, int value) {
+        switch (this) {
+            case LT: return field < value;
+            case LE: return field <= value;
+            case GT: return field > value;
+            case GE: return field >= value;
+            case EQ: return field == value;
+            default: return field != value;
+        }
+    }
+}
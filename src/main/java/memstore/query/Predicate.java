@@ -0,0 +1,38 @@
+package memstore.query;
+
+/**
+ * A single-column predicate of the form `col OP value`.
+ */
+public final class Predicate {
+    public final int colId;
+    public final CompareOp op;
+    public final int value;
+
+    public Predicate(int colId, CompareOp op, int value) {
+        this.colId = colId;
+        this.op = op;
+        this.value = value;
+    }
+
+    public boolean test(int field) {
+        return op.test(field, value);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Predicate)) return false;
+        Predicate other = (Predicate) o;
+        return colId == other.colId && op == other.op && value == other.value;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * colId + op.hashCode()) + value;
+    }
+
+    @Override
+    public String toString() {
+        return "col" + colId + " " + op.symbol() + " " + value;
+    }
+}
@@ -0,0 +1,107 @@
+package memstore.query;
+
+/**
+ * One query of a batch passed to Table.executeBatch: one of the table's fixed
+ * queries with its thresholds, or an ad-hoc ScanQuery.
+ */
+public final class Query {
+    public enum Kind {
+        COLUMN_SUM,
+        PREDICATED_COLUMN_SUM,
+        PREDICATED_ALL_COLUMNS_SUM,
+        PREDICATED_UPDATE,
+        SCAN
+    }
+
+    private final Kind kind;
+    private final int threshold1;
+    private final int threshold2;
+    private final ScanQuery scan;
+
+    private Query(Kind kind, int threshold1, int threshold2, ScanQuery scan) {
+        this.kind = kind;
+        this.threshold1 = threshold1;
+        this.threshold2 = threshold2;
+        this.scan = scan;
+    }
+
+    public static Query columnSum() {
+        return new Query(Kind.COLUMN_SUM, 0, 0, null);
+    }
+
+    public static Query predicatedColumnSum(int threshold1, int threshold2) {
+        return new Query(Kind.PREDICATED_COLUMN_SUM, threshold1, threshold2, null);
+    }
+
+    public static Query predicatedAllColumnsSum(int threshold) {
+        return new Query(Kind.PREDICATED_ALL_COLUMNS_SUM, threshold, 0, null);
+    }
+
+    public static Query predicatedUpdate(int threshold) {
+        return new Query(Kind.PREDICATED_UPDATE, threshold, 0, null);
+    }
+
+    public static Query scan(ScanQuery query) {
+        return new Query(Kind.SCAN, 0, 0, query);
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * Returns the query's only threshold, or the col1 threshold of a predicatedColumnSum.
+     */
+    public int getThreshold1() {
+        return threshold1;
+    }
+
+    /**
+     * Returns the col2 threshold of a predicatedColumnSum.
+     */
+    public int getThreshold2() {
+        return threshold2;
+    }
+
+    /**
+     * Returns the ad-hoc query of a SCAN, or null.
+     */
+    public ScanQuery getScanQuery() {
+        return scan;
+    }
+
+    /**
+     * Returns whether the query writes to the table; batches never reorder
+     * reads across it.
+     */
+    public boolean isUpdate() {
+        return kind == Kind.PREDICATED_UPDATE;
+    }
+
+    /**
+     * Returns a read query as the equivalent ScanQuery over a table of `numCols`
+     * columns.
+     *
+     * @throws IllegalStateException if the query is an update.
+     */
+    public ScanQuery toScanQuery(int numCols) {
+        switch (kind) {
+            case COLUMN_SUM:
+                return new ScanQuery(new int[]{0});
+            case PREDICATED_COLUMN_SUM:
+                return new ScanQuery(new int[]{0},
+                        new Predicate(1, CompareOp.GT, threshold1),
+                        new Predicate(2, CompareOp.LT, threshold2));
+            case PREDICATED_ALL_COLUMNS_SUM:
+                int[] all = new int[numCols];
+                for (int colId = 0; colId < numCols; colId++) {
+                    all[colId] = colId;
+                }
+                return new ScanQuery(all, new Predicate(0, CompareOp.GT, threshold1));
+            case SCAN:
+                return scan;
+            default:
+                throw new IllegalStateException(kind + " is not a read");
+        }
+    }
+}
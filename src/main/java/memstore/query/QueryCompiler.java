@@ -0,0 +1,264 @@
+package memstore.query;
+
+import memstore.data.ByteFormat;
+
+import javax.tools.*;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compiles scan queries into specialized kernels, one generated class per query shape.
+ *
+ * The generated class has the row stride, column offsets and predicate operators
+ * written in as literals, so the JIT sees the same straight-line loop as the
+ * hand-written queries in RowTable / ColumnTable and can inline and unroll it.
+ *
+ * We target Java 8, which has neither `MethodHandles.Lookup.defineClass` nor a
+ * bundled bytecode library, so kernels are emitted as Java source, compiled in memory
+ * with the platform compiler and defined through a private class loader. When no
+ * compiler is available (e.g. a bare JRE), we fall back to an interpreted kernel.
+ */
+public class QueryCompiler {
+    private static final String PACKAGE = "memstore.query.gen";
+    private static final Map<QueryShape, ScanKernel> cache = new ConcurrentHashMap<>();
+    private static final AtomicInteger classCounter = new AtomicInteger();
+
+    private QueryCompiler() { }
+
+    /**
+     * Returns the kernel for `shape`, compiling it on first use.
+     */
+    public static ScanKernel compile(QueryShape shape) {
+        ScanKernel kernel = cache.get(shape);
+        if (kernel == null) {
+            kernel = cache.computeIfAbsent(shape, QueryCompiler::generate);
+        }
+        return kernel;
+    }
+
+    /**
+     * Returns the number of distinct shapes compiled so far.
+     */
+    public static int cacheSize() {
+        return cache.size();
+    }
+
+    private static ScanKernel generate(QueryShape shape) {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            return new InterpretedKernel(shape);
+        }
+        String className = "ScanKernel" + classCounter.getAndIncrement();
+        String source = generateSource(className, shape);
+        Map<String, byte[]> classBytes = compileSource(compiler, PACKAGE + "." + className, source);
+        if (classBytes == null) {
+            return new InterpretedKernel(shape);
+        }
+        try {
+            Class<?> kernelClass = new KernelClassLoader(classBytes).loadClass(PACKAGE + "." + className);
+            MethodHandle run = MethodHandles.publicLookup().findStatic(
+                    kernelClass,
+                    "run",
+                    MethodType.methodType(long.class, ByteBuffer.class, int.class, int.class, int[].class));
+            return new CompiledKernel(run);
+        } catch (ReflectiveOperationException e) {
+            return new InterpretedKernel(shape);
+        }
+    }
+
+    /**
+     * Emits the Java source of a kernel class for `shape`.
+     */
+    static String generateSource(String className, QueryShape shape) {
+        int fieldLen = ByteFormat.FIELD_LEN;
+        StringBuilder sb = new StringBuilder();
+        sb.append("package ").append(PACKAGE).append(";\n");
+        sb.append("public final class ").append(className).append(" {\n");
+        sb.append("  public static long run(java.nio.ByteBuffer data, int firstRow, int endRow, int[] params) {\n");
+        for (int i = 0; i < shape.predCols.length; i++) {
+            sb.append("    final int p").append(i).append(" = params[").append(i).append("];\n");
+        }
+        sb.append("    long sum = 0;\n");
+
+        // `pos` is the byte offset of the current row's field in column 0.
+        String loopStep;
+        if (shape.layout == QueryShape.Layout.ROW_MAJOR) {
+            loopStep = Integer.toString(fieldLen * shape.numCols);
+        } else {
+            loopStep = Integer.toString(fieldLen);
+            sb.append("    final int colStride = data.capacity() / ").append(shape.numCols).append(";\n");
+        }
+        sb.append("    final int end = endRow * ").append(loopStep).append(";\n");
+        sb.append("    for (int pos = firstRow * ").append(loopStep).append("; pos < end; pos += ").append(loopStep).append(") {\n");
+
+        String indent = "      ";
+        for (int i = 0; i < shape.predCols.length; i++) {
+            sb.append(indent).append("if (data.getInt(").append(fieldOffset(shape, shape.predCols[i]))
+                    .append(") ").append(shape.predOps[i].symbol()).append(" p").append(i).append(") {\n");
+            indent = indent + "  ";
+        }
+        for (int colId : shape.sumColumns) {
+            sb.append(indent).append("sum += data.getInt(").append(fieldOffset(shape, colId)).append(");\n");
+        }
+        for (int i = shape.predCols.length - 1; i >= 0; i--) {
+            indent = indent.substring(2);
+            sb.append(indent).append("}\n");
+        }
+        sb.append("    }\n");
+        sb.append("    return sum;\n");
+        sb.append("  }\n");
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    private static String fieldOffset(QueryShape shape, int colId) {
+        if (colId == 0) {
+            return "pos";
+        }
+        if (shape.layout == QueryShape.Layout.ROW_MAJOR) {
+            return "pos + " + (ByteFormat.FIELD_LEN * colId);
+        }
+        return "pos + " + colId + " * colStride";
+    }
+
+    private static Map<String, byte[]> compileSource(JavaCompiler compiler, String className, String source) {
+        JavaFileObject sourceFile = new SimpleJavaFileObject(
+                URI.create("string:///" + className.replace('.', '/') + JavaFileObject.Kind.SOURCE.extension),
+                JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return source;
+            }
+        };
+        // Closing the manager closes the standard one it wraps, which holds the
+        // compiler's open class path jars.
+        try (InMemoryFileManager fileManager = new InMemoryFileManager(
+                compiler.getStandardFileManager(null, null, null))) {
+            Boolean ok = compiler.getTask(
+                    null,
+                    fileManager,
+                    null,
+                    java.util.Arrays.asList("-g:none", "-proc:none"),
+                    null,
+                    Collections.singletonList(sourceFile)).call();
+            return ok ? fileManager.classBytes : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Collects compiler output in memory instead of writing class files.
+     */
+    private static class InMemoryFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+        final Map<String, byte[]> classBytes = new HashMap<>();
+
+        InMemoryFileManager(StandardJavaFileManager fileManager) {
+            super(fileManager);
+        }
+
+        @Override
+        public JavaFileObject getJavaFileForOutput(Location location, String className,
+                                                   JavaFileObject.Kind kind, FileObject sibling) {
+            return new SimpleJavaFileObject(
+                    URI.create("mem:///" + className.replace('.', '/') + kind.extension), kind) {
+                @Override
+                public OutputStream openOutputStream() {
+                    return new ByteArrayOutputStream() {
+                        @Override
+                        public void close() {
+                            classBytes.put(className, toByteArray());
+                        }
+                    };
+                }
+            };
+        }
+    }
+
+    private static class KernelClassLoader extends ClassLoader {
+        private final Map<String, byte[]> classBytes;
+
+        KernelClassLoader(Map<String, byte[]> classBytes) {
+            super(QueryCompiler.class.getClassLoader());
+            this.classBytes = classBytes;
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            byte[] bytes = classBytes.get(name);
+            if (bytes == null) {
+                throw new ClassNotFoundException(name);
+            }
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    private static class CompiledKernel implements ScanKernel {
+        private final MethodHandle run;
+
+        CompiledKernel(MethodHandle run) {
+            this.run = run;
+        }
+
+        @Override
+        public long run(ByteBuffer data, int firstRow, int endRow, int[] params) {
+            try {
+                return (long) run.invokeExact(data, firstRow, endRow, params);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        }
+    }
+
+    /**
+     * Generic kernel used when runtime compilation is unavailable.
+     */
+    static class InterpretedKernel implements ScanKernel {
+        private final QueryShape shape;
+
+        InterpretedKernel(QueryShape shape) {
+            this.shape = shape;
+        }
+
+        @Override
+        public long run(ByteBuffer data, int firstRow, int endRow, int[] params) {
+            int rowStride;
+            int colStride;
+            if (shape.layout == QueryShape.Layout.ROW_MAJOR) {
+                rowStride = shape.numCols;
+                colStride = 1;
+            } else {
+                rowStride = 1;
+                colStride = data.capacity() / (ByteFormat.FIELD_LEN * shape.numCols);
+            }
+            long sum = 0;
+            for (int rowId = firstRow; rowId < endRow; rowId++) {
+                int base = rowId * rowStride;
+                boolean matches = true;
+                for (int i = 0; i < shape.predCols.length && matches; i++) {
+                    int field = data.getInt(ByteFormat.FIELD_LEN * (base + shape.predCols[i] * colStride));
+                    matches = shape.predOps[i].test(field, params[i]);
+                }
+                if (matches) {
+                    for (int colId : shape.sumColumns) {
+                        sum = sum + data.getInt(ByteFormat.FIELD_LEN * (base + colId * colStride));
+                    }
+                }
+            }
+            return sum;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package memstore.query;
+
+import java.util.Arrays;
+
+/**
+ * The compilation key of a scan query: storage layout, row stride, the summed
+ * columns and the predicate columns and operators. Everything that is baked
+ * into a compiled kernel as a constant lives here; predicate values do not.
+ */
+public final class QueryShape {
+    public enum Layout {
+        /** Field (row, col) lives at FIELD_LEN * (row * numCols + col). */
+        ROW_MAJOR,
+        /** Field (row, col) lives at FIELD_LEN * (col * capacity + row), capacity being the block's row capacity. */
+        COLUMN_MAJOR
+    }
+
+    final Layout layout;
+    final int numCols;
+    final int[] sumColumns;
+    final int[] predCols;
+    final CompareOp[] predOps;
+
+    QueryShape(Layout layout, int numCols, int[] sumColumns, int[] predCols, CompareOp[] predOps) {
+        this.layout = layout;
+        this.numCols = numCols;
+        this.sumColumns = sumColumns;
+        this.predCols = predCols;
+        this.predOps = predOps;
+        for (int colId : sumColumns) {
+            checkColumn(colId);
+        }
+        for (int colId : predCols) {
+            checkColumn(colId);
+        }
+    }
+
+    private void checkColumn(int colId) {
+        if (colId < 0 || colId >= numCols) {
+            throw new IllegalArgumentException("column " + colId + " out of range for " + numCols + " columns");
+        }
+    }
+
+    public Layout getLayout() {
+        return layout;
+    }
+
+    public int getNumCols() {
+        return numCols;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof QueryShape)) return false;
+        QueryShape other = (QueryShape) o;
+        return layout == other.layout
+                && numCols == other.numCols
+                && Arrays.equals(sumColumns, other.sumColumns)
+                && Arrays.equals(predCols, other.predCols)
+                && Arrays.equals(predOps, other.predOps);
+    }
+
+    @Override
+    public int hashCode() {
+        int h = layout.hashCode();
+        h = 31 * h + numCols;
+        h = 31 * h + Arrays.hashCode(sumColumns);
+        h = 31 * h + Arrays.hashCode(predCols);
+        h = 31 * h + Arrays.hashCode(predOps);
+        return h;
+    }
+
+    @Override
+    public String toString() {
+        return layout + "/" + numCols + " SUM" + Arrays.toString(sumColumns)
+                + " WHERE " + Arrays.toString(predCols) + Arrays.toString(predOps);
+    }
+}
@@ -0,0 +1,18 @@
+package memstore.query;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A scan over a block of table storage that evaluates one query shape.
+ */
+public interface ScanKernel {
+    /**
+     * Runs the kernel over rows [firstRow, endRow) stored in `data`, using
+     * `params` as the predicate constants (in predicate order). `data` may have
+     * room for more rows than it holds; in a column-major block, each column
+     * takes an equal share of its capacity.
+     *
+     * @return the sum of the selected columns over all qualifying rows.
+     */
+    long run(ByteBuffer data, int firstRow, int endRow, int[] params);
+}
@@ -0,0 +1,87 @@
+package memstore.query;
+
+import java.util.Arrays;
+
+/**
+ * An ad-hoc scan query of the form
+ *  SELECT SUM(colA) + SUM(colB) + ... FROM table WHERE p1 AND p2 AND ...;
+ *
+ * The predicate constants are kept out of the query shape, so queries that only
+ * differ in their thresholds share a compiled kernel.
+ */
+public final class ScanQuery {
+    final int[] sumColumns;
+    final Predicate[] predicates;
+
+    public ScanQuery(int[] sumColumns, Predicate... predicates) {
+        if (sumColumns.length == 0) {
+            throw new IllegalArgumentException("query must sum at least one column");
+        }
+        this.sumColumns = sumColumns.clone();
+        this.predicates = predicates.clone();
+    }
+
+    public int[] getSumColumns() {
+        return sumColumns.clone();
+    }
+
+    public Predicate[] getPredicates() {
+        return predicates.clone();
+    }
+
+    /**
+     * Returns the predicate constants in predicate order; these are the
+     * runtime parameters of a compiled kernel.
+     */
+    public int[] getParams() {
+        int[] params = new int[predicates.length];
+        for (int i = 0; i < predicates.length; i++) {
+            params[i] = predicates[i].value;
+        }
+        return params;
+    }
+
+    /**
+     * Returns the compilation shape of this query over the given layout.
+     */
+    public QueryShape shape(QueryShape.Layout layout, int numCols) {
+        int[] predCols = new int[predicates.length];
+        CompareOp[] predOps = new CompareOp[predicates.length];
+        for (int i = 0; i < predicates.length; i++) {
+            predCols[i] = predicates[i].colId;
+            predOps[i] = predicates[i].op;
+        }
+        return new QueryShape(layout, numCols, sumColumns, predCols, predOps);
+    }
+
+    /**
+     * Returns the ids of every column the query reads, in no particular order
+     * and possibly with repeats.
+     */
+    public int[] getReadColumns() {
+        int[] cols = new int[sumColumns.length + predicates.length];
+        System.arraycopy(sumColumns, 0, cols, 0, sumColumns.length);
+        for (int i = 0; i < predicates.length; i++) {
+            cols[sumColumns.length + i] = predicates[i].colId;
+        }
+        return cols;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ScanQuery)) return false;
+        ScanQuery other = (ScanQuery) o;
+        return Arrays.equals(sumColumns, other.sumColumns) && Arrays.equals(predicates, other.predicates);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(sumColumns) + Arrays.hashCode(predicates);
+    }
+
+    @Override
+    public String toString() {
+        return "SUM" + Arrays.toString(sumColumns) + " WHERE " + Arrays.toString(predicates);
+    }
+}
@@ -0,0 +1,32 @@
+package memstore.server;
+
+/**
+ * Wire format shared by QueryServer and QueryClient.
+ *
+ * A request is one opcode byte followed by its int arguments; SCAN sends the
+ * number of sum columns, the columns, the number of predicates and then each
+ * predicate as (colId, CompareOp ordinal, value). A response is OK followed by
+ * the result as a long, or ERROR followed by the failure's message as UTF.
+ */
+final class Protocol {
+    static final byte GET_NUM_ROWS = 1;
+    static final byte GET_NUM_COLS = 2;
+    static final byte GET_INT_FIELD = 3;
+    static final byte PUT_INT_FIELD = 4;
+    static final byte DELETE_ROW = 5;
+    static final byte COLUMN_SUM = 6;
+    static final byte PREDICATED_COLUMN_SUM = 7;
+    static final byte PREDICATED_ALL_COLUMNS_SUM = 8;
+    static final byte PREDICATED_UPDATE = 9;
+    static final byte SCAN = 10;
+
+    static final byte OK = 0;
+    static final byte ERROR = 1;
+
+    private Protocol() {
+    }
+
+    static boolean isRequest(int op) {
+        return op >= GET_NUM_ROWS && op <= SCAN;
+    }
+}
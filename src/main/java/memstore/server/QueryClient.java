@@ -0,0 +1,134 @@
+package memstore.server;
+
+import memstore.query.Predicate;
+import memstore.query.ScanQuery;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+
+/**
+ * One connection to a QueryServer, with a method for each request it answers.
+ * Each call sends its request and waits for the answer, so a client is meant
+ * for one thread at a time; threads that want to query at once open a client
+ * each.
+ *
+ * Calls throw IOException if the connection fails, and IllegalStateException,
+ * with the server's message, if the table failed the request.
+ */
+public class QueryClient implements AutoCloseable {
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    /**
+     * Connects to a server on the loopback interface.
+     */
+    public QueryClient(int port) throws IOException {
+        this(InetAddress.getLoopbackAddress(), port);
+    }
+
+    public QueryClient(InetAddress address, int port) throws IOException {
+        this.socket = new Socket(address, port);
+        socket.setTcpNoDelay(true);
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+
+    /**
+     * Sends the request written so far and returns its result.
+     */
+    private long call() throws IOException {
+        out.flush();
+        int status = in.read();
+        if (status < 0) {
+            throw new EOFException("server closed the connection");
+        }
+        if (status == Protocol.ERROR) {
+            throw new IllegalStateException("server: " + in.readUTF());
+        }
+        return in.readLong();
+    }
+
+    public int getNumRows() throws IOException {
+        out.writeByte(Protocol.GET_NUM_ROWS);
+        return (int) call();
+    }
+
+    public int getNumCols() throws IOException {
+        out.writeByte(Protocol.GET_NUM_COLS);
+        return (int) call();
+    }
+
+    public int getIntField(int rowId, int colId) throws IOException {
+        out.writeByte(Protocol.GET_INT_FIELD);
+        out.writeInt(rowId);
+        out.writeInt(colId);
+        return (int) call();
+    }
+
+    public void putIntField(int rowId, int colId, int field) throws IOException {
+        out.writeByte(Protocol.PUT_INT_FIELD);
+        out.writeInt(rowId);
+        out.writeInt(colId);
+        out.writeInt(field);
+        call();
+    }
+
+    public boolean deleteRow(int rowId) throws IOException {
+        out.writeByte(Protocol.DELETE_ROW);
+        out.writeInt(rowId);
+        return call() != 0;
+    }
+
+    public long columnSum() throws IOException {
+        out.writeByte(Protocol.COLUMN_SUM);
+        return call();
+    }
+
+    public long predicatedColumnSum(int threshold1, int threshold2) throws IOException {
+        out.writeByte(Protocol.PREDICATED_COLUMN_SUM);
+        out.writeInt(threshold1);
+        out.writeInt(threshold2);
+        return call();
+    }
+
+    public long predicatedAllColumnsSum(int threshold) throws IOException {
+        out.writeByte(Protocol.PREDICATED_ALL_COLUMNS_SUM);
+        out.writeInt(threshold);
+        return call();
+    }
+
+    public int predicatedUpdate(int threshold) throws IOException {
+        out.writeByte(Protocol.PREDICATED_UPDATE);
+        out.writeInt(threshold);
+        return (int) call();
+    }
+
+    public long execute(ScanQuery query) throws IOException {
+        out.writeByte(Protocol.SCAN);
+        int[] sumColumns = query.getSumColumns();
+        out.writeInt(sumColumns.length);
+        for (int colId : sumColumns) {
+            out.writeInt(colId);
+        }
+        Predicate[] predicates = query.getPredicates();
+        out.writeInt(predicates.length);
+        for (Predicate predicate : predicates) {
+            out.writeInt(predicate.colId);
+            out.writeInt(predicate.op.ordinal());
+            out.writeInt(predicate.value);
+        }
+        return call();
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
@@ -0,0 +1,295 @@
+package memstore.server;
+
+import memstore.query.CompareOp;
+import memstore.query.Predicate;
+import memstore.query.ScanQuery;
+import memstore.table.Table;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Serves a table to QueryClients over loopback TCP, one connection per client.
+ *
+ * Each connection is served by one task that reads a request, runs it against
+ * the table and writes the result, until the client disconnects. On JDK 21 and
+ * later the tasks run on virtual threads, so an idle connection costs little
+ * more than its socket. On older JDKs, including the Java 8 this project
+ * targets, they run on a pool of `poolThreads` threads: a connection holds its
+ * thread while open, and connections beyond the pool's size wait until one
+ * closes.
+ *
+ * Requests from different connections run at once, so the table must be safe
+ * to share, e.g. a ConcurrentTable or a PartitionedTable.
+ */
+public class QueryServer implements AutoCloseable {
+    public static final int DEFAULT_POOL_THREADS = 64;
+    static final int BACKLOG = 1024;
+    /** Most sum columns or predicates a SCAN may send, beyond the table's column count */
+    static final int MAX_SCAN_TERMS = 64;
+    /** Longest the accept loop waits before retrying after accept fails */
+    static final long MAX_ACCEPT_BACKOFF_MS = 1000;
+
+    private final Table table;
+    private final ServerSocket serverSocket;
+    private final ExecutorService executor;
+    private final boolean virtualThreads;
+    private final Thread acceptThread;
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    private final LongAdder requests = new LongAdder();
+    private volatile boolean closed;
+
+    /**
+     * Serves `table` on a free loopback port, on virtual threads if the JDK
+     * has them.
+     */
+    public QueryServer(Table table) throws IOException {
+        this(table, 0, DEFAULT_POOL_THREADS, true);
+    }
+
+    /**
+     * @param port           Loopback port to listen on; 0 picks a free one.
+     * @param poolThreads    Size of the pool that serves connections without
+     *                       virtual threads.
+     * @param virtualThreads Whether to serve connections on virtual threads
+     *                       when the JDK has them.
+     * @throws IllegalArgumentException if poolThreads is not positive.
+     */
+    public QueryServer(Table table, int port, int poolThreads, boolean virtualThreads) throws IOException {
+        if (poolThreads <= 0) {
+            throw new IllegalArgumentException("pool must have a thread, got " + poolThreads);
+        }
+        this.table = table;
+        ExecutorService virtual = virtualThreads ? newVirtualThreadExecutor() : null;
+        this.virtualThreads = virtual != null;
+        this.executor = virtual != null ? virtual : new ThreadPoolExecutor(poolThreads, poolThreads,
+                0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r -> {
+                    Thread thread = new Thread(r, "query-server-worker");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.serverSocket = new ServerSocket(port, BACKLOG, InetAddress.getLoopbackAddress());
+        this.acceptThread = new Thread(this::acceptConnections, "query-server-accept");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    /**
+     * Returns an executor that starts a virtual thread per task, or null if the
+     * JDK has no virtual threads. Looked up reflectively, since this project
+     * compiles for Java 8.
+     */
+    static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Returns whether connections are served on virtual threads rather than
+     * the bounded pool.
+     */
+    public boolean usesVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * Returns the number of requests answered so far, including failed ones.
+     */
+    public long getRequestsServed() {
+        return requests.sum();
+    }
+
+    /**
+     * Accepts connections until close(). When accept keeps failing, e.g. with
+     * the process out of file descriptors, the loop waits twice as long before
+     * each retry, up to MAX_ACCEPT_BACKOFF_MS, rather than spinning.
+     */
+    private void acceptConnections() {
+        long backoffMs = 0;
+        while (!closed) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+                backoffMs = 0;
+            } catch (IOException e) {
+                // close() closed the server socket, or the accept failed; retry unless closed.
+                if (closed) {
+                    return;
+                }
+                backoffMs = Math.min(Math.max(1, 2 * backoffMs), MAX_ACCEPT_BACKOFF_MS);
+                try {
+                    Thread.sleep(backoffMs);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+                continue;
+            }
+            connections.add(socket);
+            try {
+                executor.execute(() -> serve(socket));
+            } catch (RejectedExecutionException e) {
+                closeQuietly(socket);
+            }
+        }
+    }
+
+    /**
+     * Answers the requests of one connection in order, until the client
+     * disconnects. A request the table fails gets an ERROR response, and the
+     * connection stays usable.
+     */
+    private void serve(Socket socket) {
+        try {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            for (int op; (op = in.read()) >= 0; ) {
+                if (!Protocol.isRequest(op)) {
+                    // The rest of the stream cannot be parsed, so drop the connection.
+                    out.writeByte(Protocol.ERROR);
+                    out.writeUTF("unknown request " + op);
+                    out.flush();
+                    break;
+                }
+                try {
+                    long result = dispatch(op, in);
+                    out.writeByte(Protocol.OK);
+                    out.writeLong(result);
+                } catch (RuntimeException e) {
+                    out.writeByte(Protocol.ERROR);
+                    out.writeUTF(String.valueOf(e));
+                }
+                requests.increment();
+                out.flush();
+            }
+        } catch (IOException e) {
+            // The client went away mid-request; there is no one to answer.
+        } finally {
+            connections.remove(socket);
+            closeQuietly(socket);
+        }
+    }
+
+    /**
+     * Reads the arguments of request `op` and runs it against the table.
+     */
+    private long dispatch(int op, DataInputStream in) throws IOException {
+        switch (op) {
+            case Protocol.GET_NUM_ROWS:
+                return table.getNumRows();
+            case Protocol.GET_NUM_COLS:
+                return table.getNumCols();
+            case Protocol.GET_INT_FIELD: {
+                int rowId = in.readInt();
+                int colId = in.readInt();
+                return table.getIntField(rowId, colId);
+            }
+            case Protocol.PUT_INT_FIELD: {
+                int rowId = in.readInt();
+                int colId = in.readInt();
+                int field = in.readInt();
+                table.putIntField(rowId, colId, field);
+                return 0;
+            }
+            case Protocol.DELETE_ROW:
+                return table.deleteRow(in.readInt()) ? 1 : 0;
+            case Protocol.COLUMN_SUM:
+                return table.columnSum();
+            case Protocol.PREDICATED_COLUMN_SUM: {
+                int threshold1 = in.readInt();
+                int threshold2 = in.readInt();
+                return table.predicatedColumnSum(threshold1, threshold2);
+            }
+            case Protocol.PREDICATED_ALL_COLUMNS_SUM:
+                return table.predicatedAllColumnsSum(in.readInt());
+            case Protocol.PREDICATED_UPDATE:
+                return table.predicatedUpdate(in.readInt());
+            default:
+                return table.execute(readScanQuery(in));
+        }
+    }
+
+    /**
+     * Reads a SCAN's sum columns and predicates. A count outside
+     * [0, max(getNumCols(), MAX_SCAN_TERMS)] throws IOException, so that the
+     * connection is dropped before anything is allocated for it.
+     */
+    private ScanQuery readScanQuery(DataInputStream in) throws IOException {
+        int maxTerms = Math.max(table.getNumCols(), MAX_SCAN_TERMS);
+        int[] sumColumns = new int[readCount(in, maxTerms, "sum columns")];
+        for (int i = 0; i < sumColumns.length; i++) {
+            sumColumns[i] = in.readInt();
+        }
+        Predicate[] predicates = new Predicate[readCount(in, maxTerms, "predicates")];
+        CompareOp[] ops = CompareOp.values();
+        for (int i = 0; i < predicates.length; i++) {
+            int colId = in.readInt();
+            int op = in.readInt();
+            int value = in.readInt();
+            if (op < 0 || op >= ops.length) {
+                throw new IOException("unknown comparison " + op);
+            }
+            predicates[i] = new Predicate(colId, ops[op], value);
+        }
+        return new ScanQuery(sumColumns, predicates);
+    }
+
+    private static int readCount(DataInputStream in, int max, String what) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || count > max) {
+            throw new IOException("bad number of " + what + ": " + count);
+        }
+        return count;
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Nothing left to clean up.
+        }
+    }
+
+    /**
+     * Stops accepting connections and drops the open ones; requests already
+     * running finish, but their clients get no answer.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+        for (Socket socket : connections) {
+            closeQuietly(socket);
+        }
+        executor.shutdown();
+        // Cut short a backoff after failed accepts.
+        acceptThread.interrupt();
+        try {
+            acceptThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
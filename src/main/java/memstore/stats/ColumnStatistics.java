@@ -0,0 +1,83 @@
+package memstore.stats;
+
+/**
+ * Statistics over one int column: min, max, a distinct-count sketch and an
+ * equi-depth histogram.
+ *
+ * Min and max only ever widen under updates, and the sketch never forgets an
+ * overwritten value, so after many updates they are conservative approximations.
+ * The histogram counts stay exact as long as every write is reported, but its
+ * bucket boundaries are fixed; TableStatistics rebuilds a column once enough
+ * updates have accumulated for the boundaries to drift.
+ */
+public class ColumnStatistics {
+    int min = Integer.MAX_VALUE;
+    int max = Integer.MIN_VALUE;
+    final DistinctCountSketch distinct;
+    final EquiDepthHistogram histogram;
+    /** Number of updates absorbed since the statistics were built. */
+    long updates;
+
+    ColumnStatistics(EquiDepthHistogram histogram) {
+        this(histogram, new DistinctCountSketch());
+    }
+
+    ColumnStatistics(EquiDepthHistogram histogram, DistinctCountSketch distinct) {
+        this.histogram = histogram;
+        this.distinct = distinct;
+    }
+
+    void add(int value) {
+        if (value < min) min = value;
+        if (value > max) max = value;
+        distinct.add(value);
+        histogram.add(value, 1);
+    }
+
+    /**
+     * Adds values[0, n), e.g. one block of a column read at load time.
+     */
+    void addAll(int[] values, int n) {
+        for (int i = 0; i < n; i++) {
+            min = Math.min(min, values[i]);
+            max = Math.max(max, values[i]);
+        }
+        distinct.addAll(values, n);
+        histogram.addAll(values, n);
+    }
+
+    /**
+     * Records that one field of this column changed from `oldValue` to `newValue`.
+     */
+    public void update(int oldValue, int newValue) {
+        if (oldValue == newValue) return;
+        updates++;
+        histogram.add(oldValue, -1);
+        add(newValue);
+    }
+
+    /**
+     * Records that a field holding `value` was deleted. Min, max and the sketch
+     * keep counting it, as they do for overwritten values.
+     */
+    void remove(int value) {
+        updates++;
+        histogram.add(value, -1);
+    }
+
+    public int getMin() {
+        return min;
+    }
+
+    public int getMax() {
+        return max;
+    }
+
+    public long getDistinctCount() {
+        return distinct.estimate();
+    }
+
+    public EquiDepthHistogram getHistogram() {
+        return histogram;
+    }
+}
@@ -0,0 +1,86 @@
+package memstore.stats;
+
+import java.nio.LongBuffer;
+
+/**
+ * HyperLogLog sketch estimating the number of distinct int values seen.
+ *
+ * Values can only be added, so after updates that overwrite a value the
+ * estimate still counts the overwritten one; it is an upper-leaning approximation.
+ */
+public class DistinctCountSketch {
+    static final int PRECISION = 10;
+    static final int NUM_REGISTERS = 1 << PRECISION;
+
+    private final byte[] registers = new byte[NUM_REGISTERS];
+
+    public void add(int value) {
+        int hash = mix(value);
+        int register = hash >>> (32 - PRECISION);
+        // Rank of the first set bit in the remaining bits, capped for all-zero tails.
+        int rank = Math.min(Integer.numberOfLeadingZeros(hash << PRECISION), 32 - PRECISION) + 1;
+        if (rank > registers[register]) {
+            registers[register] = (byte) rank;
+        }
+    }
+
+    public void addAll(int[] values, int n) {
+        for (int i = 0; i < n; i++) {
+            add(values[i]);
+        }
+    }
+
+    /**
+     * Returns the estimated number of distinct values added so far.
+     */
+    public long estimate() {
+        double harmonicSum = 0;
+        int zeros = 0;
+        for (byte r : registers) {
+            harmonicSum += 1.0 / (1L << r);
+            if (r == 0) zeros++;
+        }
+        double alpha = 0.7213 / (1 + 1.079 / NUM_REGISTERS);
+        double estimate = alpha * NUM_REGISTERS * NUM_REGISTERS / harmonicSum;
+        if (estimate <= 2.5 * NUM_REGISTERS && zeros > 0) {
+            // Small-range correction: linear counting.
+            estimate = NUM_REGISTERS * Math.log((double) NUM_REGISTERS / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    /**
+     * Writes the registers, eight to a long.
+     */
+    void writeTo(LongBuffer out) {
+        for (int i = 0; i < NUM_REGISTERS; i += 8) {
+            long packed = 0;
+            for (int j = 0; j < 8; j++) {
+                packed |= (registers[i + j] & 0xFFL) << (8 * j);
+            }
+            out.put(packed);
+        }
+    }
+
+    /**
+     * Reads registers written by writeTo.
+     */
+    void readFrom(LongBuffer in) {
+        for (int i = 0; i < NUM_REGISTERS; i += 8) {
+            long packed = in.get();
+            for (int j = 0; j < 8; j++) {
+                registers[i + j] = (byte) (packed >>> (8 * j));
+            }
+        }
+    }
+
+    /** Murmur3 32-bit finalizer. */
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
@@ -0,0 +1,257 @@
+package memstore.stats;
+
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+/**
+ * Equi-depth histogram over an int column.
+ *
+ * Bucket boundaries are chosen at load time so each bucket holds roughly the same
+ * number of values. Bucket `i` covers (upper[i-1], upper[i]]; the first bucket
+ * starts at the column minimum and the last one absorbs anything above its bound.
+ * Bucket counts live in a Fenwick tree, so both incremental maintenance and range
+ * estimates take O(log buckets).
+ */
+public class EquiDepthHistogram {
+    private final int[] upper;
+    /**
+     * Lookup table for bucketOf: slot k covers values from `slotBase + (k << slotShift)`
+     * and holds the first bucket that can contain them.
+     */
+    private final int[] slotStart;
+    private final int slotBase;
+    private final int slotShift;
+    /** Fenwick tree over bucket counts, 1-based. */
+    private final long[] tree;
+    private long total;
+    private int lowest;
+
+    static final int NUM_SLOTS = 1024;
+
+    /**
+     * Creates a histogram with boundaries taken from a sample of the column.
+     * The sample is sorted in place.
+     */
+    public EquiDepthHistogram(int[] sample, int sampleSize, int numBuckets) {
+        Arrays.sort(sample, 0, sampleSize);
+        int[] bounds = new int[Math.max(1, Math.min(numBuckets, sampleSize))];
+        int n = 0;
+        for (int i = 0; i < bounds.length && sampleSize > 0; i++) {
+            int bound = sample[(int) ((long) (i + 1) * sampleSize / bounds.length) - 1];
+            if (n == 0 || bound != bounds[n - 1]) {
+                bounds[n++] = bound;
+            }
+        }
+        if (n == 0) {
+            bounds[n++] = 0;
+        }
+        this.upper = Arrays.copyOf(bounds, n);
+        this.tree = new long[n + 1];
+        this.lowest = sampleSize > 0 ? sample[0] : 0;
+        this.slotBase = Math.min(lowest, upper[0]);
+        this.slotShift = slotShift(slotBase, upper[n - 1]);
+        this.slotStart = slotTable(upper, slotBase, slotShift);
+    }
+
+    private EquiDepthHistogram(int[] upper, long[] tree, long total, int lowest) {
+        this.upper = upper;
+        this.tree = tree;
+        this.total = total;
+        this.lowest = lowest;
+        this.slotBase = Math.min(lowest, upper[0]);
+        this.slotShift = slotShift(slotBase, upper[upper.length - 1]);
+        this.slotStart = slotTable(upper, slotBase, slotShift);
+    }
+
+    /**
+     * Returns the smallest shift that maps [base, top] onto at most NUM_SLOTS slots.
+     */
+    private static int slotShift(int base, int top) {
+        long range = (long) top - base;
+        int shift = 0;
+        while ((range >>> shift) >= NUM_SLOTS) {
+            shift++;
+        }
+        return shift;
+    }
+
+    private static int[] slotTable(int[] upper, int base, int shift) {
+        int[] table = new int[NUM_SLOTS];
+        int bucket = 0;
+        for (int slot = 0; slot < NUM_SLOTS; slot++) {
+            long slotLow = base + ((long) slot << shift);
+            while (bucket < upper.length - 1 && upper[bucket] < slotLow) {
+                bucket++;
+            }
+            table[slot] = bucket;
+        }
+        return table;
+    }
+
+    private void widenLastBucket(int value) {
+        // Only the last bound moves, and bucketOf never scans past the last bucket,
+        // so the slot table stays valid.
+        upper[upper.length - 1] = value;
+    }
+
+    /**
+     * Writes the boundaries and counts as: numBuckets, lowest, total, upper bounds, tree.
+     */
+    void writeTo(LongBuffer out) {
+        out.put(upper.length).put(lowest).put(total);
+        for (int bound : upper) {
+            out.put(bound);
+        }
+        out.put(tree);
+    }
+
+    /**
+     * Returns the number of longs writeTo emits.
+     */
+    int encodedLength() {
+        return 3 + upper.length + tree.length;
+    }
+
+    /**
+     * Reads a histogram written by writeTo.
+     */
+    static EquiDepthHistogram readFrom(LongBuffer in) {
+        int numBuckets = (int) in.get();
+        if (numBuckets <= 0) {
+            throw new IllegalArgumentException("corrupt histogram");
+        }
+        int lowest = (int) in.get();
+        long total = in.get();
+        int[] upper = new int[numBuckets];
+        for (int i = 0; i < numBuckets; i++) {
+            upper[i] = (int) in.get();
+        }
+        long[] tree = new long[numBuckets + 1];
+        in.get(tree);
+        return new EquiDepthHistogram(upper, tree, total, lowest);
+    }
+
+    public int getNumBuckets() {
+        return upper.length;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * Adds `delta` occurrences of `value`.
+     */
+    public void add(int value, long delta) {
+        int bucket = bucketOf(value);
+        if (bucket == upper.length - 1 && value > upper[bucket]) {
+            widenLastBucket(value);
+        }
+        if (value < lowest) {
+            lowest = value;
+        }
+        for (int i = bucket + 1; i < tree.length; i += i & -i) {
+            tree[i] += delta;
+        }
+        total += delta;
+    }
+
+    /**
+     * Adds one occurrence of each of values[0, n). Counts are accumulated per
+     * bucket first, so the Fenwick tree is touched once per bucket rather than
+     * once per value.
+     */
+    public void addAll(int[] values, int n) {
+        if (n == 0) {
+            return;
+        }
+        long[] counts = new long[upper.length];
+        int blockMin = Integer.MAX_VALUE;
+        int blockMax = Integer.MIN_VALUE;
+        int last = upper.length - 1;
+        for (int i = 0; i < n; i++) {
+            counts[bucketOf(values[i])]++;
+        }
+        for (int i = 0; i < n; i++) {
+            blockMin = Math.min(blockMin, values[i]);
+            blockMax = Math.max(blockMax, values[i]);
+        }
+        if (blockMax > upper[last]) {
+            widenLastBucket(blockMax);
+        }
+        if (blockMin < lowest) {
+            lowest = blockMin;
+        }
+        for (int bucket = 0; bucket < counts.length; bucket++) {
+            long delta = counts[bucket];
+            if (delta != 0) {
+                for (int node = bucket + 1; node < tree.length; node += node & -node) {
+                    tree[node] += delta;
+                }
+            }
+        }
+        total += n;
+    }
+
+    /**
+     * Estimates the number of values <= `value`.
+     */
+    public double estimateAtMost(int value) {
+        if (value < lowest) {
+            return 0;
+        }
+        int bucket = bucketOf(value);
+        double below = prefix(bucket);
+        long inBucket = (long) (prefix(bucket + 1) - below);
+        long lo = (bucket == 0) ? (long) lowest - 1 : upper[bucket - 1];
+        long hi = upper[bucket];
+        if (value >= hi || hi <= lo) {
+            return below + inBucket;
+        }
+        // Assume values are spread uniformly within the bucket.
+        return below + inBucket * (double) (value - lo) / (hi - lo);
+    }
+
+    /**
+     * Estimates the number of values < `value`.
+     */
+    public double estimateLessThan(int value) {
+        return value == Integer.MIN_VALUE ? 0 : estimateAtMost(value - 1);
+    }
+
+    /**
+     * Estimates the number of values > `value`.
+     */
+    public double estimateGreaterThan(int value) {
+        return total - estimateAtMost(value);
+    }
+
+    /**
+     * Returns the first bucket whose upper bound is >= `value`, or the last bucket.
+     * The slot table narrows the search to the first bucket that can hold the
+     * value; with NUM_SLOTS much larger than the number of buckets, the forward
+     * scan almost never takes a step. This replaced a binary search whose
+     * mispredicted branches dominated the cost of building statistics.
+     */
+    private int bucketOf(int value) {
+        long offset = (long) value - slotBase;
+        if (offset < 0) {
+            return 0;
+        }
+        int bucket = slotStart[(int) Math.min(offset >>> slotShift, NUM_SLOTS - 1)];
+        int last = upper.length - 1;
+        while (bucket < last && upper[bucket] < value) {
+            bucket++;
+        }
+        return bucket;
+    }
+
+    /** Sum of the counts of the first `buckets` buckets. */
+    private long prefix(int buckets) {
+        long sum = 0;
+        for (int i = buckets; i > 0; i -= i & -i) {
+            sum += tree[i];
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,314 @@
+package memstore.stats;
+
+import memstore.query.CompareOp;
+import memstore.query.Predicate;
+
+import java.nio.LongBuffer;
+
+/**
+ * Per-column statistics of a table, built at load time and maintained
+ * incrementally as fields are written.
+ *
+ * Selectivity estimates for single-column predicates take O(log buckets).
+ */
+public class TableStatistics {
+    static final int NUM_BUCKETS = 64;
+    static final int MAX_SAMPLE_ROWS = 16_384;
+    /**
+     * A column is rebuilt once it has absorbed updates to this fraction of its
+     * rows, which keeps rebuild cost amortized O(1) per update.
+     */
+    static final double REBUILD_FRACTION = 0.25;
+    /** Rows read per block when scanning a column. */
+    static final int BLOCK_ROWS = 4096;
+
+    /**
+     * Reads field (rowId, colId) from the table being described.
+     */
+    public interface FieldReader {
+        int get(int rowId, int colId);
+    }
+
+    /**
+     * Tells which row ids of the table being described are deleted.
+     */
+    public interface DeletedRows {
+        boolean isDeleted(int rowId);
+    }
+
+    /** For tables without deleted rows. */
+    public static final DeletedRows NO_DELETED_ROWS = rowId -> false;
+
+    final ColumnStatistics[] columns;
+    final boolean[] stale;
+    int numRows;
+    final FieldReader reader;
+    final DeletedRows deleted;
+
+    private TableStatistics(ColumnStatistics[] columns, int numRows, FieldReader reader, DeletedRows deleted) {
+        this.columns = columns;
+        this.stale = new boolean[columns.length];
+        this.numRows = numRows;
+        this.reader = reader;
+        this.deleted = deleted;
+    }
+
+    /**
+     * Builds statistics for every column of a table with `numRows` rows and
+     * `numCols` columns. `columnMajor` selects the traversal order that is
+     * sequential for the table's storage.
+     *
+     * Fields are read a block of rows at a time into per-column buffers, and each
+     * buffer is folded into its column's statistics in one tight pass.
+     */
+    public static TableStatistics build(int numRows, int numCols, boolean columnMajor, FieldReader reader) {
+        return build(numRows, numCols, columnMajor, reader, NO_DELETED_ROWS);
+    }
+
+    /**
+     * Like build, for a table that can delete rows: rows that `deleted` reports
+     * are left out, both now and whenever a column is rebuilt.
+     */
+    public static TableStatistics build(int numRows, int numCols, boolean columnMajor, FieldReader reader,
+                                        DeletedRows deleted) {
+        ColumnStatistics[] columns = new ColumnStatistics[numCols];
+        for (int colId = 0; colId < numCols; colId++) {
+            columns[colId] = new ColumnStatistics(sampleHistogram(numRows, colId, reader, deleted));
+        }
+        if (columnMajor) {
+            int[] block = new int[BLOCK_ROWS];
+            for (int colId = 0; colId < numCols; colId++) {
+                for (int firstRow = 0; firstRow < numRows; firstRow += BLOCK_ROWS) {
+                    int n = readBlock(firstRow, Math.min(firstRow + BLOCK_ROWS, numRows), colId, reader, deleted, block);
+                    columns[colId].addAll(block, n);
+                }
+            }
+        } else {
+            int[][] blocks = new int[numCols][BLOCK_ROWS];
+            for (int firstRow = 0; firstRow < numRows; firstRow += BLOCK_ROWS) {
+                int endRow = Math.min(firstRow + BLOCK_ROWS, numRows);
+                int n = 0;
+                for (int rowId = firstRow; rowId < endRow; rowId++) {
+                    if (deleted.isDeleted(rowId)) {
+                        continue;
+                    }
+                    for (int colId = 0; colId < numCols; colId++) {
+                        blocks[colId][n] = reader.get(rowId, colId);
+                    }
+                    n++;
+                }
+                for (int colId = 0; colId < numCols; colId++) {
+                    columns[colId].addAll(blocks[colId], n);
+                }
+            }
+        }
+        return new TableStatistics(columns, numRows, reader, deleted);
+    }
+
+    /**
+     * Reads column `colId` of the live rows in [firstRow, endRow) into `block`,
+     * and returns how many were read.
+     */
+    private static int readBlock(int firstRow, int endRow, int colId, FieldReader reader, DeletedRows deleted,
+                                 int[] block) {
+        int n = 0;
+        for (int rowId = firstRow; rowId < endRow; rowId++) {
+            if (!deleted.isDeleted(rowId)) {
+                block[n++] = reader.get(rowId, colId);
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Serializes the statistics, e.g. so that table snapshots can restore them
+     * without a pass over the data.
+     */
+    public long[] encode() {
+        int length = 2;
+        for (ColumnStatistics column : columns) {
+            length += 4 + DistinctCountSketch.NUM_REGISTERS / 8 + column.histogram.encodedLength();
+        }
+        LongBuffer out = LongBuffer.allocate(length);
+        out.put(numRows).put(columns.length);
+        for (int colId = 0; colId < columns.length; colId++) {
+            ColumnStatistics column = columns[colId];
+            out.put(stale[colId] ? 1 : 0).put(column.min).put(column.max).put(column.updates);
+            column.distinct.writeTo(out);
+            column.histogram.writeTo(out);
+        }
+        return out.array();
+    }
+
+    /**
+     * Restores statistics serialized by encode() for a table of `numRows` rows
+     * and `numCols` columns, read through `reader`, whose deleted rows
+     * `deleted` reports.
+     *
+     * @throws IllegalArgumentException if `encoded` describes a different shape.
+     */
+    public static TableStatistics decode(long[] encoded, int numRows, int numCols, FieldReader reader,
+                                         DeletedRows deleted) {
+        LongBuffer in = LongBuffer.wrap(encoded);
+        if (encoded.length < 2 || in.get() != numRows || in.get() != numCols) {
+            throw new IllegalArgumentException("statistics describe a different table");
+        }
+        ColumnStatistics[] columns = new ColumnStatistics[numCols];
+        boolean[] stale = new boolean[numCols];
+        for (int colId = 0; colId < numCols; colId++) {
+            stale[colId] = in.get() != 0;
+            int min = (int) in.get();
+            int max = (int) in.get();
+            long updates = in.get();
+            DistinctCountSketch distinct = new DistinctCountSketch();
+            distinct.readFrom(in);
+            ColumnStatistics column = new ColumnStatistics(EquiDepthHistogram.readFrom(in), distinct);
+            column.min = min;
+            column.max = max;
+            column.updates = updates;
+            columns[colId] = column;
+        }
+        TableStatistics stats = new TableStatistics(columns, numRows, reader, deleted);
+        System.arraycopy(stale, 0, stats.stale, 0, numCols);
+        return stats;
+    }
+
+    /**
+     * Marks column `colId` as out of date, for tables that cannot report
+     * individual writes to it cheaply. It is rebuilt on its next use.
+     */
+    public void invalidateColumn(int colId) {
+        stale[colId] = true;
+    }
+
+    private void rebuildColumn(int colId) {
+        ColumnStatistics column = new ColumnStatistics(sampleHistogram(numRows, colId, reader, deleted));
+        int[] block = new int[BLOCK_ROWS];
+        for (int firstRow = 0; firstRow < numRows; firstRow += BLOCK_ROWS) {
+            int n = readBlock(firstRow, Math.min(firstRow + BLOCK_ROWS, numRows), colId, reader, deleted, block);
+            column.addAll(block, n);
+        }
+        columns[colId] = column;
+        stale[colId] = false;
+    }
+
+    private static EquiDepthHistogram sampleHistogram(int numRows, int colId, FieldReader reader,
+                                                      DeletedRows deleted) {
+        int step = Math.max(1, numRows / MAX_SAMPLE_ROWS);
+        int[] sample = new int[(numRows + step - 1) / step];
+        int n = 0;
+        for (int rowId = 0; rowId < numRows && n < sample.length; rowId += step) {
+            if (!deleted.isDeleted(rowId)) {
+                sample[n++] = reader.get(rowId, colId);
+            }
+        }
+        return new EquiDepthHistogram(sample, n, NUM_BUCKETS);
+    }
+
+    public int getNumRows() {
+        return numRows;
+    }
+
+    public int getNumCols() {
+        return columns.length;
+    }
+
+    /**
+     * Returns the statistics of column `colId`, rebuilding them first if the
+     * column was invalidated or has drifted too far from its boundaries.
+     * Synchronized, since queries running side by side may both trigger the rebuild.
+     */
+    public synchronized ColumnStatistics getColumn(int colId) {
+        ColumnStatistics column = columns[colId];
+        if (stale[colId] || column.updates > REBUILD_FRACTION * numRows) {
+            rebuildColumn(colId);
+            column = columns[colId];
+        }
+        return column;
+    }
+
+    /**
+     * Records that field (rowId, colId) changed from `oldValue` to `newValue`.
+     */
+    public void recordUpdate(int colId, int oldValue, int newValue) {
+        if (!stale[colId]) {
+            columns[colId].update(oldValue, newValue);
+        }
+    }
+
+    /**
+     * Like recordUpdate, for writers that run concurrently with each other:
+     * updates to the same column take turns on its statistics' monitor.
+     */
+    public void recordUpdateConcurrently(int colId, int oldValue, int newValue) {
+        if (!stale[colId]) {
+            ColumnStatistics column = columns[colId];
+            synchronized (column) {
+                column.update(oldValue, newValue);
+            }
+        }
+    }
+
+    /**
+     * Records that the field in column `colId` of a deleted row held `value`.
+     * Deleted rows still count towards getNumRows, which is the range of row ids
+     * a rebuild reads, until the table compacts and builds new statistics; the
+     * rebuild itself skips them.
+     */
+    public void recordDelete(int colId, int value) {
+        if (!stale[colId]) {
+            columns[colId].remove(value);
+        }
+    }
+
+    /**
+     * Records that `n` rows, given row-major in data[offset, offset + n * numCols),
+     * were appended to the table. Appended rows count as updates, so a column
+     * whose new values stray from the histogram's boundaries is eventually rebuilt.
+     */
+    public void recordAppend(int[] data, int offset, int n) {
+        int numCols = columns.length;
+        int[] block = new int[Math.min(n, BLOCK_ROWS)];
+        for (int colId = 0; colId < numCols; colId++) {
+            if (stale[colId]) {
+                continue;
+            }
+            ColumnStatistics column = columns[colId];
+            for (int firstRow = 0; firstRow < n; firstRow += BLOCK_ROWS) {
+                int count = Math.min(BLOCK_ROWS, n - firstRow);
+                for (int i = 0, src = offset + firstRow * numCols + colId; i < count; i++, src += numCols) {
+                    block[i] = data[src];
+                }
+                column.addAll(block, count);
+            }
+            column.updates += n;
+        }
+        numRows += n;
+    }
+
+    /**
+     * Estimates how many rows satisfy `col OP value`.
+     */
+    public double estimateMatches(int colId, CompareOp op, int value) {
+        EquiDepthHistogram h = getColumn(colId).histogram;
+        switch (op) {
+            case LT: return h.estimateLessThan(value);
+            case LE: return h.estimateAtMost(value);
+            case GT: return h.estimateGreaterThan(value);
+            case GE: return h.getTotal() - h.estimateLessThan(value);
+            case EQ: return h.estimateAtMost(value) - h.estimateLessThan(value);
+            default: return h.getTotal() - (h.estimateAtMost(value) - h.estimateLessThan(value));
+        }
+    }
+
+    /**
+     * Estimates the fraction of rows satisfying `predicate`, in [0, 1].
+     */
+    public double estimateSelectivity(Predicate predicate) {
+        if (numRows == 0) {
+            return 0;
+        }
+        double matches = estimateMatches(predicate.colId, predicate.op, predicate.value);
+        return Math.max(0, Math.min(1, matches / numRows));
+    }
+}
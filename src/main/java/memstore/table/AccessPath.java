@@ -0,0 +1,13 @@
+package memstore.table;
+
+/**
+ * Ways an indexed table can answer a range predicate on its index column.
+ */
+public enum AccessPath {
+    /** Walk the index range and visit each matching row in index order. */
+    INDEX_SCAN,
+    /** Collect matching row ids from the index into a bitmap, then visit rows in storage order. */
+    BITMAP_SCAN,
+    /** Ignore the index and scan every row sequentially. */
+    FULL_SCAN
+}
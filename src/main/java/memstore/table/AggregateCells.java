@@ -0,0 +1,184 @@
+package memstore.table;
+
+import it.unimi.dsi.fastutil.ints.Int2LongMap;
+import it.unimi.dsi.fastutil.ints.Int2LongOpenHashMap;
+
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Striped deltas to CustomTable's aggregates, for point writes running
+ * concurrently (see StripedTable).
+ *
+ * Writer threads add to one of NUM_CELLS cells, the way a LongAdder stripes a
+ * counter, so concurrent writers rarely contend on the aggregates or share
+ * their cache lines. Threads are dealt cells in turn on their first write; a
+ * cell is locked while written, since threads beyond NUM_CELLS share one. The
+ * cells are fixed, so short-lived writers, e.g. one per server connection,
+ * leave nothing behind. A query adds the non-empty cells to the table's own
+ * aggregates; writes that need the totals fold the cells into them first.
+ * Neither may run alongside the concurrent writers, which is also what makes
+ * the cells' plain fields visible to them.
+ */
+final class AggregateCells {
+    static final int FIELD_MAX = CustomTable.FIELD_MAX;
+    /** Twice the processors, rounded up to a power of two */
+    static final int NUM_CELLS = Integer.highestOneBit(Math.max(1, 4 * Runtime.getRuntime().availableProcessors() - 1));
+
+    static final class Cell {
+        long col0_sum;
+        /** Same layout as CustomTable's: all-column sum at 2 * col0, col2 sum at 2 * col0 + 1 */
+        final long[] all_col2_combined_sum = new long[FIELD_MAX * 2];
+        final int[] count_col0 = new int[FIELD_MAX];
+        /** Sparse, since a cell only covers the rows its thread wrote */
+        final Int2LongOpenHashMap col0_sum_col1_col2 = new Int2LongOpenHashMap();
+        boolean empty = true;
+
+        /**
+         * Adds one row, given its col0, col1, col2 and the sum of all its fields,
+         * when `sign` is 1, or removes it when `sign` is -1.
+         */
+        synchronized void addRow(int col0, int col1, int col2, long row_sum, int sign) {
+            empty = false;
+            col0_sum += sign * col0;
+            all_col2_combined_sum[2 * col0 + 1] += sign * col2;
+            all_col2_combined_sum[2 * col0] += sign * row_sum;
+            count_col0[col0] += sign;
+            col0_sum_col1_col2.addTo(col1 * FIELD_MAX + col2, sign * col0);
+        }
+
+        /**
+         * Adds `delta` to the all-column sum of col0 value `col0`, for writes
+         * that leave col0, col1 and col2 alone.
+         */
+        synchronized void addToRowSum(int col0, long delta) {
+            empty = false;
+            all_col2_combined_sum[2 * col0] += delta;
+        }
+
+        private void clear() {
+            col0_sum = 0;
+            Arrays.fill(all_col2_combined_sum, 0);
+            Arrays.fill(count_col0, 0);
+            col0_sum_col1_col2.clear();
+            empty = true;
+        }
+    }
+
+    /** Created on first use; a query skips the null ones */
+    private final Cell[] cells = new Cell[NUM_CELLS];
+    private final AtomicInteger nextCell = new AtomicInteger();
+    private final ThreadLocal<Cell> local = ThreadLocal.withInitial(
+            () -> cell(nextCell.getAndIncrement() & (NUM_CELLS - 1)));
+
+    /**
+     * Returns the calling thread's cell.
+     */
+    Cell local() {
+        return local.get();
+    }
+
+    private synchronized Cell cell(int i) {
+        if (cells[i] == null) {
+            cells[i] = new Cell();
+        }
+        return cells[i];
+    }
+
+    /**
+     * Returns whether every cell is empty, in which case queries can skip them.
+     */
+    boolean isEmpty() {
+        for (Cell cell : cells) {
+            if (cell != null && !cell.empty) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    long col0Sum() {
+        long sum = 0;
+        for (Cell cell : cells) {
+            if (cell != null) {
+                sum += cell.col0_sum;
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Sums the all-column deltas of col0 values in (threshold, FIELD_MAX).
+     */
+    long allColumnsSum(int threshold) {
+        long sum = 0;
+        for (Cell cell : cells) {
+            if (cell == null || cell.empty) {
+                continue;
+            }
+            for (int col0 = threshold + 1; col0 < FIELD_MAX; col0++) {
+                sum += cell.all_col2_combined_sum[col0 * 2];
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Sums the col0 deltas of (col1, col2) pairs with col1 > threshold1 and col2 < threshold2.
+     */
+    long col0Sum(int threshold1, int threshold2) {
+        long sum = 0;
+        for (Cell cell : cells) {
+            if (cell == null || cell.empty) {
+                continue;
+            }
+            for (Int2LongMap.Entry e : cell.col0_sum_col1_col2.int2LongEntrySet()) {
+                int col1 = e.getIntKey() / FIELD_MAX;
+                int col2 = e.getIntKey() % FIELD_MAX;
+                if (col1 > threshold1 && col2 < threshold2) {
+                    sum += e.getLongValue();
+                }
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Adds every cell to the given aggregates and empties it; returns the col0
+     * sum delta, which the table keeps in a plain field.
+     */
+    long foldInto(LongBuffer all_col2_combined_sum, IntBuffer count_col0, LongBuffer col0_sum_col1_col2) {
+        long col0_sum = 0;
+        for (Cell cell : cells) {
+            if (cell == null || cell.empty) {
+                continue;
+            }
+            col0_sum += cell.col0_sum;
+            for (int i = 0; i < cell.all_col2_combined_sum.length; i++) {
+                all_col2_combined_sum.put(i, all_col2_combined_sum.get(i) + cell.all_col2_combined_sum[i]);
+            }
+            for (int i = 0; i < cell.count_col0.length; i++) {
+                count_col0.put(i, count_col0.get(i) + cell.count_col0[i]);
+            }
+            for (Int2LongMap.Entry e : cell.col0_sum_col1_col2.int2LongEntrySet()) {
+                int index = e.getIntKey();
+                col0_sum_col1_col2.put(index, col0_sum_col1_col2.get(index) + e.getLongValue());
+            }
+            cell.clear();
+        }
+        return col0_sum;
+    }
+
+    /**
+     * Empties every cell, e.g. once the table's aggregates are recomputed.
+     */
+    void clear() {
+        for (Cell cell : cells) {
+            if (cell != null) {
+                cell.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package memstore.table;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Catches up on the deferred writes of a table shared through ConcurrentTable
+ * (e.g. CustomTable's col3 updates) on a daemon thread, so that foreground
+ * writes rarely have to.
+ *
+ * Each step holds the table's write lock for a bounded time, and the thread
+ * yields between steps so that waiting readers and writers get in. With nothing
+ * to do, it checks again every IDLE_MILLIS.
+ */
+public class BackgroundReconciler implements AutoCloseable {
+    static final long IDLE_MILLIS = 1;
+
+    private final ConcurrentTable table;
+    private final Thread thread;
+    private volatile boolean closed;
+    private final AtomicLong steps = new AtomicLong();
+
+    public BackgroundReconciler(ConcurrentTable table) {
+        this.table = table;
+        this.thread = new Thread(this::run, "background-reconciler");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void run() {
+        while (!closed) {
+            if (table.reconcileStep()) {
+                steps.incrementAndGet();
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(IDLE_MILLIS));
+            }
+        }
+    }
+
+    /**
+     * Returns the number of steps that found work to do.
+     */
+    public long getSteps() {
+        return steps.get();
+    }
+
+    /**
+     * Stops the thread once its current step is done.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package memstore.table;
+
+import memstore.query.Query;
+import memstore.query.QueryCompiler;
+import memstore.query.QueryShape;
+import memstore.query.ScanKernel;
+import memstore.query.ScanQuery;
+
+import java.util.List;
+
+/**
+ * Runs a batch of queries over chunked storage, answering each run of
+ * consecutive reads in one pass (see Table.executeBatch).
+ *
+ * The pass goes chunk by chunk through scanChunk, which hands every read of the
+ * run the same block of BLOCK_ROWS rows in turn, each through its compiled
+ * kernel with its own accumulator: the block is read from memory once and then
+ * from cache, where sequential calls would each stream the whole table.
+ * SharedScanner sweeps its chunks the same way. Updates run in place between
+ * the passes, so every read sees exactly the updates before it. A run of a
+ * single read goes through the table's own method.
+ */
+final class BatchExecutor {
+    /** Rows each kernel scans before the next one; small enough to stay in cache */
+    static final int BLOCK_ROWS = 4096;
+
+    /**
+     * Runs a kernel over the live rows in [first, last), which lie within one chunk.
+     */
+    interface KernelRunner {
+        long run(ScanKernel kernel, int[] params, int first, int last);
+    }
+
+    private BatchExecutor() { }
+
+    static long[] execute(Table table, List<Query> queries, QueryShape.Layout layout,
+                          ChunkedStorage storage, KernelRunner runner) {
+        long[] results = new long[queries.size()];
+        int start = 0;
+        while (start < results.length) {
+            int end = start;
+            while (end < results.length && !queries.get(end).isUpdate()) {
+                end++;
+            }
+            if (end - start > 1) {
+                scan(queries.subList(start, end), layout, storage, runner, results, start);
+            } else {
+                // An update, or a lone read between updates.
+                end = start + 1;
+                results[start] = table.execute(queries.get(start));
+            }
+            start = end;
+        }
+        return results;
+    }
+
+    /**
+     * Answers `reads` with one pass, into results[offset, offset + reads.size()).
+     */
+    private static void scan(List<Query> reads, QueryShape.Layout layout, ChunkedStorage storage,
+                             KernelRunner runner, long[] results, int offset) {
+        int n = reads.size();
+        ScanKernel[] kernels = new ScanKernel[n];
+        int[][] params = new int[n][];
+        for (int i = 0; i < n; i++) {
+            ScanQuery query = reads.get(i).toScanQuery(storage.getNumCols());
+            kernels[i] = QueryCompiler.compile(query.shape(layout, storage.getNumCols()));
+            params[i] = query.getParams();
+        }
+        for (int chunkId = 0; chunkId < storage.getNumChunks(); chunkId++) {
+            scanChunk(storage, chunkId, kernels, params, n, runner, results, offset);
+        }
+    }
+
+    /**
+     * Runs kernels[0, n) over chunk `chunkId` a block at a time, adding kernel
+     * i's sum to sums[offset + i].
+     */
+    static void scanChunk(ChunkedStorage storage, int chunkId, ScanKernel[] kernels, int[][] params, int n,
+                          KernelRunner runner, long[] sums, int offset) {
+        int first = chunkId << ChunkedStorage.CHUNK_SHIFT;
+        int last = first + storage.getChunkRows(chunkId);
+        for (int block = first; block < last; block += BLOCK_ROWS) {
+            int blockEnd = Math.min(last, block + BLOCK_ROWS);
+            for (int i = 0; i < n; i++) {
+                sums[offset + i] += runner.run(kernels[i], params[i], block, blockEnd);
+            }
+        }
+    }
+}
@@ -0,0 +1,414 @@
+package memstore.table;
+
+import memstore.data.DataLoader;
+import memstore.data.RowBatch;
+import memstore.query.Predicate;
+import memstore.query.ScanQuery;
+import memstore.stats.TableStatistics;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Decorator that caches the results of read-only queries over any Table.
+ *
+ * Entries are keyed by query and parameters and remember which columns the query
+ * reads. A write only evicts the entries that read the written column, so e.g. a
+ * putIntField on col7 keeps a cached predicatedColumnSum (which reads cols 0-2).
+ * The cache holds at most `capacity` entries and evicts the least recently used.
+ *
+ * Lookups and stores synchronize on the table, so queries may run concurrently
+ * (e.g. under ConcurrentTable's read lock); writes must still run alone.
+ */
+public class CachingTable implements Table {
+    private static final int COLUMN_SUM = 0;
+    private static final int PREDICATED_COLUMN_SUM = 1;
+    private static final int PREDICATED_ALL_COLUMNS_SUM = 2;
+    private static final int SCAN_QUERY = 3;
+
+    private final Table table;
+    private final int capacity;
+    private final LinkedHashMap<CacheKey, Long> cache;
+    /** Cached keys that read a given column, indexed by column id. */
+    private final List<Set<CacheKey>> readersByColumn = new ArrayList<>();
+    /** Cached keys that read every column. */
+    private final Set<CacheKey> allColumnReaders = new HashSet<>();
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    public CachingTable(Table table, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.table = table;
+        this.capacity = capacity;
+        this.cache = new LinkedHashMap<CacheKey, Long>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<CacheKey, Long> eldest) {
+                if (size() > CachingTable.this.capacity) {
+                    unindex(eldest.getKey());
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Loads data into the underlying table and drops every cached result.
+     *
+     * @param loader Loader to load data from.
+     * @throws IOException
+     */
+    @Override
+    public void load(DataLoader loader) throws IOException {
+        table.load(loader);
+        clear();
+    }
+
+    /**
+     * Appends rows to the underlying table. New rows can change every cached
+     * result, so all of them are invalidated.
+     */
+    @Override
+    public void appendRows(RowBatch batch) {
+        table.appendRows(batch);
+        if (batch.getNumRows() > 0) {
+            invalidations += cache.size();
+            clear();
+        }
+    }
+
+    @Override
+    public void saveSnapshot(String path) throws IOException {
+        table.saveSnapshot(path);
+    }
+
+    /**
+     * Restores the underlying table from a snapshot and drops every cached result.
+     */
+    @Override
+    public void restoreSnapshot(String path) throws IOException {
+        table.restoreSnapshot(path);
+        clear();
+    }
+
+    /**
+     * Drops every cached result without touching the counters.
+     */
+    public void clear() {
+        cache.clear();
+        readersByColumn.clear();
+        allColumnReaders.clear();
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    public long getInvalidations() {
+        return invalidations;
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    @Override
+    public int getNumRows() {
+        return table.getNumRows();
+    }
+
+    @Override
+    public int getNumCols() {
+        return table.getNumCols();
+    }
+
+    @Override
+    public TableStatistics getStatistics() {
+        return table.getStatistics();
+    }
+
+    @Override
+    public int getIntField(int rowId, int colId) {
+        return table.getIntField(rowId, colId);
+    }
+
+    /**
+     * Inserts the passed-in int field, evicting cached results that read column `colId`.
+     * Writes that do not change the stored value evict nothing.
+     */
+    @Override
+    public void putIntField(int rowId, int colId, int field) {
+        if (table.getIntField(rowId, colId) == field) {
+            return;
+        }
+        table.putIntField(rowId, colId, field);
+        invalidateColumn(colId);
+    }
+
+    /**
+     * Applies the batch to the underlying table, then evicts cached results that
+     * read any column the batch changes, once per column.
+     *
+     * @throws IllegalArgumentException if the arrays differ in length.
+     * @throws IndexOutOfBoundsException if a write is outside the table; the
+     *         batch is checked whole before anything is written.
+     */
+    @Override
+    public void putIntFields(int[] rowIds, int[] colIds, int[] values) {
+        FieldWrites.checkLengths(rowIds, colIds, values);
+        int numRows = table.getNumRows();
+        int numCols = table.getNumCols();
+        for (int i = 0; i < rowIds.length; i++) {
+            if (rowIds[i] < 0 || rowIds[i] >= numRows) {
+                throw new IndexOutOfBoundsException("row " + rowIds[i] + " of " + numRows);
+            }
+            if (colIds[i] < 0 || colIds[i] >= numCols) {
+                throw new IndexOutOfBoundsException("column " + colIds[i] + " of " + numCols);
+            }
+        }
+        boolean[] changed = new boolean[numCols];
+        for (int i = 0; i < rowIds.length; i++) {
+            if (table.getIntField(rowIds[i], colIds[i]) != values[i]) {
+                changed[colIds[i]] = true;
+            }
+        }
+        table.putIntFields(rowIds, colIds, values);
+        for (int colId = 0; colId < changed.length; colId++) {
+            if (changed[colId]) {
+                invalidateColumn(colId);
+            }
+        }
+    }
+
+    /**
+     * Replaces a row in the underlying table, evicting cached results that read
+     * any column whose value changes.
+     */
+    @Override
+    public void putRow(int rowId, int[] values) {
+        boolean[] changed = new boolean[values.length];
+        for (int colId = 0; colId < values.length && colId < table.getNumCols(); colId++) {
+            changed[colId] = table.getIntField(rowId, colId) != values[colId];
+        }
+        table.putRow(rowId, values);
+        for (int colId = 0; colId < changed.length; colId++) {
+            if (changed[colId]) {
+                invalidateColumn(colId);
+            }
+        }
+    }
+
+    @Override
+    public boolean isDeleted(int rowId) {
+        return table.isDeleted(rowId);
+    }
+
+    @Override
+    public int getNumDeletedRows() {
+        return table.getNumDeletedRows();
+    }
+
+    /**
+     * Deletes rows from the underlying table. Any cached result may have counted
+     * them, so all are invalidated if a row was deleted.
+     */
+    @Override
+    public int deleteRows(int[] rowIds) {
+        return invalidateIfDeleted(table.deleteRows(rowIds));
+    }
+
+    @Override
+    public int deleteWhere(Predicate... predicates) {
+        return invalidateIfDeleted(table.deleteWhere(predicates));
+    }
+
+    private int invalidateIfDeleted(int count) {
+        if (count > 0) {
+            invalidations += cache.size();
+            clear();
+        }
+        return count;
+    }
+
+    /**
+     * Compacts the underlying table. Renumbering rows changes no query result,
+     * so the cache is kept.
+     */
+    @Override
+    public void compact() {
+        table.compact();
+    }
+
+    @Override
+    public void setCompactionThreshold(double ratio) {
+        table.setCompactionThreshold(ratio);
+    }
+
+    @Override
+    public long columnSum() {
+        CacheKey key = new CacheKey(COLUMN_SUM, 0, 0, null);
+        Long cached = lookup(key);
+        if (cached != null) {
+            return cached;
+        }
+        long result = table.columnSum();
+        store(key, result, new int[]{0});
+        return result;
+    }
+
+    @Override
+    public long predicatedColumnSum(int threshold1, int threshold2) {
+        CacheKey key = new CacheKey(PREDICATED_COLUMN_SUM, threshold1, threshold2, null);
+        Long cached = lookup(key);
+        if (cached != null) {
+            return cached;
+        }
+        long result = table.predicatedColumnSum(threshold1, threshold2);
+        store(key, result, new int[]{0, 1, 2});
+        return result;
+    }
+
+    @Override
+    public long predicatedAllColumnsSum(int threshold) {
+        CacheKey key = new CacheKey(PREDICATED_ALL_COLUMNS_SUM, threshold, 0, null);
+        Long cached = lookup(key);
+        if (cached != null) {
+            return cached;
+        }
+        long result = table.predicatedAllColumnsSum(threshold);
+        store(key, result, null);
+        return result;
+    }
+
+    @Override
+    public long execute(ScanQuery query) {
+        CacheKey key = new CacheKey(SCAN_QUERY, 0, 0, query);
+        Long cached = lookup(key);
+        if (cached != null) {
+            return cached;
+        }
+        long result = table.execute(query);
+        store(key, result, query.getReadColumns());
+        return result;
+    }
+
+    /**
+     * Runs the update on the underlying table; evicts results that read col3
+     * if any row was updated.
+     */
+    @Override
+    public int predicatedUpdate(int threshold) {
+        int count = table.predicatedUpdate(threshold);
+        if (count > 0) {
+            invalidateColumn(3);
+        }
+        return count;
+    }
+
+    private synchronized Long lookup(CacheKey key) {
+        Long cached = cache.get(key);
+        if (cached != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return cached;
+    }
+
+    /**
+     * Caches `result` under `key`; `readColumns` is null for queries that read every column.
+     */
+    private synchronized void store(CacheKey key, long result, int[] readColumns) {
+        key.readColumns = readColumns;
+        if (readColumns == null) {
+            allColumnReaders.add(key);
+        } else {
+            for (int colId : readColumns) {
+                while (readersByColumn.size() <= colId) {
+                    readersByColumn.add(new HashSet<>());
+                }
+                readersByColumn.get(colId).add(key);
+            }
+        }
+        cache.put(key, result);
+    }
+
+    private void unindex(CacheKey key) {
+        if (key.readColumns == null) {
+            allColumnReaders.remove(key);
+        } else {
+            for (int colId : key.readColumns) {
+                readersByColumn.get(colId).remove(key);
+            }
+        }
+    }
+
+    private void invalidateColumn(int colId) {
+        for (CacheKey key : allColumnReaders) {
+            cache.remove(key);
+            invalidations++;
+        }
+        allColumnReaders.clear();
+        if (colId < readersByColumn.size()) {
+            Set<CacheKey> readers = readersByColumn.get(colId);
+            if (!readers.isEmpty()) {
+                for (CacheKey key : new ArrayList<>(readers)) {
+                    if (cache.remove(key) != null) {
+                        unindex(key);
+                        invalidations++;
+                    }
+                }
+            }
+        }
+    }
+
+    private static final class CacheKey {
+        final int kind;
+        final int param1;
+        final int param2;
+        final ScanQuery query;
+        /** Columns read by the cached query; not part of the key. */
+        int[] readColumns;
+
+        CacheKey(int kind, int param1, int param2, ScanQuery query) {
+            this.kind = kind;
+            this.param1 = param1;
+            this.param2 = param2;
+            this.query = query;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof CacheKey)) return false;
+            CacheKey other = (CacheKey) o;
+            return kind == other.kind && param1 == other.param1 && param2 == other.param2
+                    && Objects.equals(query, other.query);
+        }
+
+        @Override
+        public int hashCode() {
+            return ((kind * 31 + param1) * 31 + param2) * 31 + Objects.hashCode(query);
+        }
+    }
+}
@@ -0,0 +1,410 @@
+package memstore.table;
+
+import memstore.data.ByteFormat;
+import memstore.data.RowBatch;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Growable field storage for a table, split into chunks of up to CHUNK_ROWS rows.
+ *
+ * Each chunk is a ByteBuffer laid out row-major or column-major within itself, so
+ * a scan over one chunk looks exactly like a scan over a flat table of that many
+ * rows; column j of a column-major chunk starts at j * getChunkCapacity(chunk).
+ * Row `rowId` lives in chunk rowId >>> CHUNK_SHIFT.
+ *
+ * Every chunk but the last is full. Appends fill the last chunk, whose capacity
+ * doubles up to CHUNK_ROWS, and then start a new one, so growing never copies
+ * more than one chunk and costs amortized O(1) per row.
+ *
+ * pin() returns a read-only version of the storage that shares its chunks.
+ * Chunks are copied on write: the first write to a chunk that a pinned version
+ * may share copies it, and later writes go to the copy. Once every version is
+ * unpinned, writes stop copying, and buffers that only old versions referenced
+ * are left to the garbage collector.
+ */
+final class ChunkedStorage {
+    static final int CHUNK_SHIFT = 16;
+    static final int CHUNK_ROWS = 1 << CHUNK_SHIFT;
+    static final int CHUNK_MASK = CHUNK_ROWS - 1;
+    /** Smallest capacity given to a growing last chunk. */
+    static final int MIN_CHUNK_ROWS = 64;
+    /** Rows staged at a time when compaction copies live rows. */
+    static final int COPY_BLOCK_ROWS = 4096;
+
+    private final int numCols;
+    private final boolean columnMajor;
+    private ByteBuffer[] chunks = new ByteBuffer[0];
+    /** Row capacity of each chunk. */
+    private int[] capacities = new int[0];
+    private int numChunks;
+    private int numRows;
+    /** Bumped by every pin(); chunks stamped below it may be shared with a pinned version. */
+    private int version;
+    /** Version at which each chunk's buffer was created or copied. */
+    private int[] stamps = new int[0];
+    /** Number of versions pinned and not yet unpinned. */
+    private final AtomicInteger pinned = new AtomicInteger();
+    /** For a pinned version, the storage it was pinned from. */
+    private ChunkedStorage source;
+
+    ChunkedStorage(int numCols, boolean columnMajor) {
+        this.numCols = numCols;
+        this.columnMajor = columnMajor;
+    }
+
+    /**
+     * Creates zero-filled storage holding exactly `numRows` rows.
+     */
+    static ChunkedStorage allocate(int numRows, int numCols, boolean columnMajor) {
+        ChunkedStorage storage = new ChunkedStorage(numCols, columnMajor);
+        int numChunks = (numRows + CHUNK_MASK) >>> CHUNK_SHIFT;
+        storage.chunks = new ByteBuffer[numChunks];
+        storage.capacities = new int[numChunks];
+        storage.stamps = new int[numChunks];
+        for (int i = 0; i < numChunks; i++) {
+            storage.addChunk(Math.min(CHUNK_ROWS, numRows - (i << CHUNK_SHIFT)));
+        }
+        storage.numRows = numRows;
+        return storage;
+    }
+
+    int getNumRows() {
+        return numRows;
+    }
+
+    int getNumCols() {
+        return numCols;
+    }
+
+    int getNumChunks() {
+        return numChunks;
+    }
+
+    /**
+     * Returns the buffer of `chunk` for reading.
+     */
+    ByteBuffer getChunk(int chunk) {
+        return chunks[chunk];
+    }
+
+    /**
+     * Returns the buffer of `chunk` for writing, first copying it if a pinned
+     * version may share it.
+     */
+    ByteBuffer getWritableChunk(int chunk) {
+        ensurePrivate(chunk);
+        return chunks[chunk];
+    }
+
+    /**
+     * Returns the number of rows stored in `chunk`.
+     */
+    int getChunkRows(int chunk) {
+        return Math.min(CHUNK_ROWS, numRows - (chunk << CHUNK_SHIFT));
+    }
+
+    /**
+     * Returns the number of rows `chunk` has room for; the column stride of a
+     * column-major chunk.
+     */
+    int getChunkCapacity(int chunk) {
+        return capacities[chunk];
+    }
+
+    int getInt(int rowId, int colId) {
+        int chunk = rowId >>> CHUNK_SHIFT;
+        return chunks[chunk].getInt(offset(chunk, rowId & CHUNK_MASK, colId));
+    }
+
+    void putInt(int rowId, int colId, int field) {
+        int chunk = rowId >>> CHUNK_SHIFT;
+        ensurePrivate(chunk);
+        chunks[chunk].putInt(offset(chunk, rowId & CHUNK_MASK, colId), field);
+    }
+
+    /**
+     * Like putInt, but safe to call concurrently for different fields, as long as
+     * no other write and no pin() runs alongside. Copying a chunk for a pinned
+     * version is then the only shared step, and it takes the storage's monitor.
+     */
+    void putIntConcurrently(int rowId, int colId, int field) {
+        int chunk = rowId >>> CHUNK_SHIFT;
+        if (pinned.get() > 0) {
+            synchronized (this) {
+                ensurePrivate(chunk);
+            }
+        }
+        chunks[chunk].putInt(offset(chunk, rowId & CHUNK_MASK, colId), field);
+    }
+
+    /**
+     * Returns the byte offset of field (row, colId) within `chunk`, where `row`
+     * counts from the start of the chunk.
+     */
+    int offset(int chunk, int row, int colId) {
+        if (columnMajor) {
+            return ByteFormat.FIELD_LEN * (colId * capacities[chunk] + row);
+        }
+        return ByteFormat.FIELD_LEN * (row * numCols + colId);
+    }
+
+    /**
+     * Stores `n` rows, given row-major in data[offset, offset + n * numCols), as
+     * rows [firstRow, firstRow + n), which must already be allocated. Calls for
+     * disjoint row ranges may run concurrently.
+     */
+    void putRows(int firstRow, int[] data, int offset, int n) {
+        while (n > 0) {
+            int chunk = firstRow >>> CHUNK_SHIFT;
+            int row = firstRow & CHUNK_MASK;
+            int count = Math.min(n, CHUNK_ROWS - row);
+            ensurePrivate(chunk);
+            IntBuffer fields = chunks[chunk].asIntBuffer();
+            if (columnMajor) {
+                transposeInto(fields, capacities[chunk], row, data, offset, count);
+            } else {
+                fields.position(row * numCols);
+                fields.put(data, offset, count * numCols);
+            }
+            firstRow += count;
+            offset += count * numCols;
+            n -= count;
+        }
+    }
+
+    /**
+     * Reads rows [firstRow, firstRow + n) row-major into data[offset, offset + n * numCols);
+     * the inverse of putRows.
+     */
+    void getRows(int firstRow, int[] data, int offset, int n) {
+        while (n > 0) {
+            int chunk = firstRow >>> CHUNK_SHIFT;
+            int row = firstRow & CHUNK_MASK;
+            int count = Math.min(n, CHUNK_ROWS - row);
+            IntBuffer fields = chunks[chunk].asIntBuffer();
+            if (columnMajor) {
+                int capacity = capacities[chunk];
+                for (int colId = 0; colId < numCols; colId++) {
+                    for (int i = 0, dst = offset + colId; i < count; i++, dst += numCols) {
+                        data[dst] = fields.get(colId * capacity + row + i);
+                    }
+                }
+            } else {
+                fields.position(row * numCols);
+                fields.get(data, offset, count * numCols);
+            }
+            firstRow += count;
+            offset += count * numCols;
+            n -= count;
+        }
+    }
+
+    /**
+     * Returns a read-only version of the storage as it is now, which later writes
+     * to this storage do not change. Pass it to unpin() once done with it.
+     * Pinning only copies the chunk table; pins may run concurrently with each
+     * other, but not with writes.
+     */
+    synchronized ChunkedStorage pin() {
+        version++;
+        pinned.incrementAndGet();
+        ChunkedStorage pinnedVersion = new ChunkedStorage(numCols, columnMajor);
+        pinnedVersion.chunks = Arrays.copyOf(chunks, numChunks);
+        pinnedVersion.capacities = Arrays.copyOf(capacities, numChunks);
+        pinnedVersion.stamps = new int[numChunks];
+        pinnedVersion.numChunks = numChunks;
+        pinnedVersion.numRows = numRows;
+        pinnedVersion.source = this;
+        return pinnedVersion;
+    }
+
+    /**
+     * Releases a version returned by pin(). Safe to call concurrently with writes.
+     * The count drops under the source's monitor, so a putIntConcurrently that
+     * sees it at zero also sees every chunk copied before it got there.
+     */
+    void unpin() {
+        if (source == null) {
+            throw new IllegalStateException("storage is not a pinned version");
+        }
+        synchronized (source) {
+            source.pinned.decrementAndGet();
+        }
+        source = null;
+    }
+
+    /**
+     * Copies `chunk` before its first write if a pinned version may share it.
+     * The copy is filled before it is wrapped, so a reader on another thread that
+     * sees the new buffer also sees its contents (the buffer's array is final).
+     */
+    private void ensurePrivate(int chunk) {
+        if (pinned.get() > 0 && stamps[chunk] < version) {
+            byte[] fields = chunks[chunk].array();
+            ByteBuffer copy = ByteBuffer.wrap(Arrays.copyOf(fields, fields.length));
+            chunks[chunk] = copy;
+            stamps[chunk] = version;
+        }
+    }
+
+    /**
+     * Returns new storage holding only the rows not in `deleted`, in their
+     * current order, so live row r moves to r minus the deleted rows before it.
+     * Live runs are copied a block of rows at a time.
+     */
+    ChunkedStorage compact(Tombstones deleted) {
+        ChunkedStorage live = allocate(numRows - deleted.count(), numCols, columnMajor);
+        int[] block = new int[COPY_BLOCK_ROWS * numCols];
+        int dst = 0;
+        for (int start = deleted.nextLive(0, numRows), end; start < numRows; start = deleted.nextLive(end, numRows)) {
+            end = deleted.nextDeleted(start, numRows);
+            for (int from = start; from < end; from += COPY_BLOCK_ROWS) {
+                int n = Math.min(COPY_BLOCK_ROWS, end - from);
+                getRows(from, block, 0, n);
+                live.putRows(dst, block, 0, n);
+                dst += n;
+            }
+        }
+        return live;
+    }
+
+    /**
+     * Stores a row-major block of `n` rows into a column-major chunk.
+     *
+     * Blocks are small enough to stay in cache, so the transpose gathers each
+     * column of the block into a scratch array with cached strided reads and
+     * then writes it out with one sequential bulk copy.
+     */
+    private void transposeInto(IntBuffer fields, int capacity, int row, int[] data, int offset, int n) {
+        int[] column = new int[n];
+        for (int colId = 0; colId < numCols; colId++) {
+            for (int i = 0, src = offset + colId; i < n; i++, src += numCols) {
+                column[i] = data[src];
+            }
+            IntBuffer region = fields.duplicate();
+            region.position(colId * capacity + row);
+            region.put(column, 0, n);
+        }
+    }
+
+    /**
+     * Appends the rows of `batch`.
+     *
+     * @throws IllegalArgumentException if the batch's column count differs.
+     */
+    void append(RowBatch batch) {
+        if (batch.getNumCols() != numCols) {
+            throw new IllegalArgumentException("batch has " + batch.getNumCols() + " columns, table has " + numCols);
+        }
+        append(batch.getData(), 0, batch.getNumRows());
+    }
+
+    /**
+     * Appends `n` rows given row-major in data[offset, offset + n * numCols).
+     */
+    void append(int[] data, int offset, int n) {
+        ensureCapacity(numRows + n);
+        putRows(numRows, data, offset, n);
+        numRows += n;
+    }
+
+    /**
+     * Makes room for at least `rows` rows, growing only the last chunk.
+     */
+    private void ensureCapacity(int rows) {
+        if (numChunks > 0) {
+            int last = numChunks - 1;
+            int lastCapacity = capacities[last];
+            int needed = rows - (last << CHUNK_SHIFT);
+            if (lastCapacity < CHUNK_ROWS && needed > lastCapacity) {
+                int capacity = lastCapacity;
+                while (capacity < needed && capacity < CHUNK_ROWS) {
+                    capacity = Math.max(MIN_CHUNK_ROWS, capacity * 2);
+                }
+                growLastChunk(Math.min(CHUNK_ROWS, capacity));
+            }
+        }
+        while ((numChunks << CHUNK_SHIFT) < rows) {
+            int needed = rows - (numChunks << CHUNK_SHIFT);
+            int capacity = MIN_CHUNK_ROWS;
+            while (capacity < needed && capacity < CHUNK_ROWS) {
+                capacity = capacity * 2;
+            }
+            addChunk(capacity);
+        }
+    }
+
+    private void addChunk(int capacity) {
+        if (numChunks == chunks.length) {
+            chunks = Arrays.copyOf(chunks, Math.max(4, numChunks * 2));
+            capacities = Arrays.copyOf(capacities, chunks.length);
+            stamps = Arrays.copyOf(stamps, chunks.length);
+        }
+        chunks[numChunks] = ByteBuffer.allocate(ByteFormat.FIELD_LEN * capacity * numCols);
+        capacities[numChunks] = capacity;
+        stamps[numChunks] = version;
+        numChunks++;
+    }
+
+    /**
+     * Moves the last chunk into a buffer with room for `capacity` rows.
+     */
+    private void growLastChunk(int capacity) {
+        int last = numChunks - 1;
+        ByteBuffer old = chunks[last];
+        int oldCapacity = capacities[last];
+        int rows = getChunkRows(last);
+        ByteBuffer grown = ByteBuffer.allocate(ByteFormat.FIELD_LEN * capacity * numCols);
+        if (columnMajor) {
+            for (int colId = 0; colId < numCols; colId++) {
+                ByteBuffer column = old.duplicate();
+                column.position(ByteFormat.FIELD_LEN * colId * oldCapacity);
+                column.limit(ByteFormat.FIELD_LEN * (colId * oldCapacity + rows));
+                grown.position(ByteFormat.FIELD_LEN * colId * capacity);
+                grown.put(column);
+            }
+            grown.clear();
+        } else {
+            grown.put(old.array(), 0, ByteFormat.FIELD_LEN * rows * numCols);
+            grown.clear();
+        }
+        chunks[last] = grown;
+        capacities[last] = capacity;
+        stamps[last] = version;
+    }
+
+    /**
+     * Returns views of the stored fields, in the order of a flat table with the
+     * same layout: row-major storage yields each chunk's rows, column-major
+     * storage yields every chunk's slice of column 0, then of column 1, and so
+     * on. Reading into the views writes into the storage.
+     */
+    List<ByteBuffer> slices() {
+        List<ByteBuffer> slices = new ArrayList<>();
+        if (columnMajor) {
+            for (int colId = 0; colId < numCols; colId++) {
+                for (int chunk = 0; chunk < numChunks; chunk++) {
+                    slices.add(slice(chunk, ByteFormat.FIELD_LEN * colId * capacities[chunk], getChunkRows(chunk)));
+                }
+            }
+        } else {
+            for (int chunk = 0; chunk < numChunks; chunk++) {
+                slices.add(slice(chunk, 0, getChunkRows(chunk) * numCols));
+            }
+        }
+        return slices;
+    }
+
+    private ByteBuffer slice(int chunk, int position, int numFields) {
+        ByteBuffer slice = chunks[chunk].duplicate();
+        slice.position(position);
+        slice.limit(position + ByteFormat.FIELD_LEN * numFields);
+        return slice;
+    }
+}
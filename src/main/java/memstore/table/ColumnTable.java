@@ -2,6 +2,15 @@ package memstore.table;
 
 import memstore.data.ByteFormat;
 import memstore.data.DataLoader;
+import memstore.data.RowBatch;
+import memstore.data.SnapshotFile;
+import memstore.data.SnapshotLoader;
+import memstore.query.Query;
+import memstore.query.QueryCompiler;
+import memstore.query.QueryShape;
+import memstore.query.ScanKernel;
+import memstore.query.ScanQuery;
+import memstore.stats.TableStatistics;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -10,12 +19,16 @@ import java.util.List;
 /**
  * ColumnTable, which stores data in column-major format.
  * That is, data is laid out like
- *   col 1 | col 2 | ... | col m.
+ *   col 1 | col 2 | ... | col m,
+ * within each chunk of rows, so that the table can grow by appending rows.
+ * Deleted rows stay in place, marked in a tombstone bitmap, until compaction.
  */
-public class ColumnTable implements Table {
+public class ColumnTable implements VersionedTable, StripedTable {
     int numCols;
     int numRows;
-    ByteBuffer columns;
+    ChunkedStorage columns;
+    TableStatistics stats;
+    final Tombstones deleted = new Tombstones();
 
     public ColumnTable() { }
 
@@ -27,17 +40,85 @@ public class ColumnTable implements Table {
      */
     public void load(DataLoader loader) throws IOException {
         this.numCols = loader.getNumCols();
-        List<ByteBuffer> rows = loader.getRows();
-        numRows = rows.size();
-        this.columns = ByteBuffer.allocate(ByteFormat.FIELD_LEN*numRows*numCols);
+        numRows = loader.getNumRows();
+        this.columns = ChunkedStorage.allocate(numRows, numCols, true);
+        deleted.clear();
 
-        for (int rowId = 0; rowId < numRows; rowId++) {
-            ByteBuffer curRow = rows.get(rowId);
-            for (int colId = 0; colId < numCols; colId++) {
-                int offset = ByteFormat.FIELD_LEN * ((colId * numRows) + rowId);
-                this.columns.putInt(offset, curRow.getInt(ByteFormat.FIELD_LEN*colId));
+        // ChunkedStorage transposes each row-major block into its chunk's columns.
+        int loaded = loader.loadInto(this.columns::putRows);
+        if (loaded != numRows) {
+            throw new IOException("loader produced " + loaded + " rows, expected " + numRows);
+        }
+        this.stats = TableStatistics.build(numRows, numCols, true, this::getIntField, deleted::isDeleted);
+    }
+
+    /**
+     * Appends the rows of `batch` to the last chunk, starting new chunks as needed.
+     */
+    @Override
+    public void appendRows(RowBatch batch) {
+        this.columns.append(batch);
+        numRows = this.columns.getNumRows();
+        stats.recordAppend(batch.getData(), 0, batch.getNumRows());
+    }
+
+    /**
+     * Writes the table to a snapshot as a single column-major section, gathering
+     * each column from every chunk. Compacts first, so it holds live rows only.
+     */
+    @Override
+    public void saveSnapshot(String path) throws IOException {
+        compact();
+        try (SnapshotFile.Writer writer = new SnapshotFile.Writer(path, SnapshotFile.KIND_COLUMN_TABLE,
+                SnapshotFile.LAYOUT_COLUMN_MAJOR, numRows, numCols, 0, 2)) {
+            writer.writeSection(SnapshotFile.SECTION_DATA, columns.slices());
+            writer.writeSection(SnapshotFile.SECTION_STATISTICS, stats.encode());
+        }
+    }
+
+    /**
+     * Reads column-major snapshot data straight into new chunks; snapshots in
+     * another layout are transposed through SnapshotLoader.
+     */
+    @Override
+    public void restoreSnapshot(String path) throws IOException {
+        try (SnapshotFile.Reader reader = new SnapshotFile.Reader(path)) {
+            if (reader.getLayout() == SnapshotFile.LAYOUT_COLUMN_MAJOR) {
+                ChunkedStorage columns = ChunkedStorage.allocate(reader.getNumRows(), reader.getNumCols(), true);
+                reader.readSection(SnapshotFile.SECTION_DATA, columns.slices());
+                this.numRows = reader.getNumRows();
+                this.numCols = reader.getNumCols();
+                this.columns = columns;
+                deleted.clear();
+                this.stats = reader.readStatistics(true, this::getIntField, deleted::isDeleted);
+                return;
             }
         }
+        load(new SnapshotLoader(path));
+    }
+
+    /**
+     * Returns the number of rows in the table.
+     */
+    @Override
+    public int getNumRows() {
+        return numRows;
+    }
+
+    /**
+     * Returns the number of columns in the table.
+     */
+    @Override
+    public int getNumCols() {
+        return numCols;
+    }
+
+    /**
+     * Returns the column statistics of the table, maintained across writes.
+     */
+    @Override
+    public TableStatistics getStatistics() {
+        return stats;
     }
 
     /**
@@ -45,8 +126,7 @@ public class ColumnTable implements Table {
      */
     @Override
     public int getIntField(int rowId, int colId) {
-        int offset = ByteFormat.FIELD_LEN * ((colId * numRows) + rowId);
-        return columns.getInt(offset);
+        return columns.getInt(rowId, colId);
     }
 
     /**
@@ -54,8 +134,99 @@ public class ColumnTable implements Table {
      */
     @Override
     public void putIntField(int rowId, int colId, int field) {
-        int offset = ByteFormat.FIELD_LEN * ((colId * numRows) + rowId);
-        columns.putInt(offset, field);
+        if (deleted.isDeleted(rowId)) {
+            return;
+        }
+        stats.recordUpdate(colId, columns.getInt(rowId, colId), field);
+        columns.putInt(rowId, colId, field);
+    }
+
+    @Override
+    public void putIntFieldConcurrently(int rowId, int colId, int field) {
+        if (deleted.isDeleted(rowId)) {
+            return;
+        }
+        stats.recordUpdateConcurrently(colId, columns.getInt(rowId, colId), field);
+        columns.putIntConcurrently(rowId, colId, field);
+    }
+
+    /**
+     * Applies a batch of writes; large batches are sorted into column-major order
+     * first, and overridden writes are skipped.
+     */
+    @Override
+    public void putIntFields(int[] rowIds, int[] colIds, int[] values) {
+        FieldWrites.apply(this, rowIds, colIds, values, false);
+    }
+
+    @Override
+    public boolean isDeleted(int rowId) {
+        return deleted.isDeleted(rowId);
+    }
+
+    @Override
+    public int getNumDeletedRows() {
+        return deleted.count();
+    }
+
+    /**
+     * Marks the rows deleted and takes their fields out of the statistics,
+     * compacting if that pushes the table past its threshold.
+     */
+    @Override
+    public int deleteRows(int[] rowIds) {
+        int count = 0;
+        for (int rowId : rowIds) {
+            if (deleted.delete(rowId, numRows)) {
+                for (int colId = 0; colId < numCols; colId++) {
+                    stats.recordDelete(colId, columns.getInt(rowId, colId));
+                }
+                count++;
+            }
+        }
+        if (deleted.shouldCompact(numRows)) {
+            compact();
+        }
+        return count;
+    }
+
+    /**
+     * Copies the live rows into new chunks and rebuilds the statistics over them.
+     */
+    @Override
+    public void compact() {
+        if (deleted.count() == 0) {
+            return;
+        }
+        this.columns = columns.compact(deleted);
+        numRows = columns.getNumRows();
+        deleted.clear();
+        this.stats = TableStatistics.build(numRows, numCols, true, this::getIntField, deleted::isDeleted);
+    }
+
+    @Override
+    public void setCompactionThreshold(double ratio) {
+        deleted.setCompactionThreshold(ratio);
+    }
+
+    /**
+     * Returns a ColumnTable sharing this table's chunks copy-on-write, with its own
+     * copy of the tombstones. Statistics are shared, not versioned.
+     */
+    @Override
+    public Table pinVersion() {
+        ColumnTable version = new ColumnTable();
+        version.numCols = numCols;
+        version.numRows = numRows;
+        version.columns = columns.pin();
+        version.stats = stats;
+        version.deleted.copyFrom(deleted);
+        return version;
+    }
+
+    @Override
+    public void unpinVersion(Table version) {
+        ((ColumnTable) version).columns.unpin();
     }
 
     /**
@@ -67,9 +238,17 @@ public class ColumnTable implements Table {
     @Override
     public long columnSum() {
         long sum = 0;
-        int offset_max = ByteFormat.FIELD_LEN * numRows;
-        for (int offset = 0; offset < offset_max; offset = offset + ByteFormat.FIELD_LEN) {
-            sum = sum + this.columns.getInt(offset);
+        for (int chunkId = 0; chunkId < columns.getNumChunks(); chunkId++) {
+            ByteBuffer chunk = columns.getChunk(chunkId);
+            int first = chunkId << ChunkedStorage.CHUNK_SHIFT;
+            int last = first + columns.getChunkRows(chunkId);
+            for (int start = deleted.nextLive(first, last), end; start < last; start = deleted.nextLive(end, last)) {
+                end = deleted.nextDeleted(start, last);
+                int offset_max = ByteFormat.FIELD_LEN * (end - first);
+                for (int offset = ByteFormat.FIELD_LEN * (start - first); offset < offset_max; offset = offset + ByteFormat.FIELD_LEN) {
+                    sum = sum + chunk.getInt(offset);
+                }
+            }
         }
         return sum;
     }
@@ -84,9 +263,19 @@ public class ColumnTable implements Table {
     @Override
     public long predicatedColumnSum(int threshold1, int threshold2) {
         long sum = 0;
-        for (int rowId = 0; rowId < numRows; rowId++) {
-            if (getIntField(rowId, 1) > threshold1 && getIntField(rowId, 2) < threshold2) {
-                sum = sum + getIntField(rowId, 0);
+        for (int chunkId = 0; chunkId < columns.getNumChunks(); chunkId++) {
+            ByteBuffer chunk = columns.getChunk(chunkId);
+            int first = chunkId << ChunkedStorage.CHUNK_SHIFT;
+            int last = first + columns.getChunkRows(chunkId);
+            int colStride = ByteFormat.FIELD_LEN * columns.getChunkCapacity(chunkId);
+            for (int start = deleted.nextLive(first, last), end; start < last; start = deleted.nextLive(end, last)) {
+                end = deleted.nextDeleted(start, last);
+                int offset_max = ByteFormat.FIELD_LEN * (end - first);
+                for (int offset = ByteFormat.FIELD_LEN * (start - first); offset < offset_max; offset = offset + ByteFormat.FIELD_LEN) {
+                    if (chunk.getInt(offset + colStride) > threshold1 && chunk.getInt(offset + 2 * colStride) < threshold2) {
+                        sum = sum + chunk.getInt(offset);
+                    }
+                }
             }
         }
         return sum;
@@ -100,17 +289,59 @@ public class ColumnTable implements Table {
      */
     @Override
     public long predicatedAllColumnsSum(int threshold) {
+        // Late materialization: per chunk, evaluate the predicate on col0 into a
+        // position list, then sweep each column once, gathering only the selected rows.
+        // The position list is per call, so concurrent readers never share it.
+        int[] selection = new int[ChunkedStorage.CHUNK_ROWS];
         long sum = 0;
-        for (int rowId = 0; rowId < numRows; rowId++) {
-            if (getIntField(rowId, 0) > threshold) {
-                for (int colId = 0; colId < numCols; colId++) {
-                    sum = sum + getIntField(rowId, colId);
-                }
+        for (int chunkId = 0; chunkId < columns.getNumChunks(); chunkId++) {
+            int numSelected = selectGreaterThan(chunkId, 0, threshold, selection);
+            for (int colId = 0; colId < numCols; colId++) {
+                sum = sum + sumSelected(chunkId, colId, selection, numSelected);
             }
         }
         return sum;
     }
 
+    /**
+     * Fills `positions` with the positions within chunk `chunkId`, in ascending
+     * order, of live rows whose field in column `colId` is greater than `threshold`.
+     * `positions` must hold CHUNK_ROWS entries.
+     *
+     * @return the number of selected rows.
+     */
+    int selectGreaterThan(int chunkId, int colId, int threshold, int[] positions) {
+        int chunkRows = columns.getChunkRows(chunkId);
+        ByteBuffer chunk = columns.getChunk(chunkId);
+        int numSelected = 0;
+        int base = ByteFormat.FIELD_LEN * colId * columns.getChunkCapacity(chunkId);
+        int first = chunkId << ChunkedStorage.CHUNK_SHIFT;
+        int last = first + chunkRows;
+        for (int start = deleted.nextLive(first, last), end; start < last; start = deleted.nextLive(end, last)) {
+            end = deleted.nextDeleted(start, last);
+            for (int row = start - first; row < end - first; row++) {
+                // Branch-free append: always write, only advance on a match.
+                positions[numSelected] = row;
+                numSelected += (chunk.getInt(base + ByteFormat.FIELD_LEN * row) > threshold) ? 1 : 0;
+            }
+        }
+        return numSelected;
+    }
+
+    /**
+     * Returns the sum of column `colId` of chunk `chunkId` over the first
+     * `numSelected` positions of `positions`.
+     */
+    long sumSelected(int chunkId, int colId, int[] positions, int numSelected) {
+        ByteBuffer chunk = columns.getChunk(chunkId);
+        int base = ByteFormat.FIELD_LEN * colId * columns.getChunkCapacity(chunkId);
+        long sum = 0;
+        for (int i = 0; i < numSelected; i++) {
+            sum = sum + chunk.getInt(base + ByteFormat.FIELD_LEN * positions[i]);
+        }
+        return sum;
+    }
+
     /**
      * Implements the query
      *   UPDATE(col3 = col3 + col2) WHERE col0 < threshold;
@@ -120,13 +351,71 @@ public class ColumnTable implements Table {
     @Override
     public int predicatedUpdate(int threshold) {
         int count = 0;
-        for (int rowId = 0; rowId < numRows; rowId++) {
-            if (getIntField(rowId, 0) < threshold) {
-                count++;
-                int field = getIntField(rowId, 3) + getIntField(rowId, 2);
-                putIntField(rowId, 3, field);
+        for (int chunkId = 0; chunkId < columns.getNumChunks(); chunkId++) {
+            ByteBuffer chunk = columns.getWritableChunk(chunkId);
+            int first = chunkId << ChunkedStorage.CHUNK_SHIFT;
+            int last = first + columns.getChunkRows(chunkId);
+            int colStride = ByteFormat.FIELD_LEN * columns.getChunkCapacity(chunkId);
+            for (int start = deleted.nextLive(first, last), end; start < last; start = deleted.nextLive(end, last)) {
+                end = deleted.nextDeleted(start, last);
+                int offset_max = ByteFormat.FIELD_LEN * (end - first);
+                for (int offset = ByteFormat.FIELD_LEN * (start - first); offset < offset_max; offset = offset + ByteFormat.FIELD_LEN) {
+                    if (chunk.getInt(offset) < threshold) {
+                        count++;
+                        int col3 = chunk.getInt(offset + 3 * colStride);
+                        int field = col3 + chunk.getInt(offset + 2 * colStride);
+                        chunk.putInt(offset + 3 * colStride, field);
+                    }
+                }
             }
         }
+        if (count > 0) {
+            stats.invalidateColumn(3);
+        }
         return count;
     }
+
+    /**
+     * Implements the ad-hoc query
+     *  SELECT SUM(colA) + SUM(colB) + ... FROM table WHERE p1 AND p2 AND ...;
+     *
+     *  Runs a kernel compiled for this query's shape over each run of live rows
+     *  in each column-major chunk.
+     */
+    @Override
+    public long execute(ScanQuery query) {
+        QueryShape shape = query.shape(QueryShape.Layout.COLUMN_MAJOR, numCols);
+        ScanKernel kernel = QueryCompiler.compile(shape);
+        int[] params = query.getParams();
+        long sum = 0;
+        for (int chunkId = 0; chunkId < columns.getNumChunks(); chunkId++) {
+            int first = chunkId << ChunkedStorage.CHUNK_SHIFT;
+            sum = sum + runKernel(kernel, params, first, first + columns.getChunkRows(chunkId));
+        }
+        return sum;
+    }
+
+    /**
+     * Runs `kernel` over each run of live rows in [first, last), which must lie
+     * within one chunk.
+     */
+    long runKernel(ScanKernel kernel, int[] params, int first, int last) {
+        int chunkId = first >>> ChunkedStorage.CHUNK_SHIFT;
+        ByteBuffer chunk = columns.getChunk(chunkId);
+        int chunkFirst = chunkId << ChunkedStorage.CHUNK_SHIFT;
+        long sum = 0;
+        for (int start = deleted.nextLive(first, last), end; start < last; start = deleted.nextLive(end, last)) {
+            end = deleted.nextDeleted(start, last);
+            sum = sum + kernel.run(chunk, start - chunkFirst, end - chunkFirst, params);
+        }
+        return sum;
+    }
+
+    /**
+     * Answers each run of consecutive reads with one pass over the columns.
+     */
+    @Override
+    public long[] executeBatch(List<Query> queries) {
+        return BatchExecutor.execute(this, queries, QueryShape.Layout.COLUMN_MAJOR, columns, this::runKernel);
+    }
 }
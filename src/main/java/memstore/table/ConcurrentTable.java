@@ -0,0 +1,488 @@
+package memstore.table;
+
+import memstore.data.DataLoader;
+import memstore.data.RowBatch;
+import memstore.query.Predicate;
+import memstore.query.Query;
+import memstore.query.ScanQuery;
+import memstore.stats.TableStatistics;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.IntSupplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * Decorator that makes any Table safe to share between threads.
+ *
+ * Access goes through one StampedLock:
+ *  - Point reads (getIntField, getNumRows, isDeleted, ...) are optimistic: they
+ *    read without locking and validate the stamp afterwards, retrying under the
+ *    read lock if a write got in between. A reader that trips over a half-done
+ *    write (e.g. storage being swapped by compact) fails validation the same way.
+ *  - Scans take the read lock, so any number of them run side by side.
+ *  - Writes take the write lock and run alone.
+ *
+ * Over a VersionedTable (RowTable, ColumnTable), scans only hold the read lock
+ * while they pin a version of the table, and then run against that version
+ * with no lock held: writes proceed alongside, copying the chunks they touch,
+ * and the scan still sees the table as of its start (snapshot isolation).
+ *
+ * Over a StripedTable (RowTable, ColumnTable), putIntField does not take the
+ * table lock but one of a fixed set of stripe locks, picked by the row's range
+ * of STRIPE_ROWS row ids, so writers to rows in different stripes run side by
+ * side. Stripes cover whole ranges rather than scattered rows so that writers in
+ * different stripes rarely share a cache line. Everything that must exclude
+ * point writes then takes every stripe, always in ascending order after the
+ * table lock: scans (or pins) take them for reading, whole-table writes
+ * (predicatedUpdate, putIntFields, compact, ...) for writing. Optimistic point
+ * reads validate both the table lock and their row's stripe.
+ *
+ * StampedLock lets new readers in while a writer waits, so overlapping scans
+ * could hold off writes for good. Lock acquisitions therefore pass through a
+ * turnstile that a waiting writer holds: scans already running finish, new ones
+ * queue behind the write. Point writes only pass it when their stripe is busy,
+ * so uncontended ones share no lock at all.
+ *
+ * Optimistic reads require the underlying table's point reads to change no
+ * state; scans under the read lock require queries to be safe to run side by
+ * side. Every table in this package meets both.
+ */
+public class ConcurrentTable implements Table {
+    /** Point writes to row ids in the same aligned range of this many rows share a stripe. */
+    static final int STRIPE_SHIFT = 10;
+    public static final int STRIPE_ROWS = 1 << STRIPE_SHIFT;
+    public static final int DEFAULT_WRITE_STRIPES = 64;
+
+    private final Table table;
+    /** The table, if scans run against pinned versions of it; otherwise null. */
+    private final VersionedTable versioned;
+    /** The table, if point writes lock by stripe; otherwise null. */
+    private final StripedTable striped;
+    /** The table, if it defers work that reconcileStep catches up on; otherwise null. */
+    private final Reconcilable reconcilable;
+    /** Stripe locks, empty unless point writes lock by stripe. */
+    private final StampedLock[] stripes;
+    private final StampedLock lock = new StampedLock();
+    private final ReentrantLock turnstile = new ReentrantLock();
+    private final LongAdder optimisticReads = new LongAdder();
+    private final LongAdder optimisticRetries = new LongAdder();
+
+    public ConcurrentTable(Table table) {
+        this(table, true);
+    }
+
+    /**
+     * @param versionedScans Whether scans over a VersionedTable run against pinned
+     *                       versions; if false, they hold the read lock throughout.
+     */
+    public ConcurrentTable(Table table, boolean versionedScans) {
+        this(table, versionedScans, DEFAULT_WRITE_STRIPES);
+    }
+
+    /**
+     * @param versionedScans Whether scans over a VersionedTable run against pinned
+     *                       versions; if false, they hold the read lock throughout.
+     * @param writeStripes   Number of stripe locks point writes to a StripedTable
+     *                       spread over, a power of two; 0 makes them take the
+     *                       table's write lock like every other write.
+     * @throws IllegalArgumentException if writeStripes is negative or not a power of two.
+     */
+    public ConcurrentTable(Table table, boolean versionedScans, int writeStripes) {
+        if (writeStripes < 0 || (writeStripes & (writeStripes - 1)) != 0) {
+            throw new IllegalArgumentException("stripe count must be 0 or a power of two: " + writeStripes);
+        }
+        this.table = table;
+        this.versioned = versionedScans && table instanceof VersionedTable ? (VersionedTable) table : null;
+        this.striped = writeStripes > 0 && table instanceof StripedTable ? (StripedTable) table : null;
+        this.reconcilable = table instanceof Reconcilable ? (Reconcilable) table : null;
+        this.stripes = new StampedLock[striped == null ? 0 : writeStripes];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new StampedLock();
+        }
+    }
+
+    /**
+     * Returns the number of point reads that tried the optimistic path.
+     */
+    public long getOptimisticReads() {
+        return optimisticReads.sum();
+    }
+
+    /**
+     * Returns the number of optimistic point reads that failed validation and
+     * were retried under the read lock.
+     */
+    public long getOptimisticRetries() {
+        return optimisticRetries.sum();
+    }
+
+    /**
+     * Returns the stripe lock of row `rowId`, or null if point writes do not
+     * lock by stripe.
+     */
+    private StampedLock stripeOf(int rowId) {
+        return stripes.length == 0 ? null : stripes[(rowId >>> STRIPE_SHIFT) & (stripes.length - 1)];
+    }
+
+    /**
+     * Takes the read lock and then every stripe for reading.
+     */
+    private long readLock() {
+        turnstile.lock();
+        turnstile.unlock();
+        long stamp = lock.readLock();
+        for (StampedLock stripe : stripes) {
+            stripe.readLock();
+        }
+        return stamp;
+    }
+
+    private void unlockRead(long stamp) {
+        for (int i = stripes.length - 1; i >= 0; i--) {
+            stripes[i].tryUnlockRead();
+        }
+        lock.unlockRead(stamp);
+    }
+
+    /**
+     * Takes the write lock and then every stripe for writing.
+     */
+    private long writeLock() {
+        turnstile.lock();
+        try {
+            long stamp = lock.writeLock();
+            for (StampedLock stripe : stripes) {
+                stripe.writeLock();
+            }
+            return stamp;
+        } finally {
+            turnstile.unlock();
+        }
+    }
+
+    private void unlockWrite(long stamp) {
+        for (int i = stripes.length - 1; i >= 0; i--) {
+            stripes[i].tryUnlockWrite();
+        }
+        lock.unlockWrite(stamp);
+    }
+
+    /**
+     * Runs `read` optimistically, falling back to the read lock if a write
+     * overlapped it. Exceptions thrown by a read that fails validation are
+     * treated as a symptom of the overlapping write.
+     *
+     * @param stripe The stripe a point write would have to take to change what
+     *               `read` returns, or null if only the table lock guards it.
+     */
+    private int readOptimistic(StampedLock stripe, IntSupplier read) {
+        long stamp = lock.tryOptimisticRead();
+        long stripeStamp = stripe == null ? 0 : stripe.tryOptimisticRead();
+        if (stamp != 0 && (stripe == null || stripeStamp != 0)) {
+            optimisticReads.increment();
+            try {
+                int value = read.getAsInt();
+                if (validate(stamp, stripe, stripeStamp)) {
+                    return value;
+                }
+            } catch (RuntimeException e) {
+                if (validate(stamp, stripe, stripeStamp)) {
+                    throw e;
+                }
+            }
+            optimisticRetries.increment();
+        }
+        stamp = readLock();
+        try {
+            return read.getAsInt();
+        } finally {
+            unlockRead(stamp);
+        }
+    }
+
+    private boolean validate(long stamp, StampedLock stripe, long stripeStamp) {
+        return lock.validate(stamp) && (stripe == null || stripe.validate(stripeStamp));
+    }
+
+    /**
+     * Runs `scan` against a pinned version of the table if it has versions, or
+     * under the read lock otherwise.
+     */
+    private long scan(ToLongFunction<Table> scan) {
+        long stamp = readLock();
+        if (versioned == null) {
+            try {
+                return scan.applyAsLong(table);
+            } finally {
+                unlockRead(stamp);
+            }
+        }
+        Table version;
+        try {
+            version = versioned.pinVersion();
+        } finally {
+            unlockRead(stamp);
+        }
+        try {
+            return scan.applyAsLong(version);
+        } finally {
+            versioned.unpinVersion(version);
+        }
+    }
+
+    @Override
+    public void load(DataLoader loader) throws IOException {
+        long stamp = writeLock();
+        try {
+            table.load(loader);
+        } finally {
+            unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void appendRows(RowBatch batch) {
+        long stamp = writeLock();
+        try {
+            table.appendRows(batch);
+        } finally {
+            unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Takes the write lock, since tables compact before writing a snapshot.
+     */
+    @Override
+    public void saveSnapshot(String path) throws IOException {
+        long stamp = writeLock();
+        try {
+            table.saveSnapshot(path);
+        } finally {
+            unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void restoreSnapshot(String path) throws IOException {
+        long stamp = writeLock();
+        try {
+            table.restoreSnapshot(path);
+        } finally {
+            unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public int getNumRows() {
+        return readOptimistic(null, table::getNumRows);
+    }
+
+    @Override
+    public int getNumCols() {
+        return readOptimistic(null, table::getNumCols);
+    }
+
+    /**
+     * Returns the underlying table's statistics. The object is shared with
+     * writers, so its estimates are only exact while no write runs.
+     */
+    @Override
+    public TableStatistics getStatistics() {
+        long stamp = readLock();
+        try {
+            return table.getStatistics();
+        } finally {
+            unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public int getIntField(int rowId, int colId) {
+        return readOptimistic(stripeOf(rowId), () -> table.getIntField(rowId, colId));
+    }
+
+    /**
+     * Over a StripedTable, takes only the stripe of `rowId`; otherwise the write lock.
+     */
+    @Override
+    public void putIntField(int rowId, int colId, int field) {
+        StampedLock stripe = stripeOf(rowId);
+        if (stripe != null) {
+            long stamp = stripe.tryWriteLock();
+            if (stamp == 0) {
+                turnstile.lock();
+                try {
+                    stamp = stripe.writeLock();
+                } finally {
+                    turnstile.unlock();
+                }
+            }
+            try {
+                striped.putIntFieldConcurrently(rowId, colId, field);
+            } finally {
+                stripe.unlockWrite(stamp);
+            }
+            return;
+        }
+        long stamp = writeLock();
+        try {
+            table.putIntField(rowId, colId, field);
+        } finally {
+            unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Applies the whole batch under one write lock, so readers see all of it or none.
+     */
+    @Override
+    public void putIntFields(int[] rowIds, int[] colIds, int[] values) {
+        long stamp = writeLock();
+        try {
+            table.putIntFields(rowIds, colIds, values);
+        } finally {
+            unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void putRow(int rowId, int[] values) {
+        long stamp = writeLock();
+        try {
+            table.putRow(rowId, values);
+        } finally {
+            unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public boolean isDeleted(int rowId) {
+        return readOptimistic(null, () -> table.isDeleted(rowId) ? 1 : 0) != 0;
+    }
+
+    @Override
+    public int getNumDeletedRows() {
+        return readOptimistic(null, table::getNumDeletedRows);
+    }
+
+    @Override
+    public int deleteRows(int[] rowIds) {
+        long stamp = writeLock();
+        try {
+            return table.deleteRows(rowIds);
+        } finally {
+            unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Finds and deletes the matching rows under one write lock, so no write can
+     * slip in between.
+     */
+    @Override
+    public int deleteWhere(Predicate... predicates) {
+        long stamp = writeLock();
+        try {
+            return table.deleteWhere(predicates);
+        } finally {
+            unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void compact() {
+        long stamp = writeLock();
+        try {
+            table.compact();
+        } finally {
+            unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void setCompactionThreshold(double ratio) {
+        long stamp = writeLock();
+        try {
+            table.setCompactionThreshold(ratio);
+        } finally {
+            unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public long columnSum() {
+        return scan(Table::columnSum);
+    }
+
+    @Override
+    public long predicatedColumnSum(int threshold1, int threshold2) {
+        return scan(t -> t.predicatedColumnSum(threshold1, threshold2));
+    }
+
+    @Override
+    public long predicatedAllColumnsSum(int threshold) {
+        return scan(t -> t.predicatedAllColumnsSum(threshold));
+    }
+
+    @Override
+    public int predicatedUpdate(int threshold) {
+        long stamp = writeLock();
+        try {
+            return table.predicatedUpdate(threshold);
+        } finally {
+            unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Runs one step of the table's deferred work under the write lock, for
+     * BackgroundReconciler.
+     *
+     * @return false if there was nothing to do, or the table defers no work.
+     */
+    boolean reconcileStep() {
+        if (reconcilable == null) {
+            return false;
+        }
+        long stamp = writeLock();
+        try {
+            return reconcilable.reconcileStep();
+        } finally {
+            unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public long execute(ScanQuery query) {
+        return scan(t -> t.execute(query));
+    }
+
+    /**
+     * Runs the whole batch as one scan if it only reads, or under one write
+     * lock otherwise, so no other write lands between its queries.
+     */
+    @Override
+    public long[] executeBatch(List<Query> queries) {
+        for (Query query : queries) {
+            if (query.isUpdate()) {
+                long stamp = writeLock();
+                try {
+                    return table.executeBatch(queries);
+                } finally {
+                    unlockWrite(stamp);
+                }
+            }
+        }
+        long[][] results = new long[1][];
+        scan(t -> {
+            results[0] = t.executeBatch(queries);
+            return 0;
+        });
+        return results[0];
+    }
+}
@@ -1,21 +1,38 @@
 package memstore.table;
 
 import memstore.data.DataLoader;
+import memstore.data.RowBatch;
+import memstore.data.SnapshotFile;
+import memstore.data.SnapshotLoader;
+import memstore.stats.TableStatistics;
 import java.nio.IntBuffer;
 import java.nio.LongBuffer;
 
 import java.io.IOException;
-import memstore.data.ByteFormat;
-
-import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.util.List;
 
 /**
  * Custom table implementation to adapt to provided query mix.
  */
-public class CustomTable implements Table {
+public class CustomTable implements StripedTable, Reconcilable {
     static final int FIELD_MAX = 1024;
+    /** Deferred predicatedUpdates the history holds */
+    static final int HISTORY_CAPACITY = 2000;
+    /**
+     * History size from which predicatedUpdate sweeps rows itself, starting a
+     * sweep if none is running. A sweep folds all the history it starts with,
+     * so starting late folds more updates per pass over the rows: at 7/8 full,
+     * one pass per 1750 updates, paid by the last eighth of the calls before
+     * the history fills. Below it, sweeping is left to reconcileStep.
+     */
+    static final int SWEEP_START = HISTORY_CAPACITY - HISTORY_CAPACITY / 8;
+    /**
+     * History size at which reconcileStep starts a sweep: early enough that a
+     * reconciler that keeps up ends it before SWEEP_START, late enough that it
+     * folds 1000 updates per pass.
+     */
+    static final int BACKGROUND_SWEEP_START = HISTORY_CAPACITY / 2;
+    /** Rows reconcileStep sweeps per call */
+    static final int STEP_ROWS = 1024;
 
     int numCols;
     int numRows;
@@ -32,14 +49,37 @@ public class CustomTable implements Table {
     IntBuffer count_col0;
     /** Sum of col0 columns (per col1,col2 number) */
     LongBuffer col0_sum_col1_col2;
+    /** Deltas to the aggregates above from concurrent writers, striped over a few cells */
+    final AggregateCells cells = new AggregateCells();
 
-    IntBuffer t_cache;
+    /**
+     * Memoized predictUpdateCount per col0 value, packed as (history size << 32) | count.
+     * One long per entry, so readers that memoize at once never store one
+     * reader's size with another's count.
+     */
+    LongBuffer t_cache;
 
-    /** */
+    /** Thresholds of the predicatedUpdates not yet folded into every row's col3 */
     IntBuffer predict_update_history;
 
-    /** Column storage of all data */
-    IntBuffer rows;
+    /**
+     * Number of history entries the running sweep folds into the rows, or 0 if
+     * no sweep is running. Rows [0, swept_rows) hold col3 with
+     * history[0, sweep_epoch) folded in; later rows do not yet.
+     */
+    int sweep_epoch;
+    int swept_rows;
+    /** Per col0 value, how many of history[0, sweep_epoch) covered it */
+    final int[] sweep_counts = new int[FIELD_MAX];
+
+    /** Row-major storage of all data, in chunks so that appends never copy the table */
+    ChunkedStorage rows;
+
+    /** Column statistics; col3 is invalidated by predicatedUpdate since its writes are deferred */
+    TableStatistics stats;
+
+    /** Deleted rows, which the aggregates no longer count */
+    final Tombstones deleted = new Tombstones();
 
 
 
@@ -54,72 +94,270 @@ public class CustomTable implements Table {
      */
     @Override
     public void load(DataLoader loader) throws IOException {
+        resetUpdateHistory();
+        this.numCols = loader.getNumCols();
+        this.numRows = loader.getNumRows();
+        this.rows = ChunkedStorage.allocate(numRows, numCols, false);
+        deleted.clear();
+
+        int loaded = loader.loadInto(this.rows::putRows);
+        if (loaded != numRows) {
+            throw new IOException("loader produced " + loaded + " rows, expected " + numRows);
+        }
+
+        computeAggregates();
+        this.stats = TableStatistics.build(numRows, numCols, false, this::readField, deleted::isDeleted);
+    }
+
+    /**
+     * Clears the deferred col3 updates; rows must hold reconciled col3 values.
+     */
+    private void resetUpdateHistory() {
+        this.predict_update_history = IntBuffer.allocate(HISTORY_CAPACITY);
+        this.predict_update_history.position(0);
+        this.t_cache = LongBuffer.allocate(FIELD_MAX);
+        this.sweep_epoch = 0;
+        this.swept_rows = 0;
+    }
+
+    /**
+     * Calculates the aggregates from the loaded rows, in a single pass.
+     */
+    private void computeAggregates() {
+        cells.clear();
         this.col0_sum = 0;
         // Buffers are filled with 0s by default
         this.all_col2_combined_sum = LongBuffer.allocate(FIELD_MAX * 2);
         this.count_col0 = IntBuffer.allocate(FIELD_MAX);
         this.col0_sum_col1_col2 = LongBuffer.allocate(FIELD_MAX * FIELD_MAX);
-        this.predict_update_history = IntBuffer.allocate(2000);
-        this.predict_update_history.position(0);
-        this.t_cache = IntBuffer.allocate(FIELD_MAX * 2);
-        this.numCols = loader.getNumCols();
-        List<ByteBuffer> rows = loader.getRows();
-        this.numRows = rows.size();
-        this.rows = IntBuffer.allocate(numRows * numCols);
-        this.rows.position(0);
-
         for (int rowId = 0; rowId < numRows; rowId++) {
-            ByteBuffer curRow = rows.get(rowId);
+            long row_sum = 0;
             for (int colId = 0; colId < numCols; colId++) {
-                this.rows.put(curRow.getInt(ByteFormat.FIELD_LEN*colId));
+                row_sum = row_sum + this.rows.getInt(rowId, colId);
             }
+            aggregateRow(this.rows.getInt(rowId, 0), this.rows.getInt(rowId, 1), this.rows.getInt(rowId, 2), row_sum, 1);
         }
+    }
 
-        // Calculate initial col0_sum
-        for (int rowId = 0; rowId < numRows; rowId++) {
-            ByteBuffer curRow = rows.get(rowId);
-            int col0 = curRow.getInt(0);
-            col0_sum = col0_sum + col0;
-        }
+    /**
+     * Adds one row, given its col0, col1, col2 and the sum of all its fields, to
+     * the aggregates when `sign` is 1, or removes it when `sign` is -1.
+     */
+    private void aggregateRow(int col0, int col1, int col2, long row_sum, int sign) {
+        // col0_sum
+        col0_sum = col0_sum + sign * col0;
 
-        // Calculate initial col2_sum
-        for (int rowId = 0; rowId < numRows; rowId++) {
-            ByteBuffer curRow = rows.get(rowId);
-            int col0 = curRow.getInt(0);
-            int col2 = curRow.getInt(ByteFormat.FIELD_LEN * 2);
-            long sum = all_col2_combined_sum.get(2 * col0 + 1) + col2;
-            all_col2_combined_sum.put(2 * col0 + 1, sum);
+        // col2_sum
+        long sum = all_col2_combined_sum.get(2 * col0 + 1) + sign * col2;
+        all_col2_combined_sum.put(2 * col0 + 1, sum);
+
+        // all_col_sum
+        sum = all_col2_combined_sum.get(col0 * 2) + sign * row_sum;
+        all_col2_combined_sum.put(col0 * 2, sum);
+
+        // count_col0
+        count_col0.put(col0, count_col0.get(col0) + sign);
+
+        // col0_sum_col1_col2
+        sum = col0_sum_col1_col2.get(col1 * FIELD_MAX + col2) + sign * col0;
+        col0_sum_col1_col2.put(col1 * FIELD_MAX + col2, sum);
+    }
+
+    /**
+     * Adds the concurrent writers' cells into the aggregates, for writes that
+     * read the aggregates rather than only adding to them.
+     */
+    private void foldCells() {
+        if (!cells.isEmpty()) {
+            col0_sum += cells.foldInto(all_col2_combined_sum, count_col0, col0_sum_col1_col2);
         }
+    }
 
-        // Calculate initial all_col_sum
-        for (int rowId = 0; rowId < numRows; rowId++) {
-            ByteBuffer curRow = rows.get(rowId);
-            int col0 = curRow.getInt(0);
-            long sum = all_col2_combined_sum.get(col0 * 2);
+    /**
+     * Appends the rows of `batch` and folds them into the aggregates.
+     *
+     * Deferred updates must not apply to new rows, so an appended row stores
+     * col3 - t * col2, which getIntField3 reads back as the appended col3.
+     */
+    @Override
+    public void appendRows(RowBatch batch) {
+        int firstRow = numRows;
+        this.rows.append(batch);
+        numRows = this.rows.getNumRows();
+        int[] data = batch.getData();
+        for (int i = 0; i < batch.getNumRows(); i++) {
+            int base = i * numCols;
+            long row_sum = 0;
             for (int colId = 0; colId < numCols; colId++) {
-                sum = sum + curRow.getInt(ByteFormat.FIELD_LEN*colId);
+                row_sum = row_sum + data[base + colId];
+            }
+            aggregateRow(data[base], data[base + 1], data[base + 2], row_sum, 1);
+            if (numCols > 3) {
+                int t = pendingUpdates(firstRow + i, data[base], true);
+                if (t != 0) {
+                    this.rows.putInt(firstRow + i, 3, data[base + 3] - t * data[base + 2]);
+                }
             }
-            all_col2_combined_sum.put(col0 * 2, sum);
         }
+        stats.recordAppend(data, 0, batch.getNumRows());
+    }
 
-        // Calculate initial count_col0
+    /**
+     * Folds the deferred col3 updates into the rows, so that rows hold real col3 values.
+     */
+    private void reconcileCol3() {
         for (int rowId = 0; rowId < numRows; rowId++) {
-            ByteBuffer curRow = rows.get(rowId);
-            int col0 = curRow.getInt(0);
-            int sum = count_col0.get(col0) + 1;
-            count_col0.put(col0, sum);
+            int col3 = getIntField3(rowId);
+            this.rows.putInt(rowId, 3, col3);
         }
+        predict_update_history.position(0);
+        sweep_epoch = 0;
+        swept_rows = 0;
 
-        // Calculate initial col0_sum_col1_col2
-        for (int rowId = 0; rowId < numRows; rowId++) {
-            ByteBuffer curRow = rows.get(rowId);
-            int col0 = curRow.getInt(0);
-            int col1 = curRow.getInt(ByteFormat.FIELD_LEN * 1);
-            int col2 = curRow.getInt(ByteFormat.FIELD_LEN * 2);
-            long sum = col0_sum_col1_col2.get(col1 * FIELD_MAX + col2) + col0;
-            col0_sum_col1_col2.put(col1 * FIELD_MAX + col2, sum);
+        // clearing cache
+        for (int i = 0; i < FIELD_MAX; i++) {
+            t_cache.put(i, 0);
+        }
+    }
+
+    /**
+     * Starts a sweep that folds the whole current history into the rows, a few
+     * rows per sweepRows call. Later updates stay deferred until the next one.
+     */
+    private void startSweep() {
+        sweep_epoch = predict_update_history.position();
+        swept_rows = 0;
+        // An update covers the col0 values below its threshold: count thresholds
+        // by value, then sum them from the top down.
+        int[] thresholds = new int[FIELD_MAX + 1];
+        for (int i = 0; i < sweep_epoch; i++) {
+            int threshold = predict_update_history.get(i);
+            if (threshold > 0) {
+                thresholds[Math.min(threshold, FIELD_MAX)]++;
+            }
+        }
+        int count = 0;
+        for (int col0 = FIELD_MAX - 1; col0 >= 0; col0--) {
+            count = count + thresholds[col0 + 1];
+            sweep_counts[col0] = count;
+        }
+    }
+
+    /**
+     * Folds the running sweep's updates into its next `n` rows, and ends the
+     * sweep once it has reached the last row.
+     */
+    private void sweepRows(int n) {
+        int end = (int) Math.min(numRows, (long) swept_rows + n);
+        for (int rowId = swept_rows; rowId < end; rowId++) {
+            int t = sweep_counts[this.rows.getInt(rowId, 0)];
+            if (t != 0) {
+                this.rows.putInt(rowId, 3, this.rows.getInt(rowId, 3) + t * this.rows.getInt(rowId, 2));
+            }
+        }
+        swept_rows = end;
+        if (end == numRows) {
+            endSweep();
+        }
+    }
+
+    /**
+     * Drops the swept updates, which every row now holds, from the history.
+     */
+    private void endSweep() {
+        int size = predict_update_history.position();
+        for (int i = sweep_epoch; i < size; i++) {
+            predict_update_history.put(i - sweep_epoch, predict_update_history.get(i));
+        }
+        predict_update_history.position(size - sweep_epoch);
+        sweep_epoch = 0;
+        swept_rows = 0;
+        for (int i = 0; i < FIELD_MAX; i++) {
+            t_cache.put(i, 0);
         }
+    }
 
+    /**
+     * Folds deferred col3 updates into the next STEP_ROWS rows, starting a sweep
+     * once the history holds BACKGROUND_SWEEP_START updates. With a background
+     * thread calling this between foreground writes, predicatedUpdate rarely
+     * has to sweep itself.
+     *
+     * @return false if there was nothing to fold in.
+     */
+    @Override
+    public boolean reconcileStep() {
+        if (sweep_epoch == 0) {
+            if (numCols <= 3 || predict_update_history.position() < BACKGROUND_SWEEP_START) {
+                return false;
+            }
+            startSweep();
+        }
+        sweepRows(STEP_ROWS);
+        return true;
+    }
+
+    /**
+     * Writes the rows and aggregates to a snapshot. Deleted rows are compacted
+     * away and deferred col3 updates reconciled first, so the data section holds
+     * the real values of live rows.
+     */
+    @Override
+    public void saveSnapshot(String path) throws IOException {
+        compact();
+        foldCells();
+        if (numCols > 3 && predict_update_history.position() > 0) {
+            reconcileCol3();
+        }
+        try (SnapshotFile.Writer writer = new SnapshotFile.Writer(path, SnapshotFile.KIND_CUSTOM_TABLE,
+                SnapshotFile.LAYOUT_ROW_MAJOR, numRows, numCols, 0, 6)) {
+            writer.writeSection(SnapshotFile.SECTION_STATISTICS, stats.encode());
+            writer.writeSection(SnapshotFile.SECTION_DATA, this.rows.slices());
+            writer.writeSection(SnapshotFile.SECTION_AGGREGATE_SCALARS, new long[]{col0_sum});
+            writer.writeSection(SnapshotFile.SECTION_AGGREGATE_ALL_COL2, all_col2_combined_sum.array());
+            writer.writeSection(SnapshotFile.SECTION_AGGREGATE_COUNT_COL0, count_col0.array());
+            writer.writeSection(SnapshotFile.SECTION_AGGREGATE_COL0_BY_COL1_COL2, col0_sum_col1_col2.array());
+        }
+    }
+
+    /**
+     * Restores rows and aggregates from a snapshot of a CustomTable. Other row-major
+     * snapshots restore the rows directly and recompute the aggregates; column-major
+     * ones go through SnapshotLoader.
+     */
+    @Override
+    public void restoreSnapshot(String path) throws IOException {
+        try (SnapshotFile.Reader reader = new SnapshotFile.Reader(path)) {
+            if (reader.getLayout() == SnapshotFile.LAYOUT_ROW_MAJOR) {
+                ChunkedStorage rows = ChunkedStorage.allocate(reader.getNumRows(), reader.getNumCols(), false);
+                reader.readSection(SnapshotFile.SECTION_DATA, rows.slices());
+                this.numRows = reader.getNumRows();
+                this.numCols = reader.getNumCols();
+                this.rows = rows;
+                deleted.clear();
+                resetUpdateHistory();
+                cells.clear();
+                if (reader.getKind() == SnapshotFile.KIND_CUSTOM_TABLE) {
+                    this.col0_sum = reader.readLongSection(SnapshotFile.SECTION_AGGREGATE_SCALARS)[0];
+                    this.all_col2_combined_sum = LongBuffer.wrap(reader.readLongSection(SnapshotFile.SECTION_AGGREGATE_ALL_COL2));
+                    this.count_col0 = IntBuffer.wrap(reader.readIntSection(SnapshotFile.SECTION_AGGREGATE_COUNT_COL0));
+                    this.col0_sum_col1_col2 = LongBuffer.wrap(reader.readLongSection(SnapshotFile.SECTION_AGGREGATE_COL0_BY_COL1_COL2));
+                } else {
+                    computeAggregates();
+                }
+                this.stats = reader.readStatistics(false, this::readField, deleted::isDeleted);
+                return;
+            }
+        }
+        load(new SnapshotLoader(path));
+    }
+
+    /**
+     * Returns the column statistics of the table, maintained across writes.
+     */
+    @Override
+    public TableStatistics getStatistics() {
+        return stats;
     }
 
     /**
@@ -127,24 +365,50 @@ public class CustomTable implements Table {
      *  where t is the number of PredictUpdate performed on this row.
      */
     private int getIntField3(int rowId) {
-        int col2 = this.rows.get(rowId * numCols + 2);
-        int col3 = this.rows.get(rowId * numCols + 3);
-        int t = predictUpdateCount(rowId);
+        int col2 = this.rows.getInt(rowId, 2);
+        int col3 = this.rows.getInt(rowId, 3);
+        int t = pendingUpdates(rowId, this.rows.getInt(rowId, 0), true);
         return col3 + t * col2;
     }
 
+    /**
+     * Returns the number of rows in the table.
+     */
+    @Override
+    public int getNumRows() {
+        return numRows;
+    }
+
+    /**
+     * Returns the number of columns in the table.
+     */
+    @Override
+    public int getNumCols() {
+        return numCols;
+    }
+
     /**
      * Returns the int field at row `rowId` and column `colId`.
      */
     @Override
     public int getIntField(int rowId, int colId) {
         // System.out.println("row: " + rowId + ", col: " + colId);
-        // System.out.println(predictUpdateCount(rowId));
         if (colId != 3) {
-            return this.rows.get(rowId * numCols + colId);
-        } else {
-            return getIntField3(rowId);
+            return this.rows.getInt(rowId, colId);
         }
+        // Leaves t_cache alone: a read that races a writer (see ConcurrentTable)
+        // must not store a count computed from a history it saw half-written.
+        int col0 = this.rows.getInt(rowId, 0);
+        int col2 = this.rows.getInt(rowId, 2);
+        int col3 = this.rows.getInt(rowId, 3);
+        return col3 + pendingUpdates(rowId, col0, false) * col2;
+    }
+
+    /**
+     * Same as getIntField, but memoizes update counts; for writes and bulk reads.
+     */
+    private int readField(int rowId, int colId) {
+        return colId != 3 ? this.rows.getInt(rowId, colId) : getIntField3(rowId);
     }
 
     /**
@@ -153,12 +417,16 @@ public class CustomTable implements Table {
     @Override
     public void putIntField(int rowId, int colId, int field) {
         //System.out.println("Update col: " + colId + "field: " + field);
+        if (deleted.isDeleted(rowId)) {
+            return;
+        }
         if (colId == 0) {
-            int col0 = this.rows.get(rowId * numCols);
+            int col0 = this.rows.getInt(rowId, 0);
             if (col0 == field) return;
-            int col1 = this.rows.get(rowId * numCols + 1);
-            int col2 = this.rows.get(rowId * numCols + 2);
-            int col3 = this.rows.get(rowId * numCols + 3);
+            stats.recordUpdate(0, col0, field);
+            int col1 = this.rows.getInt(rowId, 1);
+            int col2 = this.rows.getInt(rowId, 2);
+            int col3 = this.rows.getInt(rowId, 3);
             // We need to update col0_sum
             col0_sum = col0_sum - col0 + field;
             // We need to update col2_sum
@@ -167,7 +435,7 @@ public class CustomTable implements Table {
             // We need to update all_col_sum
             long row_sum = col1 + col2 + getIntField3(rowId);
             for (int i = 4; i < numCols; i++) {
-                row_sum = row_sum + this.rows.get(rowId * numCols + i);
+                row_sum = row_sum + this.rows.getInt(rowId, i);
             }
             all_col2_combined_sum.put(2 * col0, all_col2_combined_sum.get(col0 * 2) - row_sum - col0);
             all_col2_combined_sum.put(2 * field, all_col2_combined_sum.get(field * 2) + row_sum + field);
@@ -178,19 +446,20 @@ public class CustomTable implements Table {
             long sum = col0_sum_col1_col2.get(col1 * FIELD_MAX + col2);
             col0_sum_col1_col2.put(col1 * FIELD_MAX + col2, sum - col0 + field);
             // We also need to change col3 if necessary
-            int new_t = predictUpdateCountByCol0(field);
-            int t = predictUpdateCountByCol0(col0);
+            int new_t = pendingUpdates(rowId, field, true);
+            int t = pendingUpdates(rowId, col0, true);
             int new_col3 = col3 + col2 * (t - new_t);
-            this.rows.put(rowId * numCols + 3, new_col3);
+            this.rows.putInt(rowId, 3, new_col3);
             //if(col3 + col2 * t != new_col3 + col2 * new_t) System.out.println("not equal after col0");
             // We could finally update the number
-            this.rows.put(rowId * numCols, field);
+            this.rows.putInt(rowId, 0, field);
         } else if (colId == 1) {
             // Update col0_sum_col1_col2
-            int col0 = this.rows.get(rowId * numCols);
-            int col1 = this.rows.get(rowId * numCols + 1);
+            int col0 = this.rows.getInt(rowId, 0);
+            int col1 = this.rows.getInt(rowId, 1);
             if (col1 == field) return;
-            int col2 = this.rows.get(rowId * numCols + 2);
+            stats.recordUpdate(1, col1, field);
+            int col2 = this.rows.getInt(rowId, 2);
             int sum_old_place_index = col1 * FIELD_MAX + col2;
             int sum_new_place_index = field * FIELD_MAX + col2;
             long sum_old_place = col0_sum_col1_col2.get(sum_old_place_index);
@@ -201,14 +470,15 @@ public class CustomTable implements Table {
             long sum = all_col2_combined_sum.get(col0 * 2) - col1 + field;
             this.all_col2_combined_sum.put(col0 * 2, sum);
             // Update rows
-            this.rows.put(rowId * numCols + colId, field);
+            this.rows.putInt(rowId, colId, field);
         } else if (colId == 2) {
             // Update col0_sum_col1_col2
-            int col0 = this.rows.get(rowId * numCols);
-            int col1 = this.rows.get(rowId * numCols + 1);
-            int col2 = this.rows.get(rowId * numCols + 2);
+            int col0 = this.rows.getInt(rowId, 0);
+            int col1 = this.rows.getInt(rowId, 1);
+            int col2 = this.rows.getInt(rowId, 2);
             if (col2 == field) return;
-            int col3 = this.rows.get(rowId * numCols + 3);
+            stats.recordUpdate(2, col2, field);
+            int col3 = this.rows.getInt(rowId, 3);
             int sum_old_place_index = col1 * FIELD_MAX + col2;
             int sum_new_place_index = col1 * FIELD_MAX + field;
             long sum_old_place = col0_sum_col1_col2.get(sum_old_place_index);
@@ -222,35 +492,223 @@ public class CustomTable implements Table {
             sum = all_col2_combined_sum.get(col0 * 2 + 1) - col2 + field;
             this.all_col2_combined_sum.put(col0 * 2 + 1, sum);
             // Update rows
-            this.rows.put(rowId * numCols + colId, field);
+            this.rows.putInt(rowId, colId, field);
             // Then we need to update col3 in case we already added to col3 already
             // Note that real_col3 = col3 + t * col2 must always hold
             // where t is the number of PredictUpdate performed on this row.
-            int t = predictUpdateCountByCol0(col0);
+            int t = pendingUpdates(rowId, col0, true);
             int new_col3 = col3 + t * (col2 - field);
-            this.rows.put(rowId * numCols + 3, new_col3);
+            this.rows.putInt(rowId, 3, new_col3);
         } else if (colId == 3) {
-            int col0 = this.rows.get(rowId * numCols);
-            int col2 = this.rows.get(rowId * numCols + 2);
+            int col0 = this.rows.getInt(rowId, 0);
+            int col2 = this.rows.getInt(rowId, 2);
             int col3 = getIntField3(rowId);
             if (col3 == field) return;
-            int t = predictUpdateCountByCol0(col0);
+            stats.recordUpdate(3, col3, field);
+            int t = pendingUpdates(rowId, col0, true);
             // We also need to update all_col_sum
             long sum = all_col2_combined_sum.get(col0 * 2) - col3 + field;
             this.all_col2_combined_sum.put(col0 * 2, sum);
             // Update rows
             int col3_to_write = field - t * col2;
-            this.rows.put(rowId * numCols + colId, col3_to_write);
+            this.rows.putInt(rowId, colId, col3_to_write);
         } else {
             // Simple case, we only need to update all_col_sum
-            int old_field = this.rows.get(rowId * numCols + colId);
-            int col0 = this.rows.get(rowId * numCols);
+            int old_field = this.rows.getInt(rowId, colId);
+            stats.recordUpdate(colId, old_field, field);
+            int col0 = this.rows.getInt(rowId, 0);
             long sum = all_col2_combined_sum.get(col0 * 2) - old_field + field;
-            this.rows.put(rowId * numCols + colId, field);
+            this.rows.putInt(rowId, colId, field);
             this.all_col2_combined_sum.put(col0 * 2, sum);
         }
     }
 
+    /**
+     * Writes the field like putIntField, but adds the change to the calling
+     * thread's aggregate cell, and leaves the memoized update counts alone, so
+     * that writers to different rows can run at once.
+     *
+     * Writes to col0, col1 or col2 move the row between aggregate buckets: the
+     * row is taken out of the cell and added back with the new field. Writes to
+     * other columns only change the row's all-column sum.
+     */
+    @Override
+    public void putIntFieldConcurrently(int rowId, int colId, int field) {
+        if (deleted.isDeleted(rowId)) {
+            return;
+        }
+        int old_field = getIntField(rowId, colId);
+        if (old_field == field) {
+            return;
+        }
+        stats.recordUpdateConcurrently(colId, old_field, field);
+        AggregateCells.Cell cell = cells.local();
+        if (colId > 2) {
+            int col0 = this.rows.getInt(rowId, 0);
+            cell.addToRowSum(col0, field - old_field);
+            if (colId == 3) {
+                field = field - pendingUpdates(rowId, col0, false) * this.rows.getInt(rowId, 2);
+            }
+            this.rows.putIntConcurrently(rowId, colId, field);
+            return;
+        }
+        int[] row = new int[numCols];
+        long row_sum = 0;
+        for (int i = 0; i < numCols; i++) {
+            row[i] = getIntField(rowId, i);
+            row_sum = row_sum + row[i];
+        }
+        cell.addRow(row[0], row[1], row[2], row_sum, -1);
+        row[colId] = field;
+        cell.addRow(row[0], row[1], row[2], row_sum - old_field + field, 1);
+        this.rows.putIntConcurrently(rowId, colId, field);
+        if (numCols > 3 && colId != 1) {
+            // Store col3 net of the deferred updates that apply to the row's new col0 and col2.
+            this.rows.putIntConcurrently(rowId, 3, row[3] - pendingUpdates(rowId, row[0], false) * row[2]);
+        }
+    }
+
+    /**
+     * Replaces row `rowId` with `values`, one field per column.
+     *
+     * The row is taken out of the aggregates and added back once, rather than
+     * once per field as putIntField would, which matters when col0 changes.
+     */
+    @Override
+    public void putRow(int rowId, int[] values) {
+        if (values.length != numCols) {
+            throw new IllegalArgumentException("row has " + values.length + " fields, table has " + numCols + " columns");
+        }
+        replaceRow(rowId, values);
+    }
+
+    /**
+     * Applies a batch of writes grouped by row. A row whose col0 is written is
+     * rebuilt with one replaceRow, paying for its row sum once however many of
+     * its fields change; other rows take their writes through putIntField.
+     * Writes that a later one overrides are skipped.
+     */
+    @Override
+    public void putIntFields(int[] rowIds, int[] colIds, int[] values) {
+        FieldWrites.checkLengths(rowIds, colIds, values);
+        int[] order = FieldWrites.order(rowIds, colIds, numRows, numCols, true);
+        int[] row = new int[numCols];
+        int start = 0;
+        while (start < order.length) {
+            int rowId = rowIds[order[start]];
+            int end = start;
+            boolean writesCol0 = false;
+            while (end < order.length && rowIds[order[end]] == rowId) {
+                writesCol0 |= colIds[order[end]] == 0;
+                end++;
+            }
+            if (writesCol0) {
+                for (int colId = 0; colId < numCols; colId++) {
+                    row[colId] = readField(rowId, colId);
+                }
+                for (int i = start; i < end; i++) {
+                    row[colIds[order[i]]] = values[order[i]];
+                }
+                replaceRow(rowId, row);
+            } else {
+                for (int i = start; i < end; i++) {
+                    putIntField(rowId, colIds[order[i]], values[order[i]]);
+                }
+            }
+            start = end;
+        }
+    }
+
+    /**
+     * Overwrites row `rowId` with `values`, moving it between aggregate buckets once.
+     */
+    private void replaceRow(int rowId, int[] values) {
+        if (deleted.isDeleted(rowId)) {
+            return;
+        }
+        long old_sum = 0;
+        long new_sum = 0;
+        for (int colId = 0; colId < numCols; colId++) {
+            int old_field = readField(rowId, colId);
+            old_sum = old_sum + old_field;
+            new_sum = new_sum + values[colId];
+            if (old_field != values[colId]) {
+                stats.recordUpdate(colId, old_field, values[colId]);
+            }
+        }
+        aggregateRow(this.rows.getInt(rowId, 0), this.rows.getInt(rowId, 1), this.rows.getInt(rowId, 2), old_sum, -1);
+        aggregateRow(values[0], values[1], values[2], new_sum, 1);
+        for (int colId = 0; colId < numCols; colId++) {
+            this.rows.putInt(rowId, colId, values[colId]);
+        }
+        if (numCols > 3) {
+            // Store col3 net of the deferred updates that apply to the new col0.
+            int t = pendingUpdates(rowId, values[0], true);
+            this.rows.putInt(rowId, 3, values[3] - t * values[2]);
+        }
+    }
+
+    @Override
+    public boolean isDeleted(int rowId) {
+        return deleted.isDeleted(rowId);
+    }
+
+    @Override
+    public int getNumDeletedRows() {
+        return deleted.count();
+    }
+
+    /**
+     * Marks the rows deleted and takes them out of the aggregates and the
+     * statistics, compacting if that pushes the table past its threshold.
+     */
+    @Override
+    public int deleteRows(int[] rowIds) {
+        int count = 0;
+        for (int rowId : rowIds) {
+            if (deleted.delete(rowId, numRows)) {
+                long row_sum = 0;
+                for (int colId = 0; colId < numCols; colId++) {
+                    int field = readField(rowId, colId);
+                    row_sum = row_sum + field;
+                    stats.recordDelete(colId, field);
+                }
+                aggregateRow(this.rows.getInt(rowId, 0), this.rows.getInt(rowId, 1), this.rows.getInt(rowId, 2), row_sum, -1);
+                count++;
+            }
+        }
+        if (deleted.shouldCompact(numRows)) {
+            compact();
+        }
+        return count;
+    }
+
+    /**
+     * Copies the live rows into new chunks and rebuilds the statistics over them.
+     * Rows keep their stored col3, which stays consistent with the deferred
+     * updates since those depend only on col0, and the aggregates already
+     * exclude deleted rows. A running sweep is finished first, as renumbering
+     * would mix swept and unswept rows.
+     */
+    @Override
+    public void compact() {
+        if (deleted.count() == 0) {
+            return;
+        }
+        if (sweep_epoch > 0) {
+            sweepRows(numRows);
+        }
+        this.rows = this.rows.compact(deleted);
+        numRows = this.rows.getNumRows();
+        deleted.clear();
+        this.stats = TableStatistics.build(numRows, numCols, false, this::readField, deleted::isDeleted);
+    }
+
+    @Override
+    public void setCompactionThreshold(double ratio) {
+        deleted.setCompactionThreshold(ratio);
+    }
+
     /**
      * Implements the query
      *  SELECT SUM(col0) FROM table;
@@ -259,7 +717,7 @@ public class CustomTable implements Table {
      */
     @Override
     public long columnSum() {
-        return col0_sum;
+        return cells.isEmpty() ? col0_sum : col0_sum + cells.col0Sum();
     }
 
     /**
@@ -277,6 +735,9 @@ public class CustomTable implements Table {
                 sum = sum + col0_sum_col1_col2.get(col1 * FIELD_MAX + col2);
             }
         }
+        if (!cells.isEmpty()) {
+            sum = sum + cells.col0Sum(threshold1, threshold2);
+        }
         return sum;
     }
 
@@ -296,24 +757,45 @@ public class CustomTable implements Table {
             sum = sum + all_col2_combined_sum.get(col0 * 2);
         }
         //System.out.println("--------");
+        if (!cells.isEmpty()) {
+            sum = sum + cells.allColumnsSum(threshold);
+        }
         return sum;
     }
 
-    private int predictUpdateCount(int rowId) {
-        int col0 = this.rows.get(rowId * numCols);
-        return predictUpdateCountByCol0(col0);
+    /**
+     * Returns how many deferred updates are not folded into the stored col3 of
+     * row `rowId` if its col0 is `col0`: those in the history, less the ones a
+     * running sweep has already folded into the row. `memoize` picks
+     * predictUpdateCountByCol0 over peekUpdateCountByCol0.
+     */
+    private int pendingUpdates(int rowId, int col0, boolean memoize) {
+        int count = memoize ? predictUpdateCountByCol0(col0) : peekUpdateCountByCol0(col0);
+        if (sweep_epoch > 0 && rowId < swept_rows) {
+            count = count - sweep_counts[col0];
+        }
+        return count;
     }
 
     private int predictUpdateCountByCol0(int col0) {
-        int last_cache = t_cache.get(col0 * 2);
-        int count = t_cache.get(col0 * 2 + 1);
+        int size = predict_update_history.position();
+        int count = peekUpdateCountByCol0(col0);
+        t_cache.put(col0, ((long) size << 32) | count);
+        return count;
+    }
+
+    /**
+     * Counts the updates that covered `col0`, resuming from its memoized count.
+     */
+    private int peekUpdateCountByCol0(int col0) {
+        long cached = t_cache.get(col0);
+        int last_cache = (int) (cached >>> 32);
+        int count = (int) cached;
         int size = predict_update_history.position();
         for (int i = last_cache; i < size; i++) {
             int threshold = predict_update_history.get(i);
             if (col0 < threshold) count++;
         }
-        t_cache.put(col0 * 2, size);
-        t_cache.put(col0 * 2 + 1, count);
         return count;
     }
 
@@ -322,24 +804,32 @@ public class CustomTable implements Table {
      *   UPDATE(col3 = col3 + col2) WHERE col0 < threshold;
      *
      *   Returns the number of rows updated.
+     *
+     *   col3 is written lazily, through the history. Once the history holds
+     *   SWEEP_START updates, every call sweeps just enough rows for the running
+     *   sweep, started here or by reconcileStep, to end before the history
+     *   fills up, so no single call pays for a pass over the table. Below
+     *   SWEEP_START, calls do no row work: a background reconciler that keeps
+     *   up takes all of it.
      */
     @Override
     public int predicatedUpdate(int threshold) {
         int count = 0;
+        foldCells();
+        if (numCols > 3 && predict_update_history.position() >= SWEEP_START) {
+            if (sweep_epoch == 0) {
+                startSweep();
+            }
+            int rows_left = numRows - swept_rows;
+            int updates_left = Math.max(1, predict_update_history.remaining());
+            sweepRows((rows_left + updates_left - 1) / updates_left);
+        }
         if (predict_update_history.remaining() == 0) {
             // We need to reconcile the result
-            for (int rowId = 0; rowId < numRows; rowId++) {
-                int col3 = getIntField3(rowId);
-                this.rows.put(rowId * numCols + 3, col3);
-            }
-            predict_update_history.position(0);
-
-            // clearing cache
-            for (int i = 0; i < 2 * FIELD_MAX; i++) {
-                t_cache.put(i, 0);
-            }
+            reconcileCol3();
         }
         predict_update_history.put(threshold);
+        stats.invalidateColumn(3);
         for (int col0 = 0; col0 < threshold; col0++) {
             all_col2_combined_sum.put(col0 * 2, all_col2_combined_sum.get(col0 * 2) + all_col2_combined_sum.get(col0 * 2 + 1));
             count = count + count_col0.get(col0);
@@ -0,0 +1,86 @@
+package memstore.table;
+
+import java.util.Arrays;
+
+/**
+ * Orders batches of field writes for Table.putIntFields.
+ */
+final class FieldWrites {
+    /**
+     * Batches smaller than this are applied in the order given; sorting them
+     * costs more than the locality it buys.
+     */
+    static final int MIN_SORTED_WRITES = 256;
+
+    private FieldWrites() { }
+
+    static void checkLengths(int[] rowIds, int[] colIds, int[] values) {
+        if (rowIds.length != colIds.length || rowIds.length != values.length) {
+            throw new IllegalArgumentException("batch arrays have lengths " + rowIds.length + ", "
+                    + colIds.length + " and " + values.length);
+        }
+    }
+
+    /**
+     * Applies the batch to `table` through putIntField. Large batches are applied
+     * in the order of the table's layout, which turns scattered writes into a
+     * sweep over its storage, and writes that a later one overrides are skipped.
+     */
+    static void apply(Table table, int[] rowIds, int[] colIds, int[] values, boolean rowMajor) {
+        checkLengths(rowIds, colIds, values);
+        if (rowIds.length < MIN_SORTED_WRITES) {
+            for (int i = 0; i < rowIds.length; i++) {
+                table.putIntField(rowIds[i], colIds[i], values[i]);
+            }
+            return;
+        }
+        for (int i : order(rowIds, colIds, table.getNumRows(), table.getNumCols(), rowMajor)) {
+            table.putIntField(rowIds[i], colIds[i], values[i]);
+        }
+    }
+
+    /**
+     * Returns the positions of the writes that take effect, sorted by (rowId,
+     * colId) when `rowMajor` and by (colId, rowId) otherwise; of several writes
+     * to one field, only the last in the batch is kept. Applying the returned
+     * writes in order leaves the table as applying the whole batch in order would.
+     *
+     * Sorting needs each field's address to fit in 31 bits. Batches on tables
+     * with more fields than that, or with ids outside the table, are returned
+     * whole and in batch order.
+     */
+    static int[] order(int[] rowIds, int[] colIds, int numRows, int numCols, boolean rowMajor) {
+        int n = rowIds.length;
+        if ((long) numRows * numCols > Integer.MAX_VALUE) {
+            return batchOrder(n);
+        }
+        // Each key is the field's address in the chosen layout above the batch
+        // position, so the sort keeps writes to one field in batch order.
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++) {
+            long field = rowMajor ? (long) rowIds[i] * numCols + colIds[i] : (long) colIds[i] * numRows + rowIds[i];
+            if (field < 0 || field > Integer.MAX_VALUE) {
+                return batchOrder(n);
+            }
+            keys[i] = (field << 32) | i;
+        }
+        Arrays.sort(keys);
+        int[] order = new int[n];
+        int kept = 0;
+        for (int i = 0; i < n; i++) {
+            if (i + 1 < n && (keys[i + 1] >>> 32) == (keys[i] >>> 32)) {
+                continue;
+            }
+            order[kept++] = (int) keys[i];
+        }
+        return kept == n ? order : Arrays.copyOf(order, kept);
+    }
+
+    private static int[] batchOrder(int n) {
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        return order;
+    }
+}
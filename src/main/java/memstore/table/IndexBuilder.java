@@ -0,0 +1,154 @@
+package memstore.table;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import memstore.data.ByteFormat;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.TreeMap;
+import java.util.stream.IntStream;
+
+/**
+ * Builds the posting-list index of a row-major table in bulk.
+ *
+ * Rather than inserting rows into the tree one at a time, the builder extracts
+ * every (key, rowId) pair, sorts the pairs in parallel and then creates each
+ * posting list at its final size, inserting keys into the tree in ascending order.
+ *
+ * Key domains of at most MAX_COUNTING_RANGE values (such as the benches' 0-1023
+ * fields) are sorted with a single-digit radix sort, i.e. a counting sort:
+ * tasks count their rows' keys, a prefix sum over (key, task) gives every task
+ * its slice of every posting list, and tasks then scatter their row ids
+ * straight into the lists. The sort is stable, so lists come out in row order.
+ * Wider domains pack the pairs into longs and use Arrays.parallelSort.
+ */
+final class IndexBuilder {
+    /**
+     * Widest key range sorted by counting. It equals TASK_ROWS, so the per-task
+     * counts never take more room than the extracted keys.
+     */
+    static final int MAX_COUNTING_RANGE = 1 << 16;
+    /** Rows handled per parallel task; a chunk, so tasks never share one. */
+    static final int TASK_ROWS = ChunkedStorage.CHUNK_ROWS;
+
+    private IndexBuilder() { }
+
+    /**
+     * Returns an index from each value of column `colId` to the ascending ids of
+     * the live rows holding it.
+     */
+    static TreeMap<Integer, IntArrayList> build(ChunkedStorage rows, int colId, Tombstones deleted) {
+        int numRows = rows.getNumRows();
+        int numTasks = (numRows + TASK_ROWS - 1) / TASK_ROWS;
+        int[] keys = new int[numRows];
+        int[] taskMin = new int[numTasks];
+        int[] taskMax = new int[numTasks];
+        IntStream.range(0, numTasks).parallel().forEach(task -> {
+            ByteBuffer chunk = rows.getChunk(task);
+            int first = task * TASK_ROWS;
+            int chunkRows = rows.getChunkRows(task);
+            int stride = ByteFormat.FIELD_LEN * rows.getNumCols();
+            int min = Integer.MAX_VALUE;
+            int max = Integer.MIN_VALUE;
+            for (int row = 0, offset = ByteFormat.FIELD_LEN * colId; row < chunkRows; row++, offset += stride) {
+                int key = chunk.getInt(offset);
+                keys[first + row] = key;
+                min = Math.min(min, key);
+                max = Math.max(max, key);
+            }
+            taskMin[task] = min;
+            taskMax[task] = max;
+        });
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for (int task = 0; task < numTasks; task++) {
+            min = Math.min(min, taskMin[task]);
+            max = Math.max(max, taskMax[task]);
+        }
+        if (numRows > 0 && (long) max - min < MAX_COUNTING_RANGE) {
+            return countingSort(keys, min, max - min + 1, numTasks, deleted);
+        }
+        return comparisonSort(keys, deleted);
+    }
+
+    private static TreeMap<Integer, IntArrayList> countingSort(int[] keys, int min, int range, int numTasks, Tombstones deleted) {
+        int numRows = keys.length;
+        int[][] counts = new int[numTasks][];
+        IntStream.range(0, numTasks).parallel().forEach(task -> {
+            int[] count = new int[range];
+            int last = Math.min(numRows, (task + 1) * TASK_ROWS);
+            for (int start = deleted.nextLive(task * TASK_ROWS, last), end; start < last; start = deleted.nextLive(end, last)) {
+                end = deleted.nextDeleted(start, last);
+                for (int rowId = start; rowId < end; rowId++) {
+                    count[keys[rowId] - min]++;
+                }
+            }
+            counts[task] = count;
+        });
+
+        // Turn each task's counts into its write position within each posting list.
+        int[][] postings = new int[range][];
+        for (int k = 0; k < range; k++) {
+            int total = 0;
+            for (int task = 0; task < numTasks; task++) {
+                int count = counts[task][k];
+                counts[task][k] = total;
+                total += count;
+            }
+            if (total > 0) {
+                postings[k] = new int[total];
+            }
+        }
+
+        IntStream.range(0, numTasks).parallel().forEach(task -> {
+            int[] position = counts[task];
+            int last = Math.min(numRows, (task + 1) * TASK_ROWS);
+            for (int start = deleted.nextLive(task * TASK_ROWS, last), end; start < last; start = deleted.nextLive(end, last)) {
+                end = deleted.nextDeleted(start, last);
+                for (int rowId = start; rowId < end; rowId++) {
+                    int k = keys[rowId] - min;
+                    postings[k][position[k]++] = rowId;
+                }
+            }
+        });
+
+        TreeMap<Integer, IntArrayList> index = new TreeMap<Integer, IntArrayList>();
+        for (int k = 0; k < range; k++) {
+            if (postings[k] != null) {
+                index.put(min + k, IntArrayList.wrap(postings[k]));
+            }
+        }
+        return index;
+    }
+
+    private static TreeMap<Integer, IntArrayList> comparisonSort(int[] keys, Tombstones deleted) {
+        int numRows = keys.length;
+        long[] pairs = new long[numRows - deleted.count()];
+        int n = 0;
+        for (int start = deleted.nextLive(0, numRows), end; start < numRows; start = deleted.nextLive(end, numRows)) {
+            end = deleted.nextDeleted(start, numRows);
+            for (int rowId = start; rowId < end; rowId++) {
+                // Row ids are non-negative, so pairs order by key, then row id.
+                pairs[n++] = ((long) keys[rowId] << 32) | rowId;
+            }
+        }
+        Arrays.parallelSort(pairs);
+
+        TreeMap<Integer, IntArrayList> index = new TreeMap<Integer, IntArrayList>();
+        int i = 0;
+        while (i < n) {
+            int key = (int) (pairs[i] >> 32);
+            int end = i;
+            while (end < n && (int) (pairs[end] >> 32) == key) {
+                end++;
+            }
+            int[] posting = new int[end - i];
+            for (int j = i; j < end; j++) {
+                posting[j - i] = (int) pairs[j];
+            }
+            index.put(key, IntArrayList.wrap(posting));
+            i = end;
+        }
+        return index;
+    }
+}
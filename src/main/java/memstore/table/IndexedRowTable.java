@@ -2,30 +2,48 @@ package memstore.table;
 
 import it.unimi.dsi.fastutil.ints.IntArrayList;
 import memstore.data.DataLoader;
+import memstore.data.RowBatch;
+import memstore.data.SnapshotFile;
+import memstore.data.SnapshotLoader;
+import memstore.query.QueryCompiler;
+import memstore.query.QueryShape;
+import memstore.query.CompareOp;
+import memstore.query.ScanKernel;
+import memstore.query.ScanQuery;
+import memstore.stats.TableStatistics;
 import memstore.data.ByteFormat;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
 import java.util.TreeMap;
 import java.util.NavigableMap;
-import java.util.List;
 import java.io.*;
 
 /**
  * IndexedRowTable, which stores data in row-major format.
  * That is, data is laid out like
- *   row 1 | row 2 | ... | row n.
+ *   row 1 | row 2 | ... | row n,
+ * split into chunks so that the table can grow by appending rows.
  *
  * Also has a tree index on column `indexColumn`, which points
- * to all row indices with the given value.
+ * to all row indices with the given value. Deleted rows are dropped from the
+ * index at once and from storage when the table compacts.
  */
 public class IndexedRowTable implements Table {
 
     int numCols;
     int numRows;
     private TreeMap<Integer, IntArrayList> index;
-    private ByteBuffer rows;
+    private ChunkedStorage rows;
     private int indexColumn;
+    private TableStatistics stats;
+    private AccessPath forcedAccessPath;
+    private volatile AccessPath lastAccessPath;
+    /** Time taken by the last bulk index build. */
+    private long indexBuildNanos;
+    private final Tombstones deleted = new Tombstones();
 
     public IndexedRowTable(int indexColumn) {
         this.indexColumn = indexColumn;
@@ -41,33 +59,164 @@ public class IndexedRowTable implements Table {
     public void load(DataLoader loader) throws IOException {
         this.index = new TreeMap<Integer, IntArrayList>();
         this.numCols = loader.getNumCols();
-        List<ByteBuffer> rows = loader.getRows();
-        numRows = rows.size();
-        this.rows = ByteBuffer.allocate(ByteFormat.FIELD_LEN * numRows * numCols);
+        numRows = loader.getNumRows();
+        this.rows = ChunkedStorage.allocate(numRows, numCols, false);
+        deleted.clear();
 
-        for (int rowId = 0; rowId < numRows; rowId++) {
-            ByteBuffer curRow = rows.get(rowId);
-            for (int colId = 0; colId < numCols; colId++) {
-                int offset = ByteFormat.FIELD_LEN * ((rowId * numCols) + colId);
-                this.rows.putInt(offset, curRow.getInt(ByteFormat.FIELD_LEN * colId));
+        int loaded = loader.loadInto(this.rows::putRows);
+        if (loaded != numRows) {
+            throw new IOException("loader produced " + loaded + " rows, expected " + numRows);
+        }
+
+        // Rows may arrive from several threads, so the index is built afterwards, in bulk.
+        rebuildIndex();
+        this.stats = TableStatistics.build(numRows, numCols, false, this::getIntField, deleted::isDeleted);
+    }
+
+    /**
+     * Replaces the index with one built in bulk from the live rows; see IndexBuilder.
+     */
+    public void rebuildIndex() {
+        long start = System.nanoTime();
+        this.index = IndexBuilder.build(this.rows, indexColumn, deleted);
+        indexBuildNanos = System.nanoTime() - start;
+    }
+
+    /**
+     * Returns how long the last bulk index build took, in nanoseconds. Loads
+     * build the index after copying the data, so this is the index's share of
+     * the load time.
+     */
+    public long getIndexBuildNanos() {
+        return indexBuildNanos;
+    }
+
+    /**
+     * Adds the live rows in [firstRow, endRow) to the index one by one, for
+     * appends. Rows must be added in ascending order, which keeps every posting
+     * list sorted.
+     */
+    private void indexRows(int firstRow, int endRow) {
+        for (int rowId = firstRow; rowId < endRow; rowId++) {
+            if (deleted.isDeleted(rowId)) {
+                continue;
             }
-            int indexed_int = curRow.getInt(ByteFormat.FIELD_LEN * indexColumn);
+            int indexed_int = getIntField(rowId, indexColumn);
             IntArrayList list = index.get(indexed_int);
             if (list == null) {
-                index.put(indexed_int, new IntArrayList());
+                list = new IntArrayList();
+                index.put(indexed_int, list);
             }
-            list = index.get(indexed_int);
             list.add(rowId);
         }
     }
 
+    /**
+     * Appends the rows of `batch` to the last chunk and adds them to the index.
+     */
+    @Override
+    public void appendRows(RowBatch batch) {
+        int firstRow = numRows;
+        this.rows.append(batch);
+        numRows = this.rows.getNumRows();
+        indexRows(firstRow, numRows);
+        stats.recordAppend(batch.getData(), 0, batch.getNumRows());
+    }
+
+    /**
+     * Writes the row-major chunks and the index to a snapshot. The index is stored
+     * as its sorted keys, each key's offset into the concatenated postings, and
+     * the postings themselves. Compacts first, so it holds live rows only.
+     */
+    @Override
+    public void saveSnapshot(String path) throws IOException {
+        compact();
+        int[] keys = new int[index.size()];
+        int[] offsets = new int[index.size() + 1];
+        int[] postings = new int[numRows];
+        int i = 0;
+        for (Map.Entry<Integer, IntArrayList> entry : index.entrySet()) {
+            IntArrayList list = entry.getValue();
+            keys[i] = entry.getKey();
+            list.getElements(0, postings, offsets[i], list.size());
+            offsets[i + 1] = offsets[i] + list.size();
+            i++;
+        }
+        try (SnapshotFile.Writer writer = new SnapshotFile.Writer(path, SnapshotFile.KIND_INDEXED_ROW_TABLE,
+                SnapshotFile.LAYOUT_ROW_MAJOR, numRows, numCols, indexColumn, 5)) {
+            writer.writeSection(SnapshotFile.SECTION_STATISTICS, stats.encode());
+            writer.writeSection(SnapshotFile.SECTION_DATA, this.rows.slices());
+            writer.writeSection(SnapshotFile.SECTION_INDEX_KEYS, keys);
+            writer.writeSection(SnapshotFile.SECTION_INDEX_OFFSETS, offsets);
+            writer.writeSection(SnapshotFile.SECTION_INDEX_ROWS, postings);
+        }
+    }
+
+    /**
+     * Restores data and index directly from a snapshot of an IndexedRowTable on
+     * the same column; other snapshots are loaded through SnapshotLoader, which
+     * rebuilds the index.
+     */
+    @Override
+    public void restoreSnapshot(String path) throws IOException {
+        try (SnapshotFile.Reader reader = new SnapshotFile.Reader(path)) {
+            if (reader.getKind() == SnapshotFile.KIND_INDEXED_ROW_TABLE && reader.getKindParam() == indexColumn) {
+                int numRows = reader.getNumRows();
+                int numCols = reader.getNumCols();
+                ChunkedStorage rows = ChunkedStorage.allocate(numRows, numCols, false);
+                reader.readSection(SnapshotFile.SECTION_DATA, rows.slices());
+                int[] keys = reader.readIntSection(SnapshotFile.SECTION_INDEX_KEYS);
+                int[] offsets = reader.readIntSection(SnapshotFile.SECTION_INDEX_OFFSETS);
+                int[] postings = reader.readIntSection(SnapshotFile.SECTION_INDEX_ROWS);
+                if (offsets.length != keys.length + 1 || postings.length != numRows) {
+                    throw new IOException(path + " has a malformed index");
+                }
+                TreeMap<Integer, IntArrayList> index = new TreeMap<Integer, IntArrayList>();
+                for (int i = 0; i < keys.length; i++) {
+                    index.put(keys[i], IntArrayList.wrap(Arrays.copyOfRange(postings, offsets[i], offsets[i + 1])));
+                }
+                this.numRows = numRows;
+                this.numCols = numCols;
+                this.rows = rows;
+                this.index = index;
+                deleted.clear();
+                this.stats = reader.readStatistics(false, this::getIntField, deleted::isDeleted);
+                return;
+            }
+        }
+        load(new SnapshotLoader(path));
+    }
+
+    /**
+     * Returns the number of rows in the table.
+     */
+    @Override
+    public int getNumRows() {
+        return numRows;
+    }
+
+    /**
+     * Returns the number of columns in the table.
+     */
+    @Override
+    public int getNumCols() {
+        return numCols;
+    }
+
+    /**
+     * Returns the column statistics of the table, maintained across writes.
+     */
+    @Override
+    public TableStatistics getStatistics() {
+        return stats;
+    }
+
     /**
      * Returns the int field at row `rowId` and column `colId`.
      */
     @Override
     public int getIntField(int rowId, int colId) {
-        int offset = ByteFormat.FIELD_LEN * ((rowId * numCols) + colId);
-        return this.rows.getInt(offset);
+        return this.rows.getInt(rowId, colId);
     }
 
     /**
@@ -75,18 +224,118 @@ public class IndexedRowTable implements Table {
      */
     @Override
     public void putIntField(int rowId, int colId, int field) {
+        if (deleted.isDeleted(rowId)) {
+            return;
+        }
         if (colId == indexColumn) {
             IntArrayList list = index.get(getIntField(rowId, colId));
-            list.rem(rowId);
+            int pos = Arrays.binarySearch(list.elements(), 0, list.size(), rowId);
+            if (pos >= 0) {
+                list.removeInt(pos);
+            }
             IntArrayList list_new = index.get(field);
             if (list_new == null) {
                 index.put(field, new IntArrayList());
             }
             list_new = index.get(field);
-            list_new.add(rowId);
+            // Keep the list sorted by rowId: index scans binary-search it by chunk.
+            pos = Arrays.binarySearch(list_new.elements(), 0, list_new.size(), rowId);
+            list_new.add(pos >= 0 ? pos : -pos - 1, rowId);
         }
-        int offset = ByteFormat.FIELD_LEN * ((rowId * numCols) + colId);
-        this.rows.putInt(offset, field);
+        stats.recordUpdate(colId, this.rows.getInt(rowId, colId), field);
+        this.rows.putInt(rowId, colId, field);
+    }
+
+    /**
+     * Applies a batch of writes; large batches are sorted into row-major order
+     * first, and overridden writes are skipped. Repeated writes to the index
+     * column only move the row between posting lists once.
+     */
+    @Override
+    public void putIntFields(int[] rowIds, int[] colIds, int[] values) {
+        FieldWrites.apply(this, rowIds, colIds, values, true);
+    }
+
+    @Override
+    public boolean isDeleted(int rowId) {
+        return deleted.isDeleted(rowId);
+    }
+
+    @Override
+    public int getNumDeletedRows() {
+        return deleted.count();
+    }
+
+    /**
+     * Marks the rows deleted and takes them out of the statistics and the index,
+     * compacting if that pushes the table past its threshold.
+     *
+     * A few rows are removed from their posting lists one by one; once a batch
+     * deletes more rows than the index has keys, one pass filtering every
+     * posting list is cheaper.
+     */
+    @Override
+    public int deleteRows(int[] rowIds) {
+        int count = 0;
+        for (int rowId : rowIds) {
+            if (deleted.delete(rowId, numRows)) {
+                for (int colId = 0; colId < numCols; colId++) {
+                    stats.recordDelete(colId, this.rows.getInt(rowId, colId));
+                }
+                count++;
+            }
+        }
+        if (deleted.shouldCompact(numRows)) {
+            compact();
+        } else if (count > index.size()) {
+            unindexDeleted();
+        } else if (count > 0) {
+            for (int rowId : rowIds) {
+                IntArrayList list = index.get(getIntField(rowId, indexColumn));
+                if (list != null) {
+                    list.rem(rowId);
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Drops every deleted row from the posting lists, keeping them sorted.
+     */
+    private void unindexDeleted() {
+        for (IntArrayList list : index.values()) {
+            int[] elements = list.elements();
+            int size = list.size();
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                if (!deleted.isDeleted(elements[i])) {
+                    elements[kept++] = elements[i];
+                }
+            }
+            list.size(kept);
+        }
+    }
+
+    /**
+     * Copies the live rows into new chunks, then rebuilds the index and the
+     * statistics over the renumbered rows.
+     */
+    @Override
+    public void compact() {
+        if (deleted.count() == 0) {
+            return;
+        }
+        this.rows = this.rows.compact(deleted);
+        numRows = this.rows.getNumRows();
+        deleted.clear();
+        rebuildIndex();
+        this.stats = TableStatistics.build(numRows, numCols, false, this::getIntField, deleted::isDeleted);
+    }
+
+    @Override
+    public void setCompactionThreshold(double ratio) {
+        deleted.setCompactionThreshold(ratio);
     }
 
     /**
@@ -98,12 +347,30 @@ public class IndexedRowTable implements Table {
     @Override
     public long columnSum() {
         long sum = 0;
-        for (int rowId = 0; rowId < numRows; rowId++) {
-            sum = sum + getIntField(rowId, 0);
+        for (int rowId = deleted.nextLive(0, numRows), end; rowId < numRows; rowId = deleted.nextLive(end, numRows)) {
+            end = deleted.nextDeleted(rowId, numRows);
+            for (; rowId < end; rowId++) {
+                sum = sum + getIntField(rowId, 0);
+            }
         }
         return sum;
     }
 
+    /**
+     * Returns the end of the run of postings elements[from, size) that lie in
+     * chunk `chunkId`. Posting lists are sorted, so the run is found by binary
+     * search rather than by testing every posting, and a list that ends within
+     * the chunk needs no search at all.
+     */
+    private static int chunkRunEnd(int[] elements, int from, int size, int chunkId) {
+        int limit = (chunkId + 1) << ChunkedStorage.CHUNK_SHIFT;
+        if (elements[size - 1] < limit) {
+            return size;
+        }
+        int end = Arrays.binarySearch(elements, from, size, limit);
+        return end >= 0 ? end : -end - 1;
+    }
+
     /**
      * Implements the query
      *  SELECT SUM(col0) FROM table WHERE col1 > threshold1 AND col2 < threshold2;
@@ -113,40 +380,91 @@ public class IndexedRowTable implements Table {
      */
     @Override
     public long predicatedColumnSum(int threshold1, int threshold2) {
+        NavigableMap<Integer, IntArrayList> range = null;
+        AccessPath path = AccessPath.FULL_SCAN;
         if (indexColumn == 1) {
+            range = index.tailMap(threshold1, false);
+            path = chooseAccessPath(CompareOp.GT, threshold1);
+        } else if (indexColumn == 2) {
+            range = index.headMap(threshold2, false);
+            path = chooseAccessPath(CompareOp.LT, threshold2);
+        }
+        lastAccessPath = path;
+        if (path == AccessPath.INDEX_SCAN && indexColumn == 1) {
             long sum = 0;
-            NavigableMap<Integer, IntArrayList> map = index.tailMap(threshold1, false);
-            for(IntArrayList list: map.values()) {
-                for (int row : list) {
-                    int col0_field = getIntField(row, 0);
-                    int col2_field = getIntField(row, 2);
-                    if (col2_field < threshold2) {
-                        sum = sum + col0_field;
+            int rowLen = ByteFormat.FIELD_LEN * numCols;
+            for(IntArrayList list: range.values()) {
+                int[] elements = list.elements();
+                int size = list.size();
+                int i = 0;
+                while (i < size) {
+                    int chunkId = elements[i] >>> ChunkedStorage.CHUNK_SHIFT;
+                    ByteBuffer chunk = rows.getChunk(chunkId);
+                    for (int end = chunkRunEnd(elements, i, size, chunkId); i < end; i++) {
+                        int offset0 = (elements[i] & ChunkedStorage.CHUNK_MASK) * rowLen;
+                        int col0_field = chunk.getInt(offset0);
+                        int col2_field = chunk.getInt(offset0 + 2 * ByteFormat.FIELD_LEN);
+                        if (col2_field < threshold2) {
+                            sum = sum + col0_field;
+                        }
                     }
                 }
             }
             return sum;
-        } else if (indexColumn == 2) {
+        } else if (path == AccessPath.INDEX_SCAN && indexColumn == 2) {
             long sum = 0;
-            NavigableMap<Integer, IntArrayList> map = index.headMap(threshold2, false);
-            for(IntArrayList list: map.values()) {
-                for (int row : list) {
-                    int col0_field = getIntField(row, 0);
-                    int col1_field = getIntField(row, 1);
-                    if (col1_field > threshold1) {
-                        sum = sum + col0_field;
+            int rowLen = ByteFormat.FIELD_LEN * numCols;
+            for(IntArrayList list: range.values()) {
+                int[] elements = list.elements();
+                int size = list.size();
+                int i = 0;
+                while (i < size) {
+                    int chunkId = elements[i] >>> ChunkedStorage.CHUNK_SHIFT;
+                    ByteBuffer chunk = rows.getChunk(chunkId);
+                    for (int end = chunkRunEnd(elements, i, size, chunkId); i < end; i++) {
+                        int offset0 = (elements[i] & ChunkedStorage.CHUNK_MASK) * rowLen;
+                        int col0_field = chunk.getInt(offset0);
+                        int col1_field = chunk.getInt(offset0 + 1 * ByteFormat.FIELD_LEN);
+                        if (col1_field > threshold1) {
+                            sum = sum + col0_field;
+                        }
+                    }
+                }
+            }
+            return sum;
+        } else if (path == AccessPath.BITMAP_SCAN) {
+            long[] bitmap = markRows(range);
+            long sum = 0;
+            for (int word = 0; word < bitmap.length; word++) {
+                long bits = bitmap[word];
+                while (bits != 0) {
+                    int rowId = (word << 6) + Long.numberOfTrailingZeros(bits);
+                    bits = bits & (bits - 1);
+                    ByteBuffer chunk = rows.getChunk(rowId >>> ChunkedStorage.CHUNK_SHIFT);
+                    int offset0 = ByteFormat.FIELD_LEN * (((rowId & ChunkedStorage.CHUNK_MASK) * numCols));
+                    if (chunk.getInt(offset0 + ByteFormat.FIELD_LEN) > threshold1
+                            && chunk.getInt(offset0 + 2 * ByteFormat.FIELD_LEN) < threshold2) {
+                        sum = sum + chunk.getInt(offset0);
                     }
                 }
             }
             return sum;
         } else {
             long sum = 0;
-            for (int rowId = 0; rowId < numRows; rowId++) {
-                int offset0 = ByteFormat.FIELD_LEN * ((rowId * numCols));
-                int offset1 = ByteFormat.FIELD_LEN * ((rowId * numCols) + 1);
-                int offset2 = ByteFormat.FIELD_LEN * ((rowId * numCols) + 2);
-                if (this.rows.getInt(offset1) > threshold1 && this.rows.getInt(offset2) < threshold2) {
-                    sum = sum + this.rows.getInt(offset0);
+            for (int chunkId = 0; chunkId < rows.getNumChunks(); chunkId++) {
+                ByteBuffer chunk = rows.getChunk(chunkId);
+                int first = chunkId << ChunkedStorage.CHUNK_SHIFT;
+                int last = first + rows.getChunkRows(chunkId);
+                for (int start = deleted.nextLive(first, last), end; start < last; start = deleted.nextLive(end, last)) {
+                    end = deleted.nextDeleted(start, last);
+                    for (int row = start - first; row < end - first; row++) {
+                        int offset0 = ByteFormat.FIELD_LEN * ((row * numCols));
+                        int offset1 = ByteFormat.FIELD_LEN * ((row * numCols) + 1);
+                        int offset2 = ByteFormat.FIELD_LEN * ((row * numCols) + 2);
+                        if (chunk.getInt(offset1) > threshold1 && chunk.getInt(offset2) < threshold2) {
+                            sum = sum + chunk.getInt(offset0);
+                        }
+                    }
                 }
             }
             return sum;
@@ -161,29 +479,65 @@ public class IndexedRowTable implements Table {
      */
     @Override
     public long predicatedAllColumnsSum(int threshold) {
-        // if (indexColumn == 0) {
-        //     long sum = 0;
-        //     NavigableMap<Integer, IntArrayList> map = index.tailMap(threshold, false);
-        //     for(IntArrayList list: map.values()) {
-        //         for (int row : list) {
-        //             for (int offset = ByteFormat.FIELD_LEN * (row * numCols); offset < ByteFormat.FIELD_LEN * ((row + 1) * numCols); offset = offset + ByteFormat.FIELD_LEN) {
-        //                 sum = sum + this.rows.getInt(offset);
-        //             }
-        //         }
-        //     }
-        //     return sum;
-        // } else {
+        NavigableMap<Integer, IntArrayList> range = null;
+        AccessPath path = AccessPath.FULL_SCAN;
+        if (indexColumn == 0) {
+            range = index.tailMap(threshold, false);
+            path = chooseAccessPath(CompareOp.GT, threshold);
+        }
+        lastAccessPath = path;
+        if (path == AccessPath.INDEX_SCAN) {
             long sum = 0;
-            for (int rowId = 0; rowId < numRows; rowId++) {
-                int offset0 = ByteFormat.FIELD_LEN * ((rowId * numCols));
-                if (this.rows.getInt(offset0) > threshold) {
-                    for (int offset = ByteFormat.FIELD_LEN * (rowId * numCols); offset < ByteFormat.FIELD_LEN * ((rowId + 1) * numCols); offset = offset + ByteFormat.FIELD_LEN) {
-                        sum = sum + this.rows.getInt(offset);
+            for(IntArrayList list: range.values()) {
+                for (int row : list) {
+                    sum = sum + rowSum(row);
+                }
+            }
+            return sum;
+        } else if (path == AccessPath.BITMAP_SCAN) {
+            long[] bitmap = markRows(range);
+            long sum = 0;
+            for (int word = 0; word < bitmap.length; word++) {
+                long bits = bitmap[word];
+                while (bits != 0) {
+                    sum = sum + rowSum((word << 6) + Long.numberOfTrailingZeros(bits));
+                    bits = bits & (bits - 1);
+                }
+            }
+            return sum;
+        } else {
+            long sum = 0;
+            for (int chunkId = 0; chunkId < rows.getNumChunks(); chunkId++) {
+                ByteBuffer chunk = rows.getChunk(chunkId);
+                int first = chunkId << ChunkedStorage.CHUNK_SHIFT;
+                int last = first + rows.getChunkRows(chunkId);
+                for (int start = deleted.nextLive(first, last), end; start < last; start = deleted.nextLive(end, last)) {
+                    end = deleted.nextDeleted(start, last);
+                    for (int row = start - first; row < end - first; row++) {
+                        int offset0 = ByteFormat.FIELD_LEN * ((row * numCols));
+                        if (chunk.getInt(offset0) > threshold) {
+                            sum = sum + rowSum(chunk, row);
+                        }
                     }
                 }
             }
             return sum;
-        //}
+        }
+    }
+
+    private long rowSum(int rowId) {
+        return rowSum(rows.getChunk(rowId >>> ChunkedStorage.CHUNK_SHIFT), rowId & ChunkedStorage.CHUNK_MASK);
+    }
+
+    /**
+     * Returns the sum of the fields of row `row` of `chunk`, counted from the start of the chunk.
+     */
+    private long rowSum(ByteBuffer chunk, int row) {
+        long sum = 0;
+        for (int offset = ByteFormat.FIELD_LEN * (row * numCols); offset < ByteFormat.FIELD_LEN * ((row + 1) * numCols); offset = offset + ByteFormat.FIELD_LEN) {
+            sum = sum + chunk.getInt(offset);
+        }
+        return sum;
     }
 
     /**
@@ -194,52 +548,156 @@ public class IndexedRowTable implements Table {
      */
     @Override
     public int predicatedUpdate(int threshold) {
-        if (indexColumn == 0) {
+        int count = updateWhere(threshold);
+        if (count > 0) {
+            stats.invalidateColumn(3);
+        }
+        return count;
+    }
+
+    private int updateWhere(int threshold) {
+        if (indexColumn == 3) {
             int count = 0;
-            NavigableMap<Integer, IntArrayList> map = index.headMap(threshold, false);
-            for(IntArrayList list: map.values()) {
-                for (int row : list) {
-                    count++;
-                    putIntField(row, 3, getIntField(row, 3) + getIntField(row, 2));
+            for (int chunkId = 0; chunkId < rows.getNumChunks(); chunkId++) {
+                ByteBuffer chunk = rows.getWritableChunk(chunkId);
+                int first = chunkId << ChunkedStorage.CHUNK_SHIFT;
+                int last = first + rows.getChunkRows(chunkId);
+                for (int start = deleted.nextLive(first, last), end; start < last; start = deleted.nextLive(end, last)) {
+                    end = deleted.nextDeleted(start, last);
+                    for (int row = start - first; row < end - first; row++) {
+                        int offset0 = ByteFormat.FIELD_LEN * ((row * numCols));
+                        int offset2 = ByteFormat.FIELD_LEN * ((row * numCols) + 2);
+                        int offset3 = ByteFormat.FIELD_LEN * ((row * numCols) + 3);
+                        if (chunk.getInt(offset0) < threshold) {
+                            int col3 = chunk.getInt(offset3);
+                            int field = col3 + chunk.getInt(offset2);
+                            chunk.putInt(offset3, field);
+                            count++;
+                        }
+                    }
                 }
             }
+            // Update Index
+            rebuildIndex();
             return count;
-        } else if (indexColumn == 3) {
+        }
+        NavigableMap<Integer, IntArrayList> range = null;
+        AccessPath path = AccessPath.FULL_SCAN;
+        if (indexColumn == 0) {
+            range = index.headMap(threshold, false);
+            path = chooseAccessPath(CompareOp.LT, threshold);
+        }
+        lastAccessPath = path;
+        if (path == AccessPath.INDEX_SCAN) {
             int count = 0;
-            for (int rowId = 0; rowId < numRows; rowId++) {
-                int offset0 = ByteFormat.FIELD_LEN * ((rowId * numCols));
-                int offset2 = ByteFormat.FIELD_LEN * ((rowId * numCols) + 2);
-                int offset3 = ByteFormat.FIELD_LEN * ((rowId * numCols) + 3);
-                if (this.rows.getInt(offset0) < threshold) {
-                    int field = this.rows.getInt(offset3) + this.rows.getInt(offset2);
-                    this.rows.putInt(offset3, field);
+            for(IntArrayList list: range.values()) {
+                for (int row : list) {
                     count++;
+                    updateCol3(row);
                 }
             }
-            // Update Index
-            this.index = new TreeMap<Integer, IntArrayList>();
-            for (int row = 0; row < numRows; row++) {
-                IntArrayList list = index.get(getIntField(row, 3));
-                if (list == null) {
-                    index.put(getIntField(row, 3), new IntArrayList());
+            return count;
+        } else if (path == AccessPath.BITMAP_SCAN) {
+            long[] bitmap = markRows(range);
+            int count = 0;
+            for (int word = 0; word < bitmap.length; word++) {
+                long bits = bitmap[word];
+                count = count + Long.bitCount(bits);
+                while (bits != 0) {
+                    updateCol3((word << 6) + Long.numberOfTrailingZeros(bits));
+                    bits = bits & (bits - 1);
                 }
-                list = index.get(getIntField(row, 3));
-                list.add(row);
             }
             return count;
         } else {
             int count = 0;
-            for (int rowId = 0; rowId < numRows; rowId++) {
-                int offset0 = ByteFormat.FIELD_LEN * ((rowId * numCols));
-                int offset2 = ByteFormat.FIELD_LEN * ((rowId * numCols) + 2);
-                int offset3 = ByteFormat.FIELD_LEN * ((rowId * numCols) + 3);
-                if (this.rows.getInt(offset0) < threshold) {
-                    int field = this.rows.getInt(offset3) + this.rows.getInt(offset2);
-                    this.rows.putInt(offset3, field);
-                    count++;
+            for (int rowId = deleted.nextLive(0, numRows), end; rowId < numRows; rowId = deleted.nextLive(end, numRows)) {
+                end = deleted.nextDeleted(rowId, numRows);
+                for (; rowId < end; rowId++) {
+                    if (this.rows.getInt(rowId, 0) < threshold) {
+                        updateCol3(rowId);
+                        count++;
+                    }
                 }
             }
             return count;
         }
     }
+
+    /**
+     * Applies col3 = col3 + col2 to a single row. Only valid while col3 is not indexed.
+     */
+    private void updateCol3(int rowId) {
+        int col3 = this.rows.getInt(rowId, 3);
+        int field = col3 + this.rows.getInt(rowId, 2);
+        this.rows.putInt(rowId, 3, field);
+    }
+
+    /**
+     * Forces every index-capable query to use `path`, or restores cost-based
+     * selection when `path` is null. Meant for benchmarking the planner.
+     */
+    public void setForcedAccessPath(AccessPath path) {
+        this.forcedAccessPath = path;
+    }
+
+    /**
+     * Returns the access path chosen by the most recent query.
+     */
+    public AccessPath getLastAccessPath() {
+        return lastAccessPath;
+    }
+
+    /**
+     * Picks an access path for the predicate `indexColumn OP value`, using the
+     * column histogram to estimate how many rows it selects.
+     */
+    private AccessPath chooseAccessPath(CompareOp op, int value) {
+        if (forcedAccessPath != null) {
+            return forcedAccessPath;
+        }
+        return AccessPathCostModel.choose(stats.estimateMatches(indexColumn, op, value), numRows);
+    }
+
+    /**
+     * Returns a new bitmap with the bits of every row under `range` set. It is not
+     * reused across calls, so concurrent readers never share it.
+     */
+    private long[] markRows(NavigableMap<Integer, IntArrayList> range) {
+        long[] bitmap = new long[(numRows + 63) >>> 6];
+        for (IntArrayList list : range.values()) {
+            int[] elements = list.elements();
+            int size = list.size();
+            for (int i = 0; i < size; i++) {
+                int row = elements[i];
+                bitmap[row >>> 6] |= 1L << row;
+            }
+        }
+        return bitmap;
+    }
+
+    /**
+     * Implements the ad-hoc query
+     *  SELECT SUM(colA) + SUM(colB) + ... FROM table WHERE p1 AND p2 AND ...;
+     *
+     *  Runs a kernel compiled for this query's shape over each run of live rows
+     *  in each row-major chunk.
+     */
+    @Override
+    public long execute(ScanQuery query) {
+        QueryShape shape = query.shape(QueryShape.Layout.ROW_MAJOR, numCols);
+        ScanKernel kernel = QueryCompiler.compile(shape);
+        int[] params = query.getParams();
+        long sum = 0;
+        for (int chunkId = 0; chunkId < rows.getNumChunks(); chunkId++) {
+            ByteBuffer chunk = rows.getChunk(chunkId);
+            int first = chunkId << ChunkedStorage.CHUNK_SHIFT;
+            int last = first + rows.getChunkRows(chunkId);
+            for (int start = deleted.nextLive(first, last), end; start < last; start = deleted.nextLive(end, last)) {
+                end = deleted.nextDeleted(start, last);
+                sum = sum + kernel.run(chunk, start - first, end - first, params);
+            }
+        }
+        return sum;
+    }
 }
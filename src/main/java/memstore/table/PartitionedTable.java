@@ -0,0 +1,564 @@
+package memstore.table;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import memstore.data.DataLoader;
+import memstore.data.RowBatch;
+import memstore.data.RowBatchReader;
+import memstore.data.SnapshotFile;
+import memstore.query.Predicate;
+import memstore.query.Query;
+import memstore.query.ScanQuery;
+import memstore.stats.TableStatistics;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * Shared-nothing table that splits its rows across K partitions, each an
+ * independent Table owned by one worker thread.
+ *
+ * Row ids are global. HASH partitioning sends row r to partition r mod K, so
+ * every partition holds an even share of any range of rows; RANGE partitioning
+ * gives each partition one contiguous slice, and rows appended later go to the
+ * last one. Only a partition's worker ever touches its table, so the data path
+ * takes no locks.
+ *
+ * Queries are broadcast to every worker and their results added up. Point
+ * writes are queued on the owning worker and return at once; since each worker
+ * runs its queue in order, every call queued after a write sees it. A queued
+ * write that fails anyway is reported to the worker's uncaught exception
+ * handler, not to the caller, so arguments are checked before queueing.
+ *
+ * Queries, getIntField and putIntField, putIntFields and putRow may be called
+ * from any number of threads. Loading, appends, deletes, compaction and
+ * snapshots resize or renumber the partitions and must not overlap any other
+ * call. Partitions never compact on their own: the table compacts them all at
+ * once, so row ids stay global.
+ */
+public class PartitionedTable implements Table, AutoCloseable {
+    public enum Partitioning {
+        HASH,
+        RANGE
+    }
+
+    private final Partitioning partitioning;
+    private final Table[] partitions;
+    private final ExecutorService[] workers;
+    /** First row id of each partition, for RANGE partitioning */
+    private final int[] firstRows;
+    private volatile int numRows;
+    private int numCols;
+    private double compactionThreshold = Tombstones.DEFAULT_COMPACTION_THRESHOLD;
+
+    /**
+     * Creates a table of `numPartitions` partitions, each made by `factory`.
+     *
+     * @throws IllegalArgumentException if `numPartitions` is not positive.
+     */
+    public PartitionedTable(Supplier<? extends Table> factory, int numPartitions, Partitioning partitioning) {
+        if (numPartitions <= 0) {
+            throw new IllegalArgumentException("partition count must be positive, got " + numPartitions);
+        }
+        this.partitioning = partitioning;
+        this.partitions = new Table[numPartitions];
+        this.workers = new ExecutorService[numPartitions];
+        this.firstRows = new int[numPartitions];
+        for (int p = 0; p < numPartitions; p++) {
+            partitions[p] = factory.get();
+            String name = "partition-" + p;
+            workers[p] = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, name);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    public PartitionedTable(Supplier<? extends Table> factory, int numPartitions) {
+        this(factory, numPartitions, Partitioning.HASH);
+    }
+
+    public int getNumPartitions() {
+        return partitions.length;
+    }
+
+    public Partitioning getPartitioning() {
+        return partitioning;
+    }
+
+    private int partitionOf(int rowId) {
+        if (partitioning == Partitioning.HASH) {
+            return rowId % partitions.length;
+        }
+        // The last partition starting at or before rowId; earlier ones may be empty.
+        int lo = 0;
+        int hi = firstRows.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (firstRows[mid] <= rowId) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    private int localRow(int p, int rowId) {
+        return partitioning == Partitioning.HASH ? rowId / partitions.length : rowId - firstRows[p];
+    }
+
+    private int globalRow(int p, int localRow) {
+        return partitioning == Partitioning.HASH ? localRow * partitions.length + p : firstRows[p] + localRow;
+    }
+
+    /**
+     * Returns how many of a table's first `n` rows partition `p` holds right
+     * after loading.
+     */
+    private int partitionRows(int p, int n) {
+        if (partitioning == Partitioning.HASH) {
+            return (n + partitions.length - 1 - p) / partitions.length;
+        }
+        return (p + 1 == partitions.length ? n : firstRows[p + 1]) - firstRows[p];
+    }
+
+    /**
+     * Runs task(p) on the worker of every partition p, behind the writes
+     * already queued there, and returns the results in partition order.
+     */
+    private <T> List<T> onEveryPartition(IntFunction<T> task) {
+        List<Future<T>> futures = new ArrayList<>(partitions.length);
+        for (int p = 0; p < partitions.length; p++) {
+            int partition = p;
+            futures.add(workers[p].submit(() -> task.apply(partition)));
+        }
+        List<T> results = new ArrayList<>(partitions.length);
+        for (Future<T> future : futures) {
+            results.add(await(future));
+        }
+        return results;
+    }
+
+    private long broadcast(ToLongFunction<Table> query) {
+        long sum = 0;
+        for (long result : onEveryPartition(p -> query.applyAsLong(partitions[p]))) {
+            sum += result;
+        }
+        return sum;
+    }
+
+    private static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while waiting for a partition", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    private void checkField(int rowId, int colId) {
+        if (rowId < 0 || rowId >= numRows) {
+            throw new IndexOutOfBoundsException("row " + rowId + " of " + numRows);
+        }
+        if (colId < 0 || colId >= numCols) {
+            throw new IndexOutOfBoundsException("column " + colId + " of " + numCols);
+        }
+    }
+
+    /**
+     * Splits the loader's rows between the partitions, then has every worker
+     * load its own partition.
+     *
+     * @param loader Loader to load data from.
+     * @throws IOException
+     */
+    @Override
+    public void load(DataLoader loader) throws IOException {
+        int n = loader.getNumRows();
+        int cols = loader.getNumCols();
+        for (int p = 0; p < partitions.length; p++) {
+            firstRows[p] = (int) ((long) n * p / partitions.length);
+        }
+        int[][] data = new int[partitions.length][];
+        for (int p = 0; p < partitions.length; p++) {
+            data[p] = new int[partitionRows(p, n) * cols];
+        }
+        int loaded = loader.loadInto((firstRow, rows, offset, count) -> {
+            for (int i = 0; i < count; i++) {
+                int rowId = firstRow + i;
+                int p = partitionOf(rowId);
+                System.arraycopy(rows, offset + i * cols, data[p], localRow(p, rowId) * cols, cols);
+            }
+        });
+        if (loaded != n) {
+            throw new IOException("loader produced " + loaded + " rows, expected " + n);
+        }
+        this.numCols = cols;
+        this.numRows = n;
+        try {
+            onEveryPartition(p -> {
+                try {
+                    partitions[p].load(new ArrayLoader(data[p], partitionRows(p, n), cols));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                partitions[p].setCompactionThreshold(1);
+                return null;
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Appends rows to the partitions they hash to, or all to the last partition
+     * under RANGE partitioning.
+     */
+    @Override
+    public void appendRows(RowBatch batch) {
+        if (batch.getNumCols() != numCols) {
+            throw new IllegalArgumentException("batch has " + batch.getNumCols() + " columns, table has " + numCols);
+        }
+        int n = batch.getNumRows();
+        int[] counts = new int[partitions.length];
+        for (int i = 0; i < n; i++) {
+            counts[partitionOf(numRows + i)]++;
+        }
+        RowBatch[] batches = new RowBatch[partitions.length];
+        for (int p = 0; p < partitions.length; p++) {
+            batches[p] = new RowBatch(numCols, counts[p]);
+            batches[p].setNumRows(counts[p]);
+        }
+        int[] next = new int[partitions.length];
+        for (int i = 0; i < n; i++) {
+            int p = partitionOf(numRows + i);
+            System.arraycopy(batch.getData(), i * numCols, batches[p].getData(), next[p]++ * numCols, numCols);
+        }
+        onEveryPartition(p -> {
+            if (counts[p] > 0) {
+                partitions[p].appendRows(batches[p]);
+            }
+            return null;
+        });
+        numRows += n;
+    }
+
+    /**
+     * Writes the live rows, gathered from every partition in row id order, as
+     * a generic row-major snapshot.
+     */
+    @Override
+    public void saveSnapshot(String path) throws IOException {
+        int[] data = copyRows(true);
+        int numLive = numCols == 0 ? 0 : data.length / numCols;
+        try (SnapshotFile.Writer writer = new SnapshotFile.Writer(path, SnapshotFile.KIND_GENERIC,
+                SnapshotFile.LAYOUT_ROW_MAJOR, numLive, numCols, 0, 1)) {
+            writer.writeSection(SnapshotFile.SECTION_DATA, data);
+        }
+    }
+
+    /**
+     * Copies every row out of the partitions, in row id order, each worker
+     * filling in its own rows; `liveOnly` leaves deleted rows out.
+     */
+    private int[] copyRows(boolean liveOnly) {
+        int n = numRows;
+        int cols = numCols;
+        int[] data = new int[n * cols];
+        boolean[] deleted = new boolean[n];
+        onEveryPartition(p -> {
+            Table t = partitions[p];
+            for (int localRow = 0; localRow < t.getNumRows(); localRow++) {
+                int rowId = globalRow(p, localRow);
+                deleted[rowId] = t.isDeleted(localRow);
+                for (int colId = 0; colId < cols; colId++) {
+                    data[rowId * cols + colId] = t.getIntField(localRow, colId);
+                }
+            }
+            return null;
+        });
+        if (!liveOnly) {
+            return data;
+        }
+        int live = 0;
+        for (int rowId = 0; rowId < n; rowId++) {
+            if (!deleted[rowId]) {
+                System.arraycopy(data, rowId * cols, data, live++ * cols, cols);
+            }
+        }
+        return Arrays.copyOf(data, live * cols);
+    }
+
+    @Override
+    public int getNumRows() {
+        return numRows;
+    }
+
+    @Override
+    public int getNumCols() {
+        return numCols;
+    }
+
+    /**
+     * Builds statistics over a copy of the current rows; unlike other tables'
+     * statistics, they do not follow later writes.
+     */
+    @Override
+    public TableStatistics getStatistics() {
+        int[] data = copyRows(false);
+        int cols = numCols;
+        return TableStatistics.build(numRows, cols, false, (rowId, colId) -> data[rowId * cols + colId]);
+    }
+
+    @Override
+    public int getIntField(int rowId, int colId) {
+        checkField(rowId, colId);
+        int p = partitionOf(rowId);
+        int localRow = localRow(p, rowId);
+        return await(workers[p].submit(() -> partitions[p].getIntField(localRow, colId)));
+    }
+
+    /**
+     * Queues the write on the worker owning row `rowId` and returns.
+     */
+    @Override
+    public void putIntField(int rowId, int colId, int field) {
+        checkField(rowId, colId);
+        int p = partitionOf(rowId);
+        int localRow = localRow(p, rowId);
+        workers[p].execute(() -> partitions[p].putIntField(localRow, colId, field));
+    }
+
+    /**
+     * Queues one batch of writes on each partition the writes touch, keeping
+     * their order within the partition.
+     */
+    @Override
+    public void putIntFields(int[] rowIds, int[] colIds, int[] values) {
+        FieldWrites.checkLengths(rowIds, colIds, values);
+        for (int i = 0; i < rowIds.length; i++) {
+            checkField(rowIds[i], colIds[i]);
+        }
+        IntArrayList[] localRows = new IntArrayList[partitions.length];
+        IntArrayList[] localCols = new IntArrayList[partitions.length];
+        IntArrayList[] localValues = new IntArrayList[partitions.length];
+        for (int i = 0; i < rowIds.length; i++) {
+            int p = partitionOf(rowIds[i]);
+            if (localRows[p] == null) {
+                localRows[p] = new IntArrayList();
+                localCols[p] = new IntArrayList();
+                localValues[p] = new IntArrayList();
+            }
+            localRows[p].add(localRow(p, rowIds[i]));
+            localCols[p].add(colIds[i]);
+            localValues[p].add(values[i]);
+        }
+        for (int p = 0; p < partitions.length; p++) {
+            if (localRows[p] != null) {
+                Table t = partitions[p];
+                int[] rows = localRows[p].toIntArray();
+                int[] cols = localCols[p].toIntArray();
+                int[] fields = localValues[p].toIntArray();
+                workers[p].execute(() -> t.putIntFields(rows, cols, fields));
+            }
+        }
+    }
+
+    @Override
+    public void putRow(int rowId, int[] values) {
+        if (values.length != numCols) {
+            throw new IllegalArgumentException("row has " + values.length + " fields, table has " + numCols + " columns");
+        }
+        checkField(rowId, 0);
+        int p = partitionOf(rowId);
+        int localRow = localRow(p, rowId);
+        int[] row = values.clone();
+        workers[p].execute(() -> partitions[p].putRow(localRow, row));
+    }
+
+    @Override
+    public boolean isDeleted(int rowId) {
+        if (rowId < 0 || rowId >= numRows) {
+            return false;
+        }
+        int p = partitionOf(rowId);
+        int localRow = localRow(p, rowId);
+        return await(workers[p].submit(() -> partitions[p].isDeleted(localRow)));
+    }
+
+    @Override
+    public int getNumDeletedRows() {
+        return (int) broadcast(Table::getNumDeletedRows);
+    }
+
+    @Override
+    public int deleteRows(int[] rowIds) {
+        IntArrayList[] localRows = new IntArrayList[partitions.length];
+        for (int p = 0; p < partitions.length; p++) {
+            localRows[p] = new IntArrayList();
+        }
+        for (int rowId : rowIds) {
+            if (rowId < 0 || rowId >= numRows) {
+                throw new IndexOutOfBoundsException("row " + rowId + " of " + numRows);
+            }
+            int p = partitionOf(rowId);
+            localRows[p].add(localRow(p, rowId));
+        }
+        int deleted = 0;
+        for (int count : onEveryPartition(p -> localRows[p].isEmpty() ? 0 : partitions[p].deleteRows(localRows[p].toIntArray()))) {
+            deleted += count;
+        }
+        compactIfNeeded();
+        return deleted;
+    }
+
+    /**
+     * Has every partition delete its own matching rows.
+     */
+    @Override
+    public int deleteWhere(Predicate... predicates) {
+        int deleted = (int) broadcast(t -> t.deleteWhere(predicates));
+        compactIfNeeded();
+        return deleted;
+    }
+
+    private void compactIfNeeded() {
+        int deleted = getNumDeletedRows();
+        if (deleted > 0 && deleted > compactionThreshold * numRows) {
+            compact();
+        }
+    }
+
+    /**
+     * Reloads the partitions with the live rows, which renumbers them from 0
+     * and rebalances the partitions.
+     */
+    @Override
+    public void compact() {
+        int[] data = copyRows(true);
+        try {
+            load(new ArrayLoader(data, numCols == 0 ? 0 : data.length / numCols, numCols));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void setCompactionThreshold(double ratio) {
+        if (!(ratio > 0)) {
+            throw new IllegalArgumentException("compaction threshold must be positive, got " + ratio);
+        }
+        this.compactionThreshold = ratio;
+    }
+
+    @Override
+    public long columnSum() {
+        return broadcast(Table::columnSum);
+    }
+
+    @Override
+    public long predicatedColumnSum(int threshold1, int threshold2) {
+        return broadcast(t -> t.predicatedColumnSum(threshold1, threshold2));
+    }
+
+    @Override
+    public long predicatedAllColumnsSum(int threshold) {
+        return broadcast(t -> t.predicatedAllColumnsSum(threshold));
+    }
+
+    @Override
+    public int predicatedUpdate(int threshold) {
+        return (int) broadcast(t -> t.predicatedUpdate(threshold));
+    }
+
+    @Override
+    public long execute(ScanQuery query) {
+        return broadcast(t -> t.execute(query));
+    }
+
+    /**
+     * Runs the whole batch on every partition, so each partition fuses its own
+     * reads, and adds up the results query by query.
+     */
+    @Override
+    public long[] executeBatch(List<Query> queries) {
+        long[] results = new long[queries.size()];
+        for (long[] partial : onEveryPartition(p -> partitions[p].executeBatch(queries))) {
+            for (int i = 0; i < results.length; i++) {
+                results[i] += partial[i];
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Stops the workers once they have run the writes already queued.
+     */
+    @Override
+    public void close() {
+        for (ExecutorService worker : workers) {
+            worker.shutdown();
+        }
+    }
+
+    /**
+     * Serves rows held row-major in an array, to load one partition.
+     */
+    private static final class ArrayLoader implements DataLoader {
+        private final int[] data;
+        private final int numRows;
+        private final int numCols;
+
+        ArrayLoader(int[] data, int numRows, int numCols) {
+            this.data = data;
+            this.numRows = numRows;
+            this.numCols = numCols;
+        }
+
+        @Override
+        public int getNumCols() {
+            return numCols;
+        }
+
+        @Override
+        public int getNumRows() {
+            return numRows;
+        }
+
+        @Override
+        public RowBatchReader openReader() {
+            return new RowBatchReader() {
+                private int nextRow;
+
+                @Override
+                public boolean next(RowBatch batch) {
+                    int n = Math.min(batch.getCapacity(), numRows - nextRow);
+                    System.arraycopy(data, nextRow * numCols, batch.getData(), 0, n * numCols);
+                    batch.setNumRows(n);
+                    nextRow += n;
+                    return n > 0;
+                }
+            };
+        }
+    }
+}
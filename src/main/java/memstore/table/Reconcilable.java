@@ -0,0 +1,15 @@
+package memstore.table;
+
+/**
+ * A table that defers part of its writes and can catch up on them in short
+ * steps, so that ConcurrentTable can run the steps on a background thread.
+ */
+interface Reconcilable extends Table {
+    /**
+     * Catches up on a bounded amount of deferred work. Like any write, it must
+     * not run alongside other calls.
+     *
+     * @return false if there was nothing to catch up on.
+     */
+    boolean reconcileStep();
+}
@@ -2,6 +2,15 @@ package memstore.table;
 
 import memstore.data.ByteFormat;
 import memstore.data.DataLoader;
+import memstore.data.RowBatch;
+import memstore.data.SnapshotFile;
+import memstore.data.SnapshotLoader;
+import memstore.query.Query;
+import memstore.query.QueryCompiler;
+import memstore.query.QueryShape;
+import memstore.query.ScanKernel;
+import memstore.query.ScanQuery;
+import memstore.stats.TableStatistics;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -10,12 +19,16 @@ import java.util.List;
 /**
  * RowTable, which stores data in row-major format.
  * That is, data is laid out like
- *   row 1 | row 2 | ... | row n.
+ *   row 1 | row 2 | ... | row n,
+ * split into chunks so that the table can grow by appending rows.
+ * Deleted rows stay in place, marked in a tombstone bitmap, until compaction.
  */
-public class RowTable implements Table {
+public class RowTable implements VersionedTable, StripedTable {
     protected int numCols;
     protected int numRows;
-    protected ByteBuffer rows;
+    protected ChunkedStorage rows;
+    protected TableStatistics stats;
+    final Tombstones deleted = new Tombstones();
 
     public RowTable() { }
 
@@ -28,17 +41,85 @@ public class RowTable implements Table {
     @Override
     public void load(DataLoader loader) throws IOException {
         this.numCols = loader.getNumCols();
-        List<ByteBuffer> rows = loader.getRows();
-        numRows = rows.size();
-        this.rows = ByteBuffer.allocate(ByteFormat.FIELD_LEN * numRows * numCols);
-
-        for (int rowId = 0; rowId < numRows; rowId++) {
-            ByteBuffer curRow = rows.get(rowId);
-            for (int colId = 0; colId < numCols; colId++) {
-                int offset = ByteFormat.FIELD_LEN * ((rowId * numCols) + colId);
-                this.rows.putInt(offset, curRow.getInt(ByteFormat.FIELD_LEN * colId));
+        numRows = loader.getNumRows();
+        this.rows = ChunkedStorage.allocate(numRows, numCols, false);
+        deleted.clear();
+
+        // Rows arrive row-major, so each block the loader pushes is one bulk copy.
+        int loaded = loader.loadInto(this.rows::putRows);
+        if (loaded != numRows) {
+            throw new IOException("loader produced " + loaded + " rows, expected " + numRows);
+        }
+        this.stats = TableStatistics.build(numRows, numCols, false, this::getIntField, deleted::isDeleted);
+    }
+
+    /**
+     * Appends the rows of `batch` to the last chunk, starting new chunks as needed.
+     */
+    @Override
+    public void appendRows(RowBatch batch) {
+        this.rows.append(batch);
+        numRows = this.rows.getNumRows();
+        stats.recordAppend(batch.getData(), 0, batch.getNumRows());
+    }
+
+    /**
+     * Writes the row-major chunks to a snapshot as a single section, compacting
+     * first so that it holds live rows only.
+     */
+    @Override
+    public void saveSnapshot(String path) throws IOException {
+        compact();
+        try (SnapshotFile.Writer writer = new SnapshotFile.Writer(path, SnapshotFile.KIND_ROW_TABLE,
+                SnapshotFile.LAYOUT_ROW_MAJOR, numRows, numCols, 0, 2)) {
+            writer.writeSection(SnapshotFile.SECTION_DATA, this.rows.slices());
+            writer.writeSection(SnapshotFile.SECTION_STATISTICS, stats.encode());
+        }
+    }
+
+    /**
+     * Reads row-major snapshot data straight into new chunks; snapshots in
+     * another layout are transposed through SnapshotLoader.
+     */
+    @Override
+    public void restoreSnapshot(String path) throws IOException {
+        try (SnapshotFile.Reader reader = new SnapshotFile.Reader(path)) {
+            if (reader.getLayout() == SnapshotFile.LAYOUT_ROW_MAJOR) {
+                ChunkedStorage rows = ChunkedStorage.allocate(reader.getNumRows(), reader.getNumCols(), false);
+                reader.readSection(SnapshotFile.SECTION_DATA, rows.slices());
+                this.numRows = reader.getNumRows();
+                this.numCols = reader.getNumCols();
+                this.rows = rows;
+                deleted.clear();
+                this.stats = reader.readStatistics(false, this::getIntField, deleted::isDeleted);
+                return;
             }
         }
+        load(new SnapshotLoader(path));
+    }
+
+    /**
+     * Returns the number of rows in the table.
+     */
+    @Override
+    public int getNumRows() {
+        return numRows;
+    }
+
+    /**
+     * Returns the number of columns in the table.
+     */
+    @Override
+    public int getNumCols() {
+        return numCols;
+    }
+
+    /**
+     * Returns the column statistics of the table, maintained across writes.
+     */
+    @Override
+    public TableStatistics getStatistics() {
+        return stats;
     }
 
     /**
@@ -46,8 +127,7 @@ public class RowTable implements Table {
      */
     @Override
     public int getIntField(int rowId, int colId) {
-        int offset = ByteFormat.FIELD_LEN * ((rowId * numCols) + colId);
-        return this.rows.getInt(offset);
+        return this.rows.getInt(rowId, colId);
     }
 
     /**
@@ -55,8 +135,99 @@ public class RowTable implements Table {
      */
     @Override
     public void putIntField(int rowId, int colId, int field) {
-        int offset = ByteFormat.FIELD_LEN * ((rowId * numCols) + colId);
-        this.rows.putInt(offset, field);
+        if (deleted.isDeleted(rowId)) {
+            return;
+        }
+        stats.recordUpdate(colId, this.rows.getInt(rowId, colId), field);
+        this.rows.putInt(rowId, colId, field);
+    }
+
+    @Override
+    public void putIntFieldConcurrently(int rowId, int colId, int field) {
+        if (deleted.isDeleted(rowId)) {
+            return;
+        }
+        stats.recordUpdateConcurrently(colId, this.rows.getInt(rowId, colId), field);
+        this.rows.putIntConcurrently(rowId, colId, field);
+    }
+
+    /**
+     * Applies a batch of writes; large batches are sorted into row-major order
+     * first, and overridden writes are skipped.
+     */
+    @Override
+    public void putIntFields(int[] rowIds, int[] colIds, int[] values) {
+        FieldWrites.apply(this, rowIds, colIds, values, true);
+    }
+
+    @Override
+    public boolean isDeleted(int rowId) {
+        return deleted.isDeleted(rowId);
+    }
+
+    @Override
+    public int getNumDeletedRows() {
+        return deleted.count();
+    }
+
+    /**
+     * Marks the rows deleted and takes their fields out of the statistics,
+     * compacting if that pushes the table past its threshold.
+     */
+    @Override
+    public int deleteRows(int[] rowIds) {
+        int count = 0;
+        for (int rowId : rowIds) {
+            if (deleted.delete(rowId, numRows)) {
+                for (int colId = 0; colId < numCols; colId++) {
+                    stats.recordDelete(colId, this.rows.getInt(rowId, colId));
+                }
+                count++;
+            }
+        }
+        if (deleted.shouldCompact(numRows)) {
+            compact();
+        }
+        return count;
+    }
+
+    /**
+     * Copies the live rows into new chunks and rebuilds the statistics over them.
+     */
+    @Override
+    public void compact() {
+        if (deleted.count() == 0) {
+            return;
+        }
+        this.rows = this.rows.compact(deleted);
+        numRows = this.rows.getNumRows();
+        deleted.clear();
+        this.stats = TableStatistics.build(numRows, numCols, false, this::getIntField, deleted::isDeleted);
+    }
+
+    @Override
+    public void setCompactionThreshold(double ratio) {
+        deleted.setCompactionThreshold(ratio);
+    }
+
+    /**
+     * Returns a RowTable sharing this table's chunks copy-on-write, with its own
+     * copy of the tombstones. Statistics are shared, not versioned.
+     */
+    @Override
+    public Table pinVersion() {
+        RowTable version = new RowTable();
+        version.numCols = numCols;
+        version.numRows = numRows;
+        version.rows = rows.pin();
+        version.stats = stats;
+        version.deleted.copyFrom(deleted);
+        return version;
+    }
+
+    @Override
+    public void unpinVersion(Table version) {
+        ((RowTable) version).rows.unpin();
     }
 
     /**
@@ -68,9 +239,17 @@ public class RowTable implements Table {
     @Override
     public long columnSum() {
         long sum = 0;
-        for (int rowId = 0; rowId < numRows; rowId++) {
-            int offset = ByteFormat.FIELD_LEN * ((rowId * numCols));
-            sum = sum + this.rows.getInt(offset);
+        for (int chunkId = 0; chunkId < rows.getNumChunks(); chunkId++) {
+            ByteBuffer chunk = rows.getChunk(chunkId);
+            int first = chunkId << ChunkedStorage.CHUNK_SHIFT;
+            int last = first + rows.getChunkRows(chunkId);
+            for (int start = deleted.nextLive(first, last), end; start < last; start = deleted.nextLive(end, last)) {
+                end = deleted.nextDeleted(start, last);
+                for (int row = start - first; row < end - first; row++) {
+                    int offset = ByteFormat.FIELD_LEN * ((row * numCols));
+                    sum = sum + chunk.getInt(offset);
+                }
+            }
         }
         return sum;
     }
@@ -85,12 +264,20 @@ public class RowTable implements Table {
     @Override
     public long predicatedColumnSum(int threshold1, int threshold2) {
         long sum = 0;
-        for (int rowId = 0; rowId < numRows; rowId++) {
-            int offset0 = ByteFormat.FIELD_LEN * ((rowId * numCols));
-            int offset1 = ByteFormat.FIELD_LEN * ((rowId * numCols) + 1);
-            int offset2 = ByteFormat.FIELD_LEN * ((rowId * numCols) + 2);
-            if (this.rows.getInt(offset1) > threshold1 && this.rows.getInt(offset2) < threshold2) {
-                sum = sum + this.rows.getInt(offset0);
+        for (int chunkId = 0; chunkId < rows.getNumChunks(); chunkId++) {
+            ByteBuffer chunk = rows.getChunk(chunkId);
+            int first = chunkId << ChunkedStorage.CHUNK_SHIFT;
+            int last = first + rows.getChunkRows(chunkId);
+            for (int start = deleted.nextLive(first, last), end; start < last; start = deleted.nextLive(end, last)) {
+                end = deleted.nextDeleted(start, last);
+                for (int row = start - first; row < end - first; row++) {
+                    int offset0 = ByteFormat.FIELD_LEN * ((row * numCols));
+                    int offset1 = ByteFormat.FIELD_LEN * ((row * numCols) + 1);
+                    int offset2 = ByteFormat.FIELD_LEN * ((row * numCols) + 2);
+                    if (chunk.getInt(offset1) > threshold1 && chunk.getInt(offset2) < threshold2) {
+                        sum = sum + chunk.getInt(offset0);
+                    }
+                }
             }
         }
         return sum;
@@ -105,10 +292,19 @@ public class RowTable implements Table {
     @Override
     public long predicatedAllColumnsSum(int threshold) {
         long sum = 0;
-        for (int rowId = 0; rowId < numRows; rowId++) {
-            if (getIntField(rowId, 0) > threshold) {
-                for (int colId = 0; colId < numCols; colId++) {
-                    sum = sum + getIntField(rowId, colId);
+        for (int chunkId = 0; chunkId < rows.getNumChunks(); chunkId++) {
+            ByteBuffer chunk = rows.getChunk(chunkId);
+            int first = chunkId << ChunkedStorage.CHUNK_SHIFT;
+            int last = first + rows.getChunkRows(chunkId);
+            for (int start = deleted.nextLive(first, last), end; start < last; start = deleted.nextLive(end, last)) {
+                end = deleted.nextDeleted(start, last);
+                for (int row = start - first; row < end - first; row++) {
+                    int offset0 = ByteFormat.FIELD_LEN * ((row * numCols));
+                    if (chunk.getInt(offset0) > threshold) {
+                        for (int colId = 0; colId < numCols; colId++) {
+                            sum = sum + chunk.getInt(offset0 + ByteFormat.FIELD_LEN * colId);
+                        }
+                    }
                 }
             }
         }
@@ -124,16 +320,74 @@ public class RowTable implements Table {
     @Override
     public int predicatedUpdate(int threshold) {
         int count = 0;
-        for (int rowId = 0; rowId < numRows; rowId++) {
-            int offset0 = ByteFormat.FIELD_LEN * ((rowId * numCols));
-            int offset2 = ByteFormat.FIELD_LEN * ((rowId * numCols) + 2);
-            int offset3 = ByteFormat.FIELD_LEN * ((rowId * numCols) + 3);
-            if (this.rows.getInt(offset0) < threshold) {
-                int field = this.rows.getInt(offset3) + this.rows.getInt(offset2);
-                this.rows.putInt(offset3, field);
-                count++;
+        for (int chunkId = 0; chunkId < rows.getNumChunks(); chunkId++) {
+            ByteBuffer chunk = rows.getWritableChunk(chunkId);
+            int first = chunkId << ChunkedStorage.CHUNK_SHIFT;
+            int last = first + rows.getChunkRows(chunkId);
+            for (int start = deleted.nextLive(first, last), end; start < last; start = deleted.nextLive(end, last)) {
+                end = deleted.nextDeleted(start, last);
+                for (int row = start - first; row < end - first; row++) {
+                    int offset0 = ByteFormat.FIELD_LEN * ((row * numCols));
+                    int offset2 = ByteFormat.FIELD_LEN * ((row * numCols) + 2);
+                    int offset3 = ByteFormat.FIELD_LEN * ((row * numCols) + 3);
+                    if (chunk.getInt(offset0) < threshold) {
+                        int col3 = chunk.getInt(offset3);
+                        int field = col3 + chunk.getInt(offset2);
+                        chunk.putInt(offset3, field);
+                        count++;
+                    }
+                }
             }
         }
+        // Cheaper than recording each write, and an update to a quarter of the
+        // rows would have the column rebuilt anyway.
+        if (count > 0) {
+            stats.invalidateColumn(3);
+        }
         return count;
     }
+
+    /**
+     * Implements the ad-hoc query
+     *  SELECT SUM(colA) + SUM(colB) + ... FROM table WHERE p1 AND p2 AND ...;
+     *
+     *  Runs a kernel compiled for this query's shape over each run of live rows
+     *  in each row-major chunk.
+     */
+    @Override
+    public long execute(ScanQuery query) {
+        QueryShape shape = query.shape(QueryShape.Layout.ROW_MAJOR, numCols);
+        ScanKernel kernel = QueryCompiler.compile(shape);
+        int[] params = query.getParams();
+        long sum = 0;
+        for (int chunkId = 0; chunkId < rows.getNumChunks(); chunkId++) {
+            int first = chunkId << ChunkedStorage.CHUNK_SHIFT;
+            sum = sum + runKernel(kernel, params, first, first + rows.getChunkRows(chunkId));
+        }
+        return sum;
+    }
+
+    /**
+     * Runs `kernel` over each run of live rows in [first, last), which must lie
+     * within one chunk.
+     */
+    long runKernel(ScanKernel kernel, int[] params, int first, int last) {
+        int chunkId = first >>> ChunkedStorage.CHUNK_SHIFT;
+        ByteBuffer chunk = rows.getChunk(chunkId);
+        int chunkFirst = chunkId << ChunkedStorage.CHUNK_SHIFT;
+        long sum = 0;
+        for (int start = deleted.nextLive(first, last), end; start < last; start = deleted.nextLive(end, last)) {
+            end = deleted.nextDeleted(start, last);
+            sum = sum + kernel.run(chunk, start - chunkFirst, end - chunkFirst, params);
+        }
+        return sum;
+    }
+
+    /**
+     * Answers each run of consecutive reads with one pass over the rows.
+     */
+    @Override
+    public long[] executeBatch(List<Query> queries) {
+        return BatchExecutor.execute(this, queries, QueryShape.Layout.ROW_MAJOR, rows, this::runKernel);
+    }
 }
@@ -0,0 +1,231 @@
+package memstore.table;
+
+import memstore.query.CompareOp;
+import memstore.query.Predicate;
+import memstore.query.QueryCompiler;
+import memstore.query.QueryShape;
+import memstore.query.ScanKernel;
+import memstore.query.ScanQuery;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Answers scan queries over a ColumnTable with one shared, circular scan.
+ *
+ * A scan thread sweeps the table chunk after chunk, wrapping around at the end.
+ * A submitted query joins at the next chunk boundary, wherever the sweep is, and
+ * is answered once it has seen every chunk, one revolution later. Each chunk is
+ * scanned for all attached queries together, block by block, as executeBatch
+ * scans (see BatchExecutor.scanChunk): N queries submitted together cost about
+ * one pass over the columns they read, not N. Queries passed to one submitAll
+ * call join at the same boundary, so they share exactly one revolution.
+ * With no queries attached, the scan thread sleeps.
+ *
+ * Futures complete on the scan thread, so work chained onto them with the
+ * non-async CompletableFuture methods holds up the sweep.
+ *
+ * submit may be called from any thread. Like the table's own queries, the
+ * sweep must not run alongside writes to the table: callers that write keep
+ * queries from being in flight meanwhile.
+ */
+public class SharedScanner implements AutoCloseable {
+    /** A query attached to the sweep. */
+    private static final class Pending {
+        final ScanKernel kernel;
+        final int[] params;
+        final CompletableFuture<Long> result = new CompletableFuture<>();
+        long sum;
+        /** Chunks left to scan; set when the query joins the sweep */
+        int chunksLeft = -1;
+
+        Pending(ScanKernel kernel, int[] params) {
+            this.kernel = kernel;
+            this.params = params;
+        }
+    }
+
+    private final ColumnTable table;
+    /** Batches of queries waiting to join the sweep, each joining as one */
+    private final BlockingQueue<List<Pending>> submitted = new LinkedBlockingQueue<>();
+    /** Queries on the sweep; only touched by the scan thread */
+    private final List<Pending> attached = new ArrayList<>();
+    private final Thread scanThread;
+    private volatile boolean closed;
+    private final AtomicLong chunksScanned = new AtomicLong();
+    private final AtomicLong queriesAnswered = new AtomicLong();
+
+    public SharedScanner(ColumnTable table) {
+        this.table = table;
+        this.scanThread = new Thread(this::sweep, "shared-scan");
+        scanThread.setDaemon(true);
+        scanThread.start();
+    }
+
+    /**
+     * Submits `query`, to be answered by the shared scan.
+     *
+     * @return a future that completes with the same value table.execute(query)
+     *         would return, or exceptionally if the query does not fit the table
+     *         or the scanner is closed first.
+     */
+    public CompletableFuture<Long> submit(ScanQuery query) {
+        return submitAll(Collections.singletonList(query)).get(0);
+    }
+
+    /**
+     * Submits `queries` to join the sweep together, at the same chunk boundary.
+     *
+     * @return one future per query, in order, each completing as submit's would.
+     */
+    public List<CompletableFuture<Long>> submitAll(List<ScanQuery> queries) {
+        List<CompletableFuture<Long>> results = new ArrayList<>(queries.size());
+        List<Pending> batch = new ArrayList<>(queries.size());
+        for (ScanQuery query : queries) {
+            CompletableFuture<Long> rejected = new CompletableFuture<>();
+            if (closed) {
+                rejected.completeExceptionally(new IllegalStateException("scanner is closed"));
+                results.add(rejected);
+                continue;
+            }
+            try {
+                QueryShape shape = query.shape(QueryShape.Layout.COLUMN_MAJOR, table.getNumCols());
+                Pending pending = new Pending(QueryCompiler.compile(shape), query.getParams());
+                batch.add(pending);
+                results.add(pending.result);
+            } catch (RuntimeException e) {
+                rejected.completeExceptionally(e);
+                results.add(rejected);
+            }
+        }
+        if (batch.isEmpty()) {
+            return results;
+        }
+        submitted.add(batch);
+        if (closed) {
+            // close() may have drained the queue before this batch got in.
+            IllegalStateException e = new IllegalStateException("scanner is closed");
+            for (Pending pending : batch) {
+                pending.result.completeExceptionally(e);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Submits SELECT SUM(col0) FROM table WHERE col1 > threshold1 AND col2 < threshold2.
+     */
+    public CompletableFuture<Long> submitPredicatedColumnSum(int threshold1, int threshold2) {
+        return submit(new ScanQuery(new int[]{0},
+                new Predicate(1, CompareOp.GT, threshold1),
+                new Predicate(2, CompareOp.LT, threshold2)));
+    }
+
+    /**
+     * Returns the number of chunks the sweep has read, however many queries
+     * each one served.
+     */
+    public long getChunksScanned() {
+        return chunksScanned.get();
+    }
+
+    public long getQueriesAnswered() {
+        return queriesAnswered.get();
+    }
+
+    private void sweep() {
+        int chunkId = 0;
+        List<List<Pending>> joining = new ArrayList<>();
+        while (!closed) {
+            try {
+                if (attached.isEmpty()) {
+                    joining.add(submitted.take());
+                }
+            } catch (InterruptedException e) {
+                break;
+            }
+            submitted.drainTo(joining);
+            int numChunks = table.columns.getNumChunks();
+            for (List<Pending> batch : joining) {
+                for (Pending pending : batch) {
+                    pending.chunksLeft = numChunks;
+                    attached.add(pending);
+                }
+            }
+            joining.clear();
+            if (chunkId >= numChunks) {
+                chunkId = 0;
+            }
+            try {
+                if (numChunks > 0) {
+                    scanChunk(chunkId);
+                    chunksScanned.incrementAndGet();
+                }
+            } catch (RuntimeException e) {
+                for (Pending pending : attached) {
+                    pending.result.completeExceptionally(e);
+                }
+                attached.clear();
+                continue;
+            }
+            for (Iterator<Pending> it = attached.iterator(); it.hasNext(); ) {
+                Pending pending = it.next();
+                if (--pending.chunksLeft <= 0) {
+                    it.remove();
+                    queriesAnswered.incrementAndGet();
+                    pending.result.complete(pending.sum);
+                }
+            }
+            chunkId++;
+        }
+        IllegalStateException e = new IllegalStateException("scanner is closed");
+        for (Pending pending : attached) {
+            pending.result.completeExceptionally(e);
+        }
+        attached.clear();
+    }
+
+    /**
+     * Scans chunk `chunkId` for every attached query.
+     */
+    private void scanChunk(int chunkId) {
+        int n = attached.size();
+        ScanKernel[] kernels = new ScanKernel[n];
+        int[][] params = new int[n][];
+        long[] sums = new long[n];
+        for (int i = 0; i < n; i++) {
+            kernels[i] = attached.get(i).kernel;
+            params[i] = attached.get(i).params;
+        }
+        BatchExecutor.scanChunk(table.columns, chunkId, kernels, params, n, table::runKernel, sums, 0);
+        for (int i = 0; i < n; i++) {
+            attached.get(i).sum += sums[i];
+        }
+    }
+
+    /**
+     * Stops the scan thread; queries not yet answered complete exceptionally.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        scanThread.interrupt();
+        try {
+            scanThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        IllegalStateException e = new IllegalStateException("scanner is closed");
+        for (List<Pending> batch; (batch = submitted.poll()) != null; ) {
+            for (Pending pending : batch) {
+                pending.result.completeExceptionally(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package memstore.table;
+
+/**
+ * A table whose point writes to different rows may run at the same time, so
+ * that ConcurrentTable can lock them by row stripe instead of table-wide.
+ */
+interface StripedTable extends Table {
+    /**
+     * Like putIntField, but safe to call concurrently for different rows, as long
+     * as nothing but point reads and other such calls runs alongside.
+     */
+    void putIntFieldConcurrently(int rowId, int colId, int field);
+}
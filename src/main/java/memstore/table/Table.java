@@ -1,8 +1,17 @@
 package memstore.table;
 
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 import memstore.data.DataLoader;
+import memstore.data.RowBatch;
+import memstore.data.SnapshotFile;
+import memstore.data.SnapshotLoader;
+import memstore.query.Predicate;
+import memstore.query.Query;
+import memstore.query.ScanQuery;
+import memstore.stats.TableStatistics;
 
 import java.io.IOException;
+import java.util.List;
 
 /**
  * Table interface, with one method for each query we wish to support.
@@ -17,6 +26,76 @@ public interface Table {
      */
     void load(DataLoader loader) throws IOException;
 
+    /**
+     * Appends the rows of `batch` after the table's existing rows. Indexes,
+     * precomputed aggregates and statistics are updated incrementally, and the
+     * table grows without copying its existing rows, at amortized O(1) per row.
+     *
+     * @param batch Rows to append; must have as many columns as the table.
+     * @throws IllegalArgumentException if the batch's column count differs.
+     */
+    void appendRows(RowBatch batch);
+
+    /**
+     * Writes the table's in-memory state to a binary snapshot file at `path`.
+     *
+     * Snapshots hold live rows only. The default implementation writes them row
+     * by row through getIntField; tables override it to compact and then dump
+     * their buffers and auxiliary structures directly.
+     *
+     * @param path File to write; overwritten if it exists.
+     * @throws IOException
+     */
+    default void saveSnapshot(String path) throws IOException {
+        int numCols = getNumCols();
+        int numLive = getNumRows() - getNumDeletedRows();
+        int[] data = new int[numLive * numCols];
+        int i = 0;
+        for (int rowId = 0; rowId < getNumRows(); rowId++) {
+            if (isDeleted(rowId)) {
+                continue;
+            }
+            for (int colId = 0; colId < numCols; colId++) {
+                data[i++] = getIntField(rowId, colId);
+            }
+        }
+        try (SnapshotFile.Writer writer = new SnapshotFile.Writer(path, SnapshotFile.KIND_GENERIC,
+                SnapshotFile.LAYOUT_ROW_MAJOR, numLive, numCols, 0, 1)) {
+            writer.writeSection(SnapshotFile.SECTION_DATA, data);
+        }
+    }
+
+    /**
+     * Replaces the table's contents with a snapshot written by saveSnapshot.
+     *
+     * The default implementation loads the snapshot's data through SnapshotLoader,
+     * which accepts snapshots written by any kind of table.
+     *
+     * @param path Snapshot file to read.
+     * @throws IOException if the file is not a snapshot or fails its checksums.
+     */
+    default void restoreSnapshot(String path) throws IOException {
+        load(new SnapshotLoader(path));
+    }
+
+    /**
+     * Returns the number of rows in the table, counting deleted rows that have
+     * not been compacted away; row ids range over [0, getNumRows()).
+     */
+    int getNumRows();
+
+    /**
+     * Returns the number of columns in the table.
+     */
+    int getNumCols();
+
+    /**
+     * Returns per-column statistics (min, max, distinct count, histogram) for
+     * cardinality estimation. Built at load time and kept approximately current
+     * under writes.
+     */
+    TableStatistics getStatistics();
+
     /**
      * Returns the int field at row `rowId` and column `colId`.
      */
@@ -27,6 +106,108 @@ public interface Table {
      */
     void putIntField(int rowId, int colId, int field);
 
+    /**
+     * Writes values[i] to field (rowIds[i], colIds[i]) for every i, leaving the
+     * table as putIntField would in array order: of several writes to one field,
+     * the last wins. Tables may reorder the writes for locality and update
+     * derived state once per batch.
+     *
+     * @throws IllegalArgumentException if the arrays differ in length.
+     */
+    default void putIntFields(int[] rowIds, int[] colIds, int[] values) {
+        FieldWrites.checkLengths(rowIds, colIds, values);
+        for (int i = 0; i < rowIds.length; i++) {
+            putIntField(rowIds[i], colIds[i], values[i]);
+        }
+    }
+
+    /**
+     * Replaces every field of row `rowId` with values[0, getNumCols()).
+     *
+     * @throws IllegalArgumentException if `values` does not hold one field per column.
+     */
+    default void putRow(int rowId, int[] values) {
+        if (values.length != getNumCols()) {
+            throw new IllegalArgumentException("row has " + values.length + " fields, table has " + getNumCols() + " columns");
+        }
+        for (int colId = 0; colId < values.length; colId++) {
+            putIntField(rowId, colId, values[colId]);
+        }
+    }
+
+    /**
+     * Returns whether row `rowId` has been deleted.
+     */
+    boolean isDeleted(int rowId);
+
+    /**
+     * Returns the number of deleted rows still holding a row id.
+     */
+    int getNumDeletedRows();
+
+    /**
+     * Deletes row `rowId`; see deleteRows.
+     *
+     * @return false if the row was already deleted.
+     */
+    default boolean deleteRow(int rowId) {
+        return deleteRows(new int[]{rowId}) == 1;
+    }
+
+    /**
+     * Deletes the rows in `rowIds`. Every query skips deleted rows, and writes to
+     * them are ignored; indexes, aggregates and statistics forget them at once.
+     *
+     * A deleted row keeps its id, and its storage, until the table compacts. Once
+     * deleted rows make up more than the compaction threshold of getNumRows(),
+     * the table compacts at the end of the call, renumbering the surviving rows
+     * in order from 0; row ids held across a delete are therefore only valid
+     * while getNumDeletedRows() has not dropped.
+     *
+     * @return the number of rows that were not already deleted.
+     * @throws IndexOutOfBoundsException if a row id is not in [0, getNumRows()).
+     */
+    int deleteRows(int[] rowIds);
+
+    /**
+     * Implements the query
+     *  DELETE FROM table WHERE p1 AND p2 AND ...;
+     *
+     *  Returns the number of rows deleted. The default implementation finds the
+     *  matching rows through getIntField and passes them to deleteRows.
+     */
+    default int deleteWhere(Predicate... predicates) {
+        IntArrayList matches = new IntArrayList();
+        int numRows = getNumRows();
+        for (int rowId = 0; rowId < numRows; rowId++) {
+            if (isDeleted(rowId)) {
+                continue;
+            }
+            boolean matched = true;
+            for (int i = 0; i < predicates.length && matched; i++) {
+                matched = predicates[i].test(getIntField(rowId, predicates[i].colId));
+            }
+            if (matched) {
+                matches.add(rowId);
+            }
+        }
+        return deleteRows(matches.toIntArray());
+    }
+
+    /**
+     * Drops deleted rows from storage now, renumbering the surviving rows in
+     * order from 0.
+     */
+    void compact();
+
+    /**
+     * Sets the fraction of deleted rows past which deletes compact the table;
+     * 1 or more leaves compaction to explicit compact() calls.
+     *
+     * @throws IllegalArgumentException if `ratio` is not positive.
+     */
+    void setCompactionThreshold(double ratio);
+
     /**
      * Implements the query
      *  SELECT SUM(col0) FROM table;
@@ -59,4 +240,62 @@ public interface Table {
      *   Returns the number of rows updated.
      */
     int predicatedUpdate(int threshold);
+
+    /**
+     * Implements the ad-hoc query
+     *  SELECT SUM(colA) + SUM(colB) + ... FROM table WHERE p1 AND p2 AND ...;
+     *
+     *  The default implementation interprets the query field by field;
+     *  tables with a flat layout override it with a compiled kernel.
+     */
+    default long execute(ScanQuery query) {
+        int[] sumColumns = query.getSumColumns();
+        Predicate[] predicates = query.getPredicates();
+        long sum = 0;
+        int numRows = getNumRows();
+        for (int rowId = 0; rowId < numRows; rowId++) {
+            if (isDeleted(rowId)) {
+                continue;
+            }
+            boolean matches = true;
+            for (int i = 0; i < predicates.length && matches; i++) {
+                matches = predicates[i].test(getIntField(rowId, predicates[i].colId));
+            }
+            if (matches) {
+                for (int colId : sumColumns) {
+                    sum = sum + getIntField(rowId, colId);
+                }
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Runs one query of a batch through the method that implements it; a
+     * predicatedUpdate returns its row count.
+     */
+    default long execute(Query query) {
+        switch (query.getKind()) {
+            case COLUMN_SUM: return columnSum();
+            case PREDICATED_COLUMN_SUM: return predicatedColumnSum(query.getThreshold1(), query.getThreshold2());
+            case PREDICATED_ALL_COLUMNS_SUM: return predicatedAllColumnsSum(query.getThreshold1());
+            case PREDICATED_UPDATE: return predicatedUpdate(query.getThreshold1());
+            default: return execute(query.getScanQuery());
+        }
+    }
+
+    /**
+     * Runs `queries` and returns their results in the same order. Each read sees
+     * exactly the updates before it in the batch.
+     *
+     * The default implementation runs the queries one by one; tables that scan
+     * their storage override it to answer each run of consecutive reads in one pass.
+     */
+    default long[] executeBatch(List<Query> queries) {
+        long[] results = new long[queries.size()];
+        for (int i = 0; i < results.length; i++) {
+            results[i] = execute(queries.get(i));
+        }
+        return results;
+    }
 }
@@ -0,0 +1,141 @@
+package memstore.table;
+
+import java.util.Arrays;
+
+/**
+ * Bitmap of deleted rows, one bit per row id, plus the policy deciding when a
+ * table should compact them away.
+ *
+ * Scans walk the live rows as runs: nextLive and nextDeleted look at 64 rows per
+ * word, so a long run of deleted (or live) rows costs one step per word and a
+ * table without deletions pays a single check per scan.
+ */
+final class Tombstones {
+    /** Fraction of deleted rows past which tables compact, unless configured otherwise. */
+    static final double DEFAULT_COMPACTION_THRESHOLD = 0.25;
+
+    private long[] words = new long[0];
+    private int count;
+    private double compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+
+    /**
+     * Returns the number of deleted rows.
+     */
+    int count() {
+        return count;
+    }
+
+    boolean isDeleted(int rowId) {
+        int word = rowId >>> 6;
+        return word < words.length && (words[word] & (1L << rowId)) != 0;
+    }
+
+    /**
+     * Marks row `rowId` of a table with `numRows` row ids as deleted.
+     *
+     * @return false if it already was.
+     */
+    boolean delete(int rowId, int numRows) {
+        if (rowId < 0 || rowId >= numRows) {
+            throw new IndexOutOfBoundsException("row " + rowId + " of " + numRows);
+        }
+        int word = rowId >>> 6;
+        if (word >= words.length) {
+            words = Arrays.copyOf(words, Math.max(word + 1, words.length * 2));
+        }
+        long bit = 1L << rowId;
+        if ((words[word] & bit) != 0) {
+            return false;
+        }
+        words[word] |= bit;
+        count++;
+        return true;
+    }
+
+    /**
+     * Replaces this bitmap's deletions and threshold with a copy of `other`'s.
+     */
+    void copyFrom(Tombstones other) {
+        words = other.count == 0 ? new long[0] : other.words.clone();
+        count = other.count;
+        compactionThreshold = other.compactionThreshold;
+    }
+
+    /**
+     * Forgets every deletion, e.g. once the table has compacted or reloaded.
+     */
+    void clear() {
+        words = new long[0];
+        count = 0;
+    }
+
+    /**
+     * Returns the first live row in [from, to), or `to` if there is none.
+     */
+    int nextLive(int from, int to) {
+        if (count == 0 || from >= to) {
+            return from;
+        }
+        int word = from >>> 6;
+        if (word >= words.length) {
+            return from;
+        }
+        long live = ~words[word] & (-1L << from);
+        while (live == 0) {
+            word++;
+            if (word >= words.length) {
+                return Math.min(word << 6, to);
+            }
+            if ((word << 6) >= to) {
+                return to;
+            }
+            live = ~words[word];
+        }
+        return Math.min((word << 6) + Long.numberOfTrailingZeros(live), to);
+    }
+
+    /**
+     * Returns the first deleted row in [from, to), or `to` if there is none.
+     */
+    int nextDeleted(int from, int to) {
+        if (count == 0 || from >= to) {
+            return to;
+        }
+        int word = from >>> 6;
+        if (word >= words.length) {
+            return to;
+        }
+        long deleted = words[word] & (-1L << from);
+        while (deleted == 0) {
+            word++;
+            if (word >= words.length || (word << 6) >= to) {
+                return to;
+            }
+            deleted = words[word];
+        }
+        return Math.min((word << 6) + Long.numberOfTrailingZeros(deleted), to);
+    }
+
+    double getCompactionThreshold() {
+        return compactionThreshold;
+    }
+
+    /**
+     * Sets the fraction of deleted rows past which the table compacts; values
+     * of 1 or more disable automatic compaction.
+     */
+    void setCompactionThreshold(double ratio) {
+        if (!(ratio > 0)) {
+            throw new IllegalArgumentException("compaction threshold must be positive, got " + ratio);
+        }
+        this.compactionThreshold = ratio;
+    }
+
+    /**
+     * Returns whether a table with `numRows` row ids has deleted more of them
+     * than the compaction threshold allows.
+     */
+    boolean shouldCompact(int numRows) {
+        return count > 0 && count > compactionThreshold * numRows;
+    }
+}
@@ -0,0 +1,22 @@
+package memstore.table;
+
+/**
+ * A table that can pin its current contents as a read-only version, so that a
+ * long query sees one consistent table while writes carry on (see ConcurrentTable).
+ */
+interface VersionedTable extends Table {
+    /**
+     * Returns a read-only table holding this table's rows as they are now; later
+     * writes to this table do not show in it. Pinning costs O(chunks) plus a copy
+     * of the tombstone bitmap; writes pay for it by copying each chunk they touch
+     * once per pinned version. Pass the version to unpinVersion once done.
+     *
+     * Pins may run concurrently with each other and with queries, but not with writes.
+     */
+    Table pinVersion();
+
+    /**
+     * Releases a version returned by pinVersion. Safe to call concurrently with writes.
+     */
+    void unpinVersion(Table version);
+}
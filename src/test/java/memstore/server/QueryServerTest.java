@@ -0,0 +1,136 @@
+package memstore.server;
+
+import memstore.data.RandomizedLoader;
+import memstore.query.CompareOp;
+import memstore.query.Predicate;
+import memstore.query.ScanQuery;
+import memstore.table.ColumnTable;
+import memstore.table.ConcurrentTable;
+import memstore.table.Table;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests that requests sent through a QueryServer return what the table itself
+ * returns, on virtual threads where the JDK has them and on the bounded pool.
+ */
+public class QueryServerTest {
+    static final int NUM_ROWS = 5_000;
+    static final int NUM_COLS = 6;
+
+    private static Table loadTable() throws IOException {
+        ConcurrentTable t = new ConcurrentTable(new ColumnTable());
+        t.load(new RandomizedLoader(31, NUM_ROWS, NUM_COLS));
+        return t;
+    }
+
+    @Test
+    public void testRequestsMatchTable() throws IOException {
+        for (boolean virtualThreads : new boolean[]{true, false}) {
+            Table t = loadTable();
+            try (QueryServer server = new QueryServer(t, 0, 2, virtualThreads);
+                 QueryClient client = new QueryClient(server.getPort())) {
+                assertEquals(virtualThreads && QueryServer.newVirtualThreadExecutor() != null, server.usesVirtualThreads());
+                assertEquals(NUM_ROWS, client.getNumRows());
+                assertEquals(NUM_COLS, client.getNumCols());
+                client.putIntField(17, 3, 1000);
+                assertEquals(1000, t.getIntField(17, 3));
+                assertEquals(1000, client.getIntField(17, 3));
+                assertEquals(t.columnSum(), client.columnSum());
+                assertEquals(t.predicatedColumnSum(200, 800), client.predicatedColumnSum(200, 800));
+                assertEquals(t.predicatedAllColumnsSum(512), client.predicatedAllColumnsSum(512));
+                ScanQuery query = new ScanQuery(new int[]{2, 5}, new Predicate(4, CompareOp.NE, 7), new Predicate(0, CompareOp.LE, 600));
+                assertEquals(t.execute(query), client.execute(query));
+                assertTrue(client.deleteRow(9));
+                assertFalse(client.deleteRow(9));
+                assertTrue(t.isDeleted(9));
+                long before = t.columnSum();
+                int updated = client.predicatedUpdate(300);
+                assertTrue(updated > 0);
+                assertEquals(before, client.columnSum());
+
+                // A failed request leaves the connection usable.
+                try {
+                    client.deleteRow(NUM_ROWS + 1);
+                    fail("deleted past the last row");
+                } catch (IllegalStateException e) {
+                    assertTrue(e.getMessage(), e.getMessage().startsWith("server: "));
+                }
+                assertEquals(t.getIntField(0, 0), client.getIntField(0, 0));
+                assertEquals(14, server.getRequestsServed());
+            }
+        }
+    }
+
+    /**
+     * A SCAN with a negative or oversized count drops its connection without
+     * an answer; other connections are unaffected.
+     */
+    @Test
+    public void testBadScanCountDropsConnection() throws IOException {
+        Table t = loadTable();
+        try (QueryServer server = new QueryServer(t, 0, 2, false)) {
+            for (int count : new int[]{-1, Integer.MAX_VALUE, QueryServer.MAX_SCAN_TERMS + 1}) {
+                try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+                    DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                    out.writeByte(Protocol.SCAN);
+                    out.writeInt(count);
+                    out.flush();
+                    assertEquals(-1, new DataInputStream(socket.getInputStream()).read());
+                }
+            }
+            try (QueryClient client = new QueryClient(server.getPort())) {
+                assertEquals(t.columnSum(), client.columnSum());
+            }
+        }
+    }
+
+    /**
+     * More clients than the pool has threads: later connections wait for
+     * earlier ones to close, but every request is answered.
+     */
+    @Test
+    public void testMoreClientsThanPoolThreads() throws Exception {
+        int numClients = 12;
+        Table t = loadTable();
+        ExecutorService pool = Executors.newFixedThreadPool(numClients);
+        try (QueryServer server = new QueryServer(t, 0, 3, false)) {
+            List<Future<?>> clients = new ArrayList<>();
+            for (int c = 0; c < numClients; c++) {
+                int first = c;
+                clients.add(pool.submit(() -> {
+                    try (QueryClient client = new QueryClient(server.getPort())) {
+                        for (int rowId = first; rowId < NUM_ROWS; rowId += numClients) {
+                            client.putIntField(rowId, 0, 1);
+                        }
+                        client.predicatedColumnSum(100, 900);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> f : clients) {
+                f.get(60, TimeUnit.SECONDS);
+            }
+            assertEquals(NUM_ROWS, t.columnSum());
+            assertEquals(NUM_ROWS + numClients, server.getRequestsServed());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
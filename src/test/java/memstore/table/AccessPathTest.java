@@ -0,0 +1,94 @@
+package memstore.table;
+
+import memstore.data.DataLoader;
+import memstore.data.RandomizedLoader;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests that every access path of the IndexedRowTable returns the same answers
+ * as a RowTable, and that the planner avoids the index for unselective predicates.
+ */
+public class AccessPathTest {
+    DataLoader dl;
+
+    public AccessPathTest() {
+        dl = new RandomizedLoader(0, 10_000, 5);
+    }
+
+    @Test
+    public void testAllPathsAgree() throws IOException {
+        RowTable rt = new RowTable();
+        rt.load(dl);
+        for (int indexColumn = 0; indexColumn < 3; indexColumn++) {
+            for (AccessPath path : AccessPath.values()) {
+                IndexedRowTable it = new IndexedRowTable(indexColumn);
+                it.load(dl);
+                it.setForcedAccessPath(path);
+                for (int t = 0; t <= 1024; t += 128) {
+                    assertEquals(rt.predicatedColumnSum(t, 1024 - t), it.predicatedColumnSum(t, 1024 - t));
+                    assertEquals(rt.predicatedAllColumnsSum(t), it.predicatedAllColumnsSum(t));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testUpdatePathsAgree() throws IOException {
+        for (AccessPath path : AccessPath.values()) {
+            RowTable rt = new RowTable();
+            rt.load(dl);
+            IndexedRowTable it = new IndexedRowTable(0);
+            it.load(dl);
+            it.setForcedAccessPath(path);
+            for (int t = 0; t <= 1024; t += 256) {
+                assertEquals(rt.predicatedUpdate(t), it.predicatedUpdate(t));
+            }
+            assertEquals(rt.predicatedAllColumnsSum(-1), it.predicatedAllColumnsSum(-1));
+        }
+    }
+
+    /**
+     * Writes to the indexed column move rows between posting lists; an index
+     * scan over several chunks must still count every row once.
+     */
+    @Test
+    public void testIndexScanAfterIndexedColumnUpdates() throws IOException {
+        DataLoader chunks = new RandomizedLoader(0, 3 * ChunkedStorage.CHUNK_ROWS, 5);
+        for (int indexColumn = 1; indexColumn < 3; indexColumn++) {
+            RowTable rt = new RowTable();
+            rt.load(chunks);
+            IndexedRowTable it = new IndexedRowTable(indexColumn);
+            it.load(chunks);
+            it.setForcedAccessPath(AccessPath.INDEX_SCAN);
+            Random random = new Random(indexColumn);
+            for (int i = 0; i < 1000; i++) {
+                int rowId = random.nextInt(rt.getNumRows());
+                int field = random.nextInt(1024);
+                rt.putIntField(rowId, indexColumn, field);
+                it.putIntField(rowId, indexColumn, field);
+            }
+            rt.putIntField(3, 2, 5);
+            it.putIntField(3, 2, 5);
+            rt.putIntField(3, 1, 1000);
+            it.putIntField(3, 1, 1000);
+            for (int t = 0; t <= 1024; t += 128) {
+                assertEquals(rt.predicatedColumnSum(t, 1024 - t), it.predicatedColumnSum(t, 1024 - t));
+            }
+        }
+    }
+
+    @Test
+    public void testPlanFollowsSelectivity() throws IOException {
+        IndexedRowTable it = new IndexedRowTable(2);
+        it.load(dl);
+        it.predicatedColumnSum(500, 2);
+        assertEquals(AccessPath.INDEX_SCAN, it.getLastAccessPath());
+        it.predicatedColumnSum(500, 1024);
+        assertEquals(AccessPath.FULL_SCAN, it.getLastAccessPath());
+    }
+}
@@ -0,0 +1,168 @@
+package memstore.table;
+
+import memstore.data.ByteFormat;
+import memstore.data.RandomizedLoader;
+import memstore.data.RowBatch;
+import memstore.query.CompareOp;
+import memstore.query.Predicate;
+import memstore.query.ScanQuery;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests that tables grown with appendRows answer every query like a table
+ * loaded with all of the rows at once, across chunk boundaries, interleaved
+ * updates and snapshots.
+ */
+public class AppendRowsTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    static final int SEED = 11;
+    static final int NUM_COLS = 6;
+    static final int INITIAL_ROWS = 1_000;
+    /** Enough rows to fill a couple of chunks. */
+    static final int TOTAL_ROWS = 2 * ChunkedStorage.CHUNK_ROWS + 5_000;
+    static final int[] BATCH_SIZES = {1, 37, 4096, 70_000};
+
+    private static List<Table> tables() {
+        return Arrays.asList(
+                new ColumnTable(),
+                new RowTable(),
+                new IndexedRowTable(0),
+                new IndexedRowTable(1),
+                new CustomTable(),
+                new CachingTable(new ColumnTable(), 16)
+        );
+    }
+
+    /**
+     * Appends rows [from, to) of `rows` in batches of varying size.
+     */
+    private static void appendAll(Table t, List<ByteBuffer> rows, int from, int to) {
+        int i = 0;
+        while (from < to) {
+            int n = Math.min(BATCH_SIZES[i++ % BATCH_SIZES.length], to - from);
+            RowBatch batch = new RowBatch(NUM_COLS, n);
+            for (int row = 0; row < n; row++) {
+                for (int colId = 0; colId < NUM_COLS; colId++) {
+                    batch.getData()[row * NUM_COLS + colId] = rows.get(from + row).getInt(ByteFormat.FIELD_LEN * colId);
+                }
+            }
+            batch.setNumRows(n);
+            t.appendRows(batch);
+            from += n;
+        }
+    }
+
+    private static void assertSameContents(String tableType, Table expected, Table actual) {
+        assertEquals(tableType, expected.getNumRows(), actual.getNumRows());
+        assertEquals(tableType, expected.getNumRows(), actual.getStatistics().getNumRows());
+        for (int rowId = 0; rowId < expected.getNumRows(); rowId++) {
+            for (int colId = 0; colId < NUM_COLS; colId++) {
+                assertEquals(tableType, expected.getIntField(rowId, colId), actual.getIntField(rowId, colId));
+            }
+        }
+        assertEquals(tableType, expected.columnSum(), actual.columnSum());
+        for (int threshold : new int[]{0, 300, 1000}) {
+            assertEquals(tableType, expected.predicatedColumnSum(threshold, 700), actual.predicatedColumnSum(threshold, 700));
+            assertEquals(tableType, expected.predicatedAllColumnsSum(threshold), actual.predicatedAllColumnsSum(threshold));
+        }
+        ScanQuery query = new ScanQuery(new int[]{0, 4, 5},
+                new Predicate(1, CompareOp.GE, 100), new Predicate(3, CompareOp.LT, 900));
+        assertEquals(tableType, expected.execute(query), actual.execute(query));
+    }
+
+    @Test
+    public void testAppendMatchesLoad() throws IOException {
+        RandomizedLoader full = new RandomizedLoader(SEED, TOTAL_ROWS, NUM_COLS);
+        List<ByteBuffer> rows = full.getRows();
+        Table expected = new RowTable();
+        expected.load(full);
+
+        for (Table t : tables()) {
+            String tableType = t.getClass().getSimpleName();
+            // A prefix of the same random stream is the first INITIAL_ROWS rows.
+            t.load(new RandomizedLoader(SEED, INITIAL_ROWS, NUM_COLS));
+            t.columnSum();
+            appendAll(t, rows, INITIAL_ROWS, TOTAL_ROWS);
+            assertSameContents(tableType, expected, t);
+        }
+    }
+
+    /**
+     * Rows appended after a predicatedUpdate must not see it, and later updates
+     * must reach them.
+     */
+    @Test
+    public void testAppendBetweenUpdates() throws IOException {
+        RandomizedLoader full = new RandomizedLoader(SEED, TOTAL_ROWS, NUM_COLS);
+        List<ByteBuffer> rows = full.getRows();
+
+        for (Table t : tables()) {
+            String tableType = t.getClass().getSimpleName();
+            Table expected = new RowTable();
+            expected.load(full);
+            for (int rowId = 0; rowId < INITIAL_ROWS; rowId++) {
+                if (expected.getIntField(rowId, 0) < 300) {
+                    expected.putIntField(rowId, 3, expected.getIntField(rowId, 3) + expected.getIntField(rowId, 2));
+                }
+            }
+
+            t.load(new RandomizedLoader(SEED, INITIAL_ROWS, NUM_COLS));
+            t.predicatedUpdate(300);
+            appendAll(t, rows, INITIAL_ROWS, TOTAL_ROWS);
+            assertSameContents(tableType, expected, t);
+
+            assertEquals(tableType, expected.predicatedUpdate(800), t.predicatedUpdate(800));
+            t.putIntField(TOTAL_ROWS - 1, 0, 5);
+            expected.putIntField(TOTAL_ROWS - 1, 0, 5);
+            assertSameContents(tableType, expected, t);
+        }
+    }
+
+    @Test
+    public void testSnapshotAfterAppend() throws IOException {
+        RandomizedLoader full = new RandomizedLoader(SEED, TOTAL_ROWS, NUM_COLS);
+        List<ByteBuffer> rows = full.getRows();
+        Table expected = new RowTable();
+        expected.load(full);
+
+        List<Table> restored = tables();
+        int i = 0;
+        for (Table t : tables()) {
+            String tableType = t.getClass().getSimpleName();
+            t.load(new RandomizedLoader(SEED, INITIAL_ROWS, NUM_COLS));
+            appendAll(t, rows, INITIAL_ROWS, TOTAL_ROWS);
+            String path = folder.newFile().getPath();
+            t.saveSnapshot(path);
+            Table copy = restored.get(i++);
+            copy.restoreSnapshot(path);
+            assertSameContents(tableType, expected, copy);
+        }
+    }
+
+    @Test
+    public void testWrongColumnCountIsRejected() throws IOException {
+        for (Table t : tables()) {
+            t.load(new RandomizedLoader(SEED, INITIAL_ROWS, NUM_COLS));
+            RowBatch batch = new RowBatch(NUM_COLS + 1, 1);
+            batch.setNumRows(1);
+            try {
+                t.appendRows(batch);
+                fail(t.getClass().getSimpleName() + " accepted a batch with the wrong column count");
+            } catch (IllegalArgumentException expected) {
+                assertEquals(INITIAL_ROWS, t.getNumRows());
+            }
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package memstore.table;
+
+import memstore.data.DataLoader;
+import memstore.data.RandomizedLoader;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the result cache: hits for repeated queries, precise invalidation on
+ * writes, bounded size, and identical answers to the uncached table.
+ */
+public class CachingTableTest {
+    DataLoader dl;
+
+    public CachingTableTest() {
+        dl = new RandomizedLoader(0, 5_000, 10);
+    }
+
+    @Test
+    public void testPreciseInvalidation() throws IOException {
+        CachingTable ct = new CachingTable(new RowTable(), 16);
+        ct.load(dl);
+
+        long sum = ct.predicatedColumnSum(300, 700);
+        long all = ct.predicatedAllColumnsSum(500);
+        assertEquals(sum, ct.predicatedColumnSum(300, 700));
+        assertEquals(2, ct.getMisses());
+        assertEquals(1, ct.getHits());
+
+        // col7 is not read by predicatedColumnSum, but is read by predicatedAllColumnsSum.
+        ct.putIntField(3, 7, ct.getIntField(3, 7) + 1);
+        assertEquals(sum, ct.predicatedColumnSum(300, 700));
+        assertEquals(2, ct.getHits());
+        ct.predicatedAllColumnsSum(500);
+        assertEquals(3, ct.getMisses());
+
+        // predicatedUpdate only writes col3.
+        ct.columnSum();
+        ct.predicatedUpdate(200);
+        ct.columnSum();
+        ct.predicatedColumnSum(300, 700);
+        assertEquals(4, ct.getHits());
+        ct.predicatedAllColumnsSum(500);
+        assertEquals(5, ct.getMisses());
+
+        // Writing col1 evicts predicatedColumnSum but not columnSum.
+        ct.putIntField(3, 1, ct.getIntField(3, 1) + 1);
+        ct.columnSum();
+        assertEquals(5, ct.getHits());
+        ct.predicatedColumnSum(300, 700);
+        assertEquals(6, ct.getMisses());
+    }
+
+    @Test
+    public void testBoundedLru() throws IOException {
+        CachingTable ct = new CachingTable(new ColumnTable(), 4);
+        ct.load(dl);
+        for (int t = 0; t < 10; t++) {
+            ct.predicatedAllColumnsSum(t);
+        }
+        assertEquals(4, ct.size());
+        assertEquals(6, ct.getEvictions());
+        ct.predicatedAllColumnsSum(9);
+        assertEquals(1, ct.getHits());
+        ct.predicatedAllColumnsSum(0);
+        assertEquals(11, ct.getMisses());
+    }
+
+    /**
+     * Bad batches fail as they do on other tables, before any write lands.
+     */
+    @Test
+    public void testRejectsBadBatches() throws IOException {
+        CachingTable ct = new CachingTable(new RowTable(), 16);
+        ct.load(dl);
+        long sum = ct.columnSum();
+        int field = ct.getIntField(0, 0);
+        try {
+            ct.putIntFields(new int[]{0, 1}, new int[]{0, 0}, new int[]{field + 1});
+            fail("applied a batch with mismatched lengths");
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+        try {
+            ct.putIntFields(new int[]{0, 1}, new int[]{0, 10}, new int[]{field + 1, 5});
+            fail("applied a write past the last column");
+        } catch (IndexOutOfBoundsException e) {
+            // Expected.
+        }
+        assertEquals(field, ct.getIntField(0, 0));
+        assertEquals(sum, ct.columnSum());
+    }
+
+    @Test
+    public void testMatchesUncached() throws IOException {
+        RowTable rt = new RowTable();
+        rt.load(dl);
+        CachingTable ct = new CachingTable(new CustomTable(), 8);
+        ct.load(dl);
+        Random random = new Random(0);
+        for (int i = 0; i < 200; i++) {
+            int t1 = random.nextInt(4) * 256;
+            int t2 = random.nextInt(4) * 256;
+            assertEquals(rt.columnSum(), ct.columnSum());
+            assertEquals(rt.predicatedColumnSum(t1, t2), ct.predicatedColumnSum(t1, t2));
+            assertEquals(rt.predicatedAllColumnsSum(t1), ct.predicatedAllColumnsSum(t1));
+            if (i % 10 == 0) {
+                assertEquals(rt.predicatedUpdate(t2), ct.predicatedUpdate(t2));
+            }
+            int rowId = random.nextInt(rt.getNumRows());
+            int colId = random.nextInt(rt.getNumCols());
+            int value = random.nextInt(1024);
+            rt.putIntField(rowId, colId, value);
+            ct.putIntField(rowId, colId, value);
+        }
+    }
+}
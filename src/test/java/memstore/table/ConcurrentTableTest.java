@@ -0,0 +1,379 @@
+package memstore.table;
+
+import memstore.data.RandomizedLoader;
+import memstore.data.RowBatch;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that readers sharing a ConcurrentTable with a writer only ever see the
+ * table between writes, and that pinned versions stay as they were pinned.
+ */
+public class ConcurrentTableTest {
+    static final int NUM_ROWS = 20_000;
+    static final int NUM_COLS = 5;
+    static final int NUM_READERS = 3;
+
+    private static List<Table> tables() {
+        return Arrays.asList(
+                new ColumnTable(),
+                new RowTable(),
+                new IndexedRowTable(0),
+                new CustomTable(),
+                new CachingTable(new ColumnTable(), 16)
+        );
+    }
+
+    /**
+     * Runs `writer` on one thread and `reader` on NUM_READERS others until the
+     * writer is done.
+     */
+    private static void race(Runnable writer, Runnable reader) throws Exception {
+        race(Arrays.asList(writer), reader);
+    }
+
+    /**
+     * Runs each of `writers` on its own thread and `reader` on NUM_READERS others
+     * until the writers are done.
+     */
+    private static void race(List<Runnable> writers, Runnable reader) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(NUM_READERS + writers.size());
+        AtomicBoolean done = new AtomicBoolean();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch writing = new CountDownLatch(writers.size());
+        try {
+            List<Future<?>> readers = new ArrayList<>();
+            for (int i = 0; i < NUM_READERS; i++) {
+                readers.add(pool.submit(() -> {
+                    start.await();
+                    while (!done.get()) {
+                        reader.run();
+                    }
+                    return null;
+                }));
+            }
+            List<Future<?>> writes = new ArrayList<>();
+            for (Runnable writer : writers) {
+                writes.add(pool.submit(() -> {
+                    start.await();
+                    try {
+                        writer.run();
+                    } finally {
+                        writing.countDown();
+                        if (writing.getCount() == 0) {
+                            done.set(true);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> f : writes) {
+                f.get(60, TimeUnit.SECONDS);
+            }
+            for (Future<?> f : readers) {
+                f.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * The writer moves amounts between pairs of col0 fields in single batches,
+     * which keeps columnSum constant for every reader.
+     */
+    @Test
+    public void testScansSeeWholeBatches() throws Exception {
+        for (Table base : tables()) {
+            String tableType = base.getClass().getSimpleName();
+            ConcurrentTable t = new ConcurrentTable(base);
+            t.load(new RandomizedLoader(7, NUM_ROWS, NUM_COLS));
+            long expected = t.columnSum();
+            long predicated = t.predicatedColumnSum(-1, 1024);
+            assertEquals(tableType, expected, predicated);
+
+            race(() -> {
+                for (int i = 0; i < 2_000; i++) {
+                    int a = (i * 7919) % NUM_ROWS;
+                    int b = (a + 1 + i % 100) % NUM_ROWS;
+                    int fieldA = t.getIntField(a, 0);
+                    int fieldB = t.getIntField(b, 0);
+                    int delta = Math.min(fieldA, 1023 - fieldB);
+                    t.putIntFields(new int[]{a, b}, new int[]{0, 0}, new int[]{fieldA - delta, fieldB + delta});
+                }
+            }, () -> {
+                assertEquals(tableType, expected, t.columnSum());
+                assertEquals(tableType, expected, t.predicatedColumnSum(-1, 1024));
+            });
+            assertEquals(tableType, expected, t.columnSum());
+        }
+    }
+
+    /**
+     * The writer keeps adding col2 to col3 for every row, so an optimistic point
+     * read of col3 must see a whole number of updates, no fewer than before.
+     * CustomTable defers these writes and folds them into its rows in sweeps.
+     */
+    @Test
+    public void testPointReadsSeeWholeUpdates() throws Exception {
+        int updates = 2_500;
+        for (Table base : tables()) {
+            String tableType = base.getClass().getSimpleName();
+            ConcurrentTable t = new ConcurrentTable(base);
+            t.load(new RandomizedLoader(11, 1_000, NUM_COLS));
+            int rowId = 0;
+            while (t.getIntField(rowId, 2) == 0) {
+                rowId++;
+            }
+            int row = rowId;
+            int col2 = t.getIntField(row, 2);
+            int col3 = t.getIntField(row, 3);
+
+            ThreadLocal<int[]> lastSeen = ThreadLocal.withInitial(() -> new int[]{col3});
+            race(() -> {
+                for (int i = 0; i < updates; i++) {
+                    t.predicatedUpdate(1024);
+                }
+            }, () -> {
+                int value = t.getIntField(row, 3);
+                int[] last = lastSeen.get();
+                assertEquals(tableType, 0, (value - col3) % col2);
+                assertTrue(tableType, (value - col3) / col2 >= (last[0] - col3) / col2);
+                last[0] = value;
+            });
+            assertEquals(tableType, col3 + updates * col2, t.getIntField(row, 3));
+        }
+    }
+
+    /**
+     * A pinned version keeps answering as of its pin through writes, deletes,
+     * appends and compaction of the table it came from.
+     */
+    @Test
+    public void testPinnedVersionIgnoresLaterWrites() throws IOException {
+        RandomizedLoader loader = new RandomizedLoader(5, ChunkedStorage.CHUNK_ROWS + 500, NUM_COLS);
+        for (VersionedTable t : Arrays.<VersionedTable>asList(new ColumnTable(), new RowTable())) {
+            String tableType = t.getClass().getSimpleName();
+            t.load(loader);
+            t.deleteRow(3);
+            Table version = t.pinVersion();
+            long columnSum = version.columnSum();
+            long allColumnsSum = version.predicatedAllColumnsSum(300);
+            long predicatedSum = version.predicatedColumnSum(200, 800);
+            int field = version.getIntField(ChunkedStorage.CHUNK_ROWS + 7, 0);
+
+            t.putIntField(ChunkedStorage.CHUNK_ROWS + 7, 0, field == 0 ? 1 : 0);
+            t.predicatedUpdate(1024);
+            t.deleteRows(new int[]{0, 1, 2, ChunkedStorage.CHUNK_ROWS});
+            RowBatch batch = new RowBatch(NUM_COLS, 1);
+            batch.getData()[0] = 1000;
+            batch.setNumRows(1);
+            t.appendRows(batch);
+            assertTrue(tableType, t.columnSum() != columnSum);
+
+            assertEquals(tableType, columnSum, version.columnSum());
+            assertEquals(tableType, allColumnsSum, version.predicatedAllColumnsSum(300));
+            assertEquals(tableType, predicatedSum, version.predicatedColumnSum(200, 800));
+            assertEquals(tableType, field, version.getIntField(ChunkedStorage.CHUNK_ROWS + 7, 0));
+            assertTrue(tableType, version.isDeleted(3));
+            assertEquals(tableType, 1, version.getNumDeletedRows());
+            t.compact();
+            assertEquals(tableType, columnSum, version.columnSum());
+            t.unpinVersion(version);
+        }
+    }
+
+    /**
+     * Writers each raise the col0 fields of their own rows, which span adjacent
+     * stripes and two chunks, while readers scan pinned versions: no write may be
+     * lost, even when two writers copy the same chunk, and each reader's sums
+     * only ever grow.
+     */
+    @Test
+    public void testStripedPointWritesAreNotLost() throws Exception {
+        int numRows = ChunkedStorage.CHUNK_ROWS + 2 * ConcurrentTable.STRIPE_ROWS;
+        int numWriters = 4;
+        for (Table base : Arrays.<Table>asList(new ColumnTable(), new RowTable(), new CustomTable())) {
+            String tableType = base.getClass().getSimpleName();
+            ConcurrentTable t = new ConcurrentTable(base, true, 4);
+            t.load(new RandomizedLoader(13, numRows, NUM_COLS));
+            int[] expected = new int[numRows];
+            for (int rowId = 0; rowId < numRows; rowId++) {
+                expected[rowId] = Math.min(t.getIntField(rowId, 0), 1020) + 3;
+            }
+
+            List<Runnable> writers = new ArrayList<>();
+            for (int w = 0; w < numWriters; w++) {
+                int writer = w;
+                writers.add(() -> {
+                    for (int round = 1; round <= 3; round++) {
+                        for (int rowId = writer; rowId < numRows; rowId += numWriters) {
+                            t.putIntField(rowId, 0, expected[rowId] - 3 + round);
+                        }
+                    }
+                });
+            }
+            ThreadLocal<long[]> lastSeen = ThreadLocal.withInitial(() -> new long[1]);
+            race(writers, () -> {
+                long sum = t.columnSum();
+                long[] last = lastSeen.get();
+                assertTrue(tableType, sum >= last[0]);
+                last[0] = sum;
+            });
+
+            long sum = 0;
+            for (int rowId = 0; rowId < numRows; rowId++) {
+                assertEquals(tableType, expected[rowId], t.getIntField(rowId, 0));
+                sum += expected[rowId];
+            }
+            assertEquals(tableType, sum, t.columnSum());
+        }
+    }
+
+    /**
+     * Writers scatter writes over every column of their own rows of a CustomTable,
+     * more writers than it has aggregate cells, so some share a cell; queries
+     * must match a RowTable that took the same writes one at a time, before and
+     * after predicatedUpdate folds the cells in.
+     */
+    @Test
+    public void testStripedWritesKeepCustomTableAggregates() throws Exception {
+        int numRows = 10_000;
+        int numWriters = AggregateCells.NUM_CELLS + 3;
+        RandomizedLoader loader = new RandomizedLoader(17, numRows, NUM_COLS);
+        ConcurrentTable t = new ConcurrentTable(new CustomTable(), false, 8);
+        t.load(loader);
+        Table expected = new RowTable();
+        expected.load(loader);
+        // Defer some col3 updates, so that writes must store col3 net of them.
+        t.predicatedUpdate(600);
+        expected.predicatedUpdate(600);
+
+        int[][] writes = new int[numWriters][];
+        List<Runnable> writers = new ArrayList<>();
+        for (int w = 0; w < numWriters; w++) {
+            Random random = new Random(w);
+            int[] ws = new int[3 * 2_000];
+            for (int i = 0; i < ws.length; i += 3) {
+                ws[i] = random.nextInt(numRows / numWriters) * numWriters + w;
+                ws[i + 1] = random.nextInt(NUM_COLS);
+                ws[i + 2] = random.nextInt(1024);
+            }
+            writes[w] = ws;
+            writers.add(() -> {
+                for (int i = 0; i < ws.length; i += 3) {
+                    t.putIntField(ws[i], ws[i + 1], ws[i + 2]);
+                }
+            });
+        }
+        race(writers, () -> t.predicatedColumnSum(300, 700));
+        for (int[] ws : writes) {
+            for (int i = 0; i < ws.length; i += 3) {
+                expected.putIntField(ws[i], ws[i + 1], ws[i + 2]);
+            }
+        }
+
+        for (int round = 0; round < 2; round++) {
+            assertEquals(expected.columnSum(), t.columnSum());
+            assertEquals(expected.predicatedColumnSum(300, 700), t.predicatedColumnSum(300, 700));
+            assertEquals(expected.predicatedAllColumnsSum(400), t.predicatedAllColumnsSum(400));
+            for (int rowId = 0; rowId < numRows; rowId += 7) {
+                assertEquals(expected.getIntField(rowId, 3), t.getIntField(rowId, 3));
+            }
+            assertEquals(expected.predicatedUpdate(500), t.predicatedUpdate(500));
+        }
+    }
+
+    /**
+     * A background reconciler folds CustomTable's deferred col3 updates into its
+     * rows between foreground updates and point writes, which must not notice.
+     */
+    @Test
+    public void testBackgroundReconcilerKeepsCustomTableCol3() throws Exception {
+        int numRows = 3 * CustomTable.STEP_ROWS + 100;
+        RandomizedLoader loader = new RandomizedLoader(23, numRows, NUM_COLS);
+        ConcurrentTable t = new ConcurrentTable(new CustomTable());
+        t.load(loader);
+        Table expected = new RowTable();
+        expected.load(loader);
+        Random random = new Random(23);
+        try (BackgroundReconciler reconciler = new BackgroundReconciler(t)) {
+            for (int i = 0; i < 2 * CustomTable.HISTORY_CAPACITY; i++) {
+                int threshold = random.nextInt(1024);
+                assertEquals(expected.predicatedUpdate(threshold), t.predicatedUpdate(threshold));
+                int rowId = random.nextInt(numRows);
+                int colId = random.nextInt(NUM_COLS);
+                int field = random.nextInt(1024);
+                expected.putIntField(rowId, colId, field);
+                t.putIntField(rowId, colId, field);
+                if (i == CustomTable.BACKGROUND_SWEEP_START) {
+                    // Let the reconciler start a sweep before going on.
+                    for (int wait = 0; wait < 1_000 && reconciler.getSteps() == 0; wait++) {
+                        Thread.sleep(5);
+                    }
+                    assertTrue(reconciler.getSteps() > 0);
+                }
+            }
+            for (int rowId = 0; rowId < numRows; rowId++) {
+                assertEquals("row " + rowId, expected.getIntField(rowId, 3), t.getIntField(rowId, 3));
+            }
+            assertEquals(expected.predicatedAllColumnsSum(-1), t.predicatedAllColumnsSum(-1));
+        }
+    }
+
+    @Test
+    public void testWritesCopyChunksOnlyWhilePinned() {
+        ChunkedStorage storage = ChunkedStorage.allocate(2 * ChunkedStorage.CHUNK_ROWS, 2, true);
+        ByteBuffer chunk0 = storage.getChunk(0);
+        storage.putInt(0, 0, 1);
+        assertSame(chunk0, storage.getChunk(0));
+
+        ChunkedStorage version = storage.pin();
+        storage.putInt(0, 0, 2);
+        storage.putInt(1, 0, 3);
+        ByteBuffer copy = storage.getChunk(0);
+        assertNotSame(chunk0, copy);
+        assertSame(chunk0, version.getChunk(0));
+        assertEquals(1, version.getInt(0, 0));
+        assertEquals(0, version.getInt(1, 0));
+        assertEquals(3, storage.getInt(1, 0));
+        // Chunk 1 was never written, so the version still shares it.
+        assertSame(storage.getChunk(1), version.getChunk(1));
+
+        version.unpin();
+        storage.putInt(ChunkedStorage.CHUNK_ROWS, 1, 4);
+        storage.putInt(0, 0, 5);
+        assertSame(copy, storage.getChunk(0));
+        assertSame(version.getChunk(1), storage.getChunk(1));
+    }
+
+    @Test
+    public void testOptimisticReadsRetryAfterWrites() throws IOException {
+        ConcurrentTable t = new ConcurrentTable(new RowTable());
+        t.load(new RandomizedLoader(3, 100, NUM_COLS));
+        int value = t.getIntField(5, 1);
+        t.putIntField(5, 1, value + 1);
+        assertEquals(value + 1, t.getIntField(5, 1));
+        // Without a concurrent writer, no read needs the lock.
+        assertEquals(2, t.getOptimisticReads());
+        assertEquals(0, t.getOptimisticRetries());
+    }
+}
@@ -2,9 +2,12 @@ package memstore.table;
 
 import memstore.data.CSVLoader;
 import memstore.data.DataLoader;
+import memstore.data.RandomizedLoader;
+import memstore.data.RowBatch;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.Random;
 
 import static org.junit.Assert.*;
 
@@ -29,4 +32,78 @@ public class CustomTableTest {
         assertEquals(9, ct.predicatedUpdate(3));
         assertEquals(360, ct.predicatedAllColumnsSum(-1));
     }
-}
\ No newline at end of file
+
+    /**
+     * Runs enough predicatedUpdates for several sweeps to fold the history into
+     * the rows, with writes, appends, deletes and explicit steps landing while
+     * a sweep is halfway through, and checks col3 against a RowTable.
+     */
+    @Test
+    public void testIncrementalReconciliation() throws IOException {
+        int numRows = 3 * CustomTable.STEP_ROWS + 100;
+        CustomTable ct = new CustomTable();
+        RowTable expected = new RowTable();
+        ct.load(new RandomizedLoader(3, numRows, 6));
+        expected.load(new RandomizedLoader(3, numRows, 6));
+        Random random = new Random(3);
+        for (int i = 0; i < 3 * CustomTable.HISTORY_CAPACITY; i++) {
+            int threshold = random.nextInt(1025);
+            assertEquals(expected.predicatedUpdate(threshold), ct.predicatedUpdate(threshold));
+            int rowId = random.nextInt(expected.getNumRows());
+            int colId = random.nextInt(6);
+            int field = random.nextInt(1024);
+            expected.putIntField(rowId, colId, field);
+            ct.putIntField(rowId, colId, field);
+            if (i % 7 == 0) {
+                ct.reconcileStep();
+            }
+            if (i % 500 == 0) {
+                RowBatch batch = new RowBatch(6, 3);
+                batch.setNumRows(3);
+                for (int j = 0; j < batch.getData().length; j++) {
+                    batch.getData()[j] = random.nextInt(1024);
+                }
+                expected.appendRows(batch);
+                ct.appendRows(batch);
+                int[] deleted = {random.nextInt(expected.getNumRows())};
+                expected.deleteRows(deleted);
+                ct.deleteRows(deleted);
+            }
+            if (i % 250 == 0 || ct.sweep_epoch > 0) {
+                assertEquals(expected.predicatedAllColumnsSum(-1), ct.predicatedAllColumnsSum(-1));
+                for (int row = i % 13; row < expected.getNumRows(); row += 97) {
+                    if (!expected.isDeleted(row)) {
+                        assertEquals("row " + row + " after " + i, expected.getIntField(row, 3), ct.getIntField(row, 3));
+                    }
+                }
+            }
+        }
+        for (int row = 0; row < expected.getNumRows(); row++) {
+            if (!expected.isDeleted(row)) {
+                assertEquals("row " + row, expected.getIntField(row, 3), ct.getIntField(row, 3));
+            }
+        }
+    }
+
+    /**
+     * predicatedUpdate leaves a sweep started by reconcileStep alone until the
+     * history holds SWEEP_START updates, and only then sweeps rows itself.
+     */
+    @Test
+    public void testUpdatesLeaveSweepToReconcileStep() throws IOException {
+        CustomTable ct = new CustomTable();
+        ct.load(new RandomizedLoader(3, 3 * CustomTable.STEP_ROWS + 100, 6));
+        Random random = new Random(3);
+        while (ct.predict_update_history.position() < CustomTable.BACKGROUND_SWEEP_START) {
+            ct.predicatedUpdate(random.nextInt(1025));
+        }
+        assertTrue(ct.reconcileStep());
+        assertEquals(CustomTable.STEP_ROWS, ct.swept_rows);
+        while (ct.predict_update_history.position() < CustomTable.SWEEP_START) {
+            ct.predicatedUpdate(random.nextInt(1025));
+            assertEquals(CustomTable.STEP_ROWS, ct.swept_rows);
+        }
+        ct.predicatedUpdate(random.nextInt(1025));
+        assertTrue(ct.swept_rows > CustomTable.STEP_ROWS);
+    }
+}
@@ -0,0 +1,288 @@
+package memstore.table;
+
+import memstore.data.ByteFormat;
+import memstore.data.RandomizedLoader;
+import memstore.data.RowBatch;
+import memstore.query.CompareOp;
+import memstore.query.Predicate;
+import memstore.query.ScanQuery;
+import memstore.stats.TableStatistics;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests that deleted rows disappear from every query, index and aggregate, both
+ * while they are tombstoned and after the table compacts them away.
+ */
+public class DeleteRowsTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    static final int SEED = 5;
+    static final int NUM_COLS = 6;
+    /** Spans a chunk boundary. */
+    static final int NUM_ROWS = ChunkedStorage.CHUNK_ROWS + 3_000;
+    static final ScanQuery QUERY = new ScanQuery(new int[]{0, 3, 5},
+            new Predicate(1, CompareOp.GE, 100), new Predicate(3, CompareOp.LT, 900));
+
+    private static List<Table> tables() {
+        return Arrays.asList(
+                new ColumnTable(),
+                new RowTable(),
+                new IndexedRowTable(0),
+                new IndexedRowTable(1),
+                new IndexedRowTable(3),
+                new CustomTable(),
+                new CachingTable(new ColumnTable(), 16)
+        );
+    }
+
+    private static List<int[]> readRows(RandomizedLoader loader) throws IOException {
+        List<int[]> rows = new ArrayList<>();
+        for (ByteBuffer row : loader.getRows()) {
+            int[] fields = new int[NUM_COLS];
+            for (int colId = 0; colId < NUM_COLS; colId++) {
+                fields[colId] = row.getInt(ByteFormat.FIELD_LEN * colId);
+            }
+            rows.add(fields);
+        }
+        return rows;
+    }
+
+    /**
+     * Rows to delete: isolated rows, a run covering whole bitmap words and
+     * crossing the chunk boundary, and the last row.
+     */
+    private static int[] scatteredRows() {
+        List<Integer> rowIds = new ArrayList<>();
+        for (int rowId = 0; rowId < NUM_ROWS; rowId += 7) {
+            rowIds.add(rowId);
+        }
+        for (int rowId = ChunkedStorage.CHUNK_ROWS - 300; rowId < ChunkedStorage.CHUNK_ROWS + 200; rowId++) {
+            if (rowId % 7 != 0) {
+                rowIds.add(rowId);
+            }
+        }
+        rowIds.add(NUM_ROWS - 1);
+        return rowIds.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Checks every query against a brute-force evaluation over `live`, which
+     * holds the rows that should remain, by row id.
+     */
+    private static void assertAnswers(String tableType, Table t, List<int[]> live) {
+        long columnSum = 0;
+        long predicatedColumnSum = 0;
+        long predicatedAllColumnsSum = 0;
+        long query = 0;
+        for (int[] row : live) {
+            columnSum += row[0];
+            if (row[1] > 300 && row[2] < 700) {
+                predicatedColumnSum += row[0];
+            }
+            if (row[0] > 300) {
+                for (int field : row) {
+                    predicatedAllColumnsSum += field;
+                }
+            }
+            if (row[1] >= 100 && row[3] < 900) {
+                query += row[0] + row[3] + row[5];
+            }
+        }
+        assertEquals(tableType, columnSum, t.columnSum());
+        assertEquals(tableType, predicatedColumnSum, t.predicatedColumnSum(300, 700));
+        assertEquals(tableType, predicatedAllColumnsSum, t.predicatedAllColumnsSum(300));
+        assertEquals(tableType, query, t.execute(QUERY));
+    }
+
+    @Test
+    public void testQueriesSkipDeletedRows() throws IOException {
+        RandomizedLoader loader = new RandomizedLoader(SEED, NUM_ROWS, NUM_COLS);
+        List<int[]> rows = readRows(loader);
+        int[] toDelete = scatteredRows();
+
+        for (Table t : tables()) {
+            String tableType = t.getClass().getSimpleName();
+            t.load(loader);
+            t.setCompactionThreshold(1.0);
+            assertEquals(tableType, toDelete.length, t.deleteRows(toDelete));
+            assertFalse(tableType, t.deleteRow(0));
+            assertEquals(tableType, NUM_ROWS, t.getNumRows());
+            assertEquals(tableType, toDelete.length, t.getNumDeletedRows());
+
+            List<int[]> live = new ArrayList<>();
+            for (int rowId = 0; rowId < NUM_ROWS; rowId++) {
+                if (!t.isDeleted(rowId)) {
+                    live.add(rows.get(rowId));
+                }
+            }
+            assertEquals(tableType, NUM_ROWS - toDelete.length, live.size());
+            assertAnswers(tableType, t, live);
+
+            // Deleted rows are neither updated nor counted, and ignore writes.
+            int updated = 0;
+            for (int[] row : live) {
+                if (row[0] < 500) {
+                    updated++;
+                }
+            }
+            assertEquals(tableType, updated, t.predicatedUpdate(500));
+            t.putIntField(0, 0, 1000);
+            t.putIntField(7, 1, 1000);
+            List<int[]> updatedRows = new ArrayList<>();
+            for (int[] row : live) {
+                int[] copy = row.clone();
+                if (copy[0] < 500) {
+                    copy[3] += copy[2];
+                }
+                updatedRows.add(copy);
+            }
+            assertAnswers(tableType, t, updatedRows);
+        }
+    }
+
+    @Test
+    public void testDeleteWhereAndCompaction() throws IOException {
+        RandomizedLoader loader = new RandomizedLoader(SEED, NUM_ROWS, NUM_COLS);
+        List<int[]> rows = readRows(loader);
+        List<int[]> live = new ArrayList<>();
+        for (int[] row : rows) {
+            if (!(row[0] < 300 && row[2] >= 500)) {
+                live.add(row);
+            }
+        }
+
+        for (Table t : tables()) {
+            String tableType = t.getClass().getSimpleName();
+            t.load(loader);
+            t.setCompactionThreshold(0.1);
+            t.predicatedUpdate(200);
+            int deleted = t.deleteWhere(new Predicate(0, CompareOp.LT, 300), new Predicate(2, CompareOp.GE, 500));
+            assertEquals(tableType, NUM_ROWS - live.size(), deleted);
+            // About 15% of the rows go, which is past the threshold.
+            assertEquals(tableType, 0, t.getNumDeletedRows());
+            assertEquals(tableType, live.size(), t.getNumRows());
+            assertEquals(tableType, live.size(), t.getStatistics().getNumRows());
+
+            List<int[]> expected = new ArrayList<>();
+            for (int[] row : live) {
+                int[] copy = row.clone();
+                if (copy[0] < 200) {
+                    copy[3] += copy[2];
+                }
+                expected.add(copy);
+            }
+            for (int rowId = 0; rowId < expected.size(); rowId++) {
+                for (int colId = 0; colId < NUM_COLS; colId++) {
+                    assertEquals(tableType, expected.get(rowId)[colId], t.getIntField(rowId, colId));
+                }
+            }
+            assertAnswers(tableType, t, expected);
+
+            // The compacted table keeps taking appends, updates and deletes.
+            RowBatch batch = new RowBatch(NUM_COLS, 1);
+            batch.getData()[0] = 10;
+            batch.getData()[2] = 20;
+            batch.setNumRows(1);
+            t.appendRows(batch);
+            expected.add(Arrays.copyOf(batch.getData(), NUM_COLS));
+            t.putIntField(1, 0, 900);
+            expected.get(1)[0] = 900;
+            assertTrue(tableType, t.deleteRow(2));
+            expected.remove(2);
+            t.compact();
+            assertEquals(tableType, expected.size(), t.getNumRows());
+            assertAnswers(tableType, t, expected);
+        }
+    }
+
+    /**
+     * Deleting more rows than TableStatistics.REBUILD_FRACTION, with compaction
+     * held off, rebuilds the statistics; the rebuild must skip the tombstoned rows.
+     */
+    @Test
+    public void testStatisticsRebuildSkipsDeletedRows() throws IOException {
+        RandomizedLoader loader = new RandomizedLoader(SEED, NUM_ROWS, NUM_COLS);
+        int live = 0;
+        for (int[] row : readRows(loader)) {
+            if (row[0] >= 512) {
+                live++;
+            }
+        }
+
+        for (Table t : tables()) {
+            String tableType = t.getClass().getSimpleName();
+            t.load(loader);
+            t.setCompactionThreshold(0.9);
+            int deleted = t.deleteWhere(new Predicate(0, CompareOp.LT, 512));
+            assertEquals(tableType, NUM_ROWS - live, deleted);
+            assertEquals(tableType, deleted, t.getNumDeletedRows());
+
+            TableStatistics stats = t.getStatistics();
+            assertTrue(tableType, stats.estimateMatches(0, CompareOp.LT, 512) < 0.01 * live);
+            assertEquals(tableType, live, stats.estimateMatches(0, CompareOp.GE, 512), 0.01 * live);
+            assertEquals(tableType, live, stats.estimateMatches(1, CompareOp.GE, 0), 0.01 * live);
+        }
+    }
+
+    @Test
+    public void testSnapshotHoldsLiveRows() throws IOException {
+        RandomizedLoader loader = new RandomizedLoader(SEED, NUM_ROWS, NUM_COLS);
+        List<int[]> rows = readRows(loader);
+        int[] toDelete = scatteredRows();
+        List<int[]> live = new ArrayList<>(rows);
+        for (int i = toDelete.length - 1; i >= 0; i--) {
+            live.set(toDelete[i], null);
+        }
+        live.removeIf(row -> row == null);
+
+        List<Table> restored = tables();
+        int i = 0;
+        for (Table t : tables()) {
+            String tableType = t.getClass().getSimpleName();
+            t.load(loader);
+            t.setCompactionThreshold(1.0);
+            t.deleteRows(toDelete);
+            String path = folder.newFile().getPath();
+            t.saveSnapshot(path);
+            Table copy = restored.get(i++);
+            copy.restoreSnapshot(path);
+            assertEquals(tableType, live.size(), copy.getNumRows());
+            assertEquals(tableType, 0, copy.getNumDeletedRows());
+            assertAnswers(tableType, copy, live);
+        }
+    }
+
+    @Test
+    public void testBadRowIdsAreRejected() throws IOException {
+        for (Table t : tables()) {
+            String tableType = t.getClass().getSimpleName();
+            t.load(new RandomizedLoader(SEED, 100, NUM_COLS));
+            try {
+                t.deleteRow(100);
+                fail(tableType + " deleted a row past the end of the table");
+            } catch (IndexOutOfBoundsException expected) {
+                assertEquals(tableType, 0, t.getNumDeletedRows());
+            }
+            try {
+                t.setCompactionThreshold(0);
+                fail(tableType + " accepted a compaction threshold of 0");
+            } catch (IllegalArgumentException expected) {
+                // expected
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package memstore.table;
+
+import memstore.data.RandomizedLoader;
+import memstore.query.CompareOp;
+import memstore.query.Predicate;
+import memstore.query.Query;
+import memstore.query.ScanQuery;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * Tests that executeBatch returns what the same queries return one at a time,
+ * with reads fused across chunk and block boundaries and updates mid-batch
+ * seen by the reads after them.
+ */
+public class ExecuteBatchTest {
+    static final int NUM_ROWS = 2 * ChunkedStorage.CHUNK_ROWS + 5_000;
+    static final int NUM_COLS = 6;
+
+    private static final List<Query> BATCH = Arrays.asList(
+            Query.columnSum(),
+            Query.predicatedColumnSum(300, 700),
+            Query.predicatedAllColumnsSum(512),
+            Query.scan(new ScanQuery(new int[]{0, 4}, new Predicate(3, CompareOp.LE, 200))),
+            Query.predicatedUpdate(400),
+            Query.columnSum(),
+            Query.predicatedUpdate(100),
+            Query.predicatedColumnSum(10, 1000),
+            Query.predicatedAllColumnsSum(0),
+            Query.columnSum(),
+            Query.predicatedUpdate(900));
+
+    private static Table load(Table t) throws IOException {
+        t.load(new RandomizedLoader(17, NUM_ROWS, NUM_COLS));
+        return t;
+    }
+
+    private static long[] sequential(Table t, List<Query> queries) {
+        long[] results = new long[queries.size()];
+        for (int i = 0; i < results.length; i++) {
+            results[i] = t.execute(queries.get(i));
+        }
+        return results;
+    }
+
+    private static void checkBatch(Supplier<Table> newTable) throws IOException {
+        Table expected = load(newTable.get());
+        Table actual = load(newTable.get());
+        assertArrayEquals(sequential(expected, BATCH), actual.executeBatch(BATCH));
+        // Both tables took the same updates, so they must still agree.
+        List<Query> reads = BATCH.subList(0, 4);
+        assertArrayEquals(sequential(expected, reads), actual.executeBatch(reads));
+    }
+
+    @Test
+    public void testColumnTable() throws IOException {
+        checkBatch(ColumnTable::new);
+    }
+
+    @Test
+    public void testRowTable() throws IOException {
+        checkBatch(RowTable::new);
+    }
+
+    @Test
+    public void testOtherTablesRunBatchesInOrder() throws IOException {
+        checkBatch(CustomTable::new);
+        checkBatch(() -> new IndexedRowTable(0));
+        checkBatch(() -> new ConcurrentTable(new ColumnTable(), true, ConcurrentTable.DEFAULT_WRITE_STRIPES));
+    }
+
+    @Test
+    public void testFusedReadsSkipDeletedRows() throws IOException {
+        int[] deleted = {0, 7, ChunkedStorage.CHUNK_ROWS - 1, ChunkedStorage.CHUNK_ROWS, NUM_ROWS - 1};
+        ColumnTable expected = (ColumnTable) load(new ColumnTable());
+        ColumnTable actual = (ColumnTable) load(new ColumnTable());
+        expected.deleteRows(deleted);
+        actual.deleteRows(deleted);
+        assertArrayEquals(sequential(expected, BATCH), actual.executeBatch(BATCH));
+    }
+}
@@ -0,0 +1,70 @@
+package memstore.table;
+
+import memstore.data.CSVLoader;
+import memstore.data.DataLoader;
+import memstore.query.CompareOp;
+import memstore.query.Predicate;
+import memstore.query.QueryCompiler;
+import memstore.query.ScanQuery;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests that ad-hoc scan queries return the same answers as the
+ * hand-written queries, on every table implementation.
+ */
+public class ExecuteQueryTest {
+    DataLoader dl;
+
+    public ExecuteQueryTest() {
+        dl = new CSVLoader(
+                "src/main/resources/test.csv",
+                5
+        );
+    }
+
+    @Test
+    public void testBuiltInQueries() throws IOException {
+        List<Table> tables = Arrays.asList(
+                new RowTable(),
+                new ColumnTable(),
+                new IndexedRowTable(1),
+                new CustomTable()
+        );
+        for (Table t : tables) {
+            String tableType = t.getClass().getSimpleName();
+            t.load(dl);
+            assertEquals(tableType, 68, t.execute(new ScanQuery(new int[]{0})));
+            assertEquals(tableType, 49, t.execute(new ScanQuery(
+                    new int[]{0},
+                    new Predicate(1, CompareOp.GT, 3),
+                    new Predicate(2, CompareOp.LT, 5))));
+            assertEquals(tableType, 166, t.execute(new ScanQuery(
+                    new int[]{0, 1, 2, 3, 4},
+                    new Predicate(0, CompareOp.GT, 3))));
+        }
+    }
+
+    @Test
+    public void testKernelsAreCachedByShape() throws IOException {
+        RowTable rt = new RowTable();
+        rt.load(dl);
+        ColumnTable ct = new ColumnTable();
+        ct.load(dl);
+        for (int threshold = -1; threshold < 10; threshold++) {
+            ScanQuery query = new ScanQuery(
+                    new int[]{2, 4},
+                    new Predicate(3, CompareOp.LE, threshold));
+            assertEquals(rt.execute(query), ct.execute(query));
+            int compiled = QueryCompiler.cacheSize();
+            rt.execute(query);
+            ct.execute(query);
+            assertEquals(compiled, QueryCompiler.cacheSize());
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package memstore.table;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import memstore.data.RandomizedLoader;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests that the bulk index build matches inserting rows one at a time, for
+ * key domains sorted by counting and by comparison, around deleted rows.
+ */
+public class IndexBuilderTest {
+    static final int NUM_COLS = 3;
+    /** Spans a few chunks, so several tasks share each posting list. */
+    static final int NUM_ROWS = 3 * ChunkedStorage.CHUNK_ROWS + 123;
+
+    private static TreeMap<Integer, IntArrayList> rowByRow(ChunkedStorage rows, int colId, Tombstones deleted) {
+        TreeMap<Integer, IntArrayList> index = new TreeMap<Integer, IntArrayList>();
+        for (int rowId = 0; rowId < rows.getNumRows(); rowId++) {
+            if (!deleted.isDeleted(rowId)) {
+                index.computeIfAbsent(rows.getInt(rowId, colId), key -> new IntArrayList()).add(rowId);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Fills column 1 with keys from [low, low + range) and column 2 with keys
+     * spread over the whole int range, including negatives.
+     */
+    private static ChunkedStorage storage(int low, int range) {
+        Random random = new Random(13);
+        int[] data = new int[NUM_ROWS * NUM_COLS];
+        for (int rowId = 0; rowId < NUM_ROWS; rowId++) {
+            data[rowId * NUM_COLS] = rowId;
+            data[rowId * NUM_COLS + 1] = low + random.nextInt(range);
+            data[rowId * NUM_COLS + 2] = random.nextInt() >> random.nextInt(32);
+        }
+        ChunkedStorage rows = new ChunkedStorage(NUM_COLS, false);
+        rows.append(data, 0, NUM_ROWS);
+        return rows;
+    }
+
+    @Test
+    public void testMatchesRowByRow() {
+        ChunkedStorage rows = storage(-500, 1000);
+        Tombstones none = new Tombstones();
+        for (int colId = 0; colId < NUM_COLS; colId++) {
+            assertEquals(rowByRow(rows, colId, none), IndexBuilder.build(rows, colId, none));
+        }
+        // The widest domain still sorted by counting.
+        rows = storage(Integer.MAX_VALUE - IndexBuilder.MAX_COUNTING_RANGE + 1, IndexBuilder.MAX_COUNTING_RANGE);
+        assertEquals(rowByRow(rows, 1, none), IndexBuilder.build(rows, 1, none));
+    }
+
+    @Test
+    public void testSkipsDeletedRows() {
+        ChunkedStorage rows = storage(0, 10);
+        Tombstones deleted = new Tombstones();
+        for (int rowId = 0; rowId < NUM_ROWS; rowId += 3) {
+            deleted.delete(rowId, NUM_ROWS);
+        }
+        for (int rowId = ChunkedStorage.CHUNK_ROWS; rowId < 2 * ChunkedStorage.CHUNK_ROWS; rowId++) {
+            deleted.delete(rowId, NUM_ROWS);
+        }
+        for (int colId = 0; colId < NUM_COLS; colId++) {
+            assertEquals(rowByRow(rows, colId, deleted), IndexBuilder.build(rows, colId, deleted));
+        }
+    }
+
+    /**
+     * Posting lists from the bulk build must keep taking writes and appends.
+     */
+    @Test
+    public void testIndexedTableAfterBulkBuild() throws IOException {
+        IndexedRowTable t = new IndexedRowTable(1);
+        RowTable expected = new RowTable();
+        RandomizedLoader loader = new RandomizedLoader(3, 5_000, 4);
+        t.load(loader);
+        expected.load(loader);
+        for (int rowId = 0; rowId < 5_000; rowId += 11) {
+            t.putIntField(rowId, 1, rowId % 1024);
+            expected.putIntField(rowId, 1, rowId % 1024);
+        }
+        t.rebuildIndex();
+        t.putIntField(0, 1, 2000);
+        expected.putIntField(0, 1, 2000);
+        for (int threshold : new int[]{0, 100, 900, 1500}) {
+            assertEquals(expected.predicatedColumnSum(threshold, 600), t.predicatedColumnSum(threshold, 600));
+        }
+    }
+}
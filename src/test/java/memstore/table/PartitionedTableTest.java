@@ -0,0 +1,161 @@
+package memstore.table;
+
+import memstore.data.RandomizedLoader;
+import memstore.data.RowBatch;
+import memstore.query.CompareOp;
+import memstore.query.Predicate;
+import memstore.query.Query;
+import memstore.query.ScanQuery;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests that a PartitionedTable answers like one ColumnTable holding the same
+ * rows, through writes, appends, deletes and compaction, for both ways of
+ * partitioning and partition counts that do and do not divide the row count.
+ */
+public class PartitionedTableTest {
+    static final int NUM_ROWS = 10_003;
+    static final int NUM_COLS = 5;
+
+    private static void checkSame(Table expected, Table actual) {
+        assertEquals(expected.getNumRows(), actual.getNumRows());
+        assertEquals(expected.getNumDeletedRows(), actual.getNumDeletedRows());
+        assertEquals(expected.columnSum(), actual.columnSum());
+        for (int threshold = 0; threshold < 1024; threshold += 97) {
+            assertEquals(expected.predicatedColumnSum(threshold, 1023 - threshold), actual.predicatedColumnSum(threshold, 1023 - threshold));
+            assertEquals(expected.predicatedAllColumnsSum(threshold), actual.predicatedAllColumnsSum(threshold));
+        }
+        ScanQuery query = new ScanQuery(new int[]{1, 4}, new Predicate(3, CompareOp.GE, 512));
+        assertEquals(expected.execute(query), actual.execute(query));
+        for (int rowId = 0; rowId < expected.getNumRows(); rowId += 101) {
+            assertEquals(expected.isDeleted(rowId), actual.isDeleted(rowId));
+            if (!expected.isDeleted(rowId)) {
+                assertEquals(expected.getIntField(rowId, 3), actual.getIntField(rowId, 3));
+            }
+        }
+    }
+
+    private static void checkPartitioning(int numPartitions, PartitionedTable.Partitioning partitioning) throws IOException {
+        ColumnTable expected = new ColumnTable();
+        try (PartitionedTable actual = new PartitionedTable(RowTable::new, numPartitions, partitioning)) {
+            expected.load(new RandomizedLoader(5, NUM_ROWS, NUM_COLS));
+            actual.load(new RandomizedLoader(5, NUM_ROWS, NUM_COLS));
+            checkSame(expected, actual);
+
+            Random random = new Random(numPartitions);
+            for (int i = 0; i < 2_000; i++) {
+                int rowId = random.nextInt(NUM_ROWS);
+                int colId = random.nextInt(NUM_COLS);
+                int value = random.nextInt(1024);
+                expected.putIntField(rowId, colId, value);
+                actual.putIntField(rowId, colId, value);
+            }
+            int[] rowIds = {3, 3, NUM_ROWS - 1, 17};
+            int[] colIds = {0, 0, 2, 4};
+            int[] values = {1, 2, 3, 4};
+            expected.putIntFields(rowIds, colIds, values);
+            actual.putIntFields(rowIds, colIds, values);
+            expected.putRow(42, new int[]{9, 8, 7, 6, 5});
+            actual.putRow(42, new int[]{9, 8, 7, 6, 5});
+            assertEquals(expected.predicatedUpdate(300), actual.predicatedUpdate(300));
+            checkSame(expected, actual);
+
+            RowBatch batch = new RowBatch(NUM_COLS, 7);
+            batch.setNumRows(7);
+            for (int i = 0; i < batch.getData().length; i++) {
+                batch.getData()[i] = i * 37 % 1024;
+            }
+            expected.appendRows(batch);
+            actual.appendRows(batch);
+            checkSame(expected, actual);
+
+            List<Query> queries = Arrays.asList(Query.columnSum(), Query.predicatedUpdate(500),
+                    Query.predicatedColumnSum(100, 900), Query.predicatedAllColumnsSum(10));
+            assertArrayEquals(expected.executeBatch(queries), actual.executeBatch(queries));
+
+            // Deleting a third of the rows crosses the compaction threshold and renumbers them.
+            int[] deleted = new int[(NUM_ROWS + 7) / 3];
+            for (int i = 0; i < deleted.length; i++) {
+                deleted[i] = i * 3;
+            }
+            assertEquals(expected.deleteRows(new int[]{1}), actual.deleteRows(new int[]{1}));
+            checkSame(expected, actual);
+            assertEquals(expected.deleteRows(deleted), actual.deleteRows(deleted));
+            assertEquals(expected.deleteWhere(new Predicate(0, CompareOp.LT, 20)), actual.deleteWhere(new Predicate(0, CompareOp.LT, 20)));
+            checkSame(expected, actual);
+        }
+    }
+
+    @Test
+    public void testHashPartitioning() throws IOException {
+        checkPartitioning(1, PartitionedTable.Partitioning.HASH);
+        checkPartitioning(4, PartitionedTable.Partitioning.HASH);
+        checkPartitioning(7, PartitionedTable.Partitioning.HASH);
+    }
+
+    @Test
+    public void testRangePartitioning() throws IOException {
+        checkPartitioning(3, PartitionedTable.Partitioning.RANGE);
+        checkPartitioning(8, PartitionedTable.Partitioning.RANGE);
+    }
+
+    @Test
+    public void testSnapshotRoundTrip() throws IOException {
+        File file = File.createTempFile("partitioned", ".snap");
+        file.deleteOnExit();
+        try (PartitionedTable t = new PartitionedTable(ColumnTable::new, 3)) {
+            t.load(new RandomizedLoader(9, NUM_ROWS, NUM_COLS));
+            t.setCompactionThreshold(1);
+            t.deleteRows(new int[]{0, 1, 2, 500});
+            t.saveSnapshot(file.getPath());
+            ColumnTable restored = new ColumnTable();
+            restored.restoreSnapshot(file.getPath());
+            t.compact();
+            checkSame(restored, t);
+        }
+    }
+
+    @Test
+    public void testConcurrentWritersAndReaders() throws Exception {
+        int numThreads = 4;
+        ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+        try (PartitionedTable t = new PartitionedTable(ColumnTable::new, 4)) {
+            t.load(new RandomizedLoader(1, NUM_ROWS, NUM_COLS));
+            List<Future<?>> clients = new ArrayList<>();
+            for (int c = 0; c < numThreads; c++) {
+                int client = c;
+                clients.add(pool.submit(() -> {
+                    // Each client owns the rows congruent to it mod numThreads.
+                    for (int rowId = client; rowId < NUM_ROWS; rowId += numThreads) {
+                        t.putIntField(rowId, 0, 1);
+                        if (rowId % 1000 < numThreads) {
+                            assertEquals(1, t.getIntField(rowId, 0));
+                            t.predicatedColumnSum(500, 500);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> f : clients) {
+                f.get(60, TimeUnit.SECONDS);
+            }
+            assertEquals(NUM_ROWS, t.columnSum());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package memstore.table;
+
+import memstore.data.RandomizedLoader;
+import memstore.query.CompareOp;
+import memstore.query.Predicate;
+import memstore.query.ScanQuery;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests that putIntFields and putRow leave every table exactly as the
+ * equivalent sequence of putIntField calls would.
+ */
+public class PutIntFieldsTest {
+    static final int SEED = 7;
+    static final int NUM_ROWS = 2_000;
+    static final int NUM_COLS = 8;
+    /** Below and above FieldWrites.MIN_SORTED_WRITES. */
+    static final int[] BATCH_SIZES = {1, 50, 3_000};
+
+    private static List<Table> tables() {
+        return Arrays.asList(
+                new ColumnTable(),
+                new RowTable(),
+                new IndexedRowTable(0),
+                new IndexedRowTable(1),
+                new CustomTable(),
+                new CachingTable(new CustomTable(), 16)
+        );
+    }
+
+    private static void assertSameContents(String tableType, Table expected, Table actual) {
+        for (int rowId = 0; rowId < NUM_ROWS; rowId++) {
+            for (int colId = 0; colId < NUM_COLS; colId++) {
+                assertEquals(tableType, expected.getIntField(rowId, colId), actual.getIntField(rowId, colId));
+            }
+        }
+        assertEquals(tableType, expected.columnSum(), actual.columnSum());
+        for (int threshold : new int[]{0, 300, 1000}) {
+            assertEquals(tableType, expected.predicatedColumnSum(threshold, 700), actual.predicatedColumnSum(threshold, 700));
+            assertEquals(tableType, expected.predicatedAllColumnsSum(threshold), actual.predicatedAllColumnsSum(threshold));
+        }
+        ScanQuery query = new ScanQuery(new int[]{0, 3, 5},
+                new Predicate(1, CompareOp.GE, 100), new Predicate(2, CompareOp.LT, 900));
+        assertEquals(tableType, expected.execute(query), actual.execute(query));
+    }
+
+    /**
+     * Batches hit a small set of rows so that they repeat fields and rows, and
+     * write col0 often enough to move CustomTable rows between aggregates.
+     */
+    @Test
+    public void testBatchesMatchSingleWrites() throws IOException {
+        for (Table t : tables()) {
+            String tableType = t.getClass().getSimpleName();
+            Table expected = new RowTable();
+            expected.load(new RandomizedLoader(SEED, NUM_ROWS, NUM_COLS));
+            t.load(new RandomizedLoader(SEED, NUM_ROWS, NUM_COLS));
+            t.columnSum();
+            Random random = new Random(SEED);
+            for (int batchSize : BATCH_SIZES) {
+                assertEquals(tableType, expected.predicatedUpdate(400), t.predicatedUpdate(400));
+                int[] rowIds = new int[batchSize];
+                int[] colIds = new int[batchSize];
+                int[] values = new int[batchSize];
+                for (int i = 0; i < batchSize; i++) {
+                    rowIds[i] = random.nextInt(NUM_ROWS / 4);
+                    colIds[i] = random.nextInt(3) == 0 ? 0 : random.nextInt(NUM_COLS);
+                    values[i] = random.nextInt(1024);
+                    expected.putIntField(rowIds[i], colIds[i], values[i]);
+                }
+                t.putIntFields(rowIds, colIds, values);
+                assertSameContents(tableType, expected, t);
+            }
+        }
+    }
+
+    @Test
+    public void testPutRow() throws IOException {
+        for (Table t : tables()) {
+            String tableType = t.getClass().getSimpleName();
+            Table expected = new RowTable();
+            expected.load(new RandomizedLoader(SEED, NUM_ROWS, NUM_COLS));
+            t.load(new RandomizedLoader(SEED, NUM_ROWS, NUM_COLS));
+            t.predicatedUpdate(500);
+            expected.predicatedUpdate(500);
+            Random random = new Random(SEED);
+            for (int i = 0; i < 200; i++) {
+                int rowId = random.nextInt(NUM_ROWS);
+                int[] row = new int[NUM_COLS];
+                for (int colId = 0; colId < NUM_COLS; colId++) {
+                    row[colId] = random.nextInt(1024);
+                    expected.putIntField(rowId, colId, row[colId]);
+                }
+                t.putRow(rowId, row);
+            }
+            assertSameContents(tableType, expected, t);
+        }
+    }
+
+    /**
+     * On a table of 2^32 fields, whose addresses do not fit the sort keys,
+     * every write is kept, in batch order.
+     */
+    @Test
+    public void testOrderOfHugeTableKeepsBatchOrder() {
+        int numRows = 1 << 22;
+        int numCols = 1 << 10;
+        int n = 2 * FieldWrites.MIN_SORTED_WRITES;
+        int[] rowIds = new int[n];
+        int[] colIds = new int[n];
+        Random random = new Random(SEED);
+        for (int i = 0; i < n; i++) {
+            rowIds[i] = i % 2 == 0 ? numRows - 1 - random.nextInt(16) : random.nextInt(16);
+            colIds[i] = random.nextInt(numCols);
+        }
+        for (boolean rowMajor : new boolean[]{true, false}) {
+            int[] order = FieldWrites.order(rowIds, colIds, numRows, numCols, rowMajor);
+            assertEquals(n, order.length);
+            for (int i = 0; i < n; i++) {
+                assertEquals(i, order[i]);
+            }
+        }
+    }
+
+    @Test
+    public void testMismatchedLengthsAreRejected() throws IOException {
+        for (Table t : tables()) {
+            String tableType = t.getClass().getSimpleName();
+            t.load(new RandomizedLoader(SEED, NUM_ROWS, NUM_COLS));
+            try {
+                t.putIntFields(new int[]{0, 1}, new int[]{0}, new int[]{5, 6});
+                fail(tableType + " accepted batch arrays of different lengths");
+            } catch (IllegalArgumentException expected) {
+                // expected
+            }
+            try {
+                t.putRow(0, new int[NUM_COLS - 1]);
+                fail(tableType + " accepted a row with the wrong field count");
+            } catch (IllegalArgumentException expected) {
+                // expected
+            }
+        }
+    }
+}
@@ -1,14 +1,19 @@
 package memstore.table;
 
+import memstore.GraderConstants;
 import memstore.data.ByteFormat;
 import memstore.data.DataLoader;
 import memstore.data.RandomizedLoader;
+import memstore.data.RowBatch;
+import memstore.data.RowBatchReader;
 import org.junit.Test;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.List;
+import java.util.Random;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -25,4 +30,45 @@ public class RandomizedLoaderTest {
         assertTrue(rows.get(0).getInt(50* ByteFormat.FIELD_LEN) < 2000);
     }
 
-}
\ No newline at end of file
+    /**
+     * Parallel generation must reproduce java.util.Random exactly, whatever the
+     * seed, table shape or batch size, since the graded answers depend on it.
+     */
+    @Test
+    public void testMatchesSequentialRandom() throws IOException {
+        int[][] shapes = {{0, 1000, 100}, {-7, 30_000, 7}, {GraderConstants.getSeed(), 5_000, 3}, {42, 1, 1}};
+        for (int[] shape : shapes) {
+            int seed = shape[0];
+            int numRows = shape[1];
+            int numCols = shape[2];
+            DataLoader dl = new RandomizedLoader(seed, numRows, numCols);
+
+            Random random = new Random(seed);
+            int[] expected = new int[numRows * numCols];
+            for (int i = 0; i < expected.length; i++) {
+                expected[i] = random.nextInt(1024);
+            }
+
+            for (int capacity : new int[]{1, 333, 100_000}) {
+                RowBatch batch = new RowBatch(numCols, capacity);
+                int i = 0;
+                try (RowBatchReader reader = dl.openReader()) {
+                    while (reader.next(batch)) {
+                        for (int j = 0; j < batch.getNumRows() * numCols; j++) {
+                            assertEquals(expected[i++], batch.getData()[j]);
+                        }
+                    }
+                }
+                assertEquals(expected.length, i);
+            }
+
+            List<ByteBuffer> rows = dl.getRows();
+            assertEquals(numRows, rows.size());
+            for (int rowId = 0; rowId < numRows; rowId++) {
+                for (int colId = 0; colId < numCols; colId++) {
+                    assertEquals(expected[rowId * numCols + colId], rows.get(rowId).getInt(ByteFormat.FIELD_LEN * colId));
+                }
+            }
+        }
+    }
+}
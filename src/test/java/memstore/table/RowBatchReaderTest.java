@@ -0,0 +1,250 @@
+package memstore.table;
+
+import memstore.data.CSVLoader;
+import memstore.data.DataLoader;
+import memstore.data.MappedCSVLoader;
+import memstore.data.PipelineStats;
+import memstore.data.PipelinedCSVLoader;
+import memstore.data.RandomizedLoader;
+import memstore.data.RowBatch;
+import memstore.data.RowBatchReader;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests that streaming readers produce the same rows, in the same order,
+ * as the materialized getRows() API, whatever the batch size.
+ */
+public class RowBatchReaderTest {
+    private static void checkReader(DataLoader dl, int batchRows) throws IOException {
+        List<ByteBuffer> rows = dl.getRows();
+        assertEquals(rows.size(), dl.getNumRows());
+        RowBatch batch = new RowBatch(dl.getNumCols(), batchRows);
+        int rowId = 0;
+        try (RowBatchReader reader = dl.openReader()) {
+            while (reader.next(batch)) {
+                for (int i = 0; i < batch.getNumRows(); i++, rowId++) {
+                    for (int colId = 0; colId < dl.getNumCols(); colId++) {
+                        assertEquals(rows.get(rowId).getInt(4 * colId), batch.get(i, colId));
+                    }
+                }
+            }
+            assertFalse(reader.next(batch));
+        }
+        assertEquals(rows.size(), rowId);
+    }
+
+    @Test
+    public void testCSVReader() throws IOException {
+        DataLoader dl = new CSVLoader("src/main/resources/test.csv", 5);
+        assertEquals(20, dl.getNumRows());
+        for (int batchRows = 1; batchRows <= 21; batchRows++) {
+            checkReader(dl, batchRows);
+        }
+    }
+
+    @Test
+    public void testRandomizedReader() throws IOException {
+        DataLoader dl = new RandomizedLoader(0, 1000, 7);
+        checkReader(dl, 1);
+        checkReader(dl, 333);
+        checkReader(dl, 1000);
+        checkReader(dl, 4096);
+    }
+
+    private static void checkSameRows(DataLoader expected, DataLoader actual, int batchRows) throws IOException {
+        assertEquals(expected.getNumRows(), actual.getNumRows());
+        List<ByteBuffer> rows = expected.getRows();
+        RowBatch batch = new RowBatch(actual.getNumCols(), batchRows);
+        int rowId = 0;
+        try (RowBatchReader reader = actual.openReader()) {
+            while (reader.next(batch)) {
+                for (int i = 0; i < batch.getNumRows(); i++, rowId++) {
+                    for (int colId = 0; colId < actual.getNumCols(); colId++) {
+                        assertEquals(rows.get(rowId).getInt(4 * colId), batch.get(i, colId));
+                    }
+                }
+            }
+        }
+        assertEquals(rows.size(), rowId);
+    }
+
+    private static File writeTempCSV(String contents) throws IOException {
+        File file = File.createTempFile("mapped", ".csv");
+        file.deleteOnExit();
+        try (Writer out = new FileWriter(file)) {
+            out.write(contents);
+        }
+        return file;
+    }
+
+    @Test
+    public void testMappedCSVReader() throws IOException {
+        String path = "src/main/resources/test.csv";
+        DataLoader expected = new CSVLoader(path, 5);
+        for (int chunkBytes : new int[]{1, 7, 64, MappedCSVLoader.DEFAULT_CHUNK_BYTES}) {
+            DataLoader dl = new MappedCSVLoader(path, 5, ForkJoinPool.commonPool(), chunkBytes);
+            checkReader(dl, 3);
+            checkSameRows(expected, dl, 7);
+        }
+    }
+
+    /**
+     * Writes 5000 rows of 4 random fields, with negative and quoted values, extra
+     * fields, \r\n line endings and empty lines mixed in.
+     */
+    private static File writeMessyCSV() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        DataLoader source = new RandomizedLoader(1, 5000, 4);
+        RowBatch batch = new RowBatch(4, 5000);
+        try (RowBatchReader reader = source.openReader()) {
+            reader.next(batch);
+        }
+        for (int row = 0; row < 5000; row++) {
+            for (int col = 0; col < 4; col++) {
+                if (col > 0) sb.append(',');
+                int value = row % 3 == 0 ? -batch.get(row, col) : batch.get(row, col);
+                sb.append(row % 5 == 0 ? "\"" + value + "\"" : Integer.toString(value));
+            }
+            sb.append(row % 7 == 0 ? ",99\r\n" : "\n");
+            if (row % 11 == 0) sb.append("\n");
+        }
+        return writeTempCSV(sb.toString());
+    }
+
+    @Test
+    public void testMappedCSVReaderManyChunks() throws IOException {
+        File file = writeMessyCSV();
+        DataLoader expected = new CSVLoader(file.getPath(), 4);
+        DataLoader dl = new MappedCSVLoader(file.getPath(), 4, ForkJoinPool.commonPool(), 1000);
+        assertEquals(5000, dl.getNumRows());
+        checkSameRows(expected, dl, 1);
+        checkSameRows(expected, dl, 4096);
+        file.delete();
+    }
+
+    @Test
+    public void testPipelinedCSVReader() throws IOException {
+        String path = "src/main/resources/test.csv";
+        DataLoader expected = new CSVLoader(path, 5);
+        // Blocks shorter than a line have to grow to fit it.
+        for (int blockBytes : new int[]{1, 7, 64, PipelinedCSVLoader.DEFAULT_BLOCK_BYTES}) {
+            DataLoader dl = new PipelinedCSVLoader(path, 5, 3, blockBytes, 2);
+            checkReader(dl, 3);
+            checkSameRows(expected, dl, 7);
+        }
+
+        File file = writeMessyCSV();
+        expected = new CSVLoader(file.getPath(), 4);
+        for (int numParsers : new int[]{1, 4}) {
+            DataLoader dl = new PipelinedCSVLoader(file.getPath(), 4, numParsers, 1000, 1);
+            assertEquals(5000, dl.getNumRows());
+            checkSameRows(expected, dl, 1);
+            checkSameRows(expected, dl, 4096);
+        }
+        file.delete();
+    }
+
+    /**
+     * Loads a table through the pipeline, with parsers racing each other, and
+     * checks the blocks all reached the store stage in order.
+     */
+    @Test
+    public void testPipelinedCSVLoad() throws IOException {
+        File file = writeMessyCSV();
+        RowTable expected = new RowTable();
+        expected.load(new CSVLoader(file.getPath(), 4));
+        PipelinedCSVLoader dl = new PipelinedCSVLoader(file.getPath(), 4, 4, 512, 2);
+        RowTable t = new RowTable();
+        t.load(dl);
+        assertEquals(expected.getNumRows(), t.getNumRows());
+        for (int rowId = 0; rowId < t.getNumRows(); rowId++) {
+            for (int colId = 0; colId < 4; colId++) {
+                assertEquals(expected.getIntField(rowId, colId), t.getIntField(rowId, colId));
+            }
+        }
+
+        PipelineStats stats = dl.getLastStats();
+        List<PipelineStats.Stage> stages = stats.getStages();
+        assertEquals(3, stages.size());
+        long blocks = stages.get(0).getItems();
+        assertTrue(blocks > 100);
+        for (PipelineStats.Stage stage : stages) {
+            assertEquals(stage.getName(), blocks, stage.getItems());
+            assertTrue(stage.getName(), stats.getUtilization(stage) <= 1.0);
+        }
+        for (PipelineStats.Queue queue : stats.getQueues()) {
+            assertTrue(queue.getName(), queue.getMaxDepth() <= queue.getCapacity());
+        }
+        file.delete();
+    }
+
+    /**
+     * Reads a row at a time, so the parsers run far ahead of the store stage;
+     * blocks read but not yet stored must stay within the pipeline's window.
+     */
+    @Test
+    public void testPipelinedCSVReaderBoundsBlocksInFlight() throws IOException {
+        File file = writeMessyCSV();
+        int numParsers = 4;
+        int queueDepth = 1;
+        PipelinedCSVLoader dl = new PipelinedCSVLoader(file.getPath(), 4, numParsers, 256, queueDepth);
+        RowBatch batch = new RowBatch(4, 1);
+        int rows = 0;
+        try (RowBatchReader reader = dl.openReader()) {
+            List<PipelineStats.Stage> stages = dl.getLastStats().getStages();
+            while (reader.next(batch)) {
+                rows += batch.getNumRows();
+                // Read the read stage's count first: the store stage's only grows.
+                long read = stages.get(0).getItems();
+                long stored = stages.get(2).getItems();
+                assertTrue(read + " read, " + stored + " stored", read - stored <= 2 * queueDepth + numParsers + 1);
+            }
+        }
+        assertEquals(5000, rows);
+        file.delete();
+    }
+
+    @Test
+    public void testMappedCSVReaderRejectsShortRows() throws IOException {
+        File file = writeTempCSV("1,2,3\n4,5\n");
+        DataLoader dl = new MappedCSVLoader(file.getPath(), 3);
+        RowBatch batch = new RowBatch(3, 16);
+        try (RowBatchReader reader = dl.openReader()) {
+            reader.next(batch);
+            fail("expected a parse error");
+        } catch (IOException e) {
+            // expected
+        }
+        file.delete();
+    }
+
+    @Test
+    public void testPipelinedCSVLoadRejectsShortRows() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int row = 0; row < 1000; row++) {
+            sb.append(row == 700 ? "4,5\n" : "1,2,3\n");
+        }
+        File file = writeTempCSV(sb.toString());
+        DataLoader dl = new PipelinedCSVLoader(file.getPath(), 3, 2, 64, 1);
+        try {
+            new ColumnTable().load(dl);
+            fail("expected a parse error");
+        } catch (IOException e) {
+            // expected
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,104 @@
+package memstore.table;
+
+import memstore.data.RandomizedLoader;
+import memstore.query.CompareOp;
+import memstore.query.Predicate;
+import memstore.query.ScanQuery;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests that queries answered by the shared scan match the table's own
+ * answers, however they join the sweep, and that queries submitted together
+ * share its passes.
+ */
+public class SharedScannerTest {
+    static final int NUM_ROWS = 3 * ChunkedStorage.CHUNK_ROWS + 1_000;
+    static final int NUM_COLS = 6;
+
+    private static ColumnTable loadTable() throws IOException {
+        ColumnTable t = new ColumnTable();
+        t.load(new RandomizedLoader(21, NUM_ROWS, NUM_COLS));
+        t.setCompactionThreshold(1);
+        t.deleteRows(new int[]{0, 5, ChunkedStorage.CHUNK_ROWS - 1, ChunkedStorage.CHUNK_ROWS, NUM_ROWS - 1});
+        return t;
+    }
+
+    @Test
+    public void testConcurrentSubmitsMatchTable() throws Exception {
+        ColumnTable t = loadTable();
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try (SharedScanner scanner = new SharedScanner(t)) {
+            List<Future<?>> clients = new ArrayList<>();
+            for (int c = 0; c < 4; c++) {
+                int client = c;
+                clients.add(pool.submit(() -> {
+                    for (int i = 0; i < 10; i++) {
+                        int threshold1 = (client * 97 + i * 131) % 1024;
+                        int threshold2 = (client * 61 + i * 17) % 1024;
+                        assertEquals(t.predicatedColumnSum(threshold1, threshold2),
+                                (long) scanner.submitPredicatedColumnSum(threshold1, threshold2).get(60, TimeUnit.SECONDS));
+                        ScanQuery query = new ScanQuery(new int[]{0, 4}, new Predicate(3, CompareOp.LE, threshold1));
+                        assertEquals(t.execute(query), (long) scanner.submit(query).get(60, TimeUnit.SECONDS));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> f : clients) {
+                f.get(60, TimeUnit.SECONDS);
+            }
+            assertEquals(80, scanner.getQueriesAnswered());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testQueriesSubmittedTogetherSharePasses() throws Exception {
+        ColumnTable t = loadTable();
+        int numChunks = t.columns.getNumChunks();
+        try (SharedScanner scanner = new SharedScanner(t)) {
+            // The first query compiles the kernel the others reuse.
+            scanner.submitPredicatedColumnSum(0, 0).get(60, TimeUnit.SECONDS);
+            long before = scanner.getChunksScanned();
+
+            List<ScanQuery> queries = new ArrayList<>();
+            for (int i = 0; i < 32; i++) {
+                queries.add(new ScanQuery(new int[]{0},
+                        new Predicate(1, CompareOp.GT, i * 30),
+                        new Predicate(2, CompareOp.LT, 1000 - i * 30)));
+            }
+            List<CompletableFuture<Long>> results = scanner.submitAll(queries);
+            for (int i = 0; i < 32; i++) {
+                assertEquals(t.predicatedColumnSum(i * 30, 1000 - i * 30), (long) results.get(i).get(60, TimeUnit.SECONDS));
+            }
+            // The batch joined the idle sweep at one boundary: exactly one revolution.
+            assertEquals(numChunks, scanner.getChunksScanned() - before);
+        }
+    }
+
+    @Test
+    public void testRejectsQueriesOnceClosed() throws Exception {
+        SharedScanner scanner = new SharedScanner(loadTable());
+        scanner.close();
+        try {
+            scanner.submitPredicatedColumnSum(1, 2).get(60, TimeUnit.SECONDS);
+            fail("query answered by a closed scanner");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package memstore.table;
+
+import memstore.data.DataLoader;
+import memstore.data.RandomizedLoader;
+import memstore.query.CompareOp;
+import memstore.stats.TableStatistics;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests that snapshots restore tables exactly, within and across table kinds,
+ * and that corrupted snapshots are rejected.
+ */
+public class SnapshotTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    DataLoader dl;
+
+    public SnapshotTest() {
+        dl = new RandomizedLoader(0, 2_000, 10);
+    }
+
+    private static void mutate(Table t) {
+        Random random = new Random(1);
+        for (int i = 0; i < 200; i++) {
+            t.putIntField(random.nextInt(t.getNumRows()), random.nextInt(t.getNumCols()), random.nextInt(1024));
+        }
+        t.predicatedUpdate(300);
+        t.putIntField(5, 0, 17);
+        t.predicatedUpdate(700);
+    }
+
+    private static void assertSameContents(Table expected, Table actual) {
+        assertEquals(expected.getNumRows(), actual.getNumRows());
+        assertEquals(expected.getNumCols(), actual.getNumCols());
+        for (int rowId = 0; rowId < expected.getNumRows(); rowId++) {
+            for (int colId = 0; colId < expected.getNumCols(); colId++) {
+                assertEquals(expected.getIntField(rowId, colId), actual.getIntField(rowId, colId));
+            }
+        }
+        assertEquals(expected.columnSum(), actual.columnSum());
+        assertEquals(expected.predicatedColumnSum(300, 700), actual.predicatedColumnSum(300, 700));
+        assertEquals(expected.predicatedAllColumnsSum(500), actual.predicatedAllColumnsSum(500));
+    }
+
+    private void checkRoundTrip(Supplier<Table> from, Supplier<Table> to) throws IOException {
+        Table source = from.get();
+        source.load(dl);
+        mutate(source);
+        String path = folder.newFile().getPath();
+        source.saveSnapshot(path);
+
+        Table restored = to.get();
+        restored.restoreSnapshot(path);
+        assertSameContents(source, restored);
+
+        // The restored table keeps accepting writes and updates.
+        mutate(source);
+        mutate(restored);
+        assertSameContents(source, restored);
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        checkRoundTrip(RowTable::new, RowTable::new);
+        checkRoundTrip(ColumnTable::new, ColumnTable::new);
+        checkRoundTrip(() -> new IndexedRowTable(1), () -> new IndexedRowTable(1));
+        checkRoundTrip(CustomTable::new, CustomTable::new);
+        checkRoundTrip(() -> new CachingTable(new RowTable(), 8), () -> new CachingTable(new RowTable(), 8));
+    }
+
+    @Test
+    public void testStatisticsAreRestored() throws IOException {
+        ColumnTable ct = new ColumnTable();
+        ct.load(dl);
+        mutate(ct);
+        String path = folder.newFile().getPath();
+        ct.saveSnapshot(path);
+        ColumnTable restored = new ColumnTable();
+        restored.restoreSnapshot(path);
+
+        TableStatistics expected = ct.getStatistics();
+        TableStatistics actual = restored.getStatistics();
+        for (int colId = 0; colId < ct.getNumCols(); colId++) {
+            assertEquals(expected.getColumn(colId).getMin(), actual.getColumn(colId).getMin());
+            assertEquals(expected.getColumn(colId).getMax(), actual.getColumn(colId).getMax());
+            assertEquals(expected.getColumn(colId).getDistinctCount(), actual.getColumn(colId).getDistinctCount());
+            for (int value = 0; value < 1024; value += 100) {
+                assertEquals(expected.estimateMatches(colId, CompareOp.LT, value),
+                        actual.estimateMatches(colId, CompareOp.LT, value), 0.0);
+            }
+        }
+    }
+
+    @Test
+    public void testAcrossTableKinds() throws IOException {
+        checkRoundTrip(RowTable::new, ColumnTable::new);
+        checkRoundTrip(ColumnTable::new, RowTable::new);
+        checkRoundTrip(ColumnTable::new, CustomTable::new);
+        checkRoundTrip(CustomTable::new, () -> new IndexedRowTable(2));
+        checkRoundTrip(() -> new IndexedRowTable(1), () -> new IndexedRowTable(2));
+        checkRoundTrip(() -> new IndexedRowTable(2), CustomTable::new);
+    }
+
+    @Test
+    public void testCorruptSnapshotIsRejected() throws IOException {
+        RowTable rt = new RowTable();
+        rt.load(dl);
+        File file = folder.newFile();
+        rt.saveSnapshot(file.getPath());
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            long pos = raf.length() - 100;
+            raf.seek(pos);
+            int b = raf.read();
+            raf.seek(pos);
+            raf.write(b ^ 1);
+        }
+        try {
+            new RowTable().restoreSnapshot(file.getPath());
+            fail("expected a checksum error");
+        } catch (IOException e) {
+            // expected
+        }
+
+        File notSnapshot = folder.newFile();
+        try {
+            new ColumnTable().restoreSnapshot(notSnapshot.getPath());
+            fail("expected a header error");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
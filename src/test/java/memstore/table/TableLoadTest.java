@@ -2,14 +2,19 @@ package memstore.table;
 
 import memstore.data.CSVLoader;
 import memstore.data.DataLoader;
+import memstore.data.MappedCSVLoader;
 import memstore.data.RandomizedLoader;
+import memstore.data.RowBatchReader;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
 /**
  * Tests the `load` and the `getIntField` of different table implementations.
@@ -49,4 +54,54 @@ public class TableLoadTest {
             assertEquals(tableType, 141, t.getIntField(46, 92));
         }
     }
+
+    /**
+     * Loads every table through the loaders' direct (possibly parallel) path and
+     * checks each field against the materialized rows.
+     */
+    @Test
+    public void testDirectLoad() throws IOException {
+        List<DataLoader> loaders = Arrays.asList(
+                new RandomizedLoader(3, 50_000, 7),
+                new MappedCSVLoader("src/main/resources/test.csv", 5, ForkJoinPool.commonPool(), 16)
+        );
+        for (DataLoader dl : loaders) {
+            List<ByteBuffer> rows = dl.getRows();
+            List<Table> tables = Arrays.asList(
+                    new ColumnTable(),
+                    new RowTable(),
+                    new IndexedRowTable(1),
+                    new CustomTable()
+            );
+            for (Table t : tables) {
+                String tableType = t.getClass().getSimpleName();
+                t.load(dl);
+                assertEquals(tableType, rows.size(), t.getNumRows());
+                for (int rowId = 0; rowId < rows.size(); rowId++) {
+                    for (int colId = 0; colId < dl.getNumCols(); colId++) {
+                        assertEquals(tableType, rows.get(rowId).getInt(4 * colId), t.getIntField(rowId, colId));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testShortLoaderIsRejected() {
+        RandomizedLoader random = new RandomizedLoader(0, 100, 4);
+        // Declares one row more than it produces.
+        DataLoader dl = new DataLoader() {
+            public int getNumCols() { return 4; }
+            public int getNumRows() { return 101; }
+            public RowBatchReader openReader() { return random.openReader(); }
+        };
+        for (Table t : Arrays.asList(new ColumnTable(), new RowTable(), new IndexedRowTable(0), new CustomTable())) {
+            try {
+                t.load(dl);
+                fail(t.getClass().getSimpleName() + " accepted a short loader");
+            } catch (IOException e) {
+                // expected
+            }
+        }
+    }
 }
@@ -0,0 +1,88 @@
+package memstore.table;
+
+import memstore.data.DataLoader;
+import memstore.data.RandomizedLoader;
+import memstore.query.CompareOp;
+import memstore.query.Predicate;
+import memstore.stats.ColumnStatistics;
+import memstore.stats.TableStatistics;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests that column statistics are built at load time and follow writes.
+ */
+public class TableStatisticsTest {
+    static final int NUM_ROWS = 20_000;
+    DataLoader dl;
+
+    public TableStatisticsTest() {
+        dl = new RandomizedLoader(0, NUM_ROWS, 5);
+    }
+
+    private static int countMatches(Table t, int colId, CompareOp op, int value) {
+        int count = 0;
+        for (int rowId = 0; rowId < t.getNumRows(); rowId++) {
+            if (op.test(t.getIntField(rowId, colId), value)) count++;
+        }
+        return count;
+    }
+
+    @Test
+    public void testLoadStatistics() throws IOException {
+        List<Table> tables = Arrays.asList(
+                new RowTable(),
+                new ColumnTable(),
+                new IndexedRowTable(0),
+                new CustomTable()
+        );
+        for (Table t : tables) {
+            String tableType = t.getClass().getSimpleName();
+            t.load(dl);
+            TableStatistics stats = t.getStatistics();
+            ColumnStatistics col1 = stats.getColumn(1);
+            assertEquals(tableType, 0, col1.getMin());
+            assertEquals(tableType, 1023, col1.getMax());
+            assertEquals(tableType, 1024, col1.getDistinctCount(), 1024 * 0.1);
+            assertEquals(tableType, NUM_ROWS, col1.getHistogram().getTotal());
+            for (int t1 = 0; t1 < 1024; t1 += 100) {
+                assertEquals(tableType, countMatches(t, 1, CompareOp.GT, t1),
+                        stats.estimateMatches(1, CompareOp.GT, t1), NUM_ROWS * 0.02);
+            }
+            assertEquals(tableType, 0.5,
+                    stats.estimateSelectivity(new Predicate(2, CompareOp.LT, 512)), 0.02);
+        }
+    }
+
+    @Test
+    public void testStatisticsFollowWrites() throws IOException {
+        List<Table> tables = Arrays.asList(
+                new RowTable(),
+                new ColumnTable(),
+                new IndexedRowTable(1),
+                new CustomTable()
+        );
+        for (Table t : tables) {
+            String tableType = t.getClass().getSimpleName();
+            t.load(dl);
+            for (int rowId = 0; rowId < NUM_ROWS / 2; rowId++) {
+                t.putIntField(rowId, 1, rowId % 100);
+            }
+            t.predicatedUpdate(300);
+            t.predicatedUpdate(700);
+            TableStatistics stats = t.getStatistics();
+            assertEquals(tableType, NUM_ROWS, stats.getColumn(1).getHistogram().getTotal());
+            assertEquals(tableType, countMatches(t, 1, CompareOp.LT, 100),
+                    stats.estimateMatches(1, CompareOp.LT, 100), NUM_ROWS * 0.02);
+            for (int t3 = 0; t3 < 3000; t3 += 250) {
+                assertEquals(tableType, countMatches(t, 3, CompareOp.GT, t3),
+                        stats.estimateMatches(3, CompareOp.GT, t3), NUM_ROWS * 0.03);
+            }
+        }
+    }
+}